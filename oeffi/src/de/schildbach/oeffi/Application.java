@@ -17,6 +17,7 @@
 
 package de.schildbach.oeffi;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
@@ -29,7 +30,11 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 import de.schildbach.oeffi.directions.QueryHistoryProvider;
+import de.schildbach.oeffi.plans.PlanContentProvider;
+import de.schildbach.oeffi.plans.PlanTilePyramid;
 import de.schildbach.oeffi.stations.FavoriteStationsProvider;
+import de.schildbach.oeffi.util.DiskQuota;
+import de.schildbach.oeffi.util.Downloader;
 import de.schildbach.oeffi.util.ErrorReporter;
 import de.schildbach.pte.NetworkId;
 import okhttp3.OkHttpClient;
@@ -41,11 +46,16 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public class Application extends android.app.Application {
     private PackageInfo packageInfo;
     private OkHttpClient okHttpClient;
+    private Downloader downloader;
+    private DiskQuota diskQuota;
 
     private static final Logger log = LoggerFactory.getLogger(Application.class);
 
@@ -80,8 +90,11 @@ public class Application extends android.app.Application {
         interceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
         builder.addNetworkInterceptor(interceptor);
         okHttpClient = builder.build();
+        downloader = new Downloader(getCacheDir(), new File(getFilesDir(), Downloader.META_JOURNAL_FILENAME));
 
         initMaps();
+        initDiskQuota();
+        CompletableFuture.runAsync(this::refreshStaleDownloads);
 
         // 2020-11-22: delete unused downloaded station databases
         final FilenameFilter filter = (dir, name) -> name.endsWith(".db") || name.endsWith(".db.meta");
@@ -194,6 +207,53 @@ public class Application extends android.app.Application {
         config.setUserAgentValue(getPackageName());
     }
 
+    private void initDiskQuota() {
+        diskQuota = new DiskQuota(Constants.DISK_QUOTA_BYTES, new File(getFilesDir(), DiskQuota.ACCESS_LOG_FILENAME));
+        // a plan and its tile pyramid are evicted together
+        diskQuota.addArea(DiskQuota.Category.PLANS, getDir(Constants.PLANS_DIR, Context.MODE_PRIVATE),
+                name -> name.endsWith(PlanTilePyramid.DIR_SUFFIX)
+                        ? name.substring(0, name.length() - PlanTilePyramid.DIR_SUFFIX.length()) : name,
+                downloader::deleteDownload);
+        // OkHttp cache entries are made of <key>.0 and <key>.1, a missing entry file is treated as a cache miss
+        diskQuota.addArea(DiskQuota.Category.THUMBNAILS, new File(getCacheDir(), Constants.THUMBS_CACHE_DIR),
+                name -> name.startsWith("journal") || name.endsWith(".tmp") || name.indexOf('.') < 0 ? null
+                        : name.substring(0, name.indexOf('.')),
+                null);
+        // osmdroid keeps tiles in a database, which trims itself to the limits set below
+        diskQuota.addArea(DiskQuota.Category.MAP_TILES, Configuration.getInstance().getOsmdroidBasePath());
+        diskQuota.addArea(DiskQuota.Category.METADATA, new File(getFilesDir(), Downloader.META_JOURNAL_FILENAME));
+        diskQuota.addArea(DiskQuota.Category.METADATA, new File(getFilesDir(), DiskQuota.ACCESS_LOG_FILENAME));
+        trimDiskQuota();
+    }
+
+    /**
+     * Trims the disk quota in the background, then gives the map tiles whatever budget the other areas left over.
+     */
+    public void trimDiskQuota() {
+        diskQuota.trimAsync().thenAccept(this::limitMapTilesCache);
+    }
+
+    private void refreshStaleDownloads() {
+        // plan queries revalidate these anyway, but the index and stations are large enough to refresh ahead
+        final List<File> stale = downloader.staleDownloads();
+        log.info("{} stale downloads", stale.size());
+        if (stale.contains(new File(getFilesDir(), Constants.PLAN_INDEX_FILENAME).getAbsoluteFile())
+                || stale.contains(new File(getFilesDir(), Constants.PLAN_STATIONS_FILENAME).getAbsoluteFile()))
+            getContentResolver().call(PlanContentProvider.CONTENT_URI, PlanContentProvider.METHOD_REFRESH, null, null);
+    }
+
+    private void limitMapTilesCache(final Map<DiskQuota.Category, Long> usage) {
+        long other = 0;
+        for (final Map.Entry<DiskQuota.Category, Long> entry : usage.entrySet())
+            if (entry.getKey() != DiskQuota.Category.MAP_TILES)
+                other += entry.getValue();
+        final long maxBytes = Math.max(diskQuota.getBudget() - other, Constants.MIN_MAP_TILES_CACHE_BYTES);
+        final IConfigurationProvider config = Configuration.getInstance();
+        config.setTileFileSystemCacheMaxBytes(maxBytes);
+        config.setTileFileSystemCacheTrimBytes(maxBytes * 4 / 5);
+        log.info("Storage usage: {}, limiting map tiles to {} bytes", usage, maxBytes);
+    }
+
     private void migrateSelectedNetwork(final String fromName, final NetworkId to) {
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
@@ -209,6 +269,14 @@ public class Application extends android.app.Application {
         return okHttpClient;
     }
 
+    public Downloader downloader() {
+        return downloader;
+    }
+
+    public DiskQuota diskQuota() {
+        return diskQuota;
+    }
+
     public static final String versionName(final Application application) {
         return application.packageInfo().versionName;
     }
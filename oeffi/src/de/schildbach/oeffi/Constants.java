@@ -31,6 +31,9 @@ public class Constants {
     public static final String PLANS_DIR = "plans";
     public static final String PLAN_INDEX_FILENAME = "plans-index.txt";
     public static final String PLAN_STATIONS_FILENAME = "plans-stations.txt";
+    public static final String THUMBS_CACHE_DIR = "thumbs";
+    public static final long DISK_QUOTA_BYTES = 200 * 1024 * 1024;
+    public static final long MIN_MAP_TILES_CACHE_BYTES = 16 * 1024 * 1024;
 
     public static final String REPORT_EMAIL = "oeffi.app@gmail.com";
 
@@ -30,7 +30,6 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.text.format.DateUtils;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -50,9 +49,9 @@ import de.schildbach.oeffi.preference.PreferenceActivity;
 import de.schildbach.oeffi.stations.StationsActivity;
 import de.schildbach.oeffi.util.DialogBuilder;
 import de.schildbach.oeffi.util.DividerItemDecoration;
-import de.schildbach.oeffi.util.Downloader;
 import de.schildbach.oeffi.util.ErrorReporter;
 import de.schildbach.oeffi.util.Installer;
+import de.schildbach.oeffi.util.MessageRules;
 import de.schildbach.oeffi.util.NavigationMenuAdapter;
 import de.schildbach.pte.NetworkId;
 import okhttp3.Call;
@@ -67,18 +66,16 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.InputStream;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public abstract class OeffiMainActivity extends OeffiActivity {
@@ -96,6 +93,9 @@ public abstract class OeffiMainActivity extends OeffiActivity {
 
     private static final int DIALOG_MESSAGE = 102;
 
+    private static volatile MessageRules messageRules = null;
+    private static final Executor messagesExecutor = Executors.newSingleThreadExecutor();
+
     private static final Logger log = LoggerFactory.getLogger(OeffiMainActivity.class);
 
     @Override
@@ -340,152 +340,111 @@ public abstract class OeffiMainActivity extends OeffiActivity {
         remoteUrl.addQueryParameter("sdk", Integer.toString(Build.VERSION.SDK_INT));
         remoteUrl.addQueryParameter("task", taskName());
         final File localFile = new File(getFilesDir(), "messages.txt");
-        final Downloader downloader = new Downloader(getCacheDir());
-        final CompletableFuture<Integer> download = downloader.download(application.okHttpClient(), remoteUrl.build(),
-                localFile);
+        final CompletableFuture<Integer> download = application.downloader().download(application.okHttpClient(),
+                remoteUrl.build(), localFile);
         download.whenComplete((status, t) -> {
-            if (t == null) {
-                runOnUiThread(() -> processMessages(network));
-            }
+            if (t == null)
+                processMessages(network);
         });
     }
 
     private void processMessages(final String network) {
-
-        String line = null;
-        final File indexFile = new File(getFilesDir(), "messages.txt");
-        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(
-                indexFile.exists() ? new FileInputStream(indexFile) : getAssets().open("messages.txt"),
-                StandardCharsets.UTF_8))) {
-            while (true) {
-                line = reader.readLine();
-                if (line == null)
-                    break;
-                line = line.trim();
-                if (line.isEmpty() || line.charAt(0) == '#')
-                    continue;
-
-                try {
-                    if (processMessageLine(network, line))
-                        break;
-                } catch (final Exception x) {
-                    log.info("Problem parsing message '" + line + "': ", x);
-                }
+        // rules are compiled once per file version, and evaluated off the UI thread
+        CompletableFuture.runAsync(() -> {
+            final MessageRules rules = messageRules();
+            if (rules == null)
+                return;
+            final MessageRules.Rule rule = rules.pick(new MessageFacts(network));
+            if (rule != null) {
+                log.info("Picked message: '{}'", rule.line);
+                fetchAndShowMessage(rule);
             }
+        }, messagesExecutor);
+    }
+
+    private MessageRules messageRules() {
+        final File file = new File(getFilesDir(), "messages.txt");
+        final long lastModified = file.exists() ? file.lastModified() : 0;
+        final MessageRules rules = messageRules;
+        if (rules != null && rules.lastModified == lastModified)
+            return rules;
+        try (final InputStream is = lastModified != 0 ? new FileInputStream(file)
+                : getAssets().open("messages.txt")) {
+            messageRules = MessageRules.compile(is, lastModified);
+            return messageRules;
         } catch (final IOException x) {
-            // ignore
+            log.info("Problem reading messages", x);
+            return null;
         }
     }
 
-    private final Pattern PATTERN_KEY_VALUE = Pattern.compile("([\\w-]+):(.*)");
+    private class MessageFacts extends MessageRules.Facts {
+        private final String network;
+        private final long now = System.currentTimeMillis();
+        private final SharedPreferences messagesPrefs = getSharedPreferences("messages", Context.MODE_PRIVATE);
 
-    private boolean processMessageLine(final String network, final String line) throws ParseException {
-        final Iterator<String> fieldIterator = Stream.of(line.split("\\|")).map(s -> !s.trim().isEmpty() ? s.trim() : null).iterator();
-        final String id = fieldIterator.next();
-        final String conditions = fieldIterator.next();
-        final String repeat = fieldIterator.next();
-        final String action = fieldIterator.next();
-
-        // check conditions
-        if (conditions != null) {
-            final List<String> conditionsList = Stream.of(conditions.split("\\s+")).map(String::trim).collect(Collectors.toList());
-            for (final String condition : conditionsList) {
-                final String[] nameValue = condition.split(":", 2);
-                final String name = nameValue[0];
-                final String value = nameValue.length >= 2 ? nameValue[1] : null;
-
-                if (name.equals("min-sdk")) {
-                    final int minSdk = Integer.parseInt(value);
-                    if (Build.VERSION.SDK_INT < minSdk)
-                        return false;
-                } else if (name.equals("max-sdk")) {
-                    final int maxSdk = Integer.parseInt(value);
-                    if (Build.VERSION.SDK_INT > maxSdk)
-                        return false;
-                } else if (name.equals("min-version")) {
-                    final int version = Integer.parseInt(value);
-                    if (applicationVersionCode() < version)
-                        return false;
-                } else if (name.equals("max-version")) {
-                    final int version = Integer.parseInt(value);
-                    if (applicationVersionCode() > version)
-                        return false;
-                } else if (name.equals("version")) {
-                    final int version = Integer.parseInt(value);
-                    if (applicationVersionCode() >= version)
-                        return false;
-                } else if (name.equals("network")) {
-                    if (network == null || !value.equalsIgnoreCase(network))
-                        return false;
-                } else if (name.equals("lang")) {
-                    if (!value.equalsIgnoreCase(Locale.getDefault().getLanguage()))
-                        return false;
-                } else if (name.equals("task")) {
-                    if (!(taskName().equalsIgnoreCase(value)))
-                        return false;
-                } else if (name.equals("first-install-before")) {
-                    final Date date = new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse(value);
-                    if (date.getTime() >= applicationFirstInstallTime())
-                        return false;
-                } else if (name.equals("prefs-show-info")) {
-                    final boolean requiredValue = "true".equalsIgnoreCase(value);
-                    final boolean actualValue = prefs.getBoolean(Constants.PREFS_KEY_SHOW_INFO, true);
-
-                    if (actualValue != requiredValue)
-                        return false;
-                } else if (name.equals("limit-info")) {
-                    if (System.currentTimeMillis() < prefs.getLong(Constants.PREFS_KEY_LAST_INFO_AT, 0)
-                            + parseTimeExp(value))
-                        return false;
-                } else if (name.equals("installed-package")) {
-                    final List<PackageInfo> installedPackages = getPackageManager().getInstalledPackages(0);
-                    boolean match = false;
-                    loop: for (final String packageName : Stream.of(value.split(",")).map(String::trim).collect(Collectors.toList())) {
-                        for (final PackageInfo pi : installedPackages) {
-                            if (pi.packageName.equals(packageName)) {
-                                match = true;
-                                break loop;
-                            }
-                        }
-                    }
-                    if (!match)
-                        return false;
-                } else if (name.equals("not-installed-package")) {
-                    final List<PackageInfo> installedPackages = getPackageManager().getInstalledPackages(0);
-                    for (final String packageName : Stream.of(value.split(",")).map(String::trim).collect(Collectors.toList())) {
-                        for (final PackageInfo pi : installedPackages)
-                            if (pi.packageName.equals(packageName))
-                                return false;
-                    }
-                } else if (name.equals("installer")) {
-                    final String installer = Installer.installerPackageName(this);
-                    if (!value.equalsIgnoreCase(installer))
-                        return false;
-                } else if (name.equals("not-installer")) {
-                    final String installer = Installer.installerPackageName(this);
-                    if (value.equalsIgnoreCase(installer))
-                        return false;
-                } else {
-                    log.info("Unhandled condition: '{}={}'", name, value);
-                }
-            }
+        public MessageFacts(final String network) {
+            this.network = network;
         }
 
-        // check repeat
-        final SharedPreferences messagesPrefs = getSharedPreferences("messages", Context.MODE_PRIVATE);
-        if (!"always".equals(repeat)) {
-            if (repeat == null || repeat.equals("once")) {
-                if (messagesPrefs.contains(id))
-                    return false;
-            } else {
-                if (System.currentTimeMillis() < messagesPrefs.getLong(id, 0) + parseTimeExp(repeat))
-                    return false;
-            }
+        public long now() {
+            return now;
         }
 
-        log.info("Picked message: '{}'", line);
+        public int sdkInt() {
+            return Build.VERSION.SDK_INT;
+        }
+
+        public int versionCode() {
+            return versionCode;
+        }
 
-        // fetch and show message
+        public String network() {
+            return network;
+        }
+
+        public String language() {
+            return Locale.getDefault().getLanguage();
+        }
+
+        public String taskName() {
+            return OeffiMainActivity.this.taskName();
+        }
+
+        public boolean prefsShowInfo() {
+            return prefs.getBoolean(Constants.PREFS_KEY_SHOW_INFO, true);
+        }
+
+        public long lastInfoAt() {
+            return prefs.getLong(Constants.PREFS_KEY_LAST_INFO_AT, 0);
+        }
+
+        public long lastShown(final String id) {
+            return messagesPrefs.getLong(id, -1);
+        }
+
+        protected Set<String> loadInstalledPackages() {
+            final Set<String> packageNames = new HashSet<>();
+            for (final PackageInfo pi : getPackageManager().getInstalledPackages(0))
+                packageNames.add(pi.packageName);
+            return packageNames;
+        }
+
+        protected String loadInstaller() {
+            return Installer.installerPackageName(OeffiMainActivity.this);
+        }
+
+        protected long loadFirstInstallTime() {
+            return applicationFirstInstallTime();
+        }
+    }
+
+    private final Pattern PATTERN_KEY_VALUE = Pattern.compile("([\\w-]+):(.*)");
+
+    private void fetchAndShowMessage(final MessageRules.Rule rule) {
+        final String id = rule.id;
+        final String action = rule.action;
+        final SharedPreferences messagesPrefs = getSharedPreferences("messages", Context.MODE_PRIVATE);
         if ("info".equals(action) || "warning".equals(action)) {
             final HttpUrl.Builder url = Constants.MESSAGES_BASE_URL.newBuilder()
                     .addEncodedPathSegment(id + (Locale.getDefault().getLanguage().equals("de") ? "-de" : "") + ".txt");
@@ -552,8 +511,6 @@ public abstract class OeffiMainActivity extends OeffiActivity {
                 }
             });
         }
-
-        return true;
     }
 
     private Dialog messageDialog(final Bundle message) {
@@ -628,15 +585,4 @@ public abstract class OeffiMainActivity extends OeffiActivity {
                 startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(link)));
         }
     }
-
-    private long parseTimeExp(final String exp) {
-        if (exp.endsWith("h"))
-            return DateUtils.HOUR_IN_MILLIS * Integer.parseInt(exp.substring(0, exp.length() - 1));
-        else if (exp.endsWith("d"))
-            return DateUtils.DAY_IN_MILLIS * Integer.parseInt(exp.substring(0, exp.length() - 1));
-        else if (exp.endsWith("w"))
-            return DateUtils.WEEK_IN_MILLIS * Integer.parseInt(exp.substring(0, exp.length() - 1));
-        else
-            throw new IllegalArgumentException("cannot parse time expression: '" + exp + "'");
-    }
 }
@@ -24,9 +24,11 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Path.FillType;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -35,6 +37,9 @@ import android.view.animation.AnimationUtils;
 import android.widget.TextView;
 import de.schildbach.oeffi.stations.LineView;
 import de.schildbach.oeffi.stations.Station;
+import de.schildbach.oeffi.util.GeoDistances;
+import de.schildbach.oeffi.util.PathSimplifier;
+import de.schildbach.oeffi.util.PointIndex;
 import de.schildbach.oeffi.util.ZoomControls;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.Point;
@@ -45,14 +50,19 @@ import de.schildbach.pte.dto.Trip.Public;
 import org.osmdroid.api.IGeoPoint;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.PointL;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.Projection;
 import org.osmdroid.views.overlay.Overlay;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public class OeffiMapView extends MapView {
     private ZoomControls zoomControls = null;
@@ -78,6 +88,7 @@ public class OeffiMapView extends MapView {
         final LayoutInflater inflater = LayoutInflater.from(context);
 
         final float stationFontSize = res.getDimension(R.dimen.font_size_normal);
+        final float clusterFontSize = res.getDimension(R.dimen.font_size_tiny);
         final float tripStrokeWidth = res.getDimension(R.dimen.map_trip_stroke_width);
         final float tripStrokeWidthSelected = res.getDimension(R.dimen.map_trip_stroke_width_selected);
         final float tripStrokeWidthSelectedGlow = res.getDimension(R.dimen.map_trip_stroke_width_selected_glow);
@@ -99,6 +110,8 @@ public class OeffiMapView extends MapView {
         final Drawable stationFerryIcon = drawableCenter(R.drawable.product_ferry_color_22dp, 2);
         final Drawable stationCablecarIcon = drawableCenter(R.drawable.product_cablecar_color_22dp, 2);
         final Drawable stationCallIcon = drawableCenter(R.drawable.product_call_color_22dp, 2);
+        // stations closer than the size of a marker are merged into one
+        final float stationClusterSize = stationDefaultIcon.getIntrinsicWidth();
 
         zoomControlsAnimation = AnimationUtils.loadAnimation(context, R.anim.zoom_controls);
         zoomControlsAnimation.setFillAfter(true); // workaround: set through code because XML does not work
@@ -111,83 +124,121 @@ public class OeffiMapView extends MapView {
         setMaxZoomLevel(Constants.MAP_MAX_ZOOM_LEVEL);
 
         getOverlays().add(new Overlay() {
+            private final android.graphics.Point point = new android.graphics.Point();
+            private final PointL projected = new PointL();
+            private final Paint areaPaint = new Paint();
+            private final Paint pathPaint = new Paint();
+
+            // geometry cache, invalidated when the data changes
+            private Point[] area = null;
+            private ProjectedPath areaPath = null;
+            private final Point[] fromViaTo = new Point[3];
+            private ProjectedPath fromViaToPath = null;
+            private Trip trip = null;
+            private final Map<Leg, ProjectedPath> legPaths = new IdentityHashMap<>();
+            private Leg lineViewLeg = null;
+            private LineView lineView = null;
+
+            // stations as last indexed, to detect changes of the list
+            private int stationsCount = 0;
+            private Station[] listedStations = null;
+            private Location[] listedLocations = null;
+            private PointIndex stationIndex = null;
+            private Station[] indexedStations = null;
+            private int[] visibleStations = null, clusterStations = null, clusterSizes = null;
+            private final Paint clusterPaint = new Paint();
+            private final Paint clusterTextPaint = new Paint();
+            private final String[] clusterSizeTexts = new String[101];
+            private Station bubbleStation = null;
+            private String bubbleName = null;
+            private TextView bubble = null;
+
+            {
+                areaPaint.setAntiAlias(true);
+                areaPaint.setStyle(Paint.Style.FILL);
+                areaPaint.setColor(AREA_FILL_COLOR);
+
+                pathPaint.setAntiAlias(true);
+                pathPaint.setStyle(Paint.Style.STROKE);
+                pathPaint.setStrokeJoin(Paint.Join.ROUND);
+                pathPaint.setStrokeCap(Paint.Cap.ROUND);
+
+                clusterPaint.setAntiAlias(true);
+                clusterPaint.setStyle(Paint.Style.FILL);
+                clusterPaint.setColor(Color.DKGRAY);
+
+                clusterTextPaint.setAntiAlias(true);
+                clusterTextPaint.setColor(Color.WHITE);
+                clusterTextPaint.setTypeface(Typeface.DEFAULT_BOLD);
+                clusterTextPaint.setTextAlign(Paint.Align.CENTER);
+                clusterTextPaint.setTextSize(clusterFontSize);
+            }
+
             @Override
             public void draw(final Canvas canvas, final MapView mapView, final boolean shadow) {
                 if (!shadow) {
                     final Projection projection = mapView.getProjection();
-                    final android.graphics.Point point = new android.graphics.Point();
 
                     if (areaAware != null) {
                         final Point[] area = areaAware.getArea();
-                        if (area != null) {
-                            final Paint paint = new Paint();
-                            paint.setAntiAlias(true);
-                            paint.setStyle(Paint.Style.FILL);
-                            paint.setColor(AREA_FILL_COLOR);
-
-                            final Path path = pointsToPath(projection, area);
-                            path.close();
-
-                            path.setFillType(FillType.INVERSE_WINDING);
-
-                            canvas.drawPath(path, paint);
+                        if (area != this.area) {
+                            this.area = area;
+                            areaPath = area != null ? new ProjectedPath(projection, Arrays.asList(area), true) : null;
                         }
+                        if (areaPath != null)
+                            drawPath(canvas, projection, areaPath, areaPaint);
                     }
 
                     if (fromViaToAware != null) {
-                        final List<Point> path = new ArrayList<>(3);
                         final Point from = fromViaToAware.getFrom();
-                        if (from != null)
-                            path.add(from);
                         final Point via = fromViaToAware.getVia();
-                        if (via != null)
-                            path.add(via);
                         final Point to = fromViaToAware.getTo();
-                        if (to != null)
-                            path.add(to);
-
-                        if (path.size() >= 2) {
-                            final Paint paint = new Paint();
-                            paint.setAntiAlias(true);
-                            paint.setStyle(Paint.Style.STROKE);
-                            paint.setStrokeJoin(Paint.Join.ROUND);
-                            paint.setStrokeCap(Paint.Cap.ROUND);
-
-                            paint.setColor(Color.DKGRAY);
-                            paint.setAlpha(92);
-                            paint.setStrokeWidth(tripStrokeWidth);
-                            canvas.drawPath(pointsToPath(projection, path), paint);
+                        if (fromViaToPath == null || !Objects.equals(from, fromViaTo[0])
+                                || !Objects.equals(via, fromViaTo[1]) || !Objects.equals(to, fromViaTo[2])) {
+                            fromViaTo[0] = from;
+                            fromViaTo[1] = via;
+                            fromViaTo[2] = to;
+                            final List<Point> path = new ArrayList<>(3);
+                            for (final Point p : fromViaTo)
+                                if (p != null)
+                                    path.add(p);
+                            fromViaToPath = new ProjectedPath(projection, path, false);
+                        }
+
+                        if (fromViaToPath.size() >= 2) {
+                            pathPaint.setColor(Color.DKGRAY);
+                            pathPaint.setAlpha(92);
+                            pathPaint.setStrokeWidth(tripStrokeWidth);
+                            drawPath(canvas, projection, fromViaToPath, pathPaint);
                         }
 
                         if (from != null) {
-                            projection.toPixels(new GeoPoint(from.getLatAsDouble(), from.getLonAsDouble()), point);
+                            toPixels(projection, from.getLatAsDouble(), from.getLonAsDouble());
                             drawAt(canvas, startIcon, point.x, point.y, false, 0);
                         }
 
                         if (to != null) {
-                            projection.toPixels(new GeoPoint(to.getLatAsDouble(), to.getLonAsDouble()), point);
+                            toPixels(projection, to.getLatAsDouble(), to.getLonAsDouble());
                             drawAt(canvas, endIcon, point.x, point.y, false, 0);
                         }
                     }
 
                     if (tripAware != null) {
                         final Trip trip = tripAware.getTrip();
-
-                        final Paint paint = new Paint();
-                        paint.setAntiAlias(true);
-                        paint.setStyle(Paint.Style.STROKE);
-                        paint.setStrokeJoin(Paint.Join.ROUND);
-                        paint.setStrokeCap(Paint.Cap.ROUND);
+                        if (trip != this.trip) {
+                            this.trip = trip;
+                            legPaths.clear();
+                            for (final Leg leg : trip.legs)
+                                legPaths.put(leg, new ProjectedPath(projection, leg.path, false));
+                        }
 
                         // first paint all unselected legs
                         for (final Trip.Leg leg : trip.legs) {
                             if (!tripAware.isSelectedLeg(leg)) {
-                                final Path path = pointsToPath(projection, leg.path);
-
-                                paint.setColor(leg instanceof Public ? Color.RED : Color.DKGRAY);
-                                paint.setAlpha(92);
-                                paint.setStrokeWidth(tripStrokeWidth);
-                                canvas.drawPath(path, paint);
+                                pathPaint.setColor(leg instanceof Public ? Color.RED : Color.DKGRAY);
+                                pathPaint.setAlpha(92);
+                                pathPaint.setStrokeWidth(tripStrokeWidth);
+                                drawPath(canvas, projection, legPaths.get(leg), pathPaint);
                             }
                         }
 
@@ -195,17 +246,17 @@ public class OeffiMapView extends MapView {
                         for (final Trip.Leg leg : trip.legs) {
                             if (tripAware.isSelectedLeg(leg)) {
                                 final List<Point> points = leg.path;
-                                final Path path = pointsToPath(projection, points);
+                                final ProjectedPath path = legPaths.get(leg);
 
-                                paint.setColor(Color.GREEN);
-                                paint.setAlpha(92);
-                                paint.setStrokeWidth(tripStrokeWidthSelectedGlow);
-                                canvas.drawPath(path, paint);
+                                pathPaint.setColor(Color.GREEN);
+                                pathPaint.setAlpha(92);
+                                pathPaint.setStrokeWidth(tripStrokeWidthSelectedGlow);
+                                drawPath(canvas, projection, path, pathPaint);
 
-                                paint.setColor(leg instanceof Public ? Color.RED : Color.DKGRAY);
-                                paint.setAlpha(128);
-                                paint.setStrokeWidth(tripStrokeWidthSelected);
-                                canvas.drawPath(path, paint);
+                                pathPaint.setColor(leg instanceof Public ? Color.RED : Color.DKGRAY);
+                                pathPaint.setAlpha(128);
+                                pathPaint.setStrokeWidth(tripStrokeWidthSelected);
+                                drawPath(canvas, projection, path, pathPaint);
 
                                 if (leg instanceof Public && !points.isEmpty()) {
                                     final Public publicLeg = (Public) leg;
@@ -228,12 +279,15 @@ public class OeffiMapView extends MapView {
                                         lat = 0;
                                         lon = 0;
                                     }
-                                    projection.toPixels(new GeoPoint(lat, lon), point);
-
-                                    final LineView lineView = (LineView) inflater.inflate(R.layout.map_trip_line, null);
-                                    lineView.setLine(publicLeg.line);
-                                    lineView.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
-                                            MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                                    toPixels(projection, lat, lon);
+
+                                    if (leg != lineViewLeg) {
+                                        lineViewLeg = leg;
+                                        lineView = (LineView) inflater.inflate(R.layout.map_trip_line, null);
+                                        lineView.setLine(publicLeg.line);
+                                        lineView.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
+                                                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                                    }
                                     final int width = lineView.getMeasuredWidth();
                                     final int height = lineView.getMeasuredHeight();
                                     lineView.layout(point.x - width / 2, point.y - height / 2, point.x + width / 2,
@@ -258,32 +312,23 @@ public class OeffiMapView extends MapView {
                                 final Point lastPoint = leg.path.get(leg.path.size() - 1);
 
                                 if (firstPoint == lastPoint) {
-                                    projection.toPixels(
-                                            new GeoPoint(firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble()),
-                                            point);
+                                    toPixels(projection, firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble());
                                     drawAt(canvas, startIcon, point.x, point.y, false, 0);
                                 } else if (leg == firstLeg || leg == lastLeg) {
                                     if (leg == firstLeg) {
-                                        projection.toPixels(
-                                                new GeoPoint(firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble()),
-                                                point);
+                                        toPixels(projection, firstPoint.getLatAsDouble(),
+                                                firstPoint.getLonAsDouble());
                                         drawAt(canvas, startIcon, point.x, point.y, false, 0);
                                     }
 
                                     if (leg == lastLeg) {
-                                        projection.toPixels(
-                                                new GeoPoint(lastPoint.getLatAsDouble(), lastPoint.getLonAsDouble()),
-                                                point);
+                                        toPixels(projection, lastPoint.getLatAsDouble(), lastPoint.getLonAsDouble());
                                         drawAt(canvas, endIcon, point.x, point.y, false, 0);
                                     }
                                 } else {
-                                    projection.toPixels(
-                                            new GeoPoint(firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble()),
-                                            point);
+                                    toPixels(projection, firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble());
                                     drawAt(canvas, pointIcon, point.x, point.y, false, 0);
-                                    projection.toPixels(
-                                            new GeoPoint(lastPoint.getLatAsDouble(), lastPoint.getLonAsDouble()),
-                                            point);
+                                    toPixels(projection, lastPoint.getLatAsDouble(), lastPoint.getLonAsDouble());
                                     drawAt(canvas, pointIcon, point.x, point.y, false, 0);
                                 }
                             }
@@ -293,16 +338,14 @@ public class OeffiMapView extends MapView {
                     if (locationAware != null) {
                         final Point deviceLocation = locationAware.getDeviceLocation();
                         if (deviceLocation != null) {
-                            projection.toPixels(
-                                    new GeoPoint(deviceLocation.getLatAsDouble(), deviceLocation.getLonAsDouble()),
-                                    point);
+                            toPixels(projection, deviceLocation.getLatAsDouble(), deviceLocation.getLonAsDouble());
                             drawAt(canvas, deviceLocationIcon, point.x, point.y, false, 0);
                         }
 
                         final Location referenceLocation = locationAware.getReferenceLocation();
                         if (referenceLocation != null) {
-                            projection.toPixels(new GeoPoint(referenceLocation.getLatAsDouble(),
-                                    referenceLocation.getLonAsDouble()), point);
+                            toPixels(projection, referenceLocation.getLatAsDouble(),
+                                    referenceLocation.getLonAsDouble());
                             drawAt(canvas, referenceLocationIcon, point.x, point.y, false, 0);
                         }
                     }
@@ -310,54 +353,65 @@ public class OeffiMapView extends MapView {
                     if (stationsAware != null) {
                         final List<Station> stations = stationsAware.getStations();
                         if (stations != null) {
+                            if (stationsChanged(stations))
+                                indexStations(projection, stations);
+
+                            // cull to the visible area, widened to whole clusters so their sizes do not change
+                            // while panning
+                            final double powerDifference = projection.getProjectedPowerDifference();
+                            final double clusterSize = stationClusterSize * powerDifference;
+                            final BoundingBox box = projection.getBoundingBox();
+                            projection.toProjectedPixels(box.getLatNorth(), box.getLonWest(), projected);
+                            final double x1 = projected.x, y1 = projected.y;
+                            projection.toProjectedPixels(box.getLatSouth(), box.getLonEast(), projected);
+                            final double x2 = projected.x, y2 = projected.y;
+                            final double minX = Math.floor(Math.min(x1, x2) / clusterSize - 1) * clusterSize;
+                            final double minY = Math.floor(Math.min(y1, y2) / clusterSize - 1) * clusterSize;
+                            final double maxX = Math.ceil(Math.max(x1, x2) / clusterSize + 1) * clusterSize;
+                            final double maxY = Math.ceil(Math.max(y1, y2) / clusterSize + 1) * clusterSize;
+                            int visibleCount = stationIndex.query(minX, minY, maxX, maxY, visibleStations);
+
+                            // the selected station is drawn on its own, so leave it out of the clusters
                             Station selectedStation = null;
-
-                            for (final Station station : stations) {
-                                if (station.location.hasCoord()) {
-                                    projection.toPixels(new GeoPoint(station.location.getLatAsDouble(),
-                                            station.location.getLonAsDouble()), point);
-
-                                    if (stationsAware.isSelectedStation(station.location.id))
-                                        selectedStation = station;
-
-                                    final Product product = station.getRelevantProduct();
-                                    if (product == null)
-                                        drawAt(canvas, stationDefaultIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.HIGH_SPEED_TRAIN)
-                                        drawAt(canvas, stationHighspeedIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.REGIONAL_TRAIN)
-                                        drawAt(canvas, stationTrainIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.SUBURBAN_TRAIN)
-                                        drawAt(canvas, stationSuburbanIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.SUBWAY)
-                                        drawAt(canvas, stationSubwayIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.TRAM)
-                                        drawAt(canvas, stationTramIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.BUS)
-                                        drawAt(canvas, stationBusIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.FERRY)
-                                        drawAt(canvas, stationFerryIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.CABLECAR)
-                                        drawAt(canvas, stationCablecarIcon, point.x, point.y, false, 0);
-                                    else if (product == Product.ON_DEMAND)
-                                        drawAt(canvas, stationCallIcon, point.x, point.y, false, 0);
-                                    else
-                                        drawAt(canvas, stationDefaultIcon, point.x, point.y, false, 0);
+                            for (int i = 0; i < visibleCount; i++) {
+                                final Station station = indexedStations[visibleStations[i]];
+                                if (stationsAware.isSelectedStation(station.location.id)) {
+                                    selectedStation = station;
+                                    visibleStations[i] = visibleStations[--visibleCount];
+                                    break;
                                 }
                             }
 
+                            final int clusterCount = stationIndex.cluster(visibleStations, visibleCount,
+                                    clusterSize, clusterStations, clusterSizes);
+                            for (int i = 0; i < clusterCount; i++) {
+                                final Station station = indexedStations[clusterStations[i]];
+                                toPixels(projection, station.location.getLatAsDouble(),
+                                        station.location.getLonAsDouble());
+                                drawAt(canvas, stationIcon(station), point.x, point.y, false, 0);
+                                if (clusterSizes[i] > 1)
+                                    drawClusterSize(canvas, clusterSizes[i]);
+                            }
+
                             if (selectedStation != null) {
-                                projection.toPixels(new GeoPoint(selectedStation.location.getLatAsDouble(),
-                                        selectedStation.location.getLonAsDouble()), point);
-                                final TextView bubble = new TextView(getContext());
-                                bubble.setBackgroundResource(R.drawable.popup_dir_pointer_button);
-                                bubble.setText(selectedStation.location.name);
-                                bubble.setTypeface(Typeface.DEFAULT_BOLD);
-                                bubble.setTextSize(TypedValue.COMPLEX_UNIT_PX, stationFontSize);
-                                bubble.setTextColor(res.getColor(R.color.fg_significant_on_light));
-                                bubble.setIncludeFontPadding(false);
-                                bubble.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
-                                        MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                                toPixels(projection, selectedStation.location.getLatAsDouble(),
+                                        selectedStation.location.getLonAsDouble());
+                                drawAt(canvas, stationIcon(selectedStation), point.x, point.y, false, 0);
+
+                                if (selectedStation != bubbleStation
+                                        || !Objects.equals(selectedStation.location.name, bubbleName)) {
+                                    bubbleStation = selectedStation;
+                                    bubbleName = selectedStation.location.name;
+                                    bubble = new TextView(getContext());
+                                    bubble.setBackgroundResource(R.drawable.popup_dir_pointer_button);
+                                    bubble.setText(selectedStation.location.name);
+                                    bubble.setTypeface(Typeface.DEFAULT_BOLD);
+                                    bubble.setTextSize(TypedValue.COMPLEX_UNIT_PX, stationFontSize);
+                                    bubble.setTextColor(res.getColor(R.color.fg_significant_on_light));
+                                    bubble.setIncludeFontPadding(false);
+                                    bubble.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
+                                            MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                                }
                                 final int width = bubble.getMeasuredWidth();
                                 final int height = bubble.getMeasuredHeight();
                                 bubble.layout(point.x - width / 2, point.y - height / 2, point.x + width / 2,
@@ -375,38 +429,99 @@ public class OeffiMapView extends MapView {
                 }
             }
 
-            private Path pointsToPath(final Projection projection, final List<Point> points) {
-                final Path path = new Path();
-                path.incReserve(points.size());
-
-                final android.graphics.Point point = new android.graphics.Point();
+            private boolean stationsChanged(final List<Station> stations) {
+                if (stationIndex == null || stations.size() != stationsCount)
+                    return true;
+                int i = 0;
+                for (final Station station : stations)
+                    if (station != listedStations[i] || station.location != listedLocations[i++])
+                        return true;
+                return false;
+            }
 
-                for (final Point p : points) {
-                    projection.toPixels(new GeoPoint(p.getLatAsDouble(), p.getLonAsDouble()), point);
-                    if (path.isEmpty())
-                        path.moveTo(point.x, point.y);
-                    else
-                        path.lineTo(point.x, point.y);
+            private void indexStations(final Projection projection, final List<Station> stations) {
+                stationsCount = stations.size();
+                listedStations = new Station[stationsCount];
+                listedLocations = new Location[stationsCount];
+                indexedStations = new Station[stationsCount];
+                final double[] xs = new double[stationsCount], ys = new double[stationsCount];
+                int i = 0, indexed = 0;
+                for (final Station station : stations) {
+                    listedStations[i] = station;
+                    listedLocations[i++] = station.location;
+                    if (station.location.hasCoord()) {
+                        projection.toProjectedPixels(station.location.getLatAsDouble(),
+                                station.location.getLonAsDouble(), projected);
+                        xs[indexed] = projected.x;
+                        ys[indexed] = projected.y;
+                        indexedStations[indexed++] = station;
+                    }
                 }
-
-                return path;
+                stationIndex = new PointIndex(xs, ys, indexed);
+                visibleStations = new int[indexed];
+                clusterStations = new int[indexed];
+                clusterSizes = new int[indexed];
             }
 
-            private Path pointsToPath(final Projection projection, final Point[] points) {
-                final Path path = new Path();
-                path.incReserve(points.length);
-
-                final android.graphics.Point point = new android.graphics.Point();
+            private Drawable stationIcon(final Station station) {
+                final Product product = station.getRelevantProduct();
+                if (product == null)
+                    return stationDefaultIcon;
+                else if (product == Product.HIGH_SPEED_TRAIN)
+                    return stationHighspeedIcon;
+                else if (product == Product.REGIONAL_TRAIN)
+                    return stationTrainIcon;
+                else if (product == Product.SUBURBAN_TRAIN)
+                    return stationSuburbanIcon;
+                else if (product == Product.SUBWAY)
+                    return stationSubwayIcon;
+                else if (product == Product.TRAM)
+                    return stationTramIcon;
+                else if (product == Product.BUS)
+                    return stationBusIcon;
+                else if (product == Product.FERRY)
+                    return stationFerryIcon;
+                else if (product == Product.CABLECAR)
+                    return stationCablecarIcon;
+                else if (product == Product.ON_DEMAND)
+                    return stationCallIcon;
+                else
+                    return stationDefaultIcon;
+            }
 
-                for (final Point p : points) {
-                    projection.toPixels(new GeoPoint(p.getLatAsDouble(), p.getLonAsDouble()), point);
-                    if (path.isEmpty())
-                        path.moveTo(point.x, point.y);
-                    else
-                        path.lineTo(point.x, point.y);
+            private void drawClusterSize(final Canvas canvas, final int size) {
+                final int textIndex = Math.min(size, clusterSizeTexts.length - 1);
+                String text = clusterSizeTexts[textIndex];
+                if (text == null) {
+                    text = size < clusterSizeTexts.length - 1 ? Integer.toString(size)
+                            : (clusterSizeTexts.length - 2) + "+";
+                    clusterSizeTexts[textIndex] = text;
                 }
+                // badge at the upper right of the marker
+                final Rect bounds = stationDefaultIcon.getBounds();
+                final float x = point.x + bounds.right, y = point.y + bounds.top;
+                final float radius = Math.max(clusterTextPaint.measureText(text) / 2,
+                        clusterTextPaint.getTextSize() / 2) + clusterTextPaint.getTextSize() / 4;
+                canvas.drawCircle(x, y, radius, clusterPaint);
+                canvas.drawText(text, x, y - (clusterTextPaint.ascent() + clusterTextPaint.descent()) / 2,
+                        clusterTextPaint);
+            }
+
+            private void toPixels(final Projection projection, final double lat, final double lon) {
+                projection.toProjectedPixels(lat, lon, projected);
+                projection.toPixelsFromProjected(projected, point);
+            }
 
-                return path;
+            private void drawPath(final Canvas canvas, final Projection projection, final ProjectedPath path,
+                    final Paint paint) {
+                if (path.size() == 0)
+                    return;
+                // the path is relative to its anchor, so panning only translates
+                path.anchorToPixels(projection, point);
+                canvas.save();
+                canvas.translate(point.x, point.y);
+                canvas.drawPath(path.path(projection), paint);
+                canvas.restore();
             }
 
             @Override
@@ -416,18 +531,14 @@ public class OeffiMapView extends MapView {
                 final double tappedLon = p.getLongitude();
                 boolean consumed = false;
 
-                final float[] distanceBetweenResults = new float[1];
-
                 if (tripAware != null) {
                     int tappedLegIndex = -1;
                     float tappedPointDistance = 0;
 
                     int iRoute = 0;
                     for (final Leg leg : tripAware.getTrip().legs) {
-                        for (final Point point : leg.path) {
-                            android.location.Location.distanceBetween(tappedLat, tappedLon, point.getLatAsDouble(),
-                                    point.getLonAsDouble(), distanceBetweenResults);
-                            final float distance = distanceBetweenResults[0];
+                        final float[] distances = distancesFrom(tappedLat, tappedLon, leg.path);
+                        for (final float distance : distances) {
                             if (tappedLegIndex == -1 || distance < tappedPointDistance) {
                                 tappedLegIndex = iRoute;
                                 tappedPointDistance = distance;
@@ -447,13 +558,22 @@ public class OeffiMapView extends MapView {
                     Station tappedStation = null;
                     float tappedStationDistance = 0;
 
-                    for (final Station station : stationsAware.getStations()) {
-                        android.location.Location.distanceBetween(tappedLat, tappedLon,
-                                station.location.getLatAsDouble(), station.location.getLonAsDouble(),
-                                distanceBetweenResults);
-                        final float distance = distanceBetweenResults[0];
+                    final List<Station> stations = stationsAware.getStations();
+                    final int count = stations.size();
+                    final double[] lats = new double[count];
+                    final double[] lons = new double[count];
+                    for (int i = 0; i < count; i++) {
+                        final Location location = stations.get(i).location;
+                        lats[i] = location.getLatAsDouble();
+                        lons[i] = location.getLonAsDouble();
+                    }
+                    final float[] distances = new float[count];
+                    GeoDistances.compute(GeoDistances.Mode.AUTO, tappedLat, tappedLon, lats, lons, count, distances,
+                            null);
+                    for (int i = 0; i < count; i++) {
+                        final float distance = distances[i];
                         if (tappedStation == null || distance < tappedStationDistance) {
-                            tappedStation = station;
+                            tappedStation = stations.get(i);
                             tappedStationDistance = distance;
                         }
                     }
@@ -465,10 +585,8 @@ public class OeffiMapView extends MapView {
                         } else {
                             final Point deviceLocation = locationAware.getDeviceLocation();
                             if (deviceLocation != null) {
-                                android.location.Location.distanceBetween(tappedLat, tappedLon,
-                                        deviceLocation.getLatAsDouble(), deviceLocation.getLonAsDouble(),
-                                        distanceBetweenResults);
-                                final float distance = distanceBetweenResults[0];
+                                final float distance = GeoDistances.distance(GeoDistances.Mode.AUTO, tappedLat,
+                                        tappedLon, deviceLocation.getLatAsDouble(), deviceLocation.getLonAsDouble());
                                 if (distance < tappedStationDistance) {
                                     stationsAware.selectStation(null);
                                     consumed = true;
@@ -646,6 +764,98 @@ public class OeffiMapView extends MapView {
         return super.onTouchEvent(ev);
     }
 
+    /**
+     * Polyline projected once to zoom-independent map pixels, relative to its first point. Simplified point sets are
+     * kept per integer zoom level and the drawable path is only rebuilt when the zoom level changes, so panning
+     * costs a single translation.
+     */
+    private static final class ProjectedPath {
+        private final int count;
+        private final boolean closed;
+        private final PointL anchor = new PointL();
+        private final double[] xs, ys;
+        private final SparseArray<int[]> simplified = new SparseArray<>();
+        private final Path path = new Path();
+        private double pathZoomLevel = Double.NaN;
+
+        public ProjectedPath(final Projection projection, @Nullable final List<Point> points, final boolean closed) {
+            this.count = points != null ? points.size() : 0;
+            this.closed = closed;
+            this.xs = new double[count];
+            this.ys = new double[count];
+            final PointL projected = new PointL();
+            for (int i = 0; i < count; i++) {
+                final Point p = points.get(i);
+                projection.toProjectedPixels(p.getLatAsDouble(), p.getLonAsDouble(), projected);
+                if (i == 0)
+                    anchor.set(projected.x, projected.y);
+                xs[i] = projected.x - anchor.x;
+                ys[i] = projected.y - anchor.y;
+            }
+            if (closed)
+                path.setFillType(FillType.INVERSE_WINDING);
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public void anchorToPixels(final Projection projection, final android.graphics.Point reuse) {
+            projection.toPixelsFromProjected(anchor, reuse);
+        }
+
+        public Path path(final Projection projection) {
+            final double zoomLevel = projection.getZoomLevel();
+            if (zoomLevel != pathZoomLevel) {
+                pathZoomLevel = zoomLevel;
+                final int[] indices = simplified(projection, zoomLevel);
+                final double powerDifference = projection.getProjectedPowerDifference();
+                path.rewind();
+                path.incReserve(indices.length);
+                for (int i = 0; i < indices.length; i++) {
+                    final float x = (float) (xs[indices[i]] / powerDifference);
+                    final float y = (float) (ys[indices[i]] / powerDifference);
+                    if (i == 0)
+                        path.moveTo(x, y);
+                    else
+                        path.lineTo(x, y);
+                }
+                if (closed)
+                    path.close();
+            }
+            return path;
+        }
+
+        private int[] simplified(final Projection projection, final double zoomLevel) {
+            final int zoom = (int) Math.floor(zoomLevel);
+            int[] indices = simplified.get(zoom);
+            if (indices == null) {
+                // one pixel at the upper end of this zoom level, so the error stays below a pixel across it
+                final double tolerance = projection.getProjectedPowerDifference()
+                        * Math.pow(2, zoomLevel - zoom - 1);
+                final int[] keep = new int[count];
+                final int keptCount = PathSimplifier.simplify(xs, ys, count, tolerance, keep);
+                indices = Arrays.copyOf(keep, keptCount);
+                simplified.put(zoom, indices);
+            }
+            return indices;
+        }
+    }
+
+    private static float[] distancesFrom(final double lat, final double lon, final List<Point> points) {
+        final int count = points.size();
+        final double[] lats = new double[count];
+        final double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            final Point point = points.get(i);
+            lats[i] = point.getLatAsDouble();
+            lons[i] = point.getLonAsDouble();
+        }
+        final float[] distances = new float[count];
+        GeoDistances.compute(GeoDistances.Mode.AUTO, lat, lon, lats, lons, count, distances, null);
+        return distances;
+    }
+
     private Drawable drawablePointer(final int resId, final int sizeDivider) {
         final Resources res = getResources();
         final Drawable drawable = res.getDrawable(resId);
@@ -165,6 +165,22 @@ public class DirectionsActivity extends OeffiMainActivity implements QueryHistor
     private HandlerThread backgroundThread;
     private Handler backgroundHandler;
     private final Handler handler = new Handler();
+    private final RecyclerView.AdapterDataObserver queryHistoryEmptyObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            updateQueryHistoryEmpty();
+        }
+
+        @Override
+        public void onItemRangeInserted(final int positionStart, final int itemCount) {
+            updateQueryHistoryEmpty();
+        }
+
+        @Override
+        public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+            updateQueryHistoryEmpty();
+        }
+    };
     private BroadcastReceiver connectivityReceiver;
     private BroadcastReceiver tickReceiver;
 
@@ -455,6 +471,7 @@ public class DirectionsActivity extends OeffiMainActivity implements QueryHistor
         viewQueryHistoryList.setLayoutManager(new LinearLayoutManager(this));
         viewQueryHistoryList.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL_LIST));
         queryHistoryListAdapter = new QueryHistoryAdapter(this, network, this, this);
+        queryHistoryListAdapter.registerAdapterDataObserver(queryHistoryEmptyObserver);
         viewQueryHistoryList.setAdapter(queryHistoryListAdapter);
         ViewCompat.setOnApplyWindowInsetsListener(viewQueryHistoryList, (v, windowInsets) -> {
             final Insets insets = windowInsets.getInsets(WindowInsetsCompat.Type.systemBars());
@@ -623,8 +640,7 @@ public class DirectionsActivity extends OeffiMainActivity implements QueryHistor
         viewGo.setEnabled(hasDirectionsCap);
 
         viewQueryHistoryList.setVisibility(hasDirectionsCap ? View.VISIBLE : View.GONE);
-        viewQueryHistoryEmpty.setVisibility(
-                hasDirectionsCap && queryHistoryListAdapter.getItemCount() == 0 ? View.VISIBLE : View.INVISIBLE);
+        updateQueryHistoryEmpty();
         viewQueryMissingCapability.setVisibility(hasDirectionsCap ? View.GONE : View.VISIBLE);
 
         // regular refresh
@@ -657,6 +673,7 @@ public class DirectionsActivity extends OeffiMainActivity implements QueryHistor
 
         queryHistoryListAdapter.close();
         queryHistoryListAdapter = new QueryHistoryAdapter(this, network, this, this);
+        queryHistoryListAdapter.registerAdapterDataObserver(queryHistoryEmptyObserver);
         viewQueryHistoryList.setAdapter(queryHistoryListAdapter);
 
         updateGUI();
@@ -734,6 +751,13 @@ public class DirectionsActivity extends OeffiMainActivity implements QueryHistor
         updateFragments(R.id.navigation_drawer_layout, R.id.directions_map_fragment);
     }
 
+    private void updateQueryHistoryEmpty() {
+        // the history is loaded in the background
+        final boolean isEmpty = queryHistoryListAdapter.getItemCount() == 0;
+        viewQueryHistoryEmpty.setVisibility(
+                viewQueryHistoryList.getVisibility() == View.VISIBLE && isEmpty ? View.VISIBLE : View.INVISIBLE);
+    }
+
     private void updateGUI() {
         viewFromLocation.setHint(R.string.directions_from);
         viewViaLocation.setHint(R.string.directions_via);
@@ -930,7 +954,6 @@ public class DirectionsActivity extends OeffiMainActivity implements QueryHistor
                     menuItemLocation);
             new Toast(DirectionsActivity.this).longToast(R.string.toast_add_favorite,
                     menuItemLocation.uniqueShortName());
-            queryHistoryListAdapter.notifyDataSetChanged();
             return true;
         } else if (menuItemId == R.id.directions_query_history_location_context_launcher_shortcut
                 && menuItemLocation != null) {
@@ -31,6 +31,7 @@ import android.os.Handler;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
 import android.util.AttributeSet;
+import android.util.LongSparseArray;
 import android.view.View;
 import android.widget.Gallery;
 import de.schildbach.oeffi.R;
@@ -212,9 +213,41 @@ public class TripsGallery extends Gallery {
     private final Calendar gridPtr = new GregorianCalendar();
     private final Rect bounds = new Rect();
     private final RectF boundsF = new RectF();
-    private final StringBuilder labelTime = new StringBuilder();
     private final Path path = new Path();
 
+    // grid labels by time, the ones with date appended separately; dropped every hour because of relative dates
+    private final LongSparseArray<GridLabel> gridLabels = new LongSparseArray<>();
+    private final LongSparseArray<GridLabel> gridLabelsWithDate = new LongSparseArray<>();
+    private long gridLabelsHour = 0;
+    private long currentTimeLabelMinute = 0;
+    private GridLabel currentTimeLabel = null;
+
+    private static final int MAX_GRID_LABELS = 128;
+
+    private static final class GridLabel {
+        final String text;
+        final Rect bounds = new Rect();
+
+        GridLabel(final String text, final Paint paint) {
+            this.text = text;
+            paint.getTextBounds(text, 0, text.length(), bounds);
+        }
+    }
+
+    private GridLabel gridLabel(final long t, final boolean withDate, final long now) {
+        final LongSparseArray<GridLabel> labels = withDate ? gridLabelsWithDate : gridLabels;
+        GridLabel label = labels.get(t);
+        if (label == null) {
+            if (labels.size() >= MAX_GRID_LABELS)
+                labels.clear();
+            final String text = withDate ? timeFormat.format(t) + ", " + Formats.formatDate(context, now, t)
+                    : timeFormat.format(t);
+            label = new GridLabel(text, gridLabelPaint);
+            labels.put(t, label);
+        }
+        return label;
+    }
+
     @Override
     protected void onDraw(final Canvas canvas) {
         final long now = System.currentTimeMillis();
@@ -225,6 +258,13 @@ public class TripsGallery extends Gallery {
         final long maxTime = adapter.getMaxTime();
         final long timeDiff = maxTime - minTime;
 
+        final long hour = now / DateUtils.HOUR_IN_MILLIS;
+        if (hour != gridLabelsHour) {
+            gridLabels.clear();
+            gridLabelsWithDate.clear();
+            gridLabelsHour = hour;
+        }
+
         // prepare grid
         gridPtr.setTimeInMillis(minTime);
         gridPtr.set(Calendar.MILLISECOND, 0);
@@ -283,14 +323,10 @@ public class TripsGallery extends Gallery {
                         && gridPtr.get(Calendar.MINUTE) == 0;
                 final float y = adapter.timeToCoord(t, height);
 
-                labelTime.setLength(0);
-                labelTime.append(timeFormat.format(t));
-                if (isDateBorder) {
-                    labelTime.append(", ").append(Formats.formatDate(context, now, t));
+                if (isDateBorder)
                     hasDateBorder = true;
-                }
-
-                gridLabelPaint.getTextBounds(labelTime.toString(), 0, labelTime.length(), bounds);
+                final GridLabel label = gridLabel(t, isDateBorder, now);
+                bounds.set(label.bounds);
                 bounds.offsetTo(paddingHorizontal, Math.round(y) - bounds.height());
 
                 path.reset();
@@ -299,7 +335,7 @@ public class TripsGallery extends Gallery {
                 // can't use drawLine here because of
                 // https://code.google.com/p/android/issues/detail?id=29944
                 canvas.drawPath(path, gridPaint);
-                canvas.drawText(labelTime, 0, labelTime.length(), bounds.centerX(), bounds.bottom, gridLabelPaint);
+                canvas.drawText(label.text, bounds.centerX(), bounds.bottom, gridLabelPaint);
             }
 
             gridPtr.add(gridField, gridValue);
@@ -307,22 +343,24 @@ public class TripsGallery extends Gallery {
 
         // retroactively add date to first grid line
         if (!hasDateBorder && firstGrid > 0) {
-            labelTime.setLength(0);
-            labelTime.append(timeFormat.format(firstGrid)).append(", ")
-                    .append(Formats.formatDate(context, now, firstGrid));
-
-            gridLabelPaint.getTextBounds(labelTime.toString(), 0, labelTime.length(), bounds);
+            final GridLabel label = gridLabel(firstGrid, true, now);
+            bounds.set(label.bounds);
             bounds.offsetTo(paddingHorizontal, Math.round(adapter.timeToCoord(firstGrid, height)) - bounds.height());
 
-            canvas.drawText(labelTime, 0, labelTime.length(), bounds.centerX(), bounds.bottom, gridLabelPaint);
+            canvas.drawText(label.text, bounds.centerX(), bounds.bottom, gridLabelPaint);
         }
 
         // draw current time
         final float y = adapter.timeToCoord(now, height);
 
-        final String label = timeFormat.format(now);
+        final long minute = now / DateUtils.MINUTE_IN_MILLIS;
+        if (currentTimeLabel == null || minute != currentTimeLabelMinute) {
+            currentTimeLabel = new GridLabel(timeFormat.format(now), currenttimeLabelTextPaint);
+            currentTimeLabelMinute = minute;
+        }
+        final String label = currentTimeLabel.text;
 
-        currenttimeLabelTextPaint.getTextBounds(label, 0, label.length(), bounds);
+        bounds.set(currentTimeLabel.bounds);
         bounds.inset(-currentTimeLabelPaddingHorizontal, -currentTimeLabelPaddingVertical);
         bounds.offsetTo(paddingHorizontalCram, Math.round(y) - bounds.height());
 
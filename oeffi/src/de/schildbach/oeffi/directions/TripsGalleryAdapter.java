@@ -30,20 +30,19 @@ import android.graphics.Paint.Align;
 import android.graphics.Paint.FontMetrics;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Shader;
 import android.graphics.Shader.TileMode;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
+import android.util.LruCache;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Adapter;
 import android.widget.BaseAdapter;
 import de.schildbach.oeffi.R;
 import de.schildbach.pte.dto.Line;
-import de.schildbach.pte.dto.Stop;
 import de.schildbach.pte.dto.Style;
 import de.schildbach.pte.dto.Style.Shape;
 import de.schildbach.pte.dto.Trip;
@@ -52,9 +51,13 @@ import de.schildbach.pte.dto.Trip.Leg;
 import de.schildbach.pte.dto.Trip.Public;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -85,7 +88,16 @@ public final class TripsGalleryAdapter extends BaseAdapter {
 
     private static final float ROUNDED_CORNER_RADIUS = 8f;
     private static final float CIRCLE_CORNER_RADIUS = 16f;
+    private static final float PUBLIC_LABEL_TEXT_SIZE = 24f;
+    private static final float[] GRADIENT_POSITIONS = new float[] { 0.5f, 0.5f };
     private final int tripWidth;
+    private final float density;
+    private final java.text.DateFormat timeFormat;
+    private final FontMetrics publicLabelMetrics, individualTimeMetrics, publicTimeMetrics;
+
+    // render cache, so drawing frames while scrolling or zooming does not allocate
+    private Map<Trip, TripLayout> tripLayouts = new IdentityHashMap<>();
+    private final LruCache<GradientKey, LinearGradient> gradients = new LruCache<>(64);
 
     public TripsGalleryAdapter(final Context context) {
         this.context = context;
@@ -104,6 +116,8 @@ public final class TripsGalleryAdapter extends BaseAdapter {
         colorDelayed = res.getColor(R.color.bg_delayed_darkdefault);
 
         tripWidth = res.getDimensionPixelSize(R.dimen.trips_overview_entry_width);
+        density = res.getDisplayMetrics().density;
+        timeFormat = DateFormat.getTimeFormat(context);
 
         publicFillPaint.setStyle(Paint.Style.FILL);
 
@@ -137,9 +151,23 @@ public final class TripsGalleryAdapter extends BaseAdapter {
         publicTimePaint.setTextAlign(Align.CENTER);
 
         cannotScrollPaint.setStyle(Paint.Style.FILL);
+
+        publicLabelPaint.setTextSize(PUBLIC_LABEL_TEXT_SIZE * density);
+        publicLabelMetrics = publicLabelPaint.getFontMetrics();
+        individualTimeMetrics = individualTimePaint.getFontMetrics();
+        publicTimeMetrics = publicTimePaint.getFontMetrics();
     }
 
     public void setTrips(final List<Trip> trips, final boolean canScrollLater, final boolean canScrollEarlier) {
+        // keep layouts of trips that are still there
+        final Map<Trip, TripLayout> tripLayouts = new IdentityHashMap<>();
+        for (final Trip trip : trips) {
+            final TripLayout tripLayout = this.tripLayouts.get(trip);
+            if (tripLayout != null)
+                tripLayouts.put(trip, tripLayout);
+        }
+        this.tripLayouts = tripLayouts;
+
         this.trips = trips;
         this.canScrollLater = canScrollLater;
         this.canScrollEarlier = canScrollEarlier;
@@ -283,12 +311,228 @@ public final class TripsGalleryAdapter extends BaseAdapter {
         return getItemViewType(position) == VIEW_TYPE_TRIP;
     }
 
+    private TripLayout tripLayout(final Trip trip) {
+        TripLayout tripLayout = tripLayouts.get(trip);
+        if (tripLayout == null) {
+            tripLayout = new TripLayout(trip);
+            tripLayouts.put(trip, tripLayout);
+        }
+        return tripLayout;
+    }
+
+    private LinearGradient gradient(final int color1, final int color2, final int width, final int height) {
+        final GradientKey key = new GradientKey(color1, color2, width, height);
+        LinearGradient gradient = gradients.get(key);
+        if (gradient == null) {
+            // diagonal of the box rotated by 90 degrees around its center
+            final float halfWidth = width / 2f, halfHeight = height / 2f;
+            gradient = new LinearGradient(halfWidth - halfHeight, halfHeight - halfWidth, halfWidth + halfHeight,
+                    halfHeight + halfWidth, new int[] { color1, color2 }, GRADIENT_POSITIONS, TileMode.CLAMP);
+            gradients.put(key, gradient);
+        }
+        return gradient;
+    }
+
+    private static final class GradientKey {
+        private final int color1, color2, width, height;
+
+        private GradientKey(final int color1, final int color2, final int width, final int height) {
+            this.color1 = color1;
+            this.color2 = color2;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof GradientKey))
+                return false;
+            final GradientKey other = (GradientKey) o;
+            return color1 == other.color1 && color2 == other.color2 && width == other.width
+                    && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(color1, color2, width, height);
+        }
+    }
+
+    /**
+     * Everything about a trip that does not depend on the current time axis; times stay in milliseconds and are
+     * mapped to coordinates when drawing.
+     */
+    private final class TripLayout {
+        private final boolean isTravelable;
+        private final PublicLegLayout[] publicLegs;
+        private final IndividualLegLayout[] individualLegs;
+        @Nullable
+        private final TimeLabel publicDeparture, individualDeparture, publicArrival, individualArrival;
+
+        private TripLayout(final Trip trip) {
+            isTravelable = trip.isTravelable();
+            final List<PublicLegLayout> publicLegs = new ArrayList<>();
+            final List<IndividualLegLayout> individualLegs = new ArrayList<>();
+            final List<Leg> legs = trip.legs;
+            if (legs != null) {
+                for (final Leg leg : legs) {
+                    if (leg instanceof Public)
+                        publicLegs.add(new PublicLegLayout((Public) leg));
+                    else if (leg instanceof Individual)
+                        individualLegs.add(new IndividualLegLayout((Individual) leg));
+                }
+            }
+            this.publicLegs = publicLegs.toArray(new PublicLegLayout[0]);
+            this.individualLegs = individualLegs.toArray(new IndividualLegLayout[0]);
+
+            final Public firstPublicLeg = trip.getFirstPublicLeg();
+            final Date publicDepartureTime = firstPublicLeg != null
+                    ? firstPublicLeg.departureStop.getDepartureTime() : null;
+            publicDeparture = publicDepartureTime != null ? new TimeLabel(publicDepartureTime,
+                    firstPublicLeg.departureStop.departureCancelled, null) : null;
+            final Date individualDepartureTime = trip.getFirstDepartureTime();
+            individualDeparture = individualDepartureTime != null
+                    ? new TimeLabel(individualDepartureTime, false, publicDepartureTime) : null;
+
+            final Public lastPublicLeg = trip.getLastPublicLeg();
+            final Date publicArrivalTime = lastPublicLeg != null ? trip.getLastPublicLegArrivalTime() : null;
+            publicArrival = publicArrivalTime != null
+                    ? new TimeLabel(publicArrivalTime, lastPublicLeg.arrivalStop.arrivalCancelled, null) : null;
+            final Date individualArrivalTime = trip.getLastArrivalTime();
+            individualArrival = individualArrivalTime != null
+                    ? new TimeLabel(individualArrivalTime, false, publicArrivalTime) : null;
+        }
+    }
+
+    private final class PublicLegLayout {
+        private final long tDeparture, tArrival;
+        /** Planned times, if the leg is delayed and a ghost needs to be drawn; otherwise 0. */
+        private final long tPlannedDeparture, tPlannedArrival;
+        private final float radius;
+        private final int fillColor, fillColor2, labelColor;
+        @Nullable
+        private final Integer strokeColor;
+        private final float shadowRadius;
+        private final int shadowColor;
+        private final String[] labels;
+        /** Bounds of the first label at {@link #PUBLIC_LABEL_TEXT_SIZE}, for scaling when drawing. */
+        private final float labelCenterY, labelHeight;
+        /** Gradient last used for this leg, if its colors have one. */
+        @Nullable
+        private LinearGradient gradient = null;
+        private int gradientWidth, gradientHeight;
+
+        private PublicLegLayout(final Public publicLeg) {
+            final Line line = publicLeg.line;
+            final Style style = line.style;
+            if (style != null) {
+                if (style.shape == Shape.RECT)
+                    radius = 0;
+                else if (style.shape == Shape.CIRCLE)
+                    radius = CIRCLE_CORNER_RADIUS;
+                else
+                    radius = ROUNDED_CORNER_RADIUS;
+                fillColor = style.backgroundColor;
+                fillColor2 = style.backgroundColor2;
+                labelColor = style.foregroundColor;
+            } else {
+                radius = ROUNDED_CORNER_RADIUS;
+                fillColor = Color.GRAY;
+                fillColor2 = 0;
+                labelColor = Color.WHITE;
+            }
+            if (style != null && style.hasBorder())
+                strokeColor = style.borderColor;
+            else if (darkMode && Style.perceivedBrightness(fillColor) < 0.15f
+                    || !darkMode && Style.perceivedBrightness(fillColor) > 0.85f)
+                strokeColor = colorSignificantInverse;
+            else
+                strokeColor = null;
+            shadowRadius = labelColor != Color.BLACK && labelColor != Color.RED ? 2f : 0f;
+            shadowColor = labelColor != Color.BLACK ? Color.BLACK : Color.WHITE;
+
+            tDeparture = publicLeg.departureStop.getDepartureTime().getTime();
+            tArrival = publicLeg.arrivalStop.getArrivalTime().getTime();
+
+            final Long departureDelay = publicLeg.departureStop.getDepartureDelay();
+            final Long arrivalDelay = publicLeg.arrivalStop.getArrivalDelay();
+            final boolean isDelayed = (departureDelay != null && departureDelay / DateUtils.MINUTE_IN_MILLIS != 0)
+                    || (arrivalDelay != null && arrivalDelay / DateUtils.MINUTE_IN_MILLIS != 0);
+            final Date plannedDepartureTime = publicLeg.departureStop.plannedDepartureTime;
+            final Date plannedArrivalTime = publicLeg.arrivalStop.plannedArrivalTime;
+            if (isDelayed && plannedDepartureTime != null && plannedArrivalTime != null) {
+                tPlannedDeparture = plannedDepartureTime.getTime();
+                tPlannedArrival = plannedArrivalTime.getTime();
+            } else {
+                tPlannedDeparture = 0;
+                tPlannedArrival = 0;
+            }
+
+            labels = splitLineLabel(line.label != null ? line.label : "?");
+            final Rect bounds = new Rect();
+            publicLabelPaint.setTextScaleX(1f);
+            publicLabelPaint.setTextSize(PUBLIC_LABEL_TEXT_SIZE * density);
+            publicLabelPaint.getTextBounds(labels[0], 0, labels[0].length(), bounds);
+            labelCenterY = bounds.exactCenterY();
+            labelHeight = bounds.height();
+        }
+    }
+
+    private static final class IndividualLegLayout {
+        private final long tDeparture, tArrival;
+        private final Individual.Type type;
+
+        private IndividualLegLayout(final Individual individualLeg) {
+            tDeparture = individualLeg.departureTime.getTime();
+            tArrival = individualLeg.arrivalTime.getTime();
+            type = individualLeg.type;
+        }
+    }
+
+    private final class TimeLabel {
+        private final long time;
+        private final String text;
+        private final boolean cancelled;
+        /** Time of a label to keep out of, or 0. */
+        private final long timeKeepOut;
+
+        private TimeLabel(final Date time, final boolean cancelled, @Nullable final Date timeKeepOut) {
+            this.time = time.getTime();
+            this.text = timeFormat.format(time);
+            this.cancelled = cancelled;
+            this.timeKeepOut = timeKeepOut != null ? timeKeepOut.getTime() : 0;
+        }
+    }
+
+    private static final Pattern P_SPLIT_LINE_LABEL_1 = Pattern.compile("([^\\s]+)\\s+([^\\s]+)");
+    private static final Pattern P_SPLIT_LINE_LABEL_2 = Pattern.compile("([a-zA-Z]+)(\\d+)");
+
+    private static String[] splitLineLabel(final String label) {
+        if (label.length() <= 4)
+            return new String[] { label };
+
+        final Matcher m1 = P_SPLIT_LINE_LABEL_1.matcher(label);
+        if (m1.matches())
+            return new String[] { m1.group(1), m1.group(2) };
+
+        final Matcher m2 = P_SPLIT_LINE_LABEL_2.matcher(label);
+        if (m2.matches())
+            return new String[] { m2.group(1), m2.group(2) };
+
+        if (label.length() <= 5)
+            return new String[] { label };
+
+        final int splitIndex = (int) Math.ceil((double) label.length() / 2);
+        return new String[] { label.substring(0, splitIndex), label.substring(splitIndex) };
+    }
+
     private class TripView extends View {
         private Trip trip;
+        private TripLayout tripLayout;
         private final Resources res = getResources();
-        private final java.text.DateFormat timeFormat;
 
-        private final float density = res.getDisplayMetrics().density;
         private final float publicBoxFraction = res.getFraction(R.fraction.trips_overview_entry_public_box_fraction, 1,
                 1);
         private final float individualBoxFraction = res
@@ -298,25 +542,22 @@ public final class TripsGalleryAdapter extends BaseAdapter {
         private final Drawable carIcon = res.getDrawable(R.drawable.ic_local_taxi_grey600_24dp);
         private final Drawable warningIcon = res.getDrawable(R.drawable.ic_warning_amber_24dp);
 
-        private final int[] gradientColors = new int[2];
-        private final float[] GRADIENT_POSITIONS = new float[] { 0.5f, 0.5f };
-
         private TripView(final Context context) {
             super(context);
 
-            timeFormat = DateFormat.getTimeFormat(context);
-
             final TypedArray ta = context.obtainStyledAttributes(new int[] { android.R.attr.selectableItemBackground });
             setBackgroundDrawable(ta.getDrawable(0));
             ta.recycle();
         }
 
         public void setTrip(final Trip trip) {
-            this.trip = trip;
+            if (trip != this.trip) {
+                this.trip = trip;
+                this.tripLayout = tripLayout(trip);
+            }
         }
 
-        private final RectF legBox = new RectF(), legBoxRotated = new RectF();
-        private final Rect bounds = new Rect();
+        private final RectF legBox = new RectF();
         private final Matrix matrix = new Matrix();
 
         @Override
@@ -327,10 +568,8 @@ public final class TripsGalleryAdapter extends BaseAdapter {
             final int centerX = width / 2;
             final int height = getHeight();
 
-            final List<Leg> legs = trip.legs;
-
-            if (legs != null) {
-                if (!trip.isTravelable()) {
+            if (trip.legs != null) {
+                if (!tripLayout.isTravelable) {
                     final int warningWidth = warningIcon.getIntrinsicWidth();
                     final int warningLeft = centerX - warningWidth / 2;
                     final int warningPaddingTop = (int) (4 * density);
@@ -340,209 +579,121 @@ public final class TripsGalleryAdapter extends BaseAdapter {
                 }
 
                 // iterate delayed public legs first and draw ghosts of planned times
-                for (final Leg leg : legs) {
-                    if (leg instanceof Public) {
-                        final Public publicLeg = (Public) leg;
+                for (final PublicLegLayout publicLeg : tripLayout.publicLegs) {
+                    if (publicLeg.tPlannedDeparture != 0) {
                         publicFillPaint.setShader(null);
                         publicFillPaint.setColor(colorDelayed);
-                        final Line line = publicLeg.line;
-                        final Style style = line.style;
-                        final float radius;
-                        if (style != null) {
-                            if (style.shape == Shape.RECT)
-                                radius = 0;
-                            else if (style.shape == Shape.CIRCLE)
-                                radius = CIRCLE_CORNER_RADIUS;
-                            else
-                                radius = ROUNDED_CORNER_RADIUS;
-                        } else {
-                            radius = ROUNDED_CORNER_RADIUS;
-                        }
-
-                        final Long departureDelay = publicLeg.departureStop.getDepartureDelay();
-                        final Long arrivalDelay = publicLeg.arrivalStop.getArrivalDelay();
-                        final boolean isDelayed = (departureDelay != null
-                                && departureDelay / DateUtils.MINUTE_IN_MILLIS != 0)
-                                || (arrivalDelay != null && arrivalDelay / DateUtils.MINUTE_IN_MILLIS != 0);
-
-                        final Date plannedDepartureTime = publicLeg.departureStop.plannedDepartureTime;
-                        final Date plannedArrivalTime = publicLeg.arrivalStop.plannedArrivalTime;
-
-                        if (isDelayed && plannedDepartureTime != null && plannedArrivalTime != null) {
-                            final long tPlannedDeparture = plannedDepartureTime.getTime();
-                            final float yPlannedDeparture = timeToCoord(tPlannedDeparture, height);
-                            final long tPlannedArrival = plannedArrivalTime.getTime();
-                            final float yPlannedArrival = timeToCoord(tPlannedArrival, height);
+                        final float yPlannedDeparture = timeToCoord(publicLeg.tPlannedDeparture, height);
+                        final float yPlannedArrival = timeToCoord(publicLeg.tPlannedArrival, height);
 
-                            // line box
-                            legBox.set(0, yPlannedDeparture, width * publicBoxFraction, yPlannedArrival);
-                            canvas.drawRoundRect(legBox, radius, radius, publicFillPaint);
-                        }
+                        // line box
+                        legBox.set(0, yPlannedDeparture, width * publicBoxFraction, yPlannedArrival);
+                        canvas.drawRoundRect(legBox, publicLeg.radius, publicLeg.radius, publicFillPaint);
                     }
                 }
 
                 // then iterate all individual legs
-                final int nLegs = legs.size();
-                for (int iLeg = 0; iLeg < nLegs; iLeg++) {
-                    final Leg leg = legs.get(iLeg);
-                    if (leg instanceof Individual) {
-                        final Individual individualLeg = (Individual) leg;
-                        final long tDeparture = individualLeg.departureTime.getTime();
-                        final float yDeparture = timeToCoord(tDeparture, height);
-                        final long tArrival = individualLeg.arrivalTime.getTime();
-                        final float yArrival = timeToCoord(tArrival, height);
-
-                        // box
-                        final float left = width * (1f - individualBoxFraction) / 2f;
-                        legBox.set(left, yDeparture, left + width * individualBoxFraction, yArrival);
-                        canvas.drawRect(legBox, individualFillPaint);
-
-                        // symbol
-                        final Drawable symbol;
-                        if (individualLeg.type == Individual.Type.WALK)
-                            symbol = walkIcon;
-                        else if (individualLeg.type == Individual.Type.BIKE)
-                            symbol = bikeIcon;
-                        else if (individualLeg.type == Individual.Type.CAR
-                                || individualLeg.type == Individual.Type.TRANSFER)
-                            symbol = carIcon;
-                        else
-                            throw new IllegalStateException("unknown type: " + individualLeg.type);
-                        final int symbolWidth = symbol.getIntrinsicWidth();
-                        final int symbolHeight = symbol.getIntrinsicHeight();
-                        if (legBox.height() >= symbolHeight) {
-                            final int symbolLeft = (int) (legBox.centerX() - (float) symbolWidth / 2);
-                            final int symbolTop = (int) (legBox.centerY() - (float) symbolHeight / 2);
-                            symbol.setBounds(symbolLeft, symbolTop, symbolLeft + symbolWidth, symbolTop + symbolHeight);
-                            symbol.draw(canvas);
-                        }
+                for (final IndividualLegLayout individualLeg : tripLayout.individualLegs) {
+                    final float yDeparture = timeToCoord(individualLeg.tDeparture, height);
+                    final float yArrival = timeToCoord(individualLeg.tArrival, height);
+
+                    // box
+                    final float left = width * (1f - individualBoxFraction) / 2f;
+                    legBox.set(left, yDeparture, left + width * individualBoxFraction, yArrival);
+                    canvas.drawRect(legBox, individualFillPaint);
+
+                    // symbol
+                    final Drawable symbol;
+                    if (individualLeg.type == Individual.Type.WALK)
+                        symbol = walkIcon;
+                    else if (individualLeg.type == Individual.Type.BIKE)
+                        symbol = bikeIcon;
+                    else if (individualLeg.type == Individual.Type.CAR
+                            || individualLeg.type == Individual.Type.TRANSFER)
+                        symbol = carIcon;
+                    else
+                        throw new IllegalStateException("unknown type: " + individualLeg.type);
+                    final int symbolWidth = symbol.getIntrinsicWidth();
+                    final int symbolHeight = symbol.getIntrinsicHeight();
+                    if (legBox.height() >= symbolHeight) {
+                        final int symbolLeft = (int) (legBox.centerX() - (float) symbolWidth / 2);
+                        final int symbolTop = (int) (legBox.centerY() - (float) symbolHeight / 2);
+                        symbol.setBounds(symbolLeft, symbolTop, symbolLeft + symbolWidth, symbolTop + symbolHeight);
+                        symbol.draw(canvas);
                     }
                 }
 
                 // then draw arr/dep times
-                final Public firstPublicLeg = trip.getFirstPublicLeg();
-                final Date publicDepartureTime;
-                if (firstPublicLeg != null) {
-                    final Stop publicDepartureStop = firstPublicLeg.departureStop;
-                    final boolean publicDepartureCancelled = publicDepartureStop.departureCancelled;
-                    publicDepartureTime = publicDepartureStop.getDepartureTime();
-                    if (publicDepartureTime != null)
-                        drawTime(canvas, centerX, height, true, publicTimePaint, publicDepartureCancelled,
-                                publicDepartureTime, null);
-                } else {
-                    publicDepartureTime = null;
-                }
-
-                final Date individualDepartureTime = trip.getFirstDepartureTime();
-                if (individualDepartureTime != null)
-                    drawTime(canvas, centerX, height, true, individualTimePaint, false, individualDepartureTime,
-                            publicDepartureTime);
-
-                final Public lastPublicLeg = trip.getLastPublicLeg();
-                final Date publicArrivalTime;
-                if (lastPublicLeg != null) {
-                    final Stop publicArrivalStop = lastPublicLeg.arrivalStop;
-                    final boolean publicArrivalCancelled = publicArrivalStop.arrivalCancelled;
-                    publicArrivalTime = trip.getLastPublicLegArrivalTime();
-                    if (publicArrivalTime != null)
-                        drawTime(canvas, centerX, height, false, publicTimePaint, publicArrivalCancelled,
-                                publicArrivalTime, null);
-                } else {
-                    publicArrivalTime = null;
-                }
-
-                final Date individualArrivalTime = trip.getLastArrivalTime();
-                if (individualArrivalTime != null)
-                    drawTime(canvas, centerX, height, false, individualTimePaint, false, individualArrivalTime,
-                            publicArrivalTime);
+                if (tripLayout.publicDeparture != null)
+                    drawTime(canvas, centerX, height, true, publicTimePaint, publicTimeMetrics,
+                            tripLayout.publicDeparture);
+                if (tripLayout.individualDeparture != null)
+                    drawTime(canvas, centerX, height, true, individualTimePaint, individualTimeMetrics,
+                            tripLayout.individualDeparture);
+                if (tripLayout.publicArrival != null)
+                    drawTime(canvas, centerX, height, false, publicTimePaint, publicTimeMetrics,
+                            tripLayout.publicArrival);
+                if (tripLayout.individualArrival != null)
+                    drawTime(canvas, centerX, height, false, individualTimePaint, individualTimeMetrics,
+                            tripLayout.individualArrival);
 
                 // last, iterate all public legs
-                for (final Leg leg : legs) {
-                    if (leg instanceof Public) {
-                        final Public publicLeg = (Public) leg;
-                        final Line line = publicLeg.line;
-                        final Style style = line.style;
-                        final float radius;
-                        final int fillColor, fillColor2;
-                        final int labelColor;
-                        if (style != null) {
-                            if (style.shape == Shape.RECT)
-                                radius = 0;
-                            else if (style.shape == Shape.CIRCLE)
-                                radius = CIRCLE_CORNER_RADIUS;
-                            else
-                                radius = ROUNDED_CORNER_RADIUS;
-                            fillColor = style.backgroundColor;
-                            fillColor2 = style.backgroundColor2;
-                            labelColor = style.foregroundColor;
-                        } else {
-                            radius = ROUNDED_CORNER_RADIUS;
-                            fillColor = Color.GRAY;
-                            fillColor2 = 0;
-                            labelColor = Color.WHITE;
+                for (final PublicLegLayout publicLeg : tripLayout.publicLegs) {
+                    final float yDeparture = timeToCoord(publicLeg.tDeparture, height);
+                    final float yArrival = timeToCoord(publicLeg.tArrival, height);
+                    final float radius = publicLeg.radius;
+
+                    // line box
+                    final float margin = width * (1f - publicBoxFraction) / 2f;
+                    legBox.set(margin, yDeparture, margin + width * publicBoxFraction, yArrival);
+                    if (publicLeg.fillColor2 == 0) {
+                        publicFillPaint.setColor(publicLeg.fillColor);
+                        publicFillPaint.setShader(null);
+                    } else {
+                        final int gradientWidth = Math.round(legBox.width());
+                        final int gradientHeight = Math.round(legBox.height());
+                        if (publicLeg.gradient == null || gradientWidth != publicLeg.gradientWidth
+                                || gradientHeight != publicLeg.gradientHeight) {
+                            publicLeg.gradient = gradient(publicLeg.fillColor, publicLeg.fillColor2, gradientWidth,
+                                    gradientHeight);
+                            publicLeg.gradientWidth = gradientWidth;
+                            publicLeg.gradientHeight = gradientHeight;
                         }
+                        matrix.setTranslate(legBox.left, legBox.top);
+                        publicLeg.gradient.setLocalMatrix(matrix);
+                        publicFillPaint.setColor(publicLeg.fillColor);
+                        publicFillPaint.setShader(publicLeg.gradient);
+                    }
+                    canvas.drawRoundRect(legBox, radius, radius, publicFillPaint);
+                    if (publicLeg.strokeColor != null) {
+                        publicStrokePaint.setColor(publicLeg.strokeColor);
+                        canvas.drawRoundRect(legBox, radius, radius, publicStrokePaint);
+                    }
 
-                        final long tDeparture = publicLeg.departureStop.getDepartureTime().getTime();
-                        final float yDeparture = timeToCoord(tDeparture, height);
-                        final long tArrival = publicLeg.arrivalStop.getArrivalTime().getTime();
-                        final float yArrival = timeToCoord(tArrival, height);
-
-                        // line box
-                        final float margin = width * (1f - publicBoxFraction) / 2f;
-                        legBox.set(margin, yDeparture, margin + width * publicBoxFraction, yArrival);
-                        if (fillColor2 == 0) {
-                            publicFillPaint.setColor(fillColor);
-                            publicFillPaint.setShader(null);
+                    // line label
+                    final String[] lineLabels = publicLeg.labels;
+                    publicLabelPaint.setColor(publicLeg.labelColor);
+                    publicLabelPaint.setShadowLayer(publicLeg.shadowRadius, 0, 0, publicLeg.shadowColor);
+                    final float hLine = publicLabelMetrics.descent + (-publicLabelMetrics.ascent);
+                    float scale = hLine / legBox.height();
+                    final float lineSpacing = scale < 0.6f ? 4 * density : 1;
+                    if (scale < 1f)
+                        scale = 1f;
+                    publicLabelPaint.setTextSize(PUBLIC_LABEL_TEXT_SIZE / scale * density);
+                    publicLabelPaint.setTextScaleX(scale);
+
+                    // draw really centered on line box
+                    if (scale < 4f) {
+                        if (lineLabels.length == 1) {
+                            final float halfHeight = -publicLeg.labelCenterY / scale;
+                            canvas.drawText(lineLabels[0], legBox.centerX(), legBox.centerY() + halfHeight,
+                                    publicLabelPaint);
                         } else {
-                            matrix.reset();
-                            matrix.postRotate(90, legBox.centerX(), legBox.centerY());
-                            matrix.mapRect(legBoxRotated, legBox);
-                            gradientColors[0] = fillColor;
-                            gradientColors[1] = fillColor2;
-                            publicFillPaint.setShader(new LinearGradient(legBoxRotated.left, legBoxRotated.top,
-                                    legBoxRotated.right, legBoxRotated.bottom, gradientColors, GRADIENT_POSITIONS,
-                                    Shader.TileMode.CLAMP));
-                        }
-                        canvas.drawRoundRect(legBox, radius, radius, publicFillPaint);
-                        if (style != null && style.hasBorder()) {
-                            publicStrokePaint.setColor(style.borderColor);
-                            canvas.drawRoundRect(legBox, radius, radius, publicStrokePaint);
-                        } else if (darkMode && Style.perceivedBrightness(fillColor) < 0.15f ||
-                                !darkMode && Style.perceivedBrightness(fillColor) > 0.85f) {
-                            publicStrokePaint.setColor(colorSignificantInverse);
-                            canvas.drawRoundRect(legBox, radius, radius, publicStrokePaint);
-                        }
-
-                        // line label
-                        final String[] lineLabels = splitLineLabel(line.label != null ? line.label : "?");
-                        publicLabelPaint.setColor(labelColor);
-                        publicLabelPaint.setShadowLayer(
-                                publicLabelPaint.getColor() != Color.BLACK && publicLabelPaint.getColor() != Color.RED
-                                        ? 2f : 0f,
-                                0, 0, publicLabelPaint.getColor() != Color.BLACK ? Color.BLACK : Color.WHITE);
-                        publicLabelPaint.setTextSize(24f * density);
-                        final FontMetrics mLine = publicLabelPaint.getFontMetrics();
-                        final float hLine = mLine.descent + (-mLine.ascent);
-                        float scale = hLine / legBox.height();
-                        final float lineSpacing = scale < 0.6f ? 4 * density : 1;
-                        if (scale < 1f)
-                            scale = 1f;
-                        publicLabelPaint.setTextSize(24f / scale * density);
-                        publicLabelPaint.setTextScaleX(scale);
-
-                        // draw really centered on line box
-                        if (scale < 4f) {
-                            publicLabelPaint.getTextBounds(lineLabels[0], 0, lineLabels[0].length(), bounds);
-                            if (lineLabels.length == 1) {
-                                final int halfHeight = -bounds.centerY();
-                                canvas.drawText(lineLabels[0], legBox.centerX(), legBox.centerY() + halfHeight,
-                                        publicLabelPaint);
-                            } else {
-                                canvas.drawText(lineLabels[0], legBox.centerX(), legBox.centerY() - lineSpacing / 2,
-                                        publicLabelPaint);
-                                canvas.drawText(lineLabels[1], legBox.centerX(),
-                                        legBox.centerY() + bounds.height() + lineSpacing / 2, publicLabelPaint);
-                            }
+                            canvas.drawText(lineLabels[0], legBox.centerX(), legBox.centerY() - lineSpacing / 2,
+                                    publicLabelPaint);
+                            canvas.drawText(lineLabels[1], legBox.centerX(),
+                                    legBox.centerY() + publicLeg.labelHeight / scale + lineSpacing / 2,
+                                    publicLabelPaint);
                         }
                     }
                 }
@@ -550,15 +701,12 @@ public final class TripsGalleryAdapter extends BaseAdapter {
         }
 
         private void drawTime(final Canvas canvas, final int centerX, final int height, final boolean above,
-                final Paint paint, final boolean strikeThru, final Date time, final @Nullable Date timeKeepOut) {
-            final FontMetrics metrics = paint.getFontMetrics();
-
-            final long t = time.getTime();
+                final Paint paint, final FontMetrics metrics, final TimeLabel timeLabel) {
+            final long t = timeLabel.time;
             float y = timeToCoord(t, height);
-            final String str = timeFormat.format(t);
 
-            if (timeKeepOut != null) {
-                final long tKeepOut = timeKeepOut.getTime();
+            if (timeLabel.timeKeepOut != 0) {
+                final long tKeepOut = timeLabel.timeKeepOut;
                 final float yKeepOut = timeToCoord(tKeepOut, height);
                 if (t == tKeepOut)
                     return; // don't draw anything
@@ -570,37 +718,15 @@ public final class TripsGalleryAdapter extends BaseAdapter {
                     y = Math.max(y, yKeepOut + fontHeight);
             }
 
-            if (strikeThru)
+            if (timeLabel.cancelled)
                 paint.setFlags(paint.getFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
             else
                 paint.setFlags(paint.getFlags() & ~Paint.STRIKE_THRU_TEXT_FLAG);
 
             if (above)
-                canvas.drawText(str, centerX, y - metrics.descent, paint);
+                canvas.drawText(timeLabel.text, centerX, y - metrics.descent, paint);
             else
-                canvas.drawText(str, centerX, y + (-metrics.ascent), paint);
-        }
-
-        private final Pattern P_SPLIT_LINE_LABEL_1 = Pattern.compile("([^\\s]+)\\s+([^\\s]+)");
-        private final Pattern P_SPLIT_LINE_LABEL_2 = Pattern.compile("([a-zA-Z]+)(\\d+)");
-
-        private String[] splitLineLabel(final String label) {
-            if (label.length() <= 4)
-                return new String[] { label };
-
-            final Matcher m1 = P_SPLIT_LINE_LABEL_1.matcher(label);
-            if (m1.matches())
-                return new String[] { m1.group(1), m1.group(2) };
-
-            final Matcher m2 = P_SPLIT_LINE_LABEL_2.matcher(label);
-            if (m2.matches())
-                return new String[] { m2.group(1), m2.group(2) };
-
-            if (label.length() <= 5)
-                return new String[] { label };
-
-            final int splitIndex = (int) Math.ceil((double) label.length() / 2);
-            return new String[] { label.substring(0, splitIndex), label.substring(splitIndex) };
+                canvas.drawText(timeLabel.text, centerX, y + (-metrics.ascent), paint);
         }
 
         @Override
@@ -652,6 +778,13 @@ public final class TripsGalleryAdapter extends BaseAdapter {
         }
 
         private final RectF box = new RectF();
+        private LinearGradient gradient = null;
+
+        @Override
+        protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
+            super.onSizeChanged(w, h, oldw, oldh);
+            gradient = null;
+        }
 
         @Override
         protected void onDraw(final Canvas canvas) {
@@ -661,16 +794,17 @@ public final class TripsGalleryAdapter extends BaseAdapter {
             final int height = getHeight();
 
             final float left, right;
-            final LinearGradient gradient;
 
             if (later) {
                 left = width * 0.1f;
                 right = width;
-                gradient = new LinearGradient(left, 0, right, 0, COLOR, Color.TRANSPARENT, TileMode.CLAMP);
+                if (gradient == null)
+                    gradient = new LinearGradient(left, 0, right, 0, COLOR, Color.TRANSPARENT, TileMode.CLAMP);
             } else {
                 left = 0;
                 right = width * 0.9f;
-                gradient = new LinearGradient(left, 0, right, 0, Color.TRANSPARENT, COLOR, TileMode.CLAMP);
+                if (gradient == null)
+                    gradient = new LinearGradient(left, 0, right, 0, Color.TRANSPARENT, COLOR, TileMode.CLAMP);
             }
 
             box.set(left, 0, right, height);
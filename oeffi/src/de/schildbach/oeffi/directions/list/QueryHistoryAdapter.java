@@ -24,9 +24,12 @@ import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.BaseColumns;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.directions.QueryHistoryProvider;
@@ -36,6 +39,18 @@ import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.LocationType;
 import de.schildbach.pte.dto.Point;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Query history, loaded into immutable entries off the UI thread. Changes are diffed in the background as well, so
+ * only entries that actually changed are rebound and animated.
+ */
 public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHolder> {
     private final Context context;
     private final ContentResolver contentResolver;
@@ -44,27 +59,63 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
     private final QueryHistoryClickListener clickListener;
     private final QueryHistoryContextMenuItemListener contextMenuItemListener;
 
-    private final Cursor cursor;
+    private final Uri uri;
     private final ContentObserver contentObserver;
-    private final int rowIdColumn;
-    private final int fromTypeColumn;
-    private final int fromIdColumn;
-    private final int fromLatColumn;
-    private final int fromLonColumn;
-    private final int fromPlaceColumn;
-    private final int fromNameColumn;
-    private final int toTypeColumn;
-    private final int toIdColumn;
-    private final int toLatColumn;
-    private final int toLonColumn;
-    private final int toPlaceColumn;
-    private final int toNameColumn;
-    private final int favoriteColumn;
-    private final int savedTripDepartureTimeColumn;
-    private final int savedTripColumn;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AsyncListDiffer<Entry> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
 
     private long selectedRowId = RecyclerView.NO_ID;
 
+    private static final Executor loadExecutor = Executors.newSingleThreadExecutor();
+
+    private static final class Entry {
+        final long rowId;
+        final Location from;
+        final Location to;
+        final boolean isFavorite;
+        final long savedTripDepartureTime;
+        @Nullable
+        final byte[] serializedSavedTrip;
+        @Nullable
+        final Integer fromFavState;
+        @Nullable
+        final Integer toFavState;
+
+        Entry(final long rowId, final Location from, final Location to, final boolean isFavorite,
+                final long savedTripDepartureTime, @Nullable final byte[] serializedSavedTrip,
+                @Nullable final Integer fromFavState, @Nullable final Integer toFavState) {
+            this.rowId = rowId;
+            this.from = from;
+            this.to = to;
+            this.isFavorite = isFavorite;
+            this.savedTripDepartureTime = savedTripDepartureTime;
+            this.serializedSavedTrip = serializedSavedTrip;
+            this.fromFavState = fromFavState;
+            this.toFavState = toFavState;
+        }
+
+        boolean sameContent(final Entry other) {
+            return from.equals(other.from) && Objects.equals(from.name, other.from.name)
+                    && to.equals(other.to) && Objects.equals(to.name, other.to.name)
+                    && isFavorite == other.isFavorite && savedTripDepartureTime == other.savedTripDepartureTime
+                    && Arrays.equals(serializedSavedTrip, other.serializedSavedTrip)
+                    && Objects.equals(fromFavState, other.fromFavState)
+                    && Objects.equals(toFavState, other.toFavState);
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Entry> DIFF_CALLBACK = new DiffUtil.ItemCallback<Entry>() {
+        @Override
+        public boolean areItemsTheSame(final Entry oldEntry, final Entry newEntry) {
+            return oldEntry.rowId == newEntry.rowId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(final Entry oldEntry, final Entry newEntry) {
+            return oldEntry.sameContent(newEntry);
+        }
+    };
+
     public QueryHistoryAdapter(final Context context, final NetworkId network,
             final QueryHistoryClickListener clickListener,
             final QueryHistoryContextMenuItemListener contextMenuItemListener) {
@@ -75,62 +126,49 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
         this.clickListener = clickListener;
         this.contextMenuItemListener = contextMenuItemListener;
 
-        final Uri uri = QueryHistoryProvider.CONTENT_URI.buildUpon()
-                .appendPath(network != null ? network.name() : "_NONE_").build();
-        cursor = contentResolver.query(uri, null, null, null,
-                QueryHistoryProvider.KEY_FAVORITE + " DESC, " + QueryHistoryProvider.KEY_LAST_QUERIED + " DESC");
-        contentObserver = new ContentObserver(new Handler()) {
+        uri = QueryHistoryProvider.CONTENT_URI.buildUpon().appendPath(network != null ? network.name() : "_NONE_")
+                .build();
+        contentObserver = new ContentObserver(handler) {
             @Override
             public void onChange(final boolean selfChange) {
-                cursor.requery();
-                notifyDataSetChanged();
+                reload();
             }
         };
         contentResolver.registerContentObserver(uri, true, contentObserver);
-        rowIdColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
-        fromTypeColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_TYPE);
-        fromIdColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_ID);
-        fromLatColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_LAT);
-        fromLonColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_LON);
-        fromPlaceColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_PLACE);
-        fromNameColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_NAME);
-        toTypeColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_TYPE);
-        toIdColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_ID);
-        toLatColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_LAT);
-        toLonColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_LON);
-        toPlaceColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_PLACE);
-        toNameColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_NAME);
-        favoriteColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FAVORITE);
-        savedTripDepartureTimeColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_LAST_DEPARTURE_TIME);
-        savedTripColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_LAST_TRIP);
+        // entries show the favorite state of their locations
+        contentResolver.registerContentObserver(FavoriteStationsProvider.CONTENT_URI, true, contentObserver);
 
         setHasStableIds(true);
+
+        reload();
     }
 
     public void close() {
         contentResolver.unregisterContentObserver(contentObserver);
-        cursor.close();
+    }
+
+    /**
+     * Reloads entries in the background. Changes to the history or to favorites are picked up automatically.
+     */
+    public void reload() {
+        loadExecutor.execute(() -> {
+            final List<Entry> entries = load();
+            handler.post(() -> differ.submitList(entries));
+        });
     }
 
     public Uri putEntry(final Location from, final Location to) {
-        final Uri uri = QueryHistoryProvider.put(contentResolver, network, from, to, null, true);
-        notifyDataSetChanged();
-        cursor.requery();
-        return uri;
+        return QueryHistoryProvider.put(contentResolver, network, from, to, null, true);
     }
 
     public void removeEntry(final int position) {
         final Uri uri = QueryHistoryProvider.historyRowUri(network, getItemId(position));
         contentResolver.delete(uri, null, null);
-        notifyItemRemoved(position);
-        cursor.requery();
     }
 
     public void removeAllEntries() {
         final Uri uri = QueryHistoryProvider.CONTENT_URI.buildUpon().appendPath(network.name()).build();
         contentResolver.delete(uri, null, null);
-        notifyItemRangeRemoved(0, getItemCount());
-        cursor.requery();
     }
 
     public void setIsFavorite(final int position, final boolean isFavorite) {
@@ -138,8 +176,6 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
         final ContentValues values = new ContentValues();
         values.put(QueryHistoryProvider.KEY_FAVORITE, isFavorite ? 1 : 0);
         contentResolver.update(uri, values, null, null);
-        notifyDataSetChanged();
-        cursor.requery();
     }
 
     public void setSavedTrip(final int position, final long departureTime, final long arrivalTime,
@@ -150,13 +186,17 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
         values.put(QueryHistoryProvider.KEY_LAST_ARRIVAL_TIME, arrivalTime);
         values.put(QueryHistoryProvider.KEY_LAST_TRIP, serializedTrip);
         contentResolver.update(uri, values, null, null);
-        notifyItemChanged(position);
-        cursor.requery();
     }
 
     public void setSelectedEntry(final long rowId) {
+        final long previousRowId = this.selectedRowId;
         this.selectedRowId = rowId;
-        notifyDataSetChanged();
+        final List<Entry> entries = differ.getCurrentList();
+        for (int position = 0; position < entries.size(); position++) {
+            final long entryRowId = entries.get(position).rowId;
+            if (entryRowId == previousRowId || entryRowId == rowId)
+                notifyItemChanged(position);
+        }
     }
 
     public void clearSelectedEntry() {
@@ -165,13 +205,12 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
 
     @Override
     public int getItemCount() {
-        return cursor.getCount();
+        return differ.getCurrentList().size();
     }
 
     @Override
     public long getItemId(final int position) {
-        cursor.moveToPosition(position);
-        return cursor.getLong(rowIdColumn);
+        return differ.getCurrentList().get(position).rowId;
     }
 
     @Override
@@ -182,30 +221,66 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
 
     @Override
     public void onBindViewHolder(final QueryHistoryViewHolder holder, final int position) {
-        cursor.moveToPosition(position);
-        final long rowId = cursor.getLong(rowIdColumn);
-        final LocationType fromType = QueryHistoryProvider.convert(cursor.getInt(fromTypeColumn));
-        final String fromId = cursor.getString(fromIdColumn);
-        final int fromLat = cursor.getInt(fromLatColumn);
-        final int fromLon = cursor.getInt(fromLonColumn);
-        final Point fromCoord = fromLat != 0 || fromLon != 0 ? Point.from1E6(fromLat, fromLon) : null;
-        final String fromPlace = cursor.getString(fromPlaceColumn);
-        final String fromName = cursor.getString(fromNameColumn);
-        final Location from = new Location(fromType, fromId, fromCoord, fromPlace, fromName);
-        final LocationType toType = QueryHistoryProvider.convert(cursor.getInt(toTypeColumn));
-        final String toId = cursor.getString(toIdColumn);
-        final int toLat = cursor.getInt(toLatColumn);
-        final int toLon = cursor.getInt(toLonColumn);
-        final Point toCoord = toLat != 0 || toLon != 0 ? Point.from1E6(toLat, toLon) : null;
-        final String toPlace = cursor.getString(toPlaceColumn);
-        final String toName = cursor.getString(toNameColumn);
-        final Location to = new Location(toType, toId, toCoord, toPlace, toName);
-        final boolean isFavorite = cursor.getInt(favoriteColumn) == 1;
-        final long savedTripDepartureTime = cursor.getLong(savedTripDepartureTimeColumn);
-        final byte[] serializedSavedTrip = cursor.getBlob(savedTripColumn);
-        final Integer fromFavState = FavoriteStationsProvider.favState(contentResolver, network, from);
-        final Integer toFavState = FavoriteStationsProvider.favState(contentResolver, network, to);
-        holder.bind(rowId, from, to, isFavorite, savedTripDepartureTime, serializedSavedTrip, fromFavState, toFavState,
-                selectedRowId, clickListener, contextMenuItemListener);
+        final Entry entry = differ.getCurrentList().get(position);
+        holder.bind(entry.rowId, entry.from, entry.to, entry.isFavorite, entry.savedTripDepartureTime,
+                entry.serializedSavedTrip, entry.fromFavState, entry.toFavState, selectedRowId, clickListener,
+                contextMenuItemListener);
+    }
+
+    private List<Entry> load() {
+        final Cursor cursor = contentResolver.query(uri, null, null, null,
+                QueryHistoryProvider.KEY_FAVORITE + " DESC, " + QueryHistoryProvider.KEY_LAST_QUERIED + " DESC");
+        if (cursor == null)
+            return new ArrayList<>();
+        try {
+            final int rowIdColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+            final int fromTypeColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_TYPE);
+            final int fromIdColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_ID);
+            final int fromLatColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_LAT);
+            final int fromLonColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_LON);
+            final int fromPlaceColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_PLACE);
+            final int fromNameColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_NAME);
+            final int toTypeColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_TYPE);
+            final int toIdColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_ID);
+            final int toLatColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_LAT);
+            final int toLonColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_LON);
+            final int toPlaceColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_PLACE);
+            final int toNameColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_NAME);
+            final int favoriteColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FAVORITE);
+            final int savedTripDepartureTimeColumn = cursor
+                    .getColumnIndexOrThrow(QueryHistoryProvider.KEY_LAST_DEPARTURE_TIME);
+            final int savedTripColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_LAST_TRIP);
+
+            final List<Entry> entries = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                final long rowId = cursor.getLong(rowIdColumn);
+                final LocationType fromType = QueryHistoryProvider.convert(cursor.getInt(fromTypeColumn));
+                final String fromId = cursor.getString(fromIdColumn);
+                final int fromLat = cursor.getInt(fromLatColumn);
+                final int fromLon = cursor.getInt(fromLonColumn);
+                final Point fromCoord = fromLat != 0 || fromLon != 0 ? Point.from1E6(fromLat, fromLon) : null;
+                final String fromPlace = cursor.getString(fromPlaceColumn);
+                final String fromName = cursor.getString(fromNameColumn);
+                final Location from = new Location(fromType, fromId, fromCoord, fromPlace, fromName);
+                final LocationType toType = QueryHistoryProvider.convert(cursor.getInt(toTypeColumn));
+                final String toId = cursor.getString(toIdColumn);
+                final int toLat = cursor.getInt(toLatColumn);
+                final int toLon = cursor.getInt(toLonColumn);
+                final Point toCoord = toLat != 0 || toLon != 0 ? Point.from1E6(toLat, toLon) : null;
+                final String toPlace = cursor.getString(toPlaceColumn);
+                final String toName = cursor.getString(toNameColumn);
+                final Location to = new Location(toType, toId, toCoord, toPlace, toName);
+                final boolean isFavorite = cursor.getInt(favoriteColumn) == 1;
+                final long savedTripDepartureTime = cursor.getLong(savedTripDepartureTimeColumn);
+                final byte[] serializedSavedTrip = cursor.getBlob(savedTripColumn);
+                final Integer fromFavState = FavoriteStationsProvider.favState(contentResolver, network, from);
+                final Integer toFavState = FavoriteStationsProvider.favState(contentResolver, network, to);
+                entries.add(new Entry(rowId, from, to, isFavorite, savedTripDepartureTime, serializedSavedTrip,
+                        fromFavState, toFavState));
+            }
+            return entries;
+        } finally {
+            cursor.close();
+        }
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.network;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Catalogue of all networks from {@code networks.txt}, with the resource IDs of their icon, logo, label, comment
+ * and license. Both only change with the app version, so the catalogue is built once per process and shared; the
+ * IDs are resolved by name only once, rather than on every bind. Resources themselves are still loaded via the
+ * IDs, so they follow configuration changes like the locale.
+ */
+public final class NetworkCatalogue {
+    public static final class Entry {
+        public final String id;
+        public final @Nullable String group;
+        public final String coverage;
+        public final @Nullable String state;
+        public final int iconResId;
+        public final int logoResId;
+        public final int labelResId;
+        public final int commentResId;
+        public final int licenseResId;
+        public final int stateResId;
+
+        private Entry(final String id, @Nullable final String group, final String coverage,
+                @Nullable final String state, final Resources res, final String packageName) {
+            this.id = id;
+            this.group = group;
+            this.coverage = coverage;
+            this.state = state;
+            final String prefix = "network_" + id.toLowerCase(Locale.ENGLISH);
+            this.iconResId = res.getIdentifier(prefix + "_icon", "drawable", packageName);
+            this.logoResId = res.getIdentifier(prefix + "_logo", "drawable", packageName);
+            this.labelResId = res.getIdentifier(prefix + "_label", "string", packageName);
+            this.commentResId = res.getIdentifier(prefix + "_comment", "string", packageName);
+            this.licenseResId = res.getIdentifier(prefix + "_license", "string", packageName);
+            this.stateResId = state != null
+                    ? res.getIdentifier("network_picker_entry_state_" + state, "string", packageName) : 0;
+        }
+    }
+
+    private final Resources res;
+    private final String packageName;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+
+    private static final String INDEX_FILENAME = "networks.txt";
+
+    private static NetworkCatalogue instance = null;
+
+    public static synchronized NetworkCatalogue get(final Context context) {
+        if (instance == null)
+            instance = new NetworkCatalogue(context.getApplicationContext());
+        return instance;
+    }
+
+    private NetworkCatalogue(final Context context) {
+        this.res = context.getResources();
+        this.packageName = context.getPackageName();
+
+        final List<Entry> entries = new ArrayList<>();
+        String line = null;
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(context.getAssets().open(INDEX_FILENAME), StandardCharsets.UTF_8))) {
+            while (true) {
+                line = reader.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+
+                final String[] fields = line.split("\\|");
+                final String networkId = fields[0];
+                final String group = fields[1];
+                final String coverage = fields.length >= 3 ? fields[2] : "";
+                final String state = fields.length >= 4 ? fields[3] : null;
+                final Entry entry = new Entry(networkId, group, coverage, state, res, packageName);
+                entries.add(entry);
+                byId.put(key(networkId), entry);
+            }
+        } catch (final Exception x) {
+            throw new RuntimeException("problem parsing: '" + line + "'", x);
+        }
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return all networks, in the order of {@code networks.txt}
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * @return entry for the given network ID; IDs not in {@code networks.txt} get an entry without group
+     */
+    public Entry entry(final String networkId) {
+        final String key = key(networkId);
+        final Entry entry = byId.get(key);
+        if (entry != null)
+            return entry;
+        final Entry newEntry = new Entry(networkId, null, "", null, res, packageName);
+        byId.put(key, newEntry);
+        return newEntry;
+    }
+
+    private static String key(final String networkId) {
+        return networkId.toLowerCase(Locale.ENGLISH);
+    }
+}
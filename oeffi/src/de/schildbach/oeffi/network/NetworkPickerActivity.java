@@ -67,9 +67,7 @@ import de.schildbach.pte.dto.Point;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -101,7 +99,6 @@ public class NetworkPickerActivity extends ComponentActivity implements Location
     private Handler backgroundHandler;
     private final Handler handler = new Handler();
 
-    private static final String INDEX_FILENAME = "networks.txt";
     private static final int MAX_LAST_NETWORKS = 3;
 
     private static final Logger log = LoggerFactory.getLogger(NetworkPickerActivity.class);
@@ -379,29 +376,9 @@ public class NetworkPickerActivity extends ComponentActivity implements Location
         final Map<String, NetworkListEntry> entriesMap = new LinkedHashMap<>();
         final List<NetworkListEntry> entries = new LinkedList<>();
 
-        String line = null;
-        try (final BufferedReader reader =
-                     new BufferedReader(new InputStreamReader(getAssets().open(INDEX_FILENAME)))) {
-            while (true) {
-                line = reader.readLine();
-                if (line == null)
-                    break;
-                line = line.trim();
-                if (line.length() == 0 || line.charAt(0) == '#')
-                    continue;
-
-                final String[] fields = line.split("\\|");
-                final String networkId = fields[0];
-                final String group = fields[1];
-                final String coverage = fields.length >= 3 ? fields[2] : "";
-                final String state = fields.length >= 4 ? fields[3] : null;
-                final NetworkListEntry entry = new NetworkListEntry.Network(networkId, state, group, coverage);
-
-                entriesMap.put(networkId, entry);
-            }
-        } catch (final Exception x) {
-            throw new RuntimeException("problem parsing: '" + line + "'", x);
-        }
+        for (final NetworkCatalogue.Entry network : NetworkCatalogue.get(this).entries())
+            entriesMap.put(network.id,
+                    new NetworkListEntry.Network(network.id, network.state, network.group, network.coverage));
 
         // last used networks
         boolean firstLastUsed = true;
@@ -22,7 +22,6 @@ import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 
 import javax.annotation.Nullable;
-import java.util.Locale;
 
 import static java.util.Objects.requireNonNull;
 
@@ -45,30 +44,24 @@ public class NetworkResources {
     }
 
     public static NetworkResources instance(final Context context, final String networkId) {
-        final String prefix = "network_" + networkId.toLowerCase(Locale.ENGLISH);
+        final NetworkCatalogue.Entry entry = NetworkCatalogue.get(context).entry(networkId);
         final Resources res = context.getResources();
-        final String packageName = context.getPackageName();
 
-        final int iconId = res.getIdentifier(prefix + "_icon", "drawable", packageName);
-        final int logoId = res.getIdentifier(prefix + "_logo", "drawable", packageName);
         final Drawable icon;
         final boolean isLogo;
-        if (logoId != 0) {
-            icon = res.getDrawable(logoId);
+        if (entry.logoResId != 0) {
+            icon = res.getDrawable(entry.logoResId);
             isLogo = true;
-        } else if (iconId != 0) {
-            icon = res.getDrawable(iconId);
+        } else if (entry.iconResId != 0) {
+            icon = res.getDrawable(entry.iconResId);
             isLogo = false;
         } else {
             icon = null;
             isLogo = false;
         }
-        final int labelId = res.getIdentifier(prefix + "_label", "string", packageName);
-        final String label = labelId != 0 ? res.getString(labelId) : networkId;
-        final int commentId = res.getIdentifier(prefix + "_comment", "string", packageName);
-        final String comment = commentId != 0 ? res.getString(commentId) : null;
-        final int licenseId = res.getIdentifier(prefix + "_license", "string", packageName);
-        final String license = licenseId != 0 ? res.getString(licenseId) : null;
+        final String label = entry.labelResId != 0 ? res.getString(entry.labelResId) : networkId;
+        final String comment = entry.commentResId != 0 ? res.getString(entry.commentResId) : null;
+        final String license = entry.licenseResId != 0 ? res.getString(entry.licenseResId) : null;
         final boolean cooperation = isLogo;
 
         return new NetworkResources(icon, isLogo, label, comment, license, cooperation);
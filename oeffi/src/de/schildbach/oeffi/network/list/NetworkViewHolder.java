@@ -26,6 +26,7 @@ import android.widget.PopupMenu;
 import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.oeffi.R;
+import de.schildbach.oeffi.network.NetworkCatalogue;
 import de.schildbach.oeffi.network.NetworkResources;
 
 import javax.annotation.Nullable;
@@ -84,9 +85,9 @@ public class NetworkViewHolder extends RecyclerView.ViewHolder {
         labelView.setText(networkRes.label);
         labelView.setTextColor(isEnabled ? colorSignificant : colorLessSignificant);
 
-        if (entry.state != null && isEnabled)
-            stateView.setText(
-                    res.getIdentifier("network_picker_entry_state_" + entry.state, "string", context.getPackageName()));
+        final int stateResId = NetworkCatalogue.get(context).entry(entry.id).stateResId;
+        if (stateResId != 0 && isEnabled)
+            stateView.setText(stateResId);
         else
             stateView.setText(null);
 
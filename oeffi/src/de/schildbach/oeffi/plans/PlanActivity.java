@@ -22,7 +22,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
@@ -107,6 +106,7 @@ public class PlanActivity extends ComponentActivity {
     private LineView bubbleLinesView;
     private ZoomControls zoom;
     private TiledImageDrawable drawable;
+    private File planFile;
     @Nullable
     private Station selection = null;
     private List<Station> stations = new LinkedList<>();
@@ -179,7 +179,10 @@ public class PlanActivity extends ComponentActivity {
                 "Required intent extra: " + INTENT_EXTRA_PLAN_ID);
         final Uri planContentUri = PlanContentProvider.planUri(planId);
         final String planFilename = planId + ".png";
-        final File planFile = new File(getDir(Constants.PLANS_DIR, Context.MODE_PRIVATE), planFilename);
+        planFile = new File(getDir(Constants.PLANS_DIR, Context.MODE_PRIVATE), planFilename);
+        // keep the plan from being evicted while it is open
+        application.diskQuota().pin(planFile);
+        application.diskQuota().recordAccess(planFile);
 
         final Cursor cursor = getContentResolver().query(planContentUri, null, null, null, null);
         cursor.moveToFirst();
@@ -210,13 +213,14 @@ public class PlanActivity extends ComponentActivity {
             stationsCursor.close();
         }
 
-        final Downloader downloader = new Downloader(getCacheDir());
         final HttpUrl remoteUrl = planUrlStr != null ? HttpUrl.parse(planUrlStr)
                 : Constants.PLANS_BASE_URL.newBuilder().addEncodedPathSegment(planFilename).build();
-        final CompletableFuture<Integer> download = downloader.download(application.okHttpClient(), remoteUrl, planFile);
+        final CompletableFuture<Integer> download = application.downloader().download(application.okHttpClient(),
+                remoteUrl, planFile, Downloader.Priority.INTERACTIVE);
 
         download.whenComplete((status, t) -> {
             if (t == null && status == HttpURLConnection.HTTP_OK) {
+                application.trimDiskQuota();
                 runOnUiThread(() -> loadPlan(planFile));
             }
         });
@@ -251,6 +255,12 @@ public class PlanActivity extends ComponentActivity {
         // cancel background thread
         backgroundThread.getLooper().quit();
 
+        if (drawable != null)
+            drawable.close();
+
+        if (planFile != null)
+            application.diskQuota().unpin(planFile);
+
         super.onDestroy();
     }
 
@@ -330,29 +340,19 @@ public class PlanActivity extends ComponentActivity {
         zoom.setIsZoomOutEnabled(plan.canZoomOut());
     }
 
-    private static final BitmapFactory.Options LOWMEM_OPTIONS = new BitmapFactory.Options();
-    static {
-        LOWMEM_OPTIONS.inPreferredConfig = Bitmap.Config.RGB_565;
-        LOWMEM_OPTIONS.inDither = true;
-    }
-
     private void loadPlan(final File planFile) {
         try {
-            final Bitmap bitmap = BitmapFactory.decodeFile(planFile.getPath(), LOWMEM_OPTIONS);
-            if (bitmap == null)
-                throw new IOException("Cannot decode bitmap from file descriptor");
-
-            final int height = bitmap.getHeight();
-            final int halfHeight = height / 2;
-            final int width = bitmap.getWidth();
-            final int halfWidth = width / 2;
-
-            final Bitmap nwBitmap = Bitmap.createBitmap(bitmap, 0, 0, halfWidth, halfHeight);
-            final Bitmap neBitmap = Bitmap.createBitmap(bitmap, halfWidth, 0, width - halfWidth, halfHeight);
-            final Bitmap swBitmap = Bitmap.createBitmap(bitmap, 0, halfHeight, halfWidth, height - halfHeight);
-            final Bitmap seBitmap = Bitmap.createBitmap(bitmap, halfWidth, halfHeight, width - halfWidth,
-                    height - halfHeight);
-            drawable = new TiledImageDrawable(nwBitmap, neBitmap, swBitmap, seBitmap);
+            TiledImageDrawable.TileDecoder decoder = PlanTilePyramid.open(planFile);
+            if (decoder == null) {
+                // fall back to decoding regions of the plan itself, and prepare pyramid for next time
+                decoder = new TiledImageDrawable.RegionTileDecoder(planFile.getPath());
+                PlanTilePyramid.generateAsync(planFile);
+            }
+            final Bitmap overview = decoder.decodeOverview();
+
+            if (drawable != null)
+                drawable.close();
+            drawable = new TiledImageDrawable(decoder, overview, decoder.getWidth(), decoder.getHeight());
 
             plan.setImageDrawable(drawable);
 
@@ -21,9 +21,9 @@ import android.app.SearchManager;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.CursorWrapper;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import de.schildbach.oeffi.Application;
 import de.schildbach.oeffi.Constants;
@@ -45,23 +45,22 @@ import java.net.HttpURLConnection;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
-import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
-import static java.util.Objects.requireNonNull;
-
 public class PlanContentProvider extends ContentProvider {
     public static final Uri CONTENT_URI = Uri.parse("content://de.schildbach.oeffi.plans");
 
+    /** {@link android.content.ContentResolver#call} method that revalidates the index and stations downloads. */
+    public static final String METHOD_REFRESH = "refresh";
+
     public static final String KEY_PLAN_ID = "plan_id";
     public static final String KEY_PLAN_NAME = "plan_name";
     public static final String KEY_PLAN_LAT = "plan_lat";
@@ -78,8 +77,13 @@ public class PlanContentProvider extends ContentProvider {
     public static final String KEY_STATION_X = "station_x";
     public static final String KEY_STATION_Y = "station_y";
 
+    private static final String QUERY_PARAM_RADIUS = "radius";
+
     private Application application;
-    private Downloader downloader;
+    private PlanIndex planIndex;
+    private PlanStationsIndex stationsIndex; // guarded by this
+    private long stationsIndexFailedLastModified = 0; // guarded by this
+    private final StationsIndexer stationsIndexer = new StationsIndexer();
 
     private static final Logger log = LoggerFactory.getLogger(PlanContentProvider.class);
 
@@ -87,6 +91,12 @@ public class PlanContentProvider extends ContentProvider {
         return CONTENT_URI.buildUpon().appendPath("plan").appendPath(planId).build();
     }
 
+    public static Uri nearUri(final Point point, final int radiusMeters) {
+        return CONTENT_URI.buildUpon().appendPath("near")
+                .appendPath(point.getLatAsDouble() + "," + point.getLonAsDouble())
+                .appendQueryParameter(QUERY_PARAM_RADIUS, Integer.toString(radiusMeters)).build();
+    }
+
     public static Uri stationsUri(final String planId) {
         return planUri(planId).buildUpon().appendPath("stations").build();
     }
@@ -99,7 +109,6 @@ public class PlanContentProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         this.application = (Application) getContext();
-        downloader = new Downloader(application.getCacheDir());
         return true;
     }
 
@@ -108,26 +117,22 @@ public class PlanContentProvider extends ContentProvider {
         return null;
     }
 
+    @Override
+    public Bundle call(final String method, @Nullable final String arg, @Nullable final Bundle extras) {
+        if (METHOD_REFRESH.equals(method)) {
+            download(CONTENT_URI);
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
     @Override
     public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs,
             final String sortOrder) {
-        BiConsumer<? super Integer, ? super Throwable> notifyChangeCallback = (status, t) -> {
-            if (t == null && status == HttpURLConnection.HTTP_OK)
-                getContext().getContentResolver().notifyChange(uri, null);
-        };
+        download(uri);
 
         final File indexFile = new File(getContext().getFilesDir(), Constants.PLAN_INDEX_FILENAME);
-        final HttpUrl remoteIndexUrl = Constants.PLANS_BASE_URL.newBuilder()
-                .addPathSegment(Constants.PLAN_INDEX_FILENAME).build();
-        final CompletableFuture<Integer> download = downloader.download(application.okHttpClient(), remoteIndexUrl, indexFile);
-        download.whenComplete(notifyChangeCallback);
-
         final File stationsFile = new File(getContext().getFilesDir(), Constants.PLAN_STATIONS_FILENAME);
-        final HttpUrl remoteStationsUrl = Constants.PLANS_BASE_URL.newBuilder()
-                .addPathSegment(Constants.PLAN_STATIONS_FILENAME + ".bz2").build();
-        final CompletableFuture<Integer> stationsDownload = downloader.download(application.okHttpClient(), remoteStationsUrl, stationsFile, true);
-        stationsDownload.whenComplete(notifyChangeCallback);
-
         final List<String> pathSegments = uri.getPathSegments();
         if (pathSegments.size() <= 2) {
             String q = null;
@@ -136,20 +141,16 @@ public class PlanContentProvider extends ContentProvider {
                 id = pathSegments.get(1).trim();
             else if (pathSegments.size() == 2 && pathSegments.get(0).equals(SearchManager.SUGGEST_URI_PATH_QUERY))
                 q = pathSegments.get(1).trim().toLowerCase(Locale.ENGLISH);
+            else if (pathSegments.size() == 2 && pathSegments.get(0).equals("near"))
+                return readIndexIntoCursor(indexFile, null, null, parsePoint(pathSegments.get(1)),
+                        parseRadius(uri));
             else if (pathSegments.isEmpty())
                 id = null;
             else
                 throw new IllegalArgumentException("Bad path: " + uri);
 
-            final Cursor cursor = readIndexIntoCursor(indexFile, id, q);
-            if (sortOrder != null) {
-                final String[] latLon = sortOrder.split(",");
-                final double lat = Double.parseDouble(latLon[0]);
-                final double lon = Double.parseDouble(latLon[1]);
-                return new DistanceSortingCursorWrapper(cursor, lat, lon);
-            } else {
-                return cursor;
-            }
+            final Point sortReference = sortOrder != null ? parsePoint(sortOrder) : null;
+            return readIndexIntoCursor(indexFile, id, q, sortReference, 0);
         } else if (pathSegments.size() == 3) {
             if (pathSegments.get(0).equals("plan") && pathSegments.get(2).equals("stations")) {
                 final String planId = pathSegments.get(1).trim();
@@ -163,32 +164,131 @@ public class PlanContentProvider extends ContentProvider {
         throw new IllegalArgumentException("Bad path: " + uri);
     }
 
+    // revalidates both downloads, notifying the given uri of changed content
+    private void download(final Uri notifyUri) {
+        final BiConsumer<? super Integer, ? super Throwable> notifyChangeCallback = (status, t) -> {
+            if (t == null && status == HttpURLConnection.HTTP_OK)
+                getContext().getContentResolver().notifyChange(notifyUri, null);
+        };
+
+        final File indexFile = new File(getContext().getFilesDir(), Constants.PLAN_INDEX_FILENAME);
+        final HttpUrl remoteIndexUrl = Constants.PLANS_BASE_URL.newBuilder()
+                .addPathSegment(Constants.PLAN_INDEX_FILENAME).build();
+        final CompletableFuture<Integer> download = application.downloader().download(application.okHttpClient(), remoteIndexUrl, indexFile);
+        download.whenComplete(notifyChangeCallback);
+
+        final File stationsFile = new File(getContext().getFilesDir(), Constants.PLAN_STATIONS_FILENAME);
+        final HttpUrl remoteStationsUrl = Constants.PLANS_BASE_URL.newBuilder()
+                .addPathSegment(Constants.PLAN_STATIONS_FILENAME + ".bz2").build();
+        final CompletableFuture<Integer> stationsDownload = application.downloader().download(
+                application.okHttpClient(), remoteStationsUrl, stationsFile, true, Downloader.Priority.BACKGROUND,
+                null, stationsIndexer);
+        stationsDownload.whenComplete(notifyChangeCallback);
+    }
+
     private Cursor readIndexIntoCursor(final File indexFile, @Nullable final String idFilter,
+            @Nullable final String query, @Nullable final Point sortReference, final double radiusMeters) {
+        final PlanIndex index = loadIndex(indexFile);
+
+        final MatrixCursor cursor = new MatrixCursor(
+                new String[] { BaseColumns._ID, KEY_PLAN_ID, KEY_PLAN_NAME, KEY_PLAN_LAT, KEY_PLAN_LON,
+                        KEY_PLAN_VALID_FROM, KEY_PLAN_DISCLAIMER, KEY_PLAN_REMOTE_URL, KEY_PLAN_NETWORK_LOGO });
+
+        final int[] order;
+        if (sortReference != null && radiusMeters > 0) {
+            order = index.spatialIndex.withinRadius(sortReference.getLatAsDouble(), sortReference.getLonAsDouble(),
+                    radiusMeters);
+        } else {
+            // filter first, so that only the matches need to be sorted
+            final int[] matches = new int[index.entries.size()];
+            int matchCount = 0;
+            for (int i = 0; i < matches.length; i++)
+                if (filterMatch(index.entries.get(i), idFilter, query))
+                    matches[matchCount++] = i;
+            order = Arrays.copyOf(matches, matchCount);
+            if (sortReference != null)
+                sortByDistance(index.spatialIndex, sortReference, order);
+        }
+
+        for (final int position : order) {
+            final PlanIndexEntry entry = index.entries.get(position);
+            if (filterMatch(entry, idFilter, query)) {
+                cursor.newRow().add(entry.rowId).add(entry.planId).add(entry.name).add(entry.point.getLatAs1E6())
+                        .add(entry.point.getLonAs1E6()).add(entry.validFrom != null ? entry.validFrom.getTime() : 0)
+                        .add(entry.disclaimer).add(entry.url).add(entry.networkLogo);
+            }
+        }
+
+        return cursor;
+    }
+
+    private static boolean filterMatch(final PlanIndexEntry entry, @Nullable final String idFilter,
             @Nullable final String query) {
+        if (query != null && !entry.name.toLowerCase(Constants.DEFAULT_LOCALE).contains(query)
+                && !(entry.disclaimer != null
+                        && entry.disclaimer.toLowerCase(Constants.DEFAULT_LOCALE).contains(query)))
+            return false;
+        if (idFilter != null && !entry.planId.equals(idFilter))
+            return false;
+        return true;
+    }
+
+    private static void sortByDistance(final PlanSpatialIndex spatialIndex, final Point reference,
+            final int[] positions) {
+        final double lat = reference.getLatAsDouble(), lon = reference.getLonAsDouble();
+        final long[] keyed = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            // distances are non-negative, so their bits sort like the distances themselves
+            final long distanceBits = Double.doubleToLongBits(spatialIndex.distance(lat, lon, positions[i]));
+            keyed[i] = (distanceBits & ~0xffffffffL) | positions[i];
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = (int) keyed[i];
+    }
+
+    private static double parseRadius(final Uri uri) {
+        final String radius = uri.getQueryParameter(QUERY_PARAM_RADIUS);
+        if (radius == null)
+            throw new IllegalArgumentException("Missing " + QUERY_PARAM_RADIUS + ": " + uri);
+        try {
+            final double radiusMeters = Double.parseDouble(radius);
+            if (!(radiusMeters > 0))
+                throw new IllegalArgumentException("Bad " + QUERY_PARAM_RADIUS + ": " + uri);
+            return radiusMeters;
+        } catch (final NumberFormatException x) {
+            throw new IllegalArgumentException("Bad " + QUERY_PARAM_RADIUS + ": " + uri, x);
+        }
+    }
+
+    private synchronized PlanIndex loadIndex(final File indexFile) {
         if (indexFile.exists()) {
+            final long lastModified = indexFile.lastModified();
+            if (planIndex != null && planIndex.lastModified == lastModified)
+                return planIndex;
             try {
-                return readIndexIntoCursor(new FileInputStream(indexFile), idFilter, query);
+                planIndex = readIndex(new FileInputStream(indexFile), lastModified);
+                return planIndex;
             } catch (final IOException | NumberFormatException x) {
                 log.warn("Could not read " + indexFile + ", deleting.", x);
-                Downloader.deleteDownload(indexFile);
+                application.downloader().deleteDownload(indexFile);
             }
         }
 
+        if (planIndex != null && planIndex.lastModified == 0)
+            return planIndex;
         try {
-            return readIndexIntoCursor(getContext().getAssets().open(Constants.PLAN_INDEX_FILENAME), idFilter, query);
+            planIndex = readIndex(getContext().getAssets().open(Constants.PLAN_INDEX_FILENAME), 0);
+            return planIndex;
         } catch (final IOException | NumberFormatException x) {
             throw new RuntimeException("Fatal problem reading asset " + Constants.PLAN_INDEX_FILENAME, x);
         }
     }
 
-    private Cursor readIndexIntoCursor(final InputStream is, @Nullable final String idFilter,
-            @Nullable final String query) throws IOException, NumberFormatException {
-
+    private static PlanIndex readIndex(final InputStream is, final long lastModified)
+            throws IOException, NumberFormatException {
         try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            final MatrixCursor cursor = new MatrixCursor(
-                    new String[] { BaseColumns._ID, KEY_PLAN_ID, KEY_PLAN_NAME, KEY_PLAN_LAT, KEY_PLAN_LON,
-                            KEY_PLAN_VALID_FROM, KEY_PLAN_DISCLAIMER, KEY_PLAN_REMOTE_URL, KEY_PLAN_NETWORK_LOGO });
-
+            final List<PlanIndexEntry> entries = new ArrayList<>();
             final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
 
             while (true) {
@@ -202,7 +302,6 @@ public class PlanContentProvider extends ContentProvider {
                 final Iterator<String> fieldIterator = Stream.of(line.split("\\|")).map(s -> !s.trim().isEmpty() ? s.trim() : null).iterator();
 
                 final String planId = fieldIterator.next();
-                final int rowId = planId.hashCode(); // FIXME colliding hashcodes
                 final String[] coords = fieldIterator.next().split(",");
                 final Point p = Point.fromDouble(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]));
                 final Date planValidFrom = parse(fieldIterator.next(), dateFormat);
@@ -211,215 +310,154 @@ public class PlanContentProvider extends ContentProvider {
                 final String planUrl = fieldIterator.hasNext() ? fieldIterator.next() : null;
                 final String planNetworkLogo = fieldIterator.hasNext() ? fieldIterator.next() : null;
 
-                boolean filterMatch = true;
-                if (query != null && !planName.toLowerCase(Constants.DEFAULT_LOCALE).contains(query)
-                        && !(planDisclaimer != null
-                                && planDisclaimer.toLowerCase(Constants.DEFAULT_LOCALE).contains(query)))
-                    filterMatch = false;
-                if (idFilter != null && !planId.equals(idFilter))
-                    filterMatch = false;
-
-                if (filterMatch) {
-                    cursor.newRow().add(rowId).add(planId).add(planName).add(p.getLatAs1E6()).add(p.getLonAs1E6())
-                            .add(planValidFrom != null ? planValidFrom.getTime() : 0).add(planDisclaimer).add(planUrl)
-                            .add(planNetworkLogo);
-                }
+                entries.add(new PlanIndexEntry(planId, p, planValidFrom, planName, planDisclaimer, planUrl,
+                        planNetworkLogo));
             }
 
-            return cursor;
-        }
-    }
-
-    private Cursor readStationsIntoCursor(final File stationsFile, @Nullable final String planIdFilter,
-            @Nullable final String networkFilter, @Nullable final String localIdFilter) {
-        if (stationsFile.exists()) {
-            try {
-                return readStationsIntoCursor(new FileInputStream(stationsFile), planIdFilter, networkFilter,
-                        localIdFilter);
-            } catch (final IOException | NumberFormatException x) {
-                log.warn("Could not read " + stationsFile + ", deleting.", x);
-                Downloader.deleteDownload(stationsFile);
+            final int[] lat1E6 = new int[entries.size()];
+            final int[] lon1E6 = new int[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                final Point p = entries.get(i).point;
+                lat1E6[i] = p.getLatAs1E6();
+                lon1E6[i] = p.getLonAs1E6();
             }
+            return new PlanIndex(lastModified, entries, new PlanSpatialIndex(lat1E6, lon1E6));
         }
-
-        return null;
     }
 
-    private Cursor readStationsIntoCursor(final InputStream is, @Nullable final String planIdFilter,
-            @Nullable final String networkFilter, @Nullable final String localIdFilter)
-            throws IOException, NumberFormatException {
-        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_STATION_NETWORK,
-                    KEY_STATION_ID, KEY_STATION_LABEL, KEY_STATION_PLAN_ID, KEY_STATION_X, KEY_STATION_Y });
+    private static class PlanIndex {
+        public final long lastModified;
+        public final List<PlanIndexEntry> entries;
+        public final PlanSpatialIndex spatialIndex;
 
-            float xScaleFactor = 1, yScaleFactor = 1;
-            int xOffset = 0, yOffset = 0;
-            String line = null;
-            while (true) {
-                line = reader.readLine();
-                if (line == null)
-                    break;
-                line = line.trim();
-                if (line.length() == 0 || line.charAt(0) == '#')
-                    continue;
-                if (line.charAt(0) == '!') {
-                    if (line.startsWith("!transform:")) {
-                        xScaleFactor = 1;
-                        yScaleFactor = 1;
-                        xOffset = 0;
-                        yOffset = 0;
-                        final String params = line.substring(11).trim();
-                        if (!params.isEmpty()) {
-                            final Iterator<String> i = Stream.of(params.split(",")).map(String::trim).iterator();
-                            if (i.hasNext())
-                                xScaleFactor = Float.parseFloat(i.next());
-                            if (i.hasNext())
-                                yScaleFactor = Float.parseFloat(i.next());
-                            if (i.hasNext())
-                                xOffset = Integer.parseInt(i.next());
-                            if (i.hasNext())
-                                yOffset = Integer.parseInt(i.next());
-                            if (i.hasNext())
-                                log.info("Ignoring some transform parameters in: {}", line);
-                        }
-                    } else {
-                        log.info("Ignoring command: {}", line);
-                    }
-                } else {
-                    final Iterator<String> i = Stream.of(line.split("\\|")).map(s -> !s.trim().isEmpty() ? s.trim() : null).iterator();
-                    final String network = i.next();
-                    final String localId = i.next();
-                    final String label = i.next();
-                    final String planId = requireNonNull(i.next());
-                    if ((planIdFilter == null || planIdFilter.equals(planId))
-                            && (networkFilter == null || networkFilter.equals(network))
-                            && (localIdFilter == null || localIdFilter.equals(localId))) {
-                        final long rowId = network != null && localId != null ? Objects.hash(network, localId)
-                                : Objects.hash(label);
-                        final int x, y;
-                        if (i.hasNext()) {
-                            x = (int) Math.round(Double.parseDouble(i.next()) / xScaleFactor) + xOffset;
-                            y = (int) Math.round(Double.parseDouble(i.next()) / yScaleFactor) + yOffset;
-                        } else {
-                            x = 0;
-                            y = 0;
-                        }
-                        cursor.newRow().add(rowId).add(network).add(localId).add(label).add(planId).add(x).add(y);
-                    }
-                }
-            }
+        public PlanIndex(final long lastModified, final List<PlanIndexEntry> entries,
+                final PlanSpatialIndex spatialIndex) {
+            this.lastModified = lastModified;
+            this.entries = entries;
+            this.spatialIndex = spatialIndex;
+        }
+    }
 
-            return cursor;
+    private static class PlanIndexEntry {
+        public final int rowId;
+        public final String planId;
+        public final Point point;
+        public final Date validFrom;
+        public final String name;
+        public final String disclaimer;
+        public final String url;
+        public final String networkLogo;
+
+        public PlanIndexEntry(final String planId, final Point point, final Date validFrom, final String name,
+                final String disclaimer, final String url, final String networkLogo) {
+            this.rowId = planId.hashCode(); // FIXME colliding hashcodes
+            this.planId = planId;
+            this.point = point;
+            this.validFrom = validFrom;
+            this.name = name;
+            this.disclaimer = disclaimer;
+            this.url = url;
+            this.networkLogo = networkLogo;
         }
     }
 
-    private static Date parse(String string, final DateFormat dateFormat) throws IOException {
-        if (string == null)
+    private Cursor readStationsIntoCursor(final File stationsFile, @Nullable final String planIdFilter,
+            @Nullable final String networkFilter, @Nullable final String localIdFilter) {
+        final PlanStationsIndex index = loadStationsIndex(stationsFile);
+        if (index == null)
             return null;
-        else if (string.length() == 4)
-            string += "-01-01";
-        else if (string.length() == 7)
-            string += "-01";
 
-        try {
-            return dateFormat.parse(string);
-        } catch (final ParseException x) {
-            x.printStackTrace();
-            throw new IOException(x.toString());
+        final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_STATION_NETWORK,
+                KEY_STATION_ID, KEY_STATION_LABEL, KEY_STATION_PLAN_ID, KEY_STATION_X, KEY_STATION_Y });
+        final List<PlanStationsIndex.Entry> entries = planIdFilter != null ? index.byPlan(planIdFilter)
+                : index.byStation(networkFilter, localIdFilter);
+        for (final PlanStationsIndex.Entry entry : entries) {
+            if ((networkFilter == null || networkFilter.equals(entry.network))
+                    && (localIdFilter == null || localIdFilter.equals(entry.localId)))
+                cursor.newRow().add(entry.rowId).add(entry.network).add(entry.localId).add(entry.label)
+                        .add(entry.planId).add(entry.x).add(entry.y);
         }
+        return cursor;
     }
 
-    private static class DistanceSortingCursorWrapper extends CursorWrapper {
-        private final Cursor cursor;
-        private final int size;
-        private List<Integer> mapping;
-        private int pos = -1;
-
-        public DistanceSortingCursorWrapper(final Cursor cursor, final double lat, final double lon) {
-            super(cursor);
-
-            this.cursor = cursor;
-            this.size = cursor.getCount();
-
-            mapping = new LinkedList<>();
-            for (int i = 0; i < size; i++)
-                mapping.add(i);
-
-            final int latColumn = cursor.getColumnIndexOrThrow(KEY_PLAN_LAT);
-            final int lonColumn = cursor.getColumnIndexOrThrow(KEY_PLAN_LON);
-
-            final Comparator<Integer> comparator = new Comparator<Integer>() {
-                private final float[] distanceBetweenResults = new float[1];
-
-                public int compare(final Integer index1, final Integer index2) {
-                    cursor.moveToPosition(index1);
-                    final Point p1 = Point.from1E6(cursor.getInt(latColumn), cursor.getInt(lonColumn));
-                    android.location.Location.distanceBetween(lat, lon, p1.getLatAsDouble(), p1.getLonAsDouble(),
-                            distanceBetweenResults);
-                    final float dist1 = distanceBetweenResults[0];
-
-                    cursor.moveToPosition(index2);
-                    final Point p2 = Point.from1E6(cursor.getInt(latColumn), cursor.getInt(lonColumn));
-                    android.location.Location.distanceBetween(lat, lon, p2.getLatAsDouble(), p2.getLonAsDouble(),
-                            distanceBetweenResults);
-                    final float dist2 = distanceBetweenResults[0];
-                    return Float.compare(dist1, dist2);
-                }
-            };
-
-            try {
-                Collections.sort(mapping, comparator);
-            } catch (final IllegalArgumentException x) {
-                log.warn("Failed sorting " + size + " cursor entries by distance to " + lat + "," + lon, x);
-                // we boldly continue, hoping that the list isn't corrupt
+    private synchronized @Nullable PlanStationsIndex loadStationsIndex(final File stationsFile) {
+        if (stationsFile.exists()) {
+            final long lastModified = stationsFile.lastModified();
+            if (stationsIndex != null && stationsIndex.lastModified == lastModified)
+                return stationsIndex;
+            if (lastModified == stationsIndexFailedLastModified)
+                return stationsIndex;
+            try (final InputStream is = new FileInputStream(stationsFile)) {
+                stationsIndex = PlanStationsIndex.read(is, lastModified);
+            } catch (final IOException x) {
+                // keep the previous index, if any; the file will be replaced by the next download
+                log.warn("Could not read " + stationsFile, x);
+                stationsIndexFailedLastModified = lastModified;
             }
         }
+        return stationsIndex;
+    }
 
-        @Override
-        public int getPosition() {
-            return pos;
-        }
+    /**
+     * Builds the stations index while the stations file is being downloaded and decompressed, and swaps it in once
+     * the file has been committed. If parsing fails, the download is aborted and the previous file and index are
+     * kept.
+     */
+    private class StationsIndexer implements Downloader.ContentListener {
+        private PlanStationsIndex.Builder builder; // accessed by download thread only
+        private PlanStationsIndex index;
 
         @Override
-        public final boolean moveToPosition(final int position) {
-            if (position < 0) {
-                pos = -1;
-                cursor.moveToPosition(-1);
-                return false;
-            } else if (position >= size) {
-                pos = size;
-                cursor.moveToPosition(size);
-                return false;
-            } else {
-                pos = position;
-                cursor.moveToPosition(mapping.get(pos));
-                return true;
-            }
+        public void onContentStart() {
+            builder = new PlanStationsIndex.Builder();
+            index = null;
         }
 
         @Override
-        public final boolean move(final int offset) {
-            return moveToPosition(pos + offset);
+        public void onContent(final byte[] buf, final int off, final int len) throws IOException {
+            builder.bytes(buf, off, len);
         }
 
         @Override
-        public final boolean moveToFirst() {
-            return moveToPosition(0);
+        public void onContentEnd() throws IOException {
+            index = builder.build(0);
+            builder = null;
         }
 
         @Override
-        public final boolean moveToLast() {
-            return moveToPosition(size - 1);
+        public void onContentCommitted(final File targetFile) {
+            final PlanStationsIndex committedIndex = index.withLastModified(targetFile.lastModified());
+            index = null;
+            synchronized (PlanContentProvider.this) {
+                stationsIndex = committedIndex;
+            }
         }
 
         @Override
-        public final boolean moveToNext() {
-            return moveToPosition(pos + 1);
+        public void onContentAborted() {
+            builder = null;
+            index = null;
         }
+    }
 
-        @Override
-        public final boolean moveToPrevious() {
-            return moveToPosition(pos - 1);
+    private static Point parsePoint(final String latLon) {
+        final String[] coords = latLon.split(",");
+        return Point.fromDouble(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]));
+    }
+
+    private static Date parse(String string, final DateFormat dateFormat) throws IOException {
+        if (string == null)
+            return null;
+        else if (string.length() == 4)
+            string += "-01-01";
+        else if (string.length() == 7)
+            string += "-01";
+
+        try {
+            return dateFormat.parse(string);
+        } catch (final ParseException x) {
+            x.printStackTrace();
+            throw new IOException(x.toString());
         }
     }
 
@@ -0,0 +1,203 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.plans;
+
+import java.util.Arrays;
+
+/**
+ * Static k-d tree over plan coordinates. Points are mapped onto the unit sphere, so that euclidean distance
+ * between them is monotonic with great-circle distance and no special casing of the antimeridian or poles is
+ * needed. The tree is stored implicitly in a permutation of the input positions.
+ */
+public final class PlanSpatialIndex {
+    private static final double EARTH_RADIUS_M = 6371009;
+
+    private final int size;
+    private final double[] xyz; // by input position
+    private final int[] tree; // input positions, in implicit k-d tree order
+
+    public PlanSpatialIndex(final int[] lat1E6, final int[] lon1E6) {
+        if (lat1E6.length != lon1E6.length)
+            throw new IllegalArgumentException("lat and lon arrays differ in length");
+        this.size = lat1E6.length;
+        this.xyz = new double[size * 3];
+        for (int i = 0; i < size; i++)
+            toXyz(lat1E6[i] / 1E6, lon1E6[i] / 1E6, xyz, i * 3);
+        this.tree = new int[size];
+        for (int i = 0; i < size; i++)
+            tree[i] = i;
+        build(0, size, 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return input positions of all plans within {@code radiusMeters} of the given coordinate, nearest first
+     */
+    public int[] withinRadius(final double lat, final double lon, final double radiusMeters) {
+        final double[] q = new double[3];
+        toXyz(lat, lon, q, 0);
+        final double angle = Math.min(radiusMeters / EARTH_RADIUS_M, Math.PI);
+        final double chord = 2 * Math.sin(angle / 2);
+        final Heap heap = new Heap(size);
+        searchRadius(0, size, 0, q, chord * chord, heap);
+        return heap.toSortedPositions();
+    }
+
+    /**
+     * @return great-circle distance in meters between the given coordinate and the plan at input position
+     */
+    public double distance(final double lat, final double lon, final int position) {
+        final double[] q = new double[3];
+        toXyz(lat, lon, q, 0);
+        final double chord = Math.sqrt(distanceSquared(q, position));
+        return 2 * Math.asin(Math.min(chord / 2, 1)) * EARTH_RADIUS_M;
+    }
+
+    private void build(final int from, final int to, final int axis) {
+        if (to - from <= 1)
+            return;
+        final int mid = (from + to) >>> 1;
+        select(from, to - 1, mid, axis);
+        final int nextAxis = (axis + 1) % 3;
+        build(from, mid, nextAxis);
+        build(mid + 1, to, nextAxis);
+    }
+
+    // quickselect on tree[from..to] (inclusive) by the given axis
+    private void select(int from, int to, final int k, final int axis) {
+        while (to > from) {
+            final double pivot = coord(tree[(from + to) >>> 1], axis);
+            int i = from, j = to;
+            while (i <= j) {
+                while (coord(tree[i], axis) < pivot)
+                    i++;
+                while (coord(tree[j], axis) > pivot)
+                    j--;
+                if (i <= j) {
+                    final int tmp = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+                to = j;
+            else if (k >= i)
+                from = i;
+            else
+                return;
+        }
+    }
+
+    private void searchRadius(final int from, final int to, final int axis, final double[] q,
+            final double maxDistanceSquared, final Heap heap) {
+        if (from >= to)
+            return;
+        final int mid = (from + to) >>> 1;
+        final int position = tree[mid];
+        final double distanceSquared = distanceSquared(q, position);
+        if (distanceSquared <= maxDistanceSquared)
+            heap.offer(position, distanceSquared);
+        final double delta = q[axis] - coord(position, axis);
+        final int nextAxis = (axis + 1) % 3;
+        if (delta <= 0 || delta * delta <= maxDistanceSquared)
+            searchRadius(from, mid, nextAxis, q, maxDistanceSquared, heap);
+        if (delta >= 0 || delta * delta <= maxDistanceSquared)
+            searchRadius(mid + 1, to, nextAxis, q, maxDistanceSquared, heap);
+    }
+
+    private double coord(final int position, final int axis) {
+        return xyz[position * 3 + axis];
+    }
+
+    private double distanceSquared(final double[] q, final int position) {
+        final int offset = position * 3;
+        final double dx = q[0] - xyz[offset];
+        final double dy = q[1] - xyz[offset + 1];
+        final double dz = q[2] - xyz[offset + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static void toXyz(final double lat, final double lon, final double[] out, final int offset) {
+        final double latRad = Math.toRadians(lat);
+        final double lonRad = Math.toRadians(lon);
+        final double cosLat = Math.cos(latRad);
+        out[offset] = cosLat * Math.cos(lonRad);
+        out[offset + 1] = cosLat * Math.sin(lonRad);
+        out[offset + 2] = Math.sin(latRad);
+    }
+
+    /** Max-heap of (position, distance) pairs, emptied nearest first by heapsort. */
+    private static final class Heap {
+        private final int[] positions;
+        private final double[] distances;
+        private int size = 0;
+
+        public Heap(final int capacity) {
+            this.positions = new int[capacity];
+            this.distances = new double[capacity];
+        }
+
+        public void offer(final int position, final double distance) {
+            int i = size++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance)
+                    break;
+                positions[i] = positions[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            positions[i] = position;
+            distances[i] = distance;
+        }
+
+        private void siftDown(int i, final int position, final double distance, final int size) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && distances[child + 1] > distances[child])
+                    child++;
+                if (distances[child] <= distance)
+                    break;
+                positions[i] = positions[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            positions[i] = position;
+            distances[i] = distance;
+        }
+
+        public int[] toSortedPositions() {
+            // heapsort in place: repeatedly move the farthest entry to the end
+            for (int end = size - 1; end > 0; end--) {
+                final int position = positions[end];
+                final double distance = distances[end];
+                positions[end] = positions[0];
+                distances[end] = distances[0];
+                siftDown(0, position, distance, end);
+            }
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.plans;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * In-memory index of the stations on plans, by plan and by station. It is built line by line, so it can be fed
+ * while the stations file is still being downloaded and decompressed.
+ */
+public final class PlanStationsIndex {
+    public final long lastModified;
+    private final Map<String, List<Entry>> byPlan;
+    private final Map<String, List<Entry>> byStation;
+
+    private static final Logger log = LoggerFactory.getLogger(PlanStationsIndex.class);
+
+    public static final class Entry {
+        public final long rowId;
+        @Nullable
+        public final String network;
+        @Nullable
+        public final String localId;
+        @Nullable
+        public final String label;
+        public final String planId;
+        public final int x;
+        public final int y;
+
+        private Entry(@Nullable final String network, @Nullable final String localId, @Nullable final String label,
+                final String planId, final int x, final int y) {
+            this.rowId = network != null && localId != null ? Objects.hash(network, localId) : Objects.hash(label);
+            this.network = network;
+            this.localId = localId;
+            this.label = label;
+            this.planId = planId;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private PlanStationsIndex(final long lastModified, final Map<String, List<Entry>> byPlan,
+            final Map<String, List<Entry>> byStation) {
+        this.lastModified = lastModified;
+        this.byPlan = byPlan;
+        this.byStation = byStation;
+    }
+
+    public PlanStationsIndex withLastModified(final long lastModified) {
+        return new PlanStationsIndex(lastModified, byPlan, byStation);
+    }
+
+    public List<Entry> byPlan(final String planId) {
+        final List<Entry> entries = byPlan.get(planId);
+        return entries != null ? entries : Collections.emptyList();
+    }
+
+    public List<Entry> byStation(final String network, final String localId) {
+        final List<Entry> entries = byStation.get(stationKey(network, localId));
+        return entries != null ? entries : Collections.emptyList();
+    }
+
+    public static PlanStationsIndex read(final InputStream is, final long lastModified) throws IOException {
+        final Builder builder = new Builder();
+        final byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) != -1)
+            builder.bytes(buf, 0, read);
+        return builder.build(lastModified);
+    }
+
+    private static String stationKey(final String network, final String localId) {
+        return network + '|' + localId;
+    }
+
+    public static final class Builder {
+        private final Map<String, List<Entry>> byPlan = new HashMap<>();
+        private final Map<String, List<Entry>> byStation = new HashMap<>();
+        private byte[] lineBuf = new byte[256];
+        private int lineLength = 0;
+        private int lineNumber = 0;
+        private float xScaleFactor = 1, yScaleFactor = 1;
+        private int xOffset = 0, yOffset = 0;
+
+        /**
+         * Feeds raw bytes of the stations file. Lines may span several calls.
+         *
+         * @throws IOException
+         *             if a complete line cannot be parsed
+         */
+        public void bytes(final byte[] buf, final int off, final int len) throws IOException {
+            for (int i = off, end = off + len; i < end; i++) {
+                final byte b = buf[i];
+                if (b == '\n') {
+                    line(new String(lineBuf, 0, lineLength, StandardCharsets.UTF_8));
+                    lineLength = 0;
+                } else {
+                    if (lineLength == lineBuf.length)
+                        lineBuf = Arrays.copyOf(lineBuf, lineBuf.length * 2);
+                    lineBuf[lineLength++] = b;
+                }
+            }
+        }
+
+        /**
+         * @throws IOException
+         *             if the last, unterminated line cannot be parsed
+         */
+        public PlanStationsIndex build(final long lastModified) throws IOException {
+            if (lineLength > 0) {
+                line(new String(lineBuf, 0, lineLength, StandardCharsets.UTF_8));
+                lineLength = 0;
+            }
+            return new PlanStationsIndex(lastModified, byPlan, byStation);
+        }
+
+        private void line(String line) throws IOException {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#')
+                return;
+            try {
+                if (line.charAt(0) == '!')
+                    command(line);
+                else
+                    station(line);
+            } catch (final NumberFormatException | NoSuchElementException | NullPointerException x) {
+                throw new IOException("Cannot parse line " + lineNumber + ": '" + line + "'", x);
+            }
+        }
+
+        private void command(final String line) {
+            if (line.startsWith("!transform:")) {
+                xScaleFactor = 1;
+                yScaleFactor = 1;
+                xOffset = 0;
+                yOffset = 0;
+                final String params = line.substring(11).trim();
+                if (!params.isEmpty()) {
+                    final Iterator<String> i = Stream.of(params.split(",")).map(String::trim).iterator();
+                    if (i.hasNext())
+                        xScaleFactor = Float.parseFloat(i.next());
+                    if (i.hasNext())
+                        yScaleFactor = Float.parseFloat(i.next());
+                    if (i.hasNext())
+                        xOffset = Integer.parseInt(i.next());
+                    if (i.hasNext())
+                        yOffset = Integer.parseInt(i.next());
+                    if (i.hasNext())
+                        log.info("Ignoring some transform parameters in: {}", line);
+                }
+            } else {
+                log.info("Ignoring command: {}", line);
+            }
+        }
+
+        private void station(final String line) {
+            final Iterator<String> i = Stream.of(line.split("\\|")).map(s -> !s.trim().isEmpty() ? s.trim() : null)
+                    .iterator();
+            final String network = i.next();
+            final String localId = i.next();
+            final String label = i.next();
+            final String planId = requireNonNull(i.next());
+            final int x, y;
+            if (i.hasNext()) {
+                x = (int) Math.round(Double.parseDouble(i.next()) / xScaleFactor) + xOffset;
+                y = (int) Math.round(Double.parseDouble(i.next()) / yScaleFactor) + yOffset;
+            } else {
+                x = 0;
+                y = 0;
+            }
+            final Entry entry = new Entry(network, localId, label, planId, x, y);
+            add(byPlan, planId, entry);
+            if (network != null && localId != null)
+                add(byStation, stationKey(network, localId), entry);
+        }
+
+        private static void add(final Map<String, List<Entry>> map, final String key, final Entry entry) {
+            List<Entry> entries = map.get(key);
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                map.put(key, entries);
+            }
+            entries.add(entry);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.plans;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Multi-resolution tile pyramid of a plan, stored on disk next to the plan file. Each level holds the plan at a
+ * power-of-two sample size, cut into tiles of {@link TiledImageDrawable#TILE_SIZE} pixels. Tiles are stored as
+ * JPEG, which decodes much faster than the PNG the plan is downloaded as. A manifest is written last and records
+ * size and modification time of the source plan, so a stale or partial pyramid is never used.
+ */
+public final class PlanTilePyramid {
+    public static final String DIR_SUFFIX = ".tiles";
+    private static final String MANIFEST_FILENAME = "manifest.txt";
+    private static final String OVERVIEW_FILENAME = "overview.jpg";
+    private static final int MANIFEST_VERSION = 1;
+    private static final int JPEG_QUALITY = 90;
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+    private static final Set<File> inProgress = Collections.synchronizedSet(new HashSet<>());
+
+    private static final Logger log = LoggerFactory.getLogger(PlanTilePyramid.class);
+
+    public static File pyramidDir(final File planFile) {
+        return new File(planFile.getParentFile(), planFile.getName() + DIR_SUFFIX);
+    }
+
+    /**
+     * @return decoder for the pyramid of the given plan file, or {@code null} if there is no valid pyramid
+     */
+    public static @Nullable PyramidTileDecoder open(final File planFile) {
+        final File dir = pyramidDir(planFile);
+        final File manifestFile = new File(dir, MANIFEST_FILENAME);
+        if (!manifestFile.exists())
+            return null;
+        try (final BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            final int version = Integer.parseInt(reader.readLine());
+            final long sourceLength = Long.parseLong(reader.readLine());
+            final long sourceLastModified = Long.parseLong(reader.readLine());
+            final int width = Integer.parseInt(reader.readLine());
+            final int height = Integer.parseInt(reader.readLine());
+            final int tileSize = Integer.parseInt(reader.readLine());
+            if (version != MANIFEST_VERSION || sourceLength != planFile.length()
+                    || sourceLastModified != planFile.lastModified() || tileSize != TiledImageDrawable.TILE_SIZE) {
+                log.info("Tile pyramid {} is stale", dir);
+                return null;
+            }
+            return new PyramidTileDecoder(dir, width, height);
+        } catch (final IOException | NumberFormatException | NullPointerException x) {
+            log.info("Problem reading tile pyramid manifest " + manifestFile, x);
+            return null;
+        }
+    }
+
+    /**
+     * Generates the pyramid for the given plan file on a background thread, unless a valid one already exists or
+     * generation is already in progress.
+     */
+    public static void generateAsync(final File planFile) {
+        if (!inProgress.add(planFile))
+            return;
+        executor.execute(() -> {
+            try {
+                if (open(planFile) == null)
+                    generate(planFile);
+            } catch (final IOException | OutOfMemoryError x) {
+                log.info("Problem generating tile pyramid for " + planFile, x);
+                delete(planFile);
+            } finally {
+                inProgress.remove(planFile);
+            }
+        });
+    }
+
+    public static void generate(final File planFile) throws IOException {
+        final long start = System.currentTimeMillis();
+        final File dir = pyramidDir(planFile);
+        delete(planFile);
+        if (!dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+
+        final long sourceLength = planFile.length();
+        final long sourceLastModified = planFile.lastModified();
+        final TiledImageDrawable.RegionTileDecoder decoder = new TiledImageDrawable.RegionTileDecoder(
+                planFile.getPath());
+        try {
+            final int width = decoder.getWidth();
+            final int height = decoder.getHeight();
+            int numTiles = 0;
+            for (int sampleSize = 1; sampleSize <= TiledImageDrawable.MAX_SAMPLE_SIZE; sampleSize *= 2) {
+                final File levelDir = new File(dir, Integer.toString(sampleSize));
+                if (!levelDir.mkdir())
+                    throw new IOException("Cannot create " + levelDir);
+                final int tileSpan = TiledImageDrawable.TILE_SIZE * sampleSize;
+                for (int row = 0; row * tileSpan < height; row++) {
+                    for (int col = 0; col * tileSpan < width; col++) {
+                        final Bitmap tile = decoder.decodeTile(sampleSize, col, row);
+                        writeJpeg(tile, tileFile(dir, sampleSize, col, row));
+                        tile.recycle();
+                        numTiles++;
+                    }
+                }
+            }
+            final Bitmap overview = decoder.decodeOverview();
+            writeJpeg(overview, new File(dir, OVERVIEW_FILENAME));
+            overview.recycle();
+
+            // manifest goes last, it marks the pyramid as complete
+            final File tempManifestFile = new File(dir, MANIFEST_FILENAME + ".tmp");
+            try (final PrintWriter writer = new PrintWriter(tempManifestFile)) {
+                writer.println(MANIFEST_VERSION);
+                writer.println(sourceLength);
+                writer.println(sourceLastModified);
+                writer.println(width);
+                writer.println(height);
+                writer.println(TiledImageDrawable.TILE_SIZE);
+            }
+            if (!tempManifestFile.renameTo(new File(dir, MANIFEST_FILENAME)))
+                throw new IOException("Cannot write manifest to " + dir);
+            log.info("Generated tile pyramid for {} with {} tiles, took {} ms", planFile, numTiles,
+                    System.currentTimeMillis() - start);
+        } finally {
+            decoder.close();
+        }
+    }
+
+    public static void delete(final File planFile) {
+        deleteRecursively(pyramidDir(planFile));
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null)
+            for (final File child : children)
+                deleteRecursively(child);
+        file.delete();
+    }
+
+    private static File tileFile(final File dir, final int sampleSize, final int col, final int row) {
+        return new File(new File(dir, Integer.toString(sampleSize)), col + "_" + row + ".jpg");
+    }
+
+    private static void writeJpeg(final Bitmap bitmap, final File file) throws IOException {
+        try (final OutputStream os = new FileOutputStream(file)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, os))
+                throw new IOException("Cannot compress " + file);
+        }
+    }
+
+    /**
+     * Decodes tiles from a pyramid on disk. Tiles are small and already downsampled, so each decode is cheap.
+     */
+    public static class PyramidTileDecoder implements TiledImageDrawable.TileDecoder {
+        private final File dir;
+        private final int width;
+        private final int height;
+        private final BitmapFactory.Options options = new BitmapFactory.Options();
+
+        private PyramidTileDecoder(final File dir, final int width, final int height) {
+            this.dir = dir;
+            this.width = width;
+            this.height = height;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public Bitmap decodeOverview() throws IOException {
+            return decode(new File(dir, OVERVIEW_FILENAME));
+        }
+
+        @Override
+        public Bitmap decodeTile(final int sampleSize, final int col, final int row) throws IOException {
+            return decode(tileFile(dir, sampleSize, col, row));
+        }
+
+        private Bitmap decode(final File file) throws IOException {
+            final Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            if (bitmap == null)
+                throw new IOException("Cannot decode " + file);
+            return bitmap;
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+    }
+}
@@ -51,6 +51,7 @@ import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.plans.list.PlanClickListener;
 import de.schildbach.oeffi.plans.list.PlanContextMenuItemListener;
 import de.schildbach.oeffi.plans.list.PlansAdapter;
+import de.schildbach.oeffi.plans.list.ThumbnailLoader;
 import de.schildbach.oeffi.util.ConnectivityBroadcastReceiver;
 import de.schildbach.oeffi.util.DividerItemDecoration;
 import de.schildbach.oeffi.util.Downloader;
@@ -78,6 +79,7 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
     private View filterBox;
 
     private Cache thumbCache;
+    private ThumbnailLoader thumbnailLoader;
     private BroadcastReceiver connectivityReceiver;
     private Point location;
     private String filter;
@@ -105,8 +107,10 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
         connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         locationHelper = new LocationHelper((LocationManager) getSystemService(Context.LOCATION_SERVICE), this);
 
-        final File cacheDir = new File(getCacheDir(), "thumbs");
+        final File cacheDir = new File(getCacheDir(), Constants.THUMBS_CACHE_DIR);
         thumbCache = new Cache(cacheDir, THUMB_CACHE_SIZE);
+        thumbnailLoader = new ThumbnailLoader(application.okHttpClient(), thumbCache,
+                getResources().getDimensionPixelSize(R.dimen.plans_picker_entry_thumb_size));
 
         setContentView(R.layout.plans_picker_content);
         final View contentView = findViewById(android.R.id.content);
@@ -129,7 +133,7 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
         listView = findViewById(android.R.id.list);
         listView.setLayoutManager(new LinearLayoutManager(this));
         listView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL_LIST));
-        listAdapter = new PlansAdapter(this, cursor, thumbCache, this, this, application.okHttpClient());
+        listAdapter = new PlansAdapter(this, cursor, thumbnailLoader, this, this);
         listView.setAdapter(listAdapter);
         ViewCompat.setOnApplyWindowInsetsListener(listView, (v, windowInsets) -> {
             final Insets insets = windowInsets.getInsets(WindowInsetsCompat.Type.systemBars());
@@ -186,6 +190,7 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
     @Override
     protected void onDestroy() {
         unregisterReceiver(connectivityReceiver);
+        thumbnailLoader.close();
 
         super.onDestroy();
     }
@@ -256,7 +261,7 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
         if (filter != null)
             uri.appendPath(SearchManager.SUGGEST_URI_PATH_QUERY).appendPath(filter);
         cursor = getContentResolver().query(uri.build(), null, null, null, sortOrder);
-        listAdapter = new PlansAdapter(this, cursor, thumbCache, this, this, application.okHttpClient());
+        listAdapter = new PlansAdapter(this, cursor, thumbnailLoader, this, this);
         listView.setAdapter(listAdapter);
 
         findViewById(android.R.id.empty).setVisibility(cursor.getCount() > 0 ? View.GONE : View.VISIBLE);
@@ -271,7 +276,8 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
             openPlan(plan);
             return true;
         } else if (menuItemId == R.id.plans_picker_context_remove) {
-            Downloader.deleteDownload(plan.localFile);
+            application.downloader().deleteDownload(plan.localFile);
+            PlanTilePyramid.delete(plan.localFile);
             final int position = listView.findViewHolderForItemId(plan.rowId).getAdapterPosition();
             if (position != RecyclerView.NO_POSITION)
                 listAdapter.setLoaded(position, false);
@@ -299,11 +305,11 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
         if (planFile.exists()) {
             PlanActivity.start(this, plan.planId, null);
         } else {
-            final Downloader downloader = new Downloader(getCacheDir());
             final HttpUrl remoteUrl = plan.url != null ? plan.url
                     : Constants.PLANS_BASE_URL.newBuilder().addEncodedPathSegment(planFilename).build();
-            final CompletableFuture<Integer> download = downloader.download(application.okHttpClient(), remoteUrl,
-                    planFile, false, (contentRead, contentLength) -> runOnUiThread(() -> {
+            final CompletableFuture<Integer> download = application.downloader().download(
+                    application.okHttpClient(), remoteUrl, planFile, false, Downloader.Priority.INTERACTIVE,
+                    (contentRead, contentLength) -> runOnUiThread(() -> {
                         final RecyclerView.ViewHolder holder = listView.findViewHolderForItemId(plan.rowId);
                         if (holder != null) {
                             final int position = holder.getAdapterPosition();
@@ -317,6 +323,7 @@ public class PlansPickerActivity extends OeffiMainActivity implements LocationHe
                 runOnUiThread(() -> {
                     if (t == null) {
                         if (status == HttpURLConnection.HTTP_OK) {
+                            PlanTilePyramid.generateAsync(planFile);
                             PlanActivity.start(PlansPickerActivity.this, plan.planId, null);
                             final RecyclerView.ViewHolder holder = listView.findViewHolderForItemId(plan.rowId);
                             if (holder != null) {
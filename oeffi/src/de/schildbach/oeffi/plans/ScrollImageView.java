@@ -127,6 +127,8 @@ public class ScrollImageView extends ImageView implements Runnable {
         inverse.mapPoints(center);
 
         this.currentScale = scale;
+        if (getDrawable() instanceof TiledImageDrawable)
+            ((TiledImageDrawable) getDrawable()).setScale(scale);
 
         // determine focus on screen after scaling
         final Matrix matrix = new Matrix();
@@ -162,6 +164,8 @@ public class ScrollImageView extends ImageView implements Runnable {
         final boolean firstTime = getDrawable() == null;
 
         super.setImageDrawable(drawable);
+        if (drawable instanceof TiledImageDrawable)
+            ((TiledImageDrawable) drawable).setScale(currentScale);
 
         final boolean scrollLimitsChanged = initScrollLimits();
         final boolean scaleLimitsChanged = initScaleLimit();
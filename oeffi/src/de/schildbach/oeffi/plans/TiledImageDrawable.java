@@ -18,44 +18,198 @@
 package de.schildbach.oeffi.plans;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Draws a large image from tiles that are decoded on demand on a background thread. Only the tiles visible at the
+ * current scale are decoded, at a sample size matching that scale. Decoded tiles are kept in a memory-budgeted LRU
+ * cache. Until a sharp tile is available, a low-resolution overview of the whole image is drawn in its place.
+ */
 public class TiledImageDrawable extends Drawable {
-    private final Bitmap nwBitmap;
-    private final Bitmap neBitmap;
-    private final Bitmap swBitmap;
-    private final Bitmap seBitmap;
+    public static final int TILE_SIZE = 256;
+
+    public interface TileDecoder {
+        /**
+         * Decode the tile at the given column and row of the tile grid for the given sample size. Each tile covers
+         * {@code TILE_SIZE * sampleSize} image pixels per side, tiles on the right and bottom edges may be smaller.
+         */
+        Bitmap decodeTile(int sampleSize, int col, int row) throws IOException;
+
+        /**
+         * Decode a low-resolution version of the whole image.
+         */
+        Bitmap decodeOverview() throws IOException;
+
+        int getWidth();
 
-    private final int wWidth;
+        int getHeight();
+
+        void close();
+    }
+
+    private final TileDecoder decoder;
+    private final Bitmap overview;
     private final int width;
-    private final int nHeight;
     private final int height;
+    private final LruCache<Long, Bitmap> cache;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final HandlerThread decoderThread;
+    private final Handler decoderHandler;
+
+    private final Set<Long> pending = new HashSet<>(); // only accessed from main thread
+    private volatile Set<Long> wanted = new HashSet<>();
+    private int wantedSampleSize, wantedCol0, wantedRow0, wantedCol1, wantedRow1;
+    private float scale = 1f;
+    private final Rect clipBounds = new Rect();
+    private final Rect dst = new Rect();
 
     private static final Paint PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+    static final int MAX_SAMPLE_SIZE = 16;
+
+    private static final Logger log = LoggerFactory.getLogger(TiledImageDrawable.class);
 
-    public TiledImageDrawable(final Bitmap nwBitmap, final Bitmap neBitmap, final Bitmap swBitmap,
-            final Bitmap seBitmap) {
-        this.nwBitmap = nwBitmap;
-        this.neBitmap = neBitmap;
-        this.swBitmap = swBitmap;
-        this.seBitmap = seBitmap;
+    public TiledImageDrawable(final TileDecoder decoder, final Bitmap overview, final int width, final int height) {
+        this.decoder = decoder;
+        this.overview = overview;
+        this.width = width;
+        this.height = height;
 
-        this.wWidth = Math.max(nwBitmap.getWidth(), swBitmap.getWidth());
-        this.width = wWidth + Math.max(neBitmap.getWidth(), seBitmap.getWidth());
-        this.nHeight = Math.max(nwBitmap.getHeight(), neBitmap.getHeight());
-        this.height = nHeight + Math.max(swBitmap.getHeight(), seBitmap.getHeight());
+        final int cacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        this.cache = new LruCache<Long, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(final Long key, final Bitmap tile) {
+                return tile.getByteCount();
+            }
+        };
+
+        decoderThread = new HandlerThread("tileDecoderThread", Process.THREAD_PRIORITY_BACKGROUND);
+        decoderThread.start();
+        decoderHandler = new Handler(decoderThread.getLooper());
+    }
+
+    /**
+     * Scale (screen pixels per image pixel) the drawable is currently shown at. Determines the sample size tiles
+     * are decoded at.
+     */
+    public void setScale(final float scale) {
+        if (scale != this.scale) {
+            this.scale = scale;
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * Stops the decoder thread and releases the decoder. Must be called on the main thread.
+     */
+    public void close() {
+        decoderHandler.removeCallbacksAndMessages(null);
+        decoderHandler.post(decoder::close);
+        decoderThread.quitSafely();
+        handler.removeCallbacksAndMessages(null);
+        pending.clear();
+        cache.evictAll();
     }
 
     @Override
     public void draw(final Canvas canvas) {
-        canvas.drawBitmap(nwBitmap, 0.0f, 0.0f, PAINT);
-        canvas.drawBitmap(neBitmap, wWidth, 0.0f, PAINT);
-        canvas.drawBitmap(swBitmap, 0.0f, nHeight, PAINT);
-        canvas.drawBitmap(seBitmap, wWidth, nHeight, PAINT);
+        canvas.getClipBounds(clipBounds);
+        if (!clipBounds.intersect(0, 0, width, height))
+            return;
+
+        // always draw overview first, sharp tiles cover it where available
+        dst.set(0, 0, width, height);
+        canvas.drawBitmap(overview, null, dst, PAINT);
+
+        final int sampleSize = sampleSizeForScale(scale);
+        final int tileSpan = TILE_SIZE * sampleSize;
+        final int col0 = clipBounds.left / tileSpan;
+        final int row0 = clipBounds.top / tileSpan;
+        final int col1 = (clipBounds.right - 1) / tileSpan;
+        final int row1 = (clipBounds.bottom - 1) / tileSpan;
+        updateWanted(sampleSize, col0, row0, col1, row1);
+
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                final long key = key(sampleSize, col, row);
+                final Bitmap tile = cache.get(key);
+                if (tile != null) {
+                    dst.set(col * tileSpan, row * tileSpan, Math.min((col + 1) * tileSpan, width),
+                            Math.min((row + 1) * tileSpan, height));
+                    canvas.drawBitmap(tile, null, dst, PAINT);
+                } else if (pending.add(key)) {
+                    requestTile(key, sampleSize, col, row);
+                }
+            }
+        }
+    }
+
+    private void updateWanted(final int sampleSize, final int col0, final int row0, final int col1,
+            final int row1) {
+        if (sampleSize == wantedSampleSize && col0 == wantedCol0 && row0 == wantedRow0 && col1 == wantedCol1
+                && row1 == wantedRow1)
+            return;
+        wantedSampleSize = sampleSize;
+        wantedCol0 = col0;
+        wantedRow0 = row0;
+        wantedCol1 = col1;
+        wantedRow1 = row1;
+
+        final Set<Long> wanted = new HashSet<>();
+        for (int row = row0; row <= row1; row++)
+            for (int col = col0; col <= col1; col++)
+                wanted.add(key(sampleSize, col, row));
+        this.wanted = wanted;
+    }
+
+    private void requestTile(final long key, final int sampleSize, final int col, final int row) {
+        decoderHandler.post(() -> {
+            Bitmap tile = null;
+            // skip tiles that have been scrolled or zoomed out of view meanwhile
+            if (wanted.contains(key)) {
+                try {
+                    tile = decoder.decodeTile(sampleSize, col, row);
+                } catch (final IOException | OutOfMemoryError x) {
+                    log.info("Problem decoding tile " + col + "," + row + " at sample size " + sampleSize, x);
+                }
+            }
+            final Bitmap decodedTile = tile;
+            handler.post(() -> {
+                pending.remove(key);
+                if (decodedTile != null) {
+                    cache.put(key, decodedTile);
+                    invalidateSelf();
+                }
+            });
+        });
+    }
+
+    private static int sampleSizeForScale(final float scale) {
+        int sampleSize = 1;
+        while (sampleSize < MAX_SAMPLE_SIZE && scale * sampleSize * 2 <= 1f)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+
+    private static long key(final int sampleSize, final int col, final int row) {
+        return ((long) sampleSize << 48) | ((long) row << 24) | col;
     }
 
     @Override
@@ -92,4 +246,64 @@ public class TiledImageDrawable extends Drawable {
     public void setAlpha(final int alpha) {
         // not implemented
     }
+
+    /**
+     * Decodes tiles as regions of a single image file, e.g. a PNG.
+     */
+    public static class RegionTileDecoder implements TileDecoder {
+        private final BitmapRegionDecoder regionDecoder;
+        private final Rect region = new Rect();
+
+        private static final int OVERVIEW_MAX_SIZE = 1024;
+
+        public RegionTileDecoder(final String path) throws IOException {
+            this.regionDecoder = BitmapRegionDecoder.newInstance(path, false);
+        }
+
+        @Override
+        public int getWidth() {
+            return regionDecoder.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return regionDecoder.getHeight();
+        }
+
+        @Override
+        public synchronized Bitmap decodeOverview() throws IOException {
+            final int width = regionDecoder.getWidth();
+            final int height = regionDecoder.getHeight();
+            int sampleSize = 1;
+            while (Math.max(width, height) / sampleSize > OVERVIEW_MAX_SIZE)
+                sampleSize *= 2;
+            region.set(0, 0, width, height);
+            return decode(region, sampleSize);
+        }
+
+        @Override
+        public synchronized Bitmap decodeTile(final int sampleSize, final int col, final int row)
+                throws IOException {
+            final int tileSpan = TILE_SIZE * sampleSize;
+            region.set(col * tileSpan, row * tileSpan, Math.min((col + 1) * tileSpan, regionDecoder.getWidth()),
+                    Math.min((row + 1) * tileSpan, regionDecoder.getHeight()));
+            return decode(region, sampleSize);
+        }
+
+        private Bitmap decode(final Rect region, final int sampleSize) throws IOException {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            options.inDither = true;
+            options.inSampleSize = sampleSize;
+            final Bitmap bitmap = regionDecoder.decodeRegion(region, options);
+            if (bitmap == null)
+                throw new IOException("Cannot decode region " + region);
+            return bitmap;
+        }
+
+        @Override
+        public void close() {
+            regionDecoder.recycle();
+        }
+    }
 }
@@ -32,7 +32,6 @@ import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.network.NetworkResources;
-import okhttp3.Call;
 
 import javax.annotation.Nullable;
 import java.util.Date;
@@ -50,7 +49,7 @@ public class PlanViewHolder extends RecyclerView.ViewHolder {
     private final ImageButton contextButton;
 
     @Nullable
-    private Call call = null;
+    private String thumbPlanId = null; // plan whose thumbnail is being loaded
 
     public PlanViewHolder(final Context context, final View itemView) {
         super(itemView);
@@ -187,12 +186,16 @@ public class PlanViewHolder extends RecyclerView.ViewHolder {
         }
     }
 
-    public void setCall(final Call call) {
-        this.call = call;
+    public void setThumb(final Drawable thumb) {
+        thumbView.setImageDrawable(thumb);
+    }
+
+    public void setThumbPlanId(@Nullable final String thumbPlanId) {
+        this.thumbPlanId = thumbPlanId;
     }
 
     @Nullable
-    public Call getCall() {
-        return call;
+    public String getThumbPlanId() {
+        return thumbPlanId;
     }
 }
@@ -20,27 +20,21 @@ package de.schildbach.oeffi.plans.list;
 import android.content.Context;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
 import android.provider.BaseColumns;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.oeffi.Constants;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.plans.PlanContentProvider;
-import okhttp3.Cache;
-import okhttp3.Call;
-import okhttp3.Callback;
 import okhttp3.HttpUrl;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
 
 import javax.annotation.Nullable;
 import java.io.File;
-import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 
@@ -61,16 +55,17 @@ public class PlansAdapter extends RecyclerView.Adapter<PlanViewHolder> {
     private final PlanClickListener clickListener;
     private final PlanContextMenuItemListener contextMenuItemListener;
 
-    private final Handler handler = new Handler();
-    private final OkHttpClient cachingOkHttpClient;
+    private final ThumbnailLoader thumbnailLoader;
 
-    public PlansAdapter(final Context context, final Cursor cursor, final Cache thumbCache,
-            final PlanClickListener clickListener, final PlanContextMenuItemListener contextMenuItemListener,
-            final OkHttpClient okHttpClient) {
+    private static final int PREFETCH_ROWS = 4;
+
+    public PlansAdapter(final Context context, final Cursor cursor, final ThumbnailLoader thumbnailLoader,
+            final PlanClickListener clickListener, final PlanContextMenuItemListener contextMenuItemListener) {
         this.context = context;
         this.res = context.getResources();
         this.inflater = LayoutInflater.from(context);
         this.cursor = cursor;
+        this.thumbnailLoader = thumbnailLoader;
         this.clickListener = clickListener;
         this.contextMenuItemListener = contextMenuItemListener;
 
@@ -83,8 +78,6 @@ public class PlansAdapter extends RecyclerView.Adapter<PlanViewHolder> {
         urlColumn = cursor.getColumnIndexOrThrow(PlanContentProvider.KEY_PLAN_REMOTE_URL);
 
         setHasStableIds(true);
-
-        cachingOkHttpClient = okHttpClient.newBuilder().cache(thumbCache).build();
     }
 
     public void setProgressPermille(final int position, final int progressPermille) {
@@ -113,7 +106,11 @@ public class PlansAdapter extends RecyclerView.Adapter<PlanViewHolder> {
 
     @Override
     public void onBindViewHolder(final PlanViewHolder holder, final int position) {
-        holder.bind(getPlan(position), clickListener, contextMenuItemListener);
+        final Plan plan = getPlan(position);
+        holder.bind(plan, clickListener, contextMenuItemListener);
+        final Bitmap thumb = thumbnailLoader.get(plan.planId);
+        if (thumb != null)
+            holder.setThumb(new BitmapDrawable(res, thumb));
     }
 
     @Override
@@ -134,51 +131,76 @@ public class PlansAdapter extends RecyclerView.Adapter<PlanViewHolder> {
         }
     }
 
+    @Override
+    public void onAttachedToRecyclerView(final RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(prefetchListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(final RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(prefetchListener);
+    }
+
     @Override
     public void onViewAttachedToWindow(final PlanViewHolder holder) {
         final int position = holder.getAdapterPosition();
-        final Plan plan = getPlan(position);
-        if (holder.getCall() == null) {
-            final HttpUrl thumbUrl = Constants.PLANS_BASE_URL.newBuilder()
-                    .addEncodedPathSegment(plan.planId + "_thumb.png").build();
-            final Request request = new Request.Builder().url(thumbUrl).build();
-            final Call call = cachingOkHttpClient.newCall(request);
-            holder.setCall(call);
-            call.enqueue(new Callback() {
-                public void onResponse(final Call call, final Response r) throws IOException {
-                    try (final Response response = r) {
-                        final Drawable thumb;
-                        if (response.isSuccessful())
-                            thumb = new BitmapDrawable(res, response.body().byteStream());
-                        else
-                            thumb = res.getDrawable(R.drawable.ic_oeffi_plans_grey300_72dp).mutate();
-                        if (!call.isCanceled()) {
-                            handler.post(() -> {
-                                holder.setCall(null);
-                                final int position1 = holder.getAdapterPosition();
-                                if (position1 != RecyclerView.NO_POSITION)
-                                    notifyItemChanged(position1, thumb);
-                            });
-                        }
-                    }
-                }
-
-                public void onFailure(final Call call, final IOException e) {
-                    handler.post(() -> holder.setCall(null));
-                }
-            });
+        if (position == RecyclerView.NO_POSITION || holder.getThumbPlanId() != null)
+            return;
+        final String planId = getPlanId(position);
+        final Bitmap cached = thumbnailLoader.get(planId);
+        if (cached != null) {
+            // may have arrived in memory after the row was bound, e.g. by a prefetch
+            holder.setThumb(new BitmapDrawable(res, cached));
+            return;
         }
+        holder.setThumbPlanId(planId);
+        thumbnailLoader.load(planId, new ThumbnailLoader.Callback() {
+            public void onThumbnail(final Bitmap thumb) {
+                holder.setThumbPlanId(null);
+                final int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION)
+                    notifyItemChanged(position, thumb != null ? new BitmapDrawable(res, thumb)
+                            : res.getDrawable(R.drawable.ic_oeffi_plans_grey300_72dp).mutate());
+            }
+
+            public void onFailure() {
+                holder.setThumbPlanId(null);
+            }
+        });
     }
 
     @Override
     public void onViewDetachedFromWindow(final PlanViewHolder holder) {
-        final Call call = holder.getCall();
-        if (call != null && !call.isCanceled()) {
-            call.cancel();
-            holder.setCall(null);
+        final String planId = holder.getThumbPlanId();
+        if (planId != null) {
+            thumbnailLoader.cancel(planId);
+            holder.setThumbPlanId(null);
         }
     }
 
+    private final RecyclerView.OnScrollListener prefetchListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+            final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+            if (dy == 0 || !(layoutManager instanceof LinearLayoutManager))
+                return;
+            final LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+            // prefetch thumbnails of the rows about to scroll into view
+            final int step = dy > 0 ? 1 : -1;
+            int position = dy > 0 ? linearLayoutManager.findLastVisibleItemPosition() + 1
+                    : linearLayoutManager.findFirstVisibleItemPosition() - 1;
+            for (int i = 0; i < PREFETCH_ROWS && position >= 0 && position < getItemCount(); i++) {
+                thumbnailLoader.load(getPlanId(position), null);
+                position += step;
+            }
+        }
+    };
+
+    private String getPlanId(final int position) {
+        cursor.moveToPosition(position);
+        return cursor.getString(planIdColumn);
+    }
+
     public Plan getPlan(final int position) {
         cursor.moveToPosition(position);
         final long rowId = cursor.getLong(rowIdColumn);
@@ -0,0 +1,207 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.plans.list;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import de.schildbach.oeffi.Constants;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads plan thumbnails through an HTTP client with a disk cache, decodes them downsampled to the size they are
+ * shown at on a background thread, and keeps the decoded bitmaps in a memory cache bounded by bytes. Must be used
+ * from the main thread.
+ */
+public class ThumbnailLoader {
+    public interface Callback {
+        /**
+         * @param thumb
+         *            decoded thumbnail, or {@code null} if there is none for the plan
+         */
+        void onThumbnail(@Nullable Bitmap thumb);
+
+        void onFailure();
+    }
+
+    private final OkHttpClient cachingOkHttpClient;
+    private final int targetSize;
+    private final LruCache<String, Bitmap> cache;
+    private final Map<String, Pending> pending = new HashMap<>(); // only accessed from main thread
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final HandlerThread decoderThread;
+    private final Handler decoderHandler;
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailLoader.class);
+
+    private static final class Pending {
+        final Call call;
+        @Nullable
+        Callback callback;
+
+        Pending(final Call call) {
+            this.call = call;
+        }
+    }
+
+    public ThumbnailLoader(final OkHttpClient okHttpClient, final Cache thumbCache, final int targetSize) {
+        this.cachingOkHttpClient = okHttpClient.newBuilder().cache(thumbCache).build();
+        this.targetSize = targetSize;
+
+        final int cacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE);
+        this.cache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(final String planId, final Bitmap thumb) {
+                return thumb.getByteCount();
+            }
+        };
+
+        decoderThread = new HandlerThread("thumbDecoderThread", Process.THREAD_PRIORITY_BACKGROUND);
+        decoderThread.start();
+        decoderHandler = new Handler(decoderThread.getLooper());
+    }
+
+    /**
+     * @return thumbnail from the memory cache, or {@code null}
+     */
+    public @Nullable Bitmap get(final String planId) {
+        return cache.get(planId);
+    }
+
+    /**
+     * Loads a thumbnail into the memory cache, unless it is cached or being loaded already.
+     *
+     * @param callback
+     *            called on the main thread once loaded, or {@code null} to just prefetch
+     */
+    public void load(final String planId, @Nullable final Callback callback) {
+        final Bitmap cached = cache.get(planId);
+        if (cached != null) {
+            if (callback != null)
+                callback.onThumbnail(cached);
+            return;
+        }
+        final Pending existing = pending.get(planId);
+        if (existing != null) {
+            if (callback != null)
+                existing.callback = callback;
+            return;
+        }
+
+        final HttpUrl thumbUrl = Constants.PLANS_BASE_URL.newBuilder()
+                .addEncodedPathSegment(planId + "_thumb.png").build();
+        final Call call = cachingOkHttpClient.newCall(new Request.Builder().url(thumbUrl).build());
+        final Pending request = new Pending(call);
+        request.callback = callback;
+        pending.put(planId, request);
+        call.enqueue(new okhttp3.Callback() {
+            public void onResponse(final Call call, final Response r) {
+                final byte[] bytes;
+                try (final Response response = r) {
+                    bytes = response.isSuccessful() ? response.body().bytes() : null;
+                } catch (final IOException x) {
+                    onFailure(call, x);
+                    return;
+                }
+                decoderHandler.post(() -> {
+                    final Bitmap thumb = bytes != null && !call.isCanceled() ? decode(bytes) : null;
+                    if (thumb != null)
+                        cache.put(planId, thumb);
+                    handler.post(() -> {
+                        if (pending.get(planId) != request)
+                            return;
+                        pending.remove(planId);
+                        if (request.callback != null && !call.isCanceled())
+                            request.callback.onThumbnail(thumb);
+                    });
+                });
+            }
+
+            public void onFailure(final Call call, final IOException x) {
+                handler.post(() -> {
+                    if (pending.get(planId) != request)
+                        return;
+                    pending.remove(planId);
+                    if (request.callback != null && !call.isCanceled())
+                        request.callback.onFailure();
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancels loading of a thumbnail; its callback will not be called.
+     */
+    public void cancel(final String planId) {
+        final Pending request = pending.remove(planId);
+        if (request != null)
+            request.call.cancel();
+    }
+
+    /**
+     * Cancels all loading and stops the decoder thread.
+     */
+    public void close() {
+        for (final Pending request : pending.values())
+            request.call.cancel();
+        pending.clear();
+        decoderHandler.removeCallbacksAndMessages(null);
+        decoderThread.quitSafely();
+        handler.removeCallbacksAndMessages(null);
+        cache.evictAll();
+    }
+
+    private @Nullable Bitmap decode(final byte[] bytes) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            log.info("Cannot decode thumbnail of {} bytes", bytes.length);
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetSize);
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    /**
+     * @return largest power of two that keeps both dimensions at or above the target size
+     */
+    static int sampleSize(final int width, final int height, final int targetSize) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetSize && height / (sampleSize * 2) >= targetSize)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+}
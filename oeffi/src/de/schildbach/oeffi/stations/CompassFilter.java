@@ -0,0 +1,88 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import static de.schildbach.pte.util.Preconditions.checkArgument;
+
+/**
+ * Low-pass filter for compass azimuths in degrees, which only reports changes that exceed a threshold. Smoothing is
+ * done on the unit vector, so it behaves across the -180/180 boundary.
+ */
+public final class CompassFilter {
+    private final float smoothing;
+    private final float threshold;
+
+    private boolean hasValue = false;
+    private double x, y;
+    private boolean hasPublished = false;
+    private float published;
+
+    /**
+     * @param smoothing
+     *            weight of a new sample, between 0 (exclusive) and 1 (no filtering)
+     * @param threshold
+     *            minimum change in degrees to report
+     */
+    public CompassFilter(final float smoothing, final float threshold) {
+        checkArgument(smoothing > 0 && smoothing <= 1);
+        checkArgument(threshold >= 0);
+        this.smoothing = smoothing;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return true if the filtered azimuth changed by at least the threshold since it was last reported
+     */
+    public boolean update(final float azimuth) {
+        final double radians = Math.toRadians(azimuth);
+        if (hasValue) {
+            x += (Math.cos(radians) - x) * smoothing;
+            y += (Math.sin(radians) - y) * smoothing;
+        } else {
+            x = Math.cos(radians);
+            y = Math.sin(radians);
+            hasValue = true;
+        }
+        if (x == 0 && y == 0)
+            return false;
+
+        final float filtered = (float) Math.toDegrees(Math.atan2(y, x));
+        if (hasPublished) {
+            float delta = Math.abs(filtered - published);
+            if (delta > 180)
+                delta = 360 - delta;
+            if (delta < threshold)
+                return false;
+        }
+        published = filtered;
+        hasPublished = true;
+        return true;
+    }
+
+    /**
+     * @return last reported azimuth, between -180 and 180
+     */
+    public float getAzimuth() {
+        return published;
+    }
+
+    public void reset() {
+        hasValue = false;
+        hasPublished = false;
+    }
+}
@@ -72,8 +72,9 @@ public class FavoriteStationsProvider extends ContentProvider {
         long rowId = helper.getWritableDatabase().replace(DATABASE_TABLE, null, values);
         if (rowId == -1)
             return null;
-        else
-            return ContentUris.withAppendedId(CONTENT_URI, rowId);
+        final Uri rowUri = ContentUris.withAppendedId(CONTENT_URI, rowId);
+        getContext().getContentResolver().notifyChange(rowUri, null);
+        return rowUri;
     }
 
     @Override
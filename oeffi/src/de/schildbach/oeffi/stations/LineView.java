@@ -30,8 +30,10 @@ import android.graphics.Shader;
 import android.graphics.Typeface;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
+import android.text.SpannedString;
 import android.text.style.ReplacementSpan;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.widget.TextView;
 import de.schildbach.oeffi.R;
 import de.schildbach.pte.Standard;
@@ -44,25 +46,29 @@ import de.schildbach.pte.dto.Style.Shape;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class LineView extends TextView {
-    private Collection<Line> lines = null;
+    private Collection<Line> lines = null; // copy of the lines last set
     private boolean ghosted = false;
     private int condenseThreshold = 0;
+    private boolean updated = false;
 
     private final float strokeWidth;
     private final int colorInsignificant;
 
     private static final Style DEFAULT_STYLE = new Style(Shape.ROUNDED, Color.BLACK, Color.WHITE, Color.BLACK);
+    private static final Product[] PRODUCTS = Product.values();
+
+    // shared by all line views, so each distinct label is measured only once
+    private static final LruCache<Label, Span> spanCache = new LruCache<>(512);
+    private static final LruCache<List<Label>, CharSequence> textCache = new LruCache<>(256);
 
     public LineView(final Context context) {
         this(context, null, 0);
@@ -89,60 +95,39 @@ public class LineView extends TextView {
     }
 
     public void setLines(final Collection<Line> lines) {
-        this.lines = lines;
+        if (updated && sameLines(lines, this.lines))
+            return;
+        if (lines == null)
+            this.lines = null;
+        else if (lines instanceof SortedSet)
+            this.lines = new TreeSet<>(lines);
+        else
+            this.lines = new ArrayList<>(lines);
         update();
     }
 
     public void setGhosted(final boolean ghosted) {
+        if (updated && ghosted == this.ghosted)
+            return;
         this.ghosted = ghosted;
         update();
     }
 
     public void setCondenseThreshold(final int condenseThreshold) {
+        if (updated && condenseThreshold == this.condenseThreshold)
+            return;
         this.condenseThreshold = condenseThreshold;
         update();
     }
 
     private void update() {
+        updated = true;
         if (lines != null && !lines.isEmpty()) {
-            if (condenseThreshold > 0 && lines.size() > condenseThreshold) {
-                // count products
-                final Map<Product, Integer> productCounts = new HashMap<>();
-                for (final Line line : lines) {
-                    final Product product = line.product;
-                    Integer count = productCounts.get(product);
-                    if (count == null)
-                        count = 0;
-                    productCounts.put(product, count + 1);
-                }
+            final Collection<Line> lines = condenseThreshold > 0 && this.lines.size() > condenseThreshold
+                    ? condense(this.lines, condenseThreshold) : this.lines;
 
-                // sort by count
-                final List<Entry<Product, Integer>> sortedEntries = new ArrayList<>(productCounts.entrySet());
-                Collections.sort(sortedEntries, (entry1, entry2) -> entry2.getValue().compareTo(entry1.getValue()));
-
-                // condense
-                for (final Map.Entry<Product, Integer> entry : sortedEntries) {
-                    // condense lines of product to just one label
-                    final Product productToRemove = entry.getKey();
-                    for (final Iterator<Line> i = lines.iterator(); i.hasNext();) {
-                        final Line line = i.next();
-                        if (line.product == productToRemove)
-                            i.remove();
-                    }
-                    lines.add(new Line(null, null, productToRemove, null, Standard.STYLES.get(productToRemove)));
-
-                    // stop condensing if few enough lines in total
-                    if (lines.size() <= condenseThreshold)
-                        break;
-                }
-            }
-
-            final SpannableStringBuilder text = new SpannableStringBuilder();
+            final List<Label> labels = new ArrayList<>(lines.size());
             for (final Line line : lines) {
-                if (text.length() > 0)
-                    text.append(' ');
-                final int begin = text.length();
-
                 final Style lineStyle = line.style;
                 final Style style;
                 if (ghosted)
@@ -153,6 +138,7 @@ public class LineView extends TextView {
                 else
                     style = DEFAULT_STYLE;
 
+                final StringBuilder text = new StringBuilder();
                 if (line.label != null)
                     text.append(line.label);
                 else
@@ -163,10 +149,29 @@ public class LineView extends TextView {
                 if (line.hasAttr(Attr.CIRCLE_ANTICLOCKWISE))
                     text.append('\u21ba'); // anticlockwise arrow symbol
 
-                final int end = text.length();
-                text.append('\ufeff'); // Workaround
+                labels.add(new Label(text.toString(), style, getTextSize(), strokeWidth));
+            }
 
-                text.setSpan(new Span(style, strokeWidth), begin, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            CharSequence text = textCache.get(labels);
+            if (text == null) {
+                final SpannableStringBuilder builder = new SpannableStringBuilder();
+                for (final Label label : labels) {
+                    if (builder.length() > 0)
+                        builder.append(' ');
+                    final int begin = builder.length();
+                    builder.append(label.text);
+                    final int end = builder.length();
+                    builder.append('\ufeff'); // Workaround
+
+                    Span span = spanCache.get(label);
+                    if (span == null) {
+                        span = new Span(label.style, label.strokeWidth);
+                        spanCache.put(label, span);
+                    }
+                    builder.setSpan(span, begin, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+                text = new SpannedString(builder);
+                textCache.put(labels, text);
             }
 
             setText(text);
@@ -192,6 +197,80 @@ public class LineView extends TextView {
         }
     }
 
+    private static boolean sameLines(final Collection<Line> lines, final Collection<Line> copy) {
+        if (lines == null || copy == null)
+            return lines == copy;
+        if (lines.size() != copy.size())
+            return false;
+        final Iterator<Line> i = copy.iterator();
+        for (final Line line : lines) {
+            final Line copyLine = i.next();
+            if (!line.equals(copyLine) || !Objects.equals(line.name, copyLine.name)
+                    || !Objects.equals(line.style, copyLine.style) || !Objects.equals(line.attrs, copyLine.attrs))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Condenses lines of the most frequent products to just one label per product, until few enough remain. Does
+     * not modify the given collection.
+     */
+    private static Collection<Line> condense(final Collection<Line> lines, final int condenseThreshold) {
+        // count products; the last slot counts lines without a product
+        final int[] productCounts = new int[PRODUCTS.length + 1];
+        for (final Line line : lines)
+            productCounts[line.product != null ? line.product.ordinal() : PRODUCTS.length]++;
+
+        final Collection<Line> condensed = lines instanceof SortedSet ? new TreeSet<>(lines) : new ArrayList<>(lines);
+        while (condensed.size() > condenseThreshold) {
+            // pick most frequent product
+            int maxIndex = -1;
+            for (int i = 0; i < productCounts.length; i++)
+                if (productCounts[i] > 0 && (maxIndex == -1 || productCounts[i] > productCounts[maxIndex]))
+                    maxIndex = i;
+            if (maxIndex == -1)
+                break;
+            productCounts[maxIndex] = 0;
+
+            // condense lines of product to just one label
+            final Product productToCondense = maxIndex < PRODUCTS.length ? PRODUCTS[maxIndex] : null;
+            condensed.removeIf(line -> line.product == productToCondense);
+            condensed.add(new Line(null, null, productToCondense, null, Standard.STYLES.get(productToCondense)));
+        }
+        return condensed;
+    }
+
+    private static final class Label {
+        final String text;
+        final Style style;
+        final float textSize;
+        final float strokeWidth;
+
+        Label(final String text, final Style style, final float textSize, final float strokeWidth) {
+            this.text = text;
+            this.style = style;
+            this.textSize = textSize;
+            this.strokeWidth = strokeWidth;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Label))
+                return false;
+            final Label other = (Label) o;
+            return text.equals(other.text) && style.equals(other.style) && textSize == other.textSize
+                    && strokeWidth == other.strokeWidth;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, style, textSize, strokeWidth);
+        }
+    }
+
     private static class Span extends ReplacementSpan {
         private final Style style;
         private final float strokeWidth;
@@ -200,6 +279,12 @@ public class LineView extends TextView {
         private final Matrix matrix = new Matrix();
         private final int[] gradientColors = new int[2];
 
+        // geometry for the text size and typeface it was last measured with
+        private float measuredTextSize = -1;
+        private Typeface measuredTypeface = null;
+        private float fontTop, fontBottom, radius, padding;
+        private int width;
+
         private static final float[] GRADIENT_POSITIONS = new float[] { 0.495f, 0.505f };
 
         private Span(final Style style, final float strokeWidth) {
@@ -210,12 +295,8 @@ public class LineView extends TextView {
         @Override
         public void draw(final Canvas canvas, final CharSequence text, final int start, final int end, final float x,
                 final int top, final int y, final int bottom, final Paint paint) {
-            final FontMetrics fontMetrics = paint.getFontMetrics();
-            final float height = fontMetrics.bottom - fontMetrics.top;
-            final float radius = radius(height);
-            final float padding = padding(paint, height);
-            box.set(x, y + fontMetrics.top, x + Math.round(paint.measureText(text, start, end) + padding * 2),
-                    y + fontMetrics.bottom);
+            measure(paint, text, start, end);
+            box.set(x, y + fontTop, x + width, y + fontBottom);
 
             // Background
             paint.setStyle(Paint.Style.FILL);
@@ -255,10 +336,24 @@ public class LineView extends TextView {
         @Override
         public int getSize(final Paint paint, final CharSequence text, final int start, final int end,
                 final Paint.FontMetricsInt fm) {
+            measure(paint, text, start, end);
+            return width;
+        }
+
+        private void measure(final Paint paint, final CharSequence text, final int start, final int end) {
+            final float textSize = paint.getTextSize();
+            final Typeface typeface = paint.getTypeface();
+            if (textSize == measuredTextSize && typeface == measuredTypeface)
+                return;
             final FontMetrics fontMetrics = paint.getFontMetrics();
             final float height = fontMetrics.bottom - fontMetrics.top;
-            final float padding = padding(paint, height);
-            return Math.round(paint.measureText(text, start, end) + padding * 2);
+            fontTop = fontMetrics.top;
+            fontBottom = fontMetrics.bottom;
+            radius = radius(height);
+            padding = padding(paint, height);
+            width = Math.round(paint.measureText(text, start, end) + padding * 2);
+            measuredTextSize = textSize;
+            measuredTypeface = typeface;
         }
 
         private float radius(final float height) {
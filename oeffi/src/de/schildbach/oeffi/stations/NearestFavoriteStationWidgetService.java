@@ -51,6 +51,7 @@ import de.schildbach.oeffi.Constants;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.network.NetworkProviderFactory;
 import de.schildbach.oeffi.util.Formats;
+import de.schildbach.oeffi.util.GeoDistances;
 import de.schildbach.oeffi.util.Objects;
 import de.schildbach.pte.NetworkId;
 import de.schildbach.pte.NetworkProvider;
@@ -255,6 +256,7 @@ public class NearestFavoriteStationWidgetService extends JobService {
     private void handleLocation(final int[] appWidgetIds, final Location here) {
         // determine nearest station
         final List<Favorite> favorites = new ArrayList<>();
+        final List<Point> favoritePoints = new ArrayList<>();
 
         final Cursor favCursor = contentResolver.query(FavoriteStationsProvider.CONTENT_URI, null,
                 FavoriteStationsProvider.KEY_TYPE + "=?",
@@ -280,13 +282,8 @@ public class NearestFavoriteStationWidgetService extends JobService {
                     NetworkProviderFactory.provider(networkId); // check if existent
 
                     if (stationPoint.getLatAsDouble() > 0 || stationPoint.getLonAsDouble() > 0) {
-                        final float[] distanceBetweenResults = new float[1];
-                        android.location.Location.distanceBetween(here.getLatitude(), here.getLongitude(),
-                                stationPoint.getLatAsDouble(), stationPoint.getLonAsDouble(), distanceBetweenResults);
-                        final float distance = distanceBetweenResults[0];
-                        final Favorite favorite = new Favorite(networkId, stationId, stationPlace, stationName,
-                                distance);
-                        favorites.add(favorite);
+                        favorites.add(new Favorite(networkId, stationId, stationPlace, stationName));
+                        favoritePoints.add(stationPoint);
                     }
                 } catch (final IllegalArgumentException x) {
                     log.info("Unknown network {}, favorite {}", network, stationId);
@@ -295,6 +292,19 @@ public class NearestFavoriteStationWidgetService extends JobService {
 
             favCursor.close();
 
+            final int count = favorites.size();
+            final double[] lats = new double[count];
+            final double[] lons = new double[count];
+            for (int i = 0; i < count; i++) {
+                lats[i] = favoritePoints.get(i).getLatAsDouble();
+                lons[i] = favoritePoints.get(i).getLonAsDouble();
+            }
+            final float[] distances = new float[count];
+            GeoDistances.compute(GeoDistances.Mode.AUTO, here.getLatitude(), here.getLongitude(), lats, lons, count,
+                    distances, null);
+            for (int i = 0; i < count; i++)
+                favorites.get(i).distance = distances[i];
+
             Collections.sort(favorites);
             Arrays.sort(appWidgetIds);
             log.info("Distributing {} station favorites to {} app widgets", favorites.size(), appWidgetIds.length);
@@ -428,15 +438,13 @@ public class NearestFavoriteStationWidgetService extends JobService {
         public final String id;
         public final String place;
         public final String name;
-        public final float distance;
+        public float distance;
 
-        public Favorite(final NetworkId networkId, final String id, final String place, final String name,
-                final float distance) {
+        public Favorite(final NetworkId networkId, final String id, final String place, final String name) {
             this.networkId = networkId;
             this.id = id;
             this.place = place;
             this.name = name;
-            this.distance = distance;
         }
 
         public int compareTo(final Favorite other) {
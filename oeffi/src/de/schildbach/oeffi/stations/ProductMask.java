@@ -0,0 +1,87 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import de.schildbach.pte.dto.Product;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Sets of {@link Product}s as bitmasks, one bit per product ordinal.
+ */
+public final class ProductMask {
+    private static final Product[] PRODUCTS = Product.values();
+
+    public static final int NONE = 0;
+    public static final int ALL = (1 << PRODUCTS.length) - 1;
+
+    private ProductMask() {
+    }
+
+    public static int of(final Product product) {
+        return 1 << product.ordinal();
+    }
+
+    public static int of(@Nullable final Collection<Product> products) {
+        int mask = NONE;
+        if (products != null)
+            for (final Product product : products)
+                mask |= of(product);
+        return mask;
+    }
+
+    public static boolean contains(final int mask, final Product product) {
+        return (mask & of(product)) != 0;
+    }
+
+    public static int size(final int mask) {
+        return Integer.bitCount(mask & ALL);
+    }
+
+    /**
+     * Replaces the content of the given set with the products in the mask.
+     */
+    public static void toSet(final int mask, final Set<Product> products) {
+        products.clear();
+        for (final Product product : PRODUCTS)
+            if (contains(mask, product))
+                products.add(product);
+    }
+
+    /**
+     * @return mask of the products with the given codes; unknown codes are ignored
+     */
+    public static int fromCodes(final String codes) {
+        int mask = NONE;
+        for (int i = 0; i < codes.length(); i++)
+            for (final Product product : PRODUCTS)
+                if (product.code == codes.charAt(i))
+                    mask |= of(product);
+        return mask;
+    }
+
+    public static String toCodes(final int mask) {
+        final StringBuilder codes = new StringBuilder(PRODUCTS.length);
+        for (final Product product : PRODUCTS)
+            if (contains(mask, product))
+                codes.append(product.code);
+        return codes.toString();
+    }
+}
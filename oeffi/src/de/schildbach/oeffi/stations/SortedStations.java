@@ -0,0 +1,238 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import de.schildbach.pte.dto.Product;
+
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Stations kept ordered by distance (stations without distance first) and then by relevant product. The list is
+ * read-only through the {@link List} interface; it is changed via {@link #insert(Station)},
+ * {@link #reposition(Station)}, {@link #removeIf(Predicate)}, {@link #clipTail(int, Predicate)} and
+ * {@link #clear()}, each of which reports the positions it touched to the {@link Listener}.
+ *
+ * The sort key of each station is snapshotted when it is inserted or repositioned, so a station whose fields are
+ * changed in place keeps its position until it is repositioned, and can then be found again by binary search.
+ */
+public final class SortedStations extends AbstractList<Station> {
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Station, Entry> entriesByStation = new IdentityHashMap<>();
+    @Nullable
+    private Listener listener = null;
+
+    public interface Listener {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final class Entry {
+        final Station station;
+        boolean hasDistance;
+        float distance;
+        @Nullable
+        Product product;
+
+        Entry(final Station station) {
+            this.station = station;
+            snapshot();
+        }
+
+        void snapshot() {
+            hasDistance = station.hasDistanceAndBearing;
+            distance = station.distance;
+            product = station.getRelevantProduct();
+        }
+
+        int compareTo(final Entry other) {
+            if (hasDistance != other.hasDistance)
+                return hasDistance ? 1 : -1;
+            final int distanceCompare = Float.compare(distance, other.distance);
+            if (distanceCompare != 0)
+                return distanceCompare;
+            if (product == other.product)
+                return 0;
+            if (product == null)
+                return 1;
+            if (other.product == null)
+                return -1;
+            return product.compareTo(other.product);
+        }
+    }
+
+    public void setListener(@Nullable final Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public Station get(final int index) {
+        return entries.get(index).station;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return entriesByStation.containsKey(o);
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        final Entry entry = entriesByStation.get(o);
+        return entry != null ? find(entry) : -1;
+    }
+
+    /**
+     * Inserts a station at its sorted position, after stations that sort equal.
+     *
+     * @return position of the station
+     */
+    public int insert(final Station station) {
+        if (entriesByStation.containsKey(station))
+            return reposition(station);
+        final Entry entry = new Entry(station);
+        final int position = insertionPoint(entry);
+        entries.add(position, entry);
+        entriesByStation.put(station, entry);
+        if (listener != null)
+            listener.onInserted(position, 1);
+        return position;
+    }
+
+    /**
+     * Moves a station to its sorted position after its distance or products have changed, and reports it as
+     * changed.
+     *
+     * @return new position of the station, or -1 if it is not contained
+     */
+    public int reposition(final Station station) {
+        return reposition(station, true);
+    }
+
+    /**
+     * Moves a station to its sorted position after its distance or products have changed. A move is always
+     * reported, but a change only if requested, e.g. when the station shows a different distance now.
+     *
+     * @return new position of the station, or -1 if it is not contained
+     */
+    public int reposition(final Station station, final boolean changed) {
+        final Entry entry = entriesByStation.get(station);
+        if (entry == null)
+            return -1;
+        final int from = find(entry);
+        entries.remove(from);
+        entry.snapshot();
+        final int to = insertionPoint(entry);
+        entries.add(to, entry);
+        if (listener != null) {
+            if (from != to)
+                listener.onMoved(from, to);
+            if (changed)
+                listener.onChanged(to, 1);
+        }
+        return to;
+    }
+
+    @Override
+    public boolean removeIf(final Predicate<? super Station> filter) {
+        boolean removed = false;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (filter.test(entries.get(i).station)) {
+                removeAt(i);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes stations from the end until at most {@code maxSize} are left, skipping those to be retained. Retained
+     * stations can make the result exceed {@code maxSize}.
+     *
+     * @return removed stations
+     */
+    public List<Station> clipTail(final int maxSize, final Predicate<? super Station> retain) {
+        final List<Station> removed = new ArrayList<>();
+        for (int i = entries.size() - 1; i >= 0 && entries.size() > maxSize; i--) {
+            final Station station = entries.get(i).station;
+            if (!retain.test(station)) {
+                removeAt(i);
+                removed.add(station);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        final int size = entries.size();
+        entries.clear();
+        entriesByStation.clear();
+        if (listener != null && size > 0)
+            listener.onRemoved(0, size);
+    }
+
+    private void removeAt(final int position) {
+        final Entry entry = entries.remove(position);
+        entriesByStation.remove(entry.station);
+        if (listener != null)
+            listener.onRemoved(position, 1);
+    }
+
+    private int insertionPoint(final Entry entry) {
+        int low = 0, high = entries.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (entries.get(mid).compareTo(entry) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private int find(final Entry entry) {
+        // first entry not sorting before the one searched for, then step over equal ones
+        int low = 0, high = entries.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (entries.get(mid).compareTo(entry) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        for (int i = low; i < entries.size(); i++)
+            if (entries.get(i) == entry)
+                return i;
+        throw new IllegalStateException("not found: " + entry.station);
+    }
+}
@@ -38,12 +38,16 @@ public class Station {
     public @Nullable List<Departure> departures = null;
     private @Nullable List<LineDestination> lines = null;
     private @Nullable Product relevantProduct = null;
+    private @Nullable Location productMaskLocation = null;
+    private int productMask;
     public boolean hasDistanceAndBearing = false;
     public float distance;
     public float bearing;
     public @Nullable Date requestedAt = null;
     public @Nullable Date updatedAt = null;
 
+    public static final int PRODUCTS_UNKNOWN = -1;
+
     public Station(final NetworkId network, final Location location) {
         this.network = network;
         this.location = requireNonNull(location);
@@ -63,6 +67,35 @@ public class Station {
         this.lines = lines;
 
         relevantProduct = null;
+        productMaskLocation = null;
+    }
+
+    /**
+     * Products of this station, from its location if declared there, otherwise from its lines. Computed once, and
+     * again only if the location or lines are replaced.
+     *
+     * @return product mask, or {@link #PRODUCTS_UNKNOWN} if there is no metadata to derive products from
+     */
+    public int getProductMask() {
+        final Location location = this.location;
+        if (productMaskLocation != location) {
+            final List<LineDestination> lines = this.lines;
+            if (location.products != null) {
+                productMask = ProductMask.of(location.products);
+            } else if (lines != null) {
+                int mask = ProductMask.NONE;
+                for (final LineDestination line : lines) {
+                    final Product product = line.line.product;
+                    if (product != null)
+                        mask |= ProductMask.of(product);
+                }
+                productMask = mask;
+            } else {
+                productMask = PRODUCTS_UNKNOWN;
+            }
+            productMaskLocation = location;
+        }
+        return productMask;
     }
 
     public void setDistanceAndBearing(final float distance, final float bearing) {
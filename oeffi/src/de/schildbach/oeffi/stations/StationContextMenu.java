@@ -49,6 +49,9 @@ import java.net.URLEncoder;
 import java.util.Locale;
 
 public class StationContextMenu extends PopupMenu {
+    private static final int PLANS_NEAR_STATION_RADIUS = 2000;
+    private static final int MAX_PLANS_NEAR_STATION = 3;
+
     private static final Logger log = LoggerFactory.getLogger(StationContextMenu.class);
 
     public StationContextMenu(final Context context, final View anchor, final NetworkId network, final Location station,
@@ -142,9 +145,11 @@ public class StationContextMenu extends PopupMenu {
         final ContentResolver contentResolver = context.getContentResolver();
         final Cursor stationsCursor = contentResolver.query(PlanContentProvider.stationsUri(network, location.id), null,
                 null, null, null);
+        boolean hasExactPlans = false;
         if (stationsCursor != null) {
             final int planIdColumn = stationsCursor.getColumnIndexOrThrow(PlanContentProvider.KEY_STATION_PLAN_ID);
             while (stationsCursor.moveToNext()) {
+                hasExactPlans = true;
                 final String planId = stationsCursor.getString(planIdColumn);
                 final Cursor plansCursor = contentResolver.query(PlanContentProvider.planUri(planId), null, null, null,
                         null);
@@ -159,5 +164,22 @@ public class StationContextMenu extends PopupMenu {
             }
             stationsCursor.close();
         }
+
+        if (!hasExactPlans && location.hasCoord()) {
+            final Cursor plansCursor = contentResolver.query(
+                    PlanContentProvider.nearUri(location.coord, PLANS_NEAR_STATION_RADIUS), null, null, null, null);
+            if (plansCursor != null) {
+                final int planIdColumn = plansCursor.getColumnIndexOrThrow(PlanContentProvider.KEY_PLAN_ID);
+                final int planNameColumn = plansCursor.getColumnIndexOrThrow(PlanContentProvider.KEY_PLAN_NAME);
+                while (plansCursor.moveToNext() && plansCursor.getPosition() < MAX_PLANS_NEAR_STATION) {
+                    final String planId = plansCursor.getString(planIdColumn);
+                    menu.add(plansCursor.getString(planNameColumn)).setOnMenuItemClickListener(item -> {
+                        PlanActivity.start(context, planId, null);
+                        return true;
+                    });
+                }
+                plansCursor.close();
+            }
+        }
     }
 }
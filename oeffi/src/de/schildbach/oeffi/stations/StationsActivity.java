@@ -77,6 +77,8 @@ import de.schildbach.oeffi.stations.list.StationsAdapter;
 import de.schildbach.oeffi.util.ConnectivityBroadcastReceiver;
 import de.schildbach.oeffi.util.DialogBuilder;
 import de.schildbach.oeffi.util.DividerItemDecoration;
+import de.schildbach.oeffi.util.Formats;
+import de.schildbach.oeffi.util.GeoDistances;
 import de.schildbach.oeffi.util.LocationUriParser;
 import de.schildbach.oeffi.util.Toast;
 import de.schildbach.oeffi.util.ZoomControls;
@@ -84,7 +86,6 @@ import de.schildbach.pte.NetworkId;
 import de.schildbach.pte.NetworkProvider;
 import de.schildbach.pte.NetworkProvider.Capability;
 import de.schildbach.pte.dto.Departure;
-import de.schildbach.pte.dto.LineDestination;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.LocationType;
 import de.schildbach.pte.dto.NearbyLocationsResult;
@@ -102,18 +103,15 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 public class StationsActivity extends OeffiMainActivity implements StationsAware, LocationAware,
@@ -125,18 +123,22 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     private Sensor sensorMagnetometer;
     private Resources res;
 
-    private final List<Station> stations = new ArrayList<>();
+    private final SortedStations stations = new SortedStations();
     private final Map<String, Station> stationsMap = new HashMap<>();
     private final Map<String, Integer> favorites = new HashMap<>();
     private String selectedStationId;
     private Point deviceLocation;
     private Location fixedLocation;
     private Float deviceBearing = null;
+    private final CompassFilter compassFilter = new CompassFilter(COMPASS_SMOOTHING, COMPASS_THRESHOLD_DEGREES);
+    private boolean compassWanted = false;
+    private boolean compassRegistered = false;
     private String searchQuery;
     private boolean anyProviderEnabled = false;
     private boolean loading = true;
 
-    private final Set<Product> products = new HashSet<>(Product.values().length);
+    private int productMask = ProductMask.ALL;
+    private final Set<Product> products = EnumSet.noneOf(Product.class); // mirrors productMask
     private String accurateLocationProvider, lowPowerLocationProvider;
 
     private MyActionBar actionBar;
@@ -159,6 +161,9 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
     private static final int DIALOG_NEARBY_STATIONS_ERROR = 1;
 
+    private static final float COMPASS_SMOOTHING = 0.3f;
+    private static final float COMPASS_THRESHOLD_DEGREES = 2f;
+
     private static final Logger log = LoggerFactory.getLogger(StationsActivity.class);
 
     private final ActivityResultLauncher<String> requestPermissionLauncher =
@@ -204,34 +209,31 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                 .setOnClickListener(v -> onSearchRequested());
         filterActionButton = actionBar.addButton(R.drawable.ic_filter_list_24dp, R.string.stations_filter_title);
         filterActionButton.setOnClickListener(v -> {
-            final StationsFilterPopup popup = new StationsFilterPopup(StationsActivity.this, products,
+            final StationsFilterPopup popup = new StationsFilterPopup(StationsActivity.this, productMask,
                     filter -> {
-                        final Set<Product> added = new HashSet<>(filter);
-                        added.removeAll(products);
-
-                        final Set<Product> removed = new HashSet<>(products);
-                        removed.removeAll(filter);
+                        final int added = filter & ~productMask;
+                        final int removed = productMask & ~filter;
 
-                        products.clear();
-                        products.addAll(filter);
+                        setProductMask(filter);
 
-                        if (!added.isEmpty()) {
+                        if (added != ProductMask.NONE) {
                             handler.post(initStationsRunnable);
                         }
 
-                        if (!removed.isEmpty()) {
-                            for (final Iterator<Station> i = stations.iterator(); i.hasNext(); ) {
-                                final Station station = i.next();
-                                if (!filter(station, products)) {
-                                    i.remove();
-                                    stationsMap.remove(station.location.id);
-                                }
-                            }
+                        if (removed != ProductMask.NONE) {
+                            stations.removeIf(station -> {
+                                if (filter(station, filter))
+                                    return false;
+                                stationsMap.remove(station.location.id);
+                                return true;
+                            });
 
-                            stationListAdapter.notifyDataSetChanged();
                             mapView.invalidate();
                         }
 
+                        // departures shown are filtered by product, too
+                        stationListAdapter.notifyItemRangeChanged(0, stations.size());
+
                         updateGUI();
                     });
             popup.showAsDropDown(v);
@@ -421,6 +423,27 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         stationList.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL_LIST));
         stationListAdapter = new StationsAdapter(this, maxDeparturesPerStation, products, this, this);
         stationList.setAdapter(stationListAdapter);
+        stations.setListener(new SortedStations.Listener() {
+            @Override
+            public void onInserted(final int position, final int count) {
+                stationListAdapter.notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(final int position, final int count) {
+                stationListAdapter.notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onMoved(final int fromPosition, final int toPosition) {
+                stationListAdapter.notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(final int position, final int count) {
+                stationListAdapter.notifyItemRangeChanged(position, count);
+            }
+        });
         ViewCompat.setOnApplyWindowInsetsListener(stationList, (v, windowInsets) -> {
             final Insets insets = windowInsets.getInsets(WindowInsetsCompat.Type.systemBars());
             v.setPadding(v.getPaddingLeft(), v.getPaddingTop(), v.getPaddingRight(),
@@ -469,9 +492,8 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         if (network != null && NetworkProviderFactory.provider(network).hasCapabilities(Capability.DEPARTURES)) {
             startLocationProvider();
 
-            // request update on orientation change
-            sensorManager.registerListener(orientationListener, sensorAccelerometer, SensorManager.SENSOR_DELAY_NORMAL);
-            sensorManager.registerListener(orientationListener, sensorMagnetometer, SensorManager.SENSOR_DELAY_NORMAL);
+            // request update on orientation change, while the list is shown
+            compassWanted = true;
 
             // regular refresh
             tickReceiver = new BroadcastReceiver() {
@@ -502,7 +524,6 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         stations.clear();
         stationsMap.clear();
 
-        stationListAdapter.notifyDataSetChanged();
         mapView.invalidate();
         loading = true;
 
@@ -544,7 +565,8 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         stopLocationProvider();
 
         // cancel update on orientation change
-        sensorManager.unregisterListener(orientationListener);
+        compassWanted = false;
+        updateCompass(false);
 
         // cancel background thread
         backgroundThread.getLooper().quit();
@@ -589,24 +611,14 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                 if (deviceLocation != null) {
                     mapView.animateToLocation(deviceLocation.getLatAsDouble(), deviceLocation.getLonAsDouble());
 
-                    final float[] distanceBetweenResults = new float[2];
-
                     // remove non-favorites and re-calculate distances
-                    for (final Iterator<Station> i = stations.iterator(); i.hasNext();) {
-                        final Station station = i.next();
-
-                        final Integer favState = favorites.get(station.location.id);
-                        if (favState == null || favState != FavoriteStationsProvider.TYPE_FAVORITE) {
-                            i.remove();
-                            stationsMap.remove(station.location.id);
-                        } else if (station.location.hasCoord()) {
-                            android.location.Location.distanceBetween(deviceLocation.getLatAsDouble(),
-                                    deviceLocation.getLonAsDouble(), station.location.getLatAsDouble(),
-                                    station.location.getLonAsDouble(), distanceBetweenResults);
-                            station.setDistanceAndBearing(distanceBetweenResults[0], distanceBetweenResults[1]);
-                        }
-                    }
-                    stationListAdapter.notifyDataSetChanged();
+                    stations.removeIf(station -> {
+                        if (isFavorite(station))
+                            return false;
+                        stationsMap.remove(station.location.id);
+                        return true;
+                    });
+                    repositionByDistance(deviceLocation.getLatAsDouble(), deviceLocation.getLonAsDouble());
                 }
 
                 handler.post(initStationsRunnable);
@@ -641,7 +653,6 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         stations.clear();
         stationsMap.clear();
         stationListAdapter.setShowPlaces(true);
-        stationListAdapter.notifyDataSetChanged();
 
         handler.post(initStationsRunnable);
         updateGUI();
@@ -653,7 +664,6 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         stations.clear();
         stationsMap.clear();
         stationListAdapter.setShowPlaces(false);
-        stationListAdapter.notifyDataSetChanged();
 
         handler.post(initStationsRunnable);
         updateGUI();
@@ -664,7 +674,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         updateFragments();
 
         // filter indicator
-        final boolean isActive = products.size() < Product.values().length;
+        final boolean isActive = productMask != ProductMask.ALL;
         filterActionButton.setSelected(isActive);
 
         final ViewAnimator viewAnimator = findViewById(R.id.stations_list_layout);
@@ -688,6 +698,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         } else {
             viewAnimator.setDisplayedChild(0); // Stations list
         }
+        updateCompass(viewAnimator.getDisplayedChild() == 0);
 
         // location box
         findViewById(R.id.stations_location_box).setVisibility(fixedLocation != null ? View.VISIBLE : View.GONE);
@@ -808,21 +819,12 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                             log.info("Got {}", result.toShortString());
 
                             final List<Station> freshStations = new ArrayList<>(result.locations.size());
-                            final float[] distanceBetweenResults = new float[2];
-
-                            for (final Location location : result.locations) {
-                                if (location.type == LocationType.STATION) {
-                                    final Station station = new Station(network, location, null);
-                                    if (deviceLocation != null) {
-                                        android.location.Location.distanceBetween(referenceLocation.getLatAsDouble(),
-                                                referenceLocation.getLonAsDouble(), location.getLatAsDouble(),
-                                                location.getLonAsDouble(), distanceBetweenResults);
-                                        station.setDistanceAndBearing(distanceBetweenResults[0],
-                                                distanceBetweenResults[1]);
-                                    }
-                                    freshStations.add(station);
-                                }
-                            }
+                            for (final Location location : result.locations)
+                                if (location.type == LocationType.STATION)
+                                    freshStations.add(new Station(network, location, null));
+                            if (deviceLocation != null)
+                                updateDistancesAndBearings(freshStations, referenceLocation.getLatAsDouble(),
+                                        referenceLocation.getLonAsDouble());
 
                             runOnUiThread(() -> mergeIntoStations(freshStations, true));
                         }
@@ -842,25 +844,18 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
             final Map<Location, Integer> favoriteMap = FavoriteUtils.loadAll(getContentResolver(), network);
             final List<Station> freshStations = new ArrayList<>(favoriteMap.size());
 
-            final float[] distanceBetweenResults = new float[2];
-
             for (final Map.Entry<Location, Integer> entry : favoriteMap.entrySet()) {
                 final Location location = entry.getKey();
                 final String stationId = location.id;
                 final int favType = entry.getValue();
                 favorites.put(stationId, favType);
 
-                if (favType == FavoriteStationsProvider.TYPE_FAVORITE) {
-                    final Station station = new Station(network, location, null);
-                    if (deviceLocation != null && location.hasCoord()) {
-                        android.location.Location.distanceBetween(deviceLocation.getLatAsDouble(),
-                                deviceLocation.getLonAsDouble(), location.getLatAsDouble(), location.getLonAsDouble(),
-                                distanceBetweenResults);
-                        station.setDistanceAndBearing(distanceBetweenResults[0], distanceBetweenResults[1]);
-                    }
-                    freshStations.add(station);
-                }
+                if (favType == FavoriteStationsProvider.TYPE_FAVORITE)
+                    freshStations.add(new Station(network, location, null));
             }
+            if (deviceLocation != null)
+                updateDistancesAndBearings(freshStations, deviceLocation.getLatAsDouble(),
+                        deviceLocation.getLonAsDouble());
             mergeIntoStations(freshStations, false);
         }
 
@@ -872,22 +867,9 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                 protected void onPostExecute(final List<Station> freshStations) {
                     final Location referenceLocation = getReferenceLocation();
 
-                    if (referenceLocation != null) {
-                        final double referenceLat = referenceLocation.getLatAsDouble();
-                        final double referenceLon = referenceLocation.getLonAsDouble();
-
-                        final float[] distanceBetweenResults = new float[2];
-
-                        for (final Station freshStation : freshStations) {
-                            if (freshStation.location.hasCoord()) {
-                                android.location.Location.distanceBetween(referenceLat, referenceLon,
-                                        freshStation.location.getLatAsDouble(), freshStation.location.getLonAsDouble(),
-                                        distanceBetweenResults);
-                                freshStation.setDistanceAndBearing(distanceBetweenResults[0],
-                                        distanceBetweenResults[1]);
-                            }
-                        }
-                    }
+                    if (referenceLocation != null)
+                        updateDistancesAndBearings(freshStations, referenceLocation.getLatAsDouble(),
+                                referenceLocation.getLonAsDouble());
 
                     loading = false;
                     mergeIntoStations(freshStations, true);
@@ -904,25 +886,37 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
             final Station station = stationsMap.get(freshStation.location.id);
             if (station != null) {
                 if (updateExisting) {
+                    boolean stationUpdated = false;
+                    boolean stationChanged = false;
                     if (freshStation.location != null) {
+                        stationChanged |= !freshStation.location.equals(station.location);
                         station.location = freshStation.location;
-                        changed = true;
+                        stationUpdated = true;
                     }
                     if (freshStation.hasDistanceAndBearing) {
+                        final String shownDistance = shownDistance(station);
                         station.setDistanceAndBearing(freshStation.distance, freshStation.bearing);
-                        changed = true;
+                        stationChanged |= !Objects.equals(shownDistance, shownDistance(station));
+                        stationUpdated = true;
                     }
                     if (freshStation.departures != null) {
+                        stationChanged |= freshStation.departures != station.departures;
                         station.departures = freshStation.departures;
-                        changed = true;
+                        stationUpdated = true;
                     }
                     if (freshStation.getLines() != null) {
+                        stationChanged |= freshStation.getLines() != station.getLines();
                         station.setLines(freshStation.getLines());
+                        stationUpdated = true;
+                    }
+                    if (stationUpdated) {
+                        // moves only if its distance or products changed, rebinds only if it shows differently
+                        stations.reposition(station, stationChanged);
                         changed = true;
                     }
                 }
-            } else if (filter(freshStation, products)) {
-                stations.add(freshStation);
+            } else if (filter(freshStation, productMask)) {
+                stations.insert(freshStation);
                 stationsMap.put(freshStation.location.id, freshStation);
 
                 added = true;
@@ -930,30 +924,16 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
             }
         }
 
-        if (changed) {
-            // need to sort again
-            sortStations(stations);
-        }
-
         if (added) {
             // clip list at end, retaining favorites
-            int stationToRemove = stations.size() - 1;
-            while (stations.size() > Constants.MAX_NUMBER_OF_STOPS && stationToRemove >= 0) {
-                final Integer favState = favorites.get(stations.get(stationToRemove).location.id);
-                if (favState == null || favState != FavoriteStationsProvider.TYPE_FAVORITE)
-                    // remove from list & map at once
-                    stationsMap.remove(stations.remove(stationToRemove).location.id);
-
-                stationToRemove--;
-            }
+            for (final Station removed : stations.clipTail(Constants.MAX_NUMBER_OF_STOPS, this::isFavorite))
+                stationsMap.remove(removed.location.id);
 
             postLoadNextVisible(100); // List needs time to initialize.
         }
 
-        if (added || changed) {
-            stationListAdapter.notifyDataSetChanged();
+        if (added || changed)
             mapView.invalidate();
-        }
 
         if (added) {
             handler.postDelayed(() -> mapView.zoomToStations(stations), 500);
@@ -962,44 +942,73 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         updateGUI();
     }
 
-    private static boolean filter(final Station station, final Collection<Product> productFilter) {
-        // if station has products declared, use that for matching
-        final Set<Product> products = station.location.products;
-        if (products != null) {
-            final Set<Product> copy = EnumSet.copyOf(products);
-            copy.retainAll(productFilter);
-            return !copy.isEmpty();
-        }
+    private static boolean filter(final Station station, final int productFilter) {
+        final int products = station.getProductMask();
+        // special case: if station has no metadata suitable for product filtering, match always
+        if (products == Station.PRODUCTS_UNKNOWN)
+            return true;
+        return (products & productFilter) != 0;
+    }
 
-        // if station has lines, go through them and try to match each
-        final List<LineDestination> lines = station.getLines();
-        if (lines != null) {
-            for (final LineDestination line : lines) {
-                final Product product = line.line.product;
-                if (product != null)
-                    for (final Product filterProduct : productFilter)
-                        if (product == filterProduct)
-                            return true;
+    private void setProductMask(final int productMask) {
+        this.productMask = productMask;
+        ProductMask.toSet(productMask, products);
+    }
+
+    /**
+     * Updates distances and bearings of all stations and moves them to their new positions. Only stations that show
+     * a different distance now are rebound; the bearing is kept up to date by the compass.
+     */
+    private void repositionByDistance(final double referenceLat, final double referenceLon) {
+        final List<Station> located = new ArrayList<>(stations.size());
+        final List<String> shownDistances = new ArrayList<>(stations.size());
+        for (final Station station : stations) {
+            if (station.location.hasCoord()) {
+                located.add(station);
+                shownDistances.add(shownDistance(station));
             }
         }
+        updateDistancesAndBearings(located, referenceLat, referenceLon);
+        for (int i = 0; i < located.size(); i++) {
+            final Station station = located.get(i);
+            stations.reposition(station, !Objects.equals(shownDistances.get(i), shownDistance(station)));
+        }
+    }
 
-        // special case: if station has no metadata suitable for product filtering, match always
-        if (products == null && lines == null)
-            return true;
+    @Nullable
+    private static String shownDistance(final Station station) {
+        return station.hasDistanceAndBearing ? Formats.formatDistance(station.distance) : null;
+    }
 
-        return false;
+    /**
+     * Updates distances and bearings of those stations that have a coordinate.
+     */
+    private static void updateDistancesAndBearings(final List<Station> stations, final double referenceLat,
+            final double referenceLon) {
+        final List<Station> located = new ArrayList<>(stations.size());
+        for (final Station station : stations)
+            if (station.location.hasCoord())
+                located.add(station);
+
+        final int count = located.size();
+        final double[] lats = new double[count];
+        final double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            final Location location = located.get(i).location;
+            lats[i] = location.getLatAsDouble();
+            lons[i] = location.getLonAsDouble();
+        }
+        final float[] distances = new float[count];
+        final float[] bearings = new float[count];
+        GeoDistances.compute(GeoDistances.Mode.AUTO, referenceLat, referenceLon, lats, lons, count, distances,
+                bearings);
+        for (int i = 0; i < count; i++)
+            located.get(i).setDistanceAndBearing(distances[i], bearings[i]);
     }
 
-    private static void sortStations(final List<Station> stations) {
-        Collections.sort(stations, (station1, station2) ->
-                Comparator
-                        // order by distance
-                        .<Station, Boolean>comparing(station -> station.hasDistanceAndBearing)
-                        .thenComparing(station -> station.distance)
-                        // order by product
-                        .thenComparing(Station::getRelevantProduct, Comparator.nullsLast(Product::compareTo))
-                        .compare(station1, station2)
-        );
+    private boolean isFavorite(final Station station) {
+        final Integer favState = favorites.get(station.location.id);
+        return favState != null && favState == FavoriteStationsProvider.TYPE_FAVORITE;
     }
 
     private void postLoadNextVisible(final long delay) {
@@ -1059,6 +1068,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                                                     resultStation.departures = departures;
                                                     resultStation.departureQueryStatus = QueryDeparturesResult.Status.OK;
                                                     resultStation.updatedAt = new Date();
+                                                    stationListAdapter.notifyDeparturesChanged(resultStation);
                                                 }
                                             }
                                         } else {
@@ -1066,16 +1076,15 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                                             station.departures = Collections.emptyList();
                                             station.departureQueryStatus = QueryDeparturesResult.Status.OK;
                                             station.updatedAt = new Date();
+                                            stationListAdapter.notifyDeparturesChanged(station);
                                         }
-
-                                        stationListAdapter.notifyDataSetChanged();
                                     } else if (result.status == QueryDeparturesResult.Status.INVALID_STATION) {
                                         final Station resultStation = stationsMap.get(requestedStationId);
                                         if (resultStation != null) {
                                             resultStation.departureQueryStatus = QueryDeparturesResult.Status.INVALID_STATION;
                                             resultStation.updatedAt = new Date();
 
-                                            stationListAdapter.notifyDataSetChanged();
+                                            stationListAdapter.notifyDeparturesChanged(resultStation);
                                         }
                                     } else {
                                         log.info("Got {}", result.toShortString());
@@ -1185,20 +1194,11 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
     private void loadProductFilter() {
         final String p = prefs.getString(Constants.PREFS_KEY_PRODUCT_FILTER, null);
-        if (p != null) {
-            products.clear();
-            for (final char c : p.toCharArray())
-                products.add(Product.fromCode(c));
-        } else {
-            products.addAll(Arrays.asList(Product.values()));
-        }
+        setProductMask(p != null ? ProductMask.fromCodes(p) : ProductMask.ALL);
     }
 
     private void saveProductFilter() {
-        final StringBuilder p = new StringBuilder();
-        for (final Product product : products)
-            p.append(product.code);
-        prefs.edit().putString(Constants.PREFS_KEY_PRODUCT_FILTER, p.toString()).apply();
+        prefs.edit().putString(Constants.PREFS_KEY_PRODUCT_FILTER, ProductMask.toCodes(productMask)).apply();
     }
 
     public final List<Station> getStations() {
@@ -1210,16 +1210,18 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     }
 
     public final void selectStation(final Station station) {
+        final Station previousStation = selectedStationId != null ? stationsMap.get(selectedStationId) : null;
         selectedStationId = station != null ? station.location.id : null;
-        stationListAdapter.notifyDataSetChanged();
+        final int previousPosition = previousStation != null ? stations.indexOf(previousStation) : -1;
+        if (previousPosition >= 0)
+            stationListAdapter.notifyItemChanged(previousPosition);
 
         // scroll list into view
-        for (int position = 0; position < stations.size(); position++) {
-            if (stations.get(position).equals(station)) {
-                stationList.smoothScrollToPosition(position);
-                break;
-            }
-        }
+        final int position = station != null ? stations.indexOf(station) : -1;
+        if (position >= 0 && position != previousPosition)
+            stationListAdapter.notifyItemChanged(position);
+        if (position >= 0)
+            stationList.smoothScrollToPosition(position);
 
         // scroll map
         if (station != null && station.location.hasCoord())
@@ -1386,17 +1388,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
             // re-calculate distances for sorting
             if (fixedLocation == null) {
-                final float[] distanceBetweenResults = new float[2];
-
-                for (final Station station : stations) {
-                    if (station.location.hasCoord()) {
-                        android.location.Location.distanceBetween(hereLat, hereLon, station.location.getLatAsDouble(),
-                                station.location.getLonAsDouble(), distanceBetweenResults);
-                        station.setDistanceAndBearing(distanceBetweenResults[0], distanceBetweenResults[1]);
-                    }
-                }
-
-                stationListAdapter.notifyDataSetChanged();
+                repositionByDistance(hereLat, hereLon);
 
                 handler.post(initStationsRunnable);
             }
@@ -1414,6 +1406,20 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         }
     };
 
+    private void updateCompass(final boolean listShown) {
+        final boolean register = compassWanted && listShown;
+        if (register == compassRegistered)
+            return;
+        if (register) {
+            compassFilter.reset();
+            sensorManager.registerListener(orientationListener, sensorAccelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+            sensorManager.registerListener(orientationListener, sensorMagnetometer, SensorManager.SENSOR_DELAY_NORMAL);
+        } else {
+            sensorManager.unregisterListener(orientationListener);
+        }
+        compassRegistered = register;
+    }
+
     private final SensorEventListener orientationListener = new SensorEventListener() {
         private final float[] accelerometerValues = new float[3];
         private final float[] magnetometerValues = new float[3];
@@ -1425,6 +1431,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         private float[] orientation = new float[3];
 
         private long lastTime = 0;
+        private boolean lastFaceDown = false;
 
         public void onSensorChanged(final SensorEvent event) {
             if (event.sensor == sensorAccelerometer) {
@@ -1449,22 +1456,17 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                 return;
 
             SensorManager.getOrientation(rotationMatrix, orientation);
-            final float azimuth = (float) Math.toDegrees(orientation[0]);
-
             lastTime = System.currentTimeMillis();
 
+            // only redraw needles if the smoothed azimuth moved noticeably
+            if (!compassFilter.update((float) Math.toDegrees(orientation[0])) && faceDown == lastFaceDown)
+                return;
+            lastFaceDown = faceDown;
+            final float azimuth = compassFilter.getAzimuth();
+
             runOnUiThread(() -> {
                 deviceBearing = azimuth;
                 stationListAdapter.setDeviceBearing(azimuth, faceDown);
-
-                // refresh compass needles
-                final int childCount = stationList.getChildCount();
-                for (int i = 0; i < childCount; i++) {
-                    final View childAt = stationList.getChildAt(i);
-                    final View bearingView = childAt.findViewById(R.id.station_entry_bearing);
-                    if (bearingView != null)
-                        bearingView.invalidate();
-                }
             });
         }
 
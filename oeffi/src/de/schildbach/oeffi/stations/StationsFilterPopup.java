@@ -28,32 +28,29 @@ import android.widget.PopupWindow;
 import de.schildbach.oeffi.R;
 import de.schildbach.pte.dto.Product;
 
-import java.util.HashSet;
-import java.util.Set;
-
 public class StationsFilterPopup extends PopupWindow
         implements CompoundButton.OnCheckedChangeListener, OnLongClickListener {
     public interface Listener {
-        void filterChanged(Set<Product> filter);
+        void filterChanged(int productMask);
     }
 
-    private final Set<Product> filter;
+    private int filter;
     private final Listener listener;
 
-    public StationsFilterPopup(final Context context, final Set<Product> filter, final Listener listener) {
+    public StationsFilterPopup(final Context context, final int filter, final Listener listener) {
         super(context, null, 0, R.style.My_Widget_PopupMenu);
         setContentView(LayoutInflater.from(context).inflate(R.layout.stations_filter_popup_content, null));
         setWidth(ViewGroup.LayoutParams.WRAP_CONTENT);
         setHeight(ViewGroup.LayoutParams.WRAP_CONTENT);
         setFocusable(true);
 
-        this.filter = new HashSet<>(filter);
+        this.filter = filter;
         this.listener = listener;
 
         final View contentView = getContentView();
         for (final Product product : Product.ALL) {
             final CheckBox checkBox = contentView.findViewWithTag(Character.toString(product.code));
-            checkBox.setChecked(filter.contains(product));
+            checkBox.setChecked(ProductMask.contains(filter, product));
             checkBox.setOnCheckedChangeListener(this);
             checkBox.setOnLongClickListener(this);
         }
@@ -62,9 +59,9 @@ public class StationsFilterPopup extends PopupWindow
     public void onCheckedChanged(final CompoundButton v, final boolean isChecked) {
         final Product product = Product.fromCode(((String) v.getTag()).charAt(0));
         if (isChecked)
-            filter.add(product);
+            filter |= ProductMask.of(product);
         else
-            filter.remove(product);
+            filter &= ~ProductMask.of(product);
         notifyFilterChanged();
     }
 
@@ -79,6 +76,6 @@ public class StationsFilterPopup extends PopupWindow
     }
 
     private void notifyFilterChanged() {
-        listener.filterChanged(new HashSet<>(filter));
+        listener.filterChanged(filter);
     }
 }
@@ -83,8 +83,13 @@ public class FavoriteStationsAdapter extends RecyclerView.Adapter<FavoriteStatio
     }
 
     public void setSelectedEntry(final long rowId) {
+        final long previousRowId = this.selectedRowId;
         this.selectedRowId = rowId;
-        notifyDataSetChanged();
+        for (int position = 0; position < getItemCount(); position++) {
+            final long entryRowId = getItemId(position);
+            if (entryRowId == previousRowId || entryRowId == rowId)
+                notifyItemChanged(position);
+        }
     }
 
     public void clearSelectedEntry() {
@@ -0,0 +1,277 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations.list;
+
+import android.content.res.Resources;
+import android.text.format.DateUtils;
+import de.schildbach.oeffi.Constants;
+import de.schildbach.oeffi.R;
+import de.schildbach.oeffi.stations.ProductMask;
+import de.schildbach.oeffi.stations.Station;
+import de.schildbach.pte.Standard;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.Product;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Immutable content of a station row: sorted lines and departures grouped by line and destination, with all
+ * strings that do not depend on the current time already formatted. Built off the UI thread from a snapshot of the
+ * station, so binding a row only assigns values to views.
+ */
+public final class StationRowModel {
+    private final Location location;
+    @Nullable
+    private final List<LineDestination> stationLines;
+    @Nullable
+    private final List<Departure> stationDepartures;
+    private final int productMask;
+
+    @Nullable
+    public final Set<Line> lines;
+    /** Departures for the collapsed row, or {@code null} if departures have not been queried. */
+    @Nullable
+    public final Departures collapsed;
+    /** Departures for the activated row, or {@code null} if departures have not been queried. */
+    @Nullable
+    public final Departures activated;
+
+    public static final class Departures {
+        /** Empty if all departures have been filtered out. */
+        public final List<Group> groups;
+        public final List<String> messages;
+        public final boolean isEmpty;
+
+        private Departures(final List<Group> groups, final List<String> messages, final boolean isEmpty) {
+            this.groups = groups;
+            this.messages = messages;
+            this.isEmpty = isEmpty;
+        }
+    }
+
+    public static final class Group {
+        public final Line line;
+        @Nullable
+        public final String destinationText;
+        @Nullable
+        public final String intervalText;
+        public final List<Row> rows;
+
+        private Group(final Line line, @Nullable final String destinationText, @Nullable final String intervalText,
+                final List<Row> rows) {
+            this.line = line;
+            this.destinationText = destinationText;
+            this.intervalText = intervalText;
+            this.rows = rows;
+        }
+    }
+
+    public static final class Row {
+        public final long time;
+        public final boolean isPredicted;
+        public final String delayText;
+        @Nullable
+        public final String messageIndexText;
+
+        private Row(final long time, final boolean isPredicted, final String delayText,
+                @Nullable final String messageIndexText) {
+            this.time = time;
+            this.isPredicted = isPredicted;
+            this.delayText = delayText;
+            this.messageIndexText = messageIndexText;
+        }
+    }
+
+    private StationRowModel(final Location location, @Nullable final List<LineDestination> stationLines,
+            @Nullable final List<Departure> stationDepartures, final int productMask, @Nullable final Set<Line> lines,
+            @Nullable final Departures collapsed, @Nullable final Departures activated) {
+        this.location = location;
+        this.stationLines = stationLines;
+        this.stationDepartures = stationDepartures;
+        this.productMask = productMask;
+        this.lines = lines;
+        this.collapsed = collapsed;
+        this.activated = activated;
+    }
+
+    /**
+     * @return true if this model has been built from the current location, lines and departures of the station,
+     *         and for the given product filter
+     */
+    public boolean isCurrent(final Station station, final int productMask) {
+        return location == station.location && stationLines == station.getLines()
+                && stationDepartures == station.departures && this.productMask == productMask;
+    }
+
+    public static StationRowModel build(final Resources res, final Location location,
+            @Nullable final List<LineDestination> stationLines, @Nullable final List<Departure> stationDepartures,
+            final int productMask, final int maxDepartures) {
+        // lines
+        final Set<Line> lines = new TreeSet<>();
+        final Set<Product> products = location.products;
+        if (products != null)
+            for (final Product product : products)
+                lines.add(new Line(null, null, product, null, Standard.STYLES.get(product)));
+        if (stationLines != null) {
+            for (final LineDestination lineDestination : stationLines) {
+                final Line line = lineDestination.line;
+                lines.add(line);
+                lines.remove(new Line(null, null, line.product, null, Standard.STYLES.get(line.product)));
+            }
+        }
+
+        // departures
+        final Departures collapsed, activated;
+        if (stationDepartures != null) {
+            collapsed = departures(res, stationDepartures, productMask, maxDepartures, false);
+            activated = departures(res, stationDepartures, productMask, maxDepartures, true);
+        } else {
+            collapsed = null;
+            activated = null;
+        }
+
+        return new StationRowModel(location, stationLines, stationDepartures, productMask,
+                !lines.isEmpty() ? Collections.unmodifiableSet(lines) : null, collapsed, activated);
+    }
+
+    private static Departures departures(final Resources res, final List<Departure> stationDepartures,
+            final int productMask, final int maxDepartures, final boolean isActivated) {
+        if (stationDepartures.isEmpty())
+            return new Departures(Collections.emptyList(), Collections.emptyList(), true);
+
+        final int maxGroups = isActivated ? maxDepartures : 1;
+        final Map<LineDestination, List<Departure>> departureGroups = groupDeparturesByLineDestination(
+                stationDepartures, maxGroups, productMask);
+        final int maxDeparturesPerGroup = !isActivated || departureGroups.isEmpty() ? 1
+                : 1 + (maxDepartures / departureGroups.size());
+
+        final List<Group> groups = new ArrayList<>(departureGroups.size());
+        final List<String> messages = new ArrayList<>();
+        for (final Map.Entry<LineDestination, List<Departure>> departureGroup : departureGroups.entrySet()) {
+            final LineDestination lineDestination = departureGroup.getKey();
+            final List<Departure> departures = departureGroup.getValue();
+
+            final Location destination = lineDestination.destination;
+            final String destinationName = destination != null ? destination.uniqueShortName() : null;
+            final int interval = determineInterval(departures);
+
+            final List<Row> rows = new ArrayList<>(Math.min(departures.size(), maxDeparturesPerGroup));
+            for (final Departure departure : departures) {
+                final Date predictedTime = departure.predictedTime;
+                final Date plannedTime = departure.plannedTime;
+                final long time;
+                if (predictedTime != null)
+                    time = predictedTime.getTime();
+                else if (plannedTime != null)
+                    time = plannedTime.getTime();
+                else
+                    throw new IllegalStateException();
+
+                final long delay = predictedTime != null && plannedTime != null
+                        ? predictedTime.getTime() - plannedTime.getTime() : 0;
+                final long delayMins = delay / DateUtils.MINUTE_IN_MILLIS;
+                final String delayText = delayMins != 0 ? String.format("(%+d)", delayMins) + ' ' : "";
+
+                final String messageIndexText;
+                if (departure.message != null || departure.line.message != null) {
+                    if (isActivated) {
+                        final String message = Stream.of(departure.message, departure.line.message)
+                                .filter(Objects::nonNull).collect(Collectors.joining("\n"));
+                        final int index = messages.indexOf(message);
+                        if (index == -1) {
+                            messages.add(message);
+                            messageIndexText = Integer.toString(messages.size());
+                        } else {
+                            messageIndexText = Integer.toString(index + 1);
+                        }
+                    } else {
+                        messageIndexText = "!";
+                    }
+                } else {
+                    messageIndexText = null;
+                }
+
+                rows.add(new Row(time, predictedTime != null, delayText, messageIndexText));
+                if (rows.size() == maxDeparturesPerGroup)
+                    break;
+            }
+
+            groups.add(new Group(lineDestination.line,
+                    destinationName != null ? Constants.DESTINATION_ARROW_PREFIX + destinationName : null,
+                    interval > 0 ? Constants.DESTINATION_ARROW_INVISIBLE_PREFIX
+                            + res.getString(R.string.stations_list_entry_interval, interval) : null,
+                    Collections.unmodifiableList(rows)));
+        }
+        return new Departures(Collections.unmodifiableList(groups), Collections.unmodifiableList(messages), false);
+    }
+
+    private static Map<LineDestination, List<Departure>> groupDeparturesByLineDestination(
+            final List<Departure> departures, final int maxGroups, final int productMask) {
+        final Map<LineDestination, List<Departure>> departureGroups = new LinkedHashMap<>();
+        for (final Departure departure : departures) {
+            if (departure.line.product != null && !ProductMask.contains(productMask, departure.line.product))
+                continue;
+            final LineDestination lineDestination = new LineDestination(departure.line, departure.destination);
+            List<Departure> departureGroup = departureGroups.get(lineDestination);
+            if (departureGroup == null) {
+                if (departureGroups.size() == maxGroups)
+                    continue;
+                departureGroup = new ArrayList<>();
+                departureGroups.put(lineDestination, departureGroup);
+            }
+            departureGroup.add(departure);
+        }
+        return departureGroups;
+    }
+
+    private static int determineInterval(final List<Departure> departures) {
+        if (departures.size() < 3)
+            return 0;
+        int interval = 0;
+        Date lastPlannedTime = null;
+        for (final Departure departure : departures) {
+            final Date plannedTime = departure.plannedTime;
+            if (plannedTime == null)
+                return 0;
+            if (lastPlannedTime != null) {
+                final int diff = (int) ((plannedTime.getTime() - lastPlannedTime.getTime())
+                        / DateUtils.MINUTE_IN_MILLIS);
+                if (interval == 0)
+                    interval = diff;
+                else if (Math.abs(diff - interval) > 1)
+                    return 0;
+            }
+            lastPlannedTime = plannedTime;
+        }
+        return interval;
+    }
+}
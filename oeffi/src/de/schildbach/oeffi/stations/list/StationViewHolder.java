@@ -21,7 +21,6 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.Typeface;
-import android.text.format.DateUtils;
 import android.view.Display;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -40,25 +39,12 @@ import de.schildbach.oeffi.stations.QueryDeparturesRunnable;
 import de.schildbach.oeffi.stations.Station;
 import de.schildbach.oeffi.stations.StationContextMenu;
 import de.schildbach.oeffi.util.Formats;
-import de.schildbach.pte.Standard;
-import de.schildbach.pte.dto.Departure;
-import de.schildbach.pte.dto.Line;
-import de.schildbach.pte.dto.LineDestination;
-import de.schildbach.pte.dto.Location;
-import de.schildbach.pte.dto.Product;
 import de.schildbach.pte.dto.QueryDeparturesResult;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class StationViewHolder extends RecyclerView.ViewHolder {
     public final View favoriteView;
@@ -74,8 +60,6 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
     public final ViewGroup messagesViewGroup;
 
     private final Context context;
-    private final Resources res;
-    private final int maxDepartures;
     private final StationContextMenuItemListener contextMenuItemListener;
 
     private final LayoutInflater inflater;
@@ -84,10 +68,12 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
     private final int colorSignificant, colorLessSignificant, colorInsignificant, colorHighlighted;
     private final int listEntryVerticalPadding;
 
+    private boolean isGhosted;
+
     private static final int CONDENSE_LINES_THRESHOLD = 5;
     private static final int MESSAGE_INDEX_COLOR = Color.parseColor("#c08080");
 
-    public StationViewHolder(final Context context, final View itemView, final int maxDepartures,
+    public StationViewHolder(final Context context, final View itemView,
             final StationContextMenuItemListener contextMenuItemListener) {
         super(itemView);
 
@@ -104,8 +90,7 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         messagesViewGroup = itemView.findViewById(R.id.station_entry_messages);
 
         this.context = context;
-        this.res = context.getResources();
-        this.maxDepartures = maxDepartures;
+        final Resources res = context.getResources();
         this.contextMenuItemListener = contextMenuItemListener;
 
         this.inflater = LayoutInflater.from(context);
@@ -118,20 +103,18 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         this.listEntryVerticalPadding = res.getDimensionPixelOffset(R.dimen.text_padding_vertical);
     }
 
-    public void bind(final Station station, final Set<Product> productsFilter, final boolean forceShowPlace,
+    /**
+     * @param model
+     *            row content; may be outdated or {@code null} while it is being built
+     */
+    public void bind(final Station station, @Nullable final StationRowModel model, final boolean forceShowPlace,
             final Integer favState, final android.location.Location deviceLocation,
             final CompassNeedleView.Callback compassCallback) {
-        final long currentTime = System.currentTimeMillis();
-
-        final boolean queryNotOk = station.departureQueryStatus != null
-                && station.departureQueryStatus != QueryDeparturesResult.Status.OK;
         final boolean isFavorite = favState != null && favState == FavoriteStationsProvider.TYPE_FAVORITE;
-        final boolean isIgnored = favState != null && favState == FavoriteStationsProvider.TYPE_IGNORE;
-        final boolean isGhosted = isIgnored || queryNotOk;
+        final boolean isGhosted = isGhosted(station, favState);
+        this.isGhosted = isGhosted;
 
         final int colorSignificant = !isGhosted ? this.colorSignificant : colorInsignificant;
-        final int colorLessSignificant = !isGhosted ? this.colorLessSignificant : colorInsignificant;
-        final int colorHighlighted = !isGhosted ? this.colorHighlighted : colorInsignificant;
 
         // favorite
         favoriteView.setVisibility(isFavorite ? View.VISIBLE : View.GONE);
@@ -145,24 +128,6 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         name2View.setText(station.location.name);
         name2View.setTextColor(colorSignificant);
 
-        // lines
-        final Set<Line> lines = new TreeSet<>();
-        final Set<Product> products = station.location.products;
-        if (products != null)
-            for (final Product product : products)
-                lines.add(new Line(null, null, product, null, Standard.STYLES.get(product)));
-        final List<LineDestination> stationLines = station.getLines();
-        if (stationLines != null) {
-            for (final LineDestination lineDestination : stationLines) {
-                final Line line = lineDestination.line;
-                lines.add(line);
-                lines.remove(new Line(null, null, line.product, null, Standard.STYLES.get(line.product)));
-            }
-        }
-        linesView.setGhosted(isGhosted);
-        linesView.setCondenseThreshold(CONDENSE_LINES_THRESHOLD);
-        linesView.setLines(!lines.isEmpty() ? lines : null);
-
         // distance
         distanceView.setText(station.hasDistanceAndBearing ? Formats.formatDistance(station.distance) : null);
         distanceView.setVisibility(station.hasDistanceAndBearing ? View.VISIBLE : View.GONE);
@@ -200,35 +165,74 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
             contextMenu.show();
         } : null);
 
+        bindLinesAndDepartures(station, model, isGhosted);
+
+        // allow context menu
+        itemView.setLongClickable(true);
+    }
+
+    /**
+     * Binds only the lines and departures sections, for updates of departures or of the row model.
+     *
+     * @return false if the row needs a full bind instead, because its ghosted state changed
+     */
+    public boolean bindDepartures(final Station station, @Nullable final StationRowModel model,
+            final Integer favState) {
+        final boolean isGhosted = isGhosted(station, favState);
+        if (isGhosted != this.isGhosted)
+            return false;
+        bindLinesAndDepartures(station, model, isGhosted);
+        return true;
+    }
+
+    private static boolean isGhosted(final Station station, final Integer favState) {
+        final boolean queryNotOk = station.departureQueryStatus != null
+                && station.departureQueryStatus != QueryDeparturesResult.Status.OK;
+        final boolean isIgnored = favState != null && favState == FavoriteStationsProvider.TYPE_IGNORE;
+        return isIgnored || queryNotOk;
+    }
+
+    private void bindLinesAndDepartures(final Station station, @Nullable final StationRowModel model,
+            final boolean isGhosted) {
+        final long currentTime = System.currentTimeMillis();
+        final boolean queryNotOk = station.departureQueryStatus != null
+                && station.departureQueryStatus != QueryDeparturesResult.Status.OK;
+        final int colorSignificant = !isGhosted ? this.colorSignificant : colorInsignificant;
+        final int colorLessSignificant = !isGhosted ? this.colorLessSignificant : colorInsignificant;
+        final int colorHighlighted = !isGhosted ? this.colorHighlighted : colorInsignificant;
+
+        // lines
+        linesView.setGhosted(isGhosted);
+        linesView.setCondenseThreshold(CONDENSE_LINES_THRESHOLD);
+        linesView.setLines(model != null ? model.lines : null);
+
         // departures
-        final List<Departure> stationDepartures = station.departures;
+        final StationRowModel.Departures departures = model == null ? null
+                : itemView.isActivated() ? model.activated : model.collapsed;
 
-        final List<String> messages = new LinkedList<>();
+        List<String> messages = Collections.emptyList();
         if (queryNotOk) {
             departuresViewGroup.setVisibility(View.GONE);
             departuresStatusView.setVisibility(View.VISIBLE);
             departuresStatusView.setText("("
                     + context.getString(QueryDeparturesRunnable.statusMsgResId(station.departureQueryStatus)) + ")");
-        } else if (stationDepartures != null && (!isGhosted || itemView.isActivated())) {
+        } else if (departures != null && (!isGhosted || itemView.isActivated())) {
             int iDepartureView = 0;
 
-            if (!stationDepartures.isEmpty()) {
-                final int maxGroups = itemView.isActivated() ? maxDepartures : 1;
-                final Map<LineDestination, List<Departure>> departureGroups = groupDeparturesByLineDestination(
-                        stationDepartures, maxGroups, productsFilter);
-                if (!departureGroups.isEmpty()) {
-                    final int maxDeparturesPerGroup = !itemView.isActivated() ? 1
-                            : 1 + (maxDepartures / departureGroups.size());
+            if (!departures.isEmpty) {
+                if (!departures.groups.isEmpty()) {
                     final int departuresChildCount = departuresViewGroup.getChildCount();
 
                     departuresViewGroup.setVisibility(View.VISIBLE);
                     departuresStatusView.setVisibility(View.GONE);
 
-                    for (final Map.Entry<LineDestination, List<Departure>> departureGroup : departureGroups
-                            .entrySet()) {
+                    final Date updatedAt = station.updatedAt;
+                    final boolean isStale = updatedAt != null
+                            && currentTime - updatedAt.getTime() > Constants.STALE_UPDATE_MS;
+
+                    for (final StationRowModel.Group group : departures.groups) {
                         int iDeparture = 0;
-                        final int interval = determineInterval(departureGroup.getValue());
-                        for (final Departure departure : departureGroup.getValue()) {
+                        for (final StationRowModel.Row row : group.rows) {
                             final ViewGroup departureView;
                             final DepartureViewHolder departureViewHolder;
                             if (iDepartureView < departuresChildCount) {
@@ -257,97 +261,53 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
                             // line & destination
                             final LineView lineView = departureViewHolder.line;
                             final TextView destinationView = departureViewHolder.destination;
-                            final LineDestination lineDestination = departureGroup.getKey();
                             if (iDeparture == 0) {
                                 lineView.setVisibility(View.VISIBLE);
-                                lineView.setLine(lineDestination.line);
+                                lineView.setLine(group.line);
                                 lineView.setGhosted(isGhosted);
 
                                 destinationView.setVisibility(View.VISIBLE);
-                                final Location destination = lineDestination.destination;
-                                if (destination != null) {
-                                    final String destinationName = destination.uniqueShortName();
-                                    destinationView.setText(destinationName != null
-                                            ? Constants.DESTINATION_ARROW_PREFIX + destinationName : null);
-                                } else {
-                                    destinationView.setText(null);
-                                }
+                                destinationView.setText(group.destinationText);
                                 destinationView.setTextColor(colorSignificant);
-                            } else if (iDeparture == 1 && interval > 0) {
+                            } else if (iDeparture == 1 && group.intervalText != null) {
                                 lineView.setVisibility(View.INVISIBLE);
-                                lineView.setLine(lineDestination.line); // Padding only
+                                lineView.setLine(group.line); // Padding only
                                 destinationView.setVisibility(View.VISIBLE);
-                                destinationView.setText(Constants.DESTINATION_ARROW_INVISIBLE_PREFIX
-                                        + res.getString(R.string.stations_list_entry_interval, interval));
+                                destinationView.setText(group.intervalText);
                                 destinationView.setTextColor(colorLessSignificant);
                             } else {
                                 lineView.setVisibility(View.INVISIBLE);
-                                lineView.setLine(lineDestination.line); // Padding only
+                                lineView.setLine(group.line); // Padding only
                                 destinationView.setVisibility(View.INVISIBLE);
                             }
 
                             // message index
                             final TextView messageIndexView = (TextView) departureViewHolder.messageIndex;
-                            if (departure.message != null || departure.line.message != null) {
+                            if (row.messageIndexText != null) {
                                 messageIndexView.setVisibility(View.VISIBLE);
-
-                                final String indexText;
-
-                                if (itemView.isActivated()) {
-                                    final String message = Stream.of(departure.message, departure.line.message)
-                                            .filter(Objects::nonNull)
-                                            .collect(Collectors.joining("\n"));
-                                    final int index = messages.indexOf(message);
-                                    if (index == -1) {
-                                        messages.add(message);
-                                        indexText = Integer.toString(messages.size());
-                                    } else {
-                                        indexText = Integer.toString(index + 1);
-                                    }
-                                } else {
-                                    indexText = "!";
-                                }
-
-                                messageIndexView.setText(indexText);
+                                messageIndexView.setText(row.messageIndexText);
                                 messageIndexView.setBackgroundColor(isGhosted ? colorSignificant : MESSAGE_INDEX_COLOR);
                             } else {
                                 messageIndexView.setVisibility(View.GONE);
                             }
 
-                            long time;
-                            final Date predictedTime = departure.predictedTime;
-                            final Date plannedTime = departure.plannedTime;
-                            final boolean isPredicted = predictedTime != null;
-                            if (predictedTime != null)
-                                time = predictedTime.getTime();
-                            else if (plannedTime != null)
-                                time = plannedTime.getTime();
-                            else
-                                throw new IllegalStateException();
-
                             // time
                             final TextView timeView = departureViewHolder.time;
-                            timeView.setText(Formats.formatTimeDiff(context, currentTime, time));
-                            timeView.setTypeface(Typeface.DEFAULT, isPredicted ? Typeface.ITALIC : Typeface.NORMAL);
-                            final Date updatedAt = station.updatedAt;
-                            final boolean isStale = updatedAt != null
-                                    && System.currentTimeMillis() - updatedAt.getTime() > Constants.STALE_UPDATE_MS;
+                            timeView.setText(Formats.formatTimeDiff(context, currentTime, row.time));
+                            timeView.setTypeface(Typeface.DEFAULT, row.isPredicted ? Typeface.ITALIC : Typeface.NORMAL);
                             timeView.setTextColor(isStale ? colorLessSignificant : colorSignificant);
 
                             // delay
                             final TextView delayView = departureViewHolder.delay;
-                            final long delay = predictedTime != null && plannedTime != null
-                                    ? predictedTime.getTime() - plannedTime.getTime() : 0;
-                            final long delayMins = delay / DateUtils.MINUTE_IN_MILLIS;
-                            delayView.setText(delayMins != 0 ? String.format("(%+d)", delayMins) + ' ' : "");
-                            delayView.setTypeface(Typeface.DEFAULT, isPredicted ? Typeface.ITALIC : Typeface.NORMAL);
+                            delayView.setText(row.delayText);
+                            delayView.setTypeface(Typeface.DEFAULT, row.isPredicted ? Typeface.ITALIC : Typeface.NORMAL);
                             delayView.setTextColor(isStale ? colorLessSignificant : (isGhosted ? colorSignificant :
                                     colorHighlighted));
 
-                            if (++iDeparture == maxDeparturesPerGroup)
-                                break;
+                            iDeparture++;
                         }
                     }
+                    messages = departures.messages;
 
                     if (iDepartureView < departuresChildCount)
                         departuresViewGroup.removeViews(iDepartureView, departuresChildCount - iDepartureView);
@@ -385,51 +345,6 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         } else {
             messagesViewGroup.setVisibility(View.GONE);
         }
-
-        // allow context menu
-        itemView.setLongClickable(true);
-    }
-
-    private Map<LineDestination, List<Departure>> groupDeparturesByLineDestination(final List<Departure> departures,
-            final int maxGroups, @Nullable final Set<Product> productsFilter) {
-        final Map<LineDestination, List<Departure>> departureGroups = new LinkedHashMap<>();
-        for (final Departure departure : departures) {
-            if (productsFilter != null && departure.line.product != null
-                    && !productsFilter.contains(departure.line.product))
-                continue;
-            final LineDestination lineDestination = new LineDestination(departure.line, departure.destination);
-            List<Departure> departureGroup = departureGroups.get(lineDestination);
-            if (departureGroup == null) {
-                if (departureGroups.size() == maxGroups)
-                    continue;
-                departureGroup = new LinkedList<>();
-                departureGroups.put(lineDestination, departureGroup);
-            }
-            departureGroup.add(departure);
-        }
-        return departureGroups;
-    }
-
-    private int determineInterval(final List<Departure> departures) {
-        if (departures.size() < 3)
-            return 0;
-        int interval = 0;
-        Date lastPlannedTime = null;
-        for (final Departure departure : departures) {
-            final Date plannedTime = departure.plannedTime;
-            if (plannedTime == null)
-                return 0;
-            if (lastPlannedTime != null) {
-                final int diff = (int) ((plannedTime.getTime() - lastPlannedTime.getTime())
-                        / DateUtils.MINUTE_IN_MILLIS);
-                if (interval == 0)
-                    interval = diff;
-                else if (Math.abs(diff - interval) > 1)
-                    return 0;
-            }
-            lastPlannedTime = plannedTime;
-        }
-        return interval;
     }
 
     private static class DepartureViewHolder {
@@ -18,17 +18,33 @@
 package de.schildbach.oeffi.stations.list;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.view.ViewGroup;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.StationsAware;
 import de.schildbach.oeffi.stations.CompassNeedleView;
+import de.schildbach.oeffi.stations.ProductMask;
 import de.schildbach.oeffi.stations.Station;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import static de.schildbach.pte.util.Preconditions.checkArgument;
 
@@ -45,11 +61,23 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
     private boolean faceDown = false;
 
     private final LayoutInflater inflater;
+    private final Resources res;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<Station, StationRowModel> rowModels = new WeakHashMap<>();
+    private final Set<Station> rowModelsBuilding = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<CompassNeedleView> compassNeedles = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private static final Object PAYLOAD_DEPARTURES = new Object();
+
+    private static final Executor rowModelExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Logger log = LoggerFactory.getLogger(StationsAdapter.class);
 
     public StationsAdapter(final Context context, final int maxDepartures, final Set<Product> productsFilter,
             final StationContextMenuItemListener contextMenuItemListener, final StationsAware stationsAware) {
         this.context = context;
         this.inflater = LayoutInflater.from(context);
+        this.res = context.getResources();
         this.maxDepartures = maxDepartures;
         this.productsFilter = productsFilter;
         this.contextMenuItemListener = contextMenuItemListener;
@@ -62,9 +90,15 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
         this.deviceLocation = deviceLocation;
     }
 
+    /**
+     * Sets the device bearing and redraws the compass needles of attached rows.
+     */
     public void setDeviceBearing(final Float deviceBearing, final boolean faceDown) {
         this.deviceBearing = deviceBearing;
         this.faceDown = faceDown;
+        for (final CompassNeedleView compassNeedle : compassNeedles)
+            if (compassNeedle.getVisibility() == View.VISIBLE)
+                compassNeedle.invalidate();
     }
 
     public void setShowPlaces(final boolean showPlaces) {
@@ -92,7 +126,38 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
     @Override
     public StationViewHolder onCreateViewHolder(final ViewGroup parent, final int viewType) {
         return new StationViewHolder(context, inflater.inflate(R.layout.stations_station_entry, parent, false),
-                maxDepartures, contextMenuItemListener);
+                contextMenuItemListener);
+    }
+
+    /**
+     * Rebinds only the departures section of the row of the given station, if it is in the list.
+     */
+    public void notifyDeparturesChanged(final Station station) {
+        final int position = stationsAware.getStations().indexOf(station);
+        if (position != -1)
+            notifyItemChanged(position, PAYLOAD_DEPARTURES);
+    }
+
+    @Override
+    public void onBindViewHolder(final StationViewHolder holder, final int position, final List<Object> payloads) {
+        final boolean onlyDepartures = !payloads.isEmpty()
+                && payloads.stream().allMatch(payload -> payload == PAYLOAD_DEPARTURES);
+        if (!onlyDepartures || !bindDepartures(holder, position))
+            onBindViewHolder(holder, position);
+    }
+
+    private boolean bindDepartures(final StationViewHolder holder, final int position) {
+        checkArgument(position != RecyclerView.NO_POSITION);
+        final Station station = getItem(position);
+        final StationRowModel rowModel = rowModels.get(station);
+        final int productMask = ProductMask.of(productsFilter);
+        if (rowModel == null || !rowModel.isCurrent(station, productMask)) {
+            // the row is rebound with the same payload once the current model has been built
+            buildRowModel(station, productMask);
+            return true;
+        }
+        final Integer favState = stationsAware.getFavoriteState(station.location.id);
+        return holder.bindDepartures(station, rowModel, favState);
     }
 
     @Override
@@ -107,9 +172,51 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
             stationsAware.selectStation(isSelected ? null : station);
         });
 
-        // populate view
+        // populate view, with an outdated row model until the current one has been built
+        final StationRowModel rowModel = rowModels.get(station);
+        final int productMask = ProductMask.of(productsFilter);
+        if (rowModel == null || !rowModel.isCurrent(station, productMask))
+            buildRowModel(station, productMask);
         final Integer favState = stationsAware.getFavoriteState(station.location.id);
-        holder.bind(station, productsFilter, showPlaces, favState, deviceLocation, this);
+        holder.bind(station, rowModel, showPlaces, favState, deviceLocation, this);
+    }
+
+    @Override
+    public void onViewAttachedToWindow(final StationViewHolder holder) {
+        compassNeedles.add(holder.bearingView);
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(final StationViewHolder holder) {
+        compassNeedles.remove(holder.bearingView);
+    }
+
+    private void buildRowModel(final Station station, final int productMask) {
+        if (!rowModelsBuilding.add(station))
+            return;
+
+        // snapshot on the UI thread, as these fields are replaced there
+        final Location location = station.location;
+        final List<LineDestination> lines = station.getLines();
+        final List<Departure> departures = station.departures;
+
+        rowModelExecutor.execute(() -> {
+            StationRowModel rowModel = null;
+            try {
+                rowModel = StationRowModel.build(res, location, lines, departures, productMask, maxDepartures);
+            } catch (final RuntimeException x) {
+                log.warn("problem building row for " + location, x);
+            }
+            final StationRowModel builtRowModel = rowModel;
+            handler.post(() -> {
+                rowModelsBuilding.remove(station);
+                if (builtRowModel == null)
+                    return;
+                rowModels.put(station, builtRowModel);
+                // payload rebind, so the row updates in place rather than with a change animation
+                notifyDeparturesChanged(station);
+            });
+        });
     }
 
     public Float getDeviceBearing() {
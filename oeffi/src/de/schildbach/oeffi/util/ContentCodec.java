@@ -0,0 +1,39 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Decodes downloaded content, e.g. decompresses it. See {@link ContentCodecs} for the registry.
+ */
+public interface ContentCodec {
+    String name();
+
+    /**
+     * @return true if the given leading bytes of the content identify this codec's format
+     */
+    boolean matches(byte[] signature, int length);
+
+    /**
+     * @return number of decoded bytes written
+     */
+    long decode(InputStream is, OutputStream os) throws IOException;
+}
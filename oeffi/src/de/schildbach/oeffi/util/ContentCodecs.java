@@ -0,0 +1,240 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import de.schildbach.oeffi.util.bzip2.BZip2CompressorInputStream;
+import de.schildbach.oeffi.util.bzip2.ParallelBZip2Decompressor;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Registry of content codecs. A codec is chosen by the {@code Content-Encoding} of a response or, failing that, by
+ * the magic bytes at the start of the content. Codecs are tried in registration order, with {@link #RAW} as the
+ * fallback, so content that is served uncompressed is stored as is.
+ */
+public final class ContentCodecs {
+    public static final int SIGNATURE_LENGTH = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BZIP2_MAX_THREADS = 4;
+    // smaller content spans only a few blocks and is decoded serially, as are all on single core devices
+    private static final int BZIP2_PARALLEL_MIN_SIZE = 512 * 1024;
+    private static final long BZIP2_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    @Nullable
+    private static ParallelBZip2Decompressor parallelBZip2 = null; // guarded by ContentCodecs.class
+
+    public static final ContentCodec RAW = new ContentCodec() {
+        public String name() {
+            return "raw";
+        }
+
+        public boolean matches(final byte[] signature, final int length) {
+            return true;
+        }
+
+        public long decode(final InputStream is, final OutputStream os) throws IOException {
+            return copy(is, os);
+        }
+    };
+
+    public static final ContentCodec BZIP2 = new ContentCodec() {
+        public String name() {
+            return "bzip2";
+        }
+
+        public boolean matches(final byte[] signature, final int length) {
+            // "BZh" followed by the block size
+            return length >= 4 && signature[0] == 'B' && signature[1] == 'Z' && signature[2] == 'h'
+                    && signature[3] >= '1' && signature[3] <= '9';
+        }
+
+        public long decode(final InputStream is, final OutputStream os) throws IOException {
+            final ParallelBZip2Decompressor parallel = parallelBZip2();
+            final byte[] head = new byte[parallel != null ? BZIP2_PARALLEL_MIN_SIZE : 0];
+            final int headLength = readFully(is, head);
+            final InputStream content = new SequenceInputStream(new ByteArrayInputStream(head, 0, headLength), is);
+            if (parallel != null && headLength == head.length)
+                return parallel.decompress(content, os);
+            return copy(new BZip2CompressorInputStream(content), os);
+        }
+    };
+
+    public static final ContentCodec GZIP = new ContentCodec() {
+        public String name() {
+            return "gzip";
+        }
+
+        public boolean matches(final byte[] signature, final int length) {
+            return length >= 2 && (signature[0] & 0xff) == 0x1f && (signature[1] & 0xff) == 0x8b;
+        }
+
+        public long decode(final InputStream is, final OutputStream os) throws IOException {
+            return copy(new GZIPInputStream(is, BUFFER_SIZE), os);
+        }
+    };
+
+    /** zlib-wrapped deflate, as specified for {@code Content-Encoding: deflate} */
+    public static final ContentCodec DEFLATE = new ContentCodec() {
+        public String name() {
+            return "deflate";
+        }
+
+        public boolean matches(final byte[] signature, final int length) {
+            if (length < 2)
+                return false;
+            final int cmf = signature[0] & 0xff;
+            final int flg = signature[1] & 0xff;
+            return (cmf & 0x0f) == 8 && (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+        }
+
+        public long decode(final InputStream is, final OutputStream os) throws IOException {
+            final byte[] head = new byte[BUFFER_SIZE];
+            final int headLength = readFully(is, head);
+            final InputStream content = new SequenceInputStream(new ByteArrayInputStream(head, 0, headLength), is);
+            // the two byte zlib header also occurs at the start of about one in thirty plain texts
+            if (!inflates(head, headLength))
+                return copy(content, os);
+            final Inflater inflater = new Inflater();
+            try {
+                return copy(new InflaterInputStream(content, inflater, BUFFER_SIZE), os);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private final List<ContentCodec> codecs = new CopyOnWriteArrayList<>();
+    private final Map<String, ContentCodec> contentEncodings = new HashMap<>(); // guarded by this
+
+    public static ContentCodecs createDefault() {
+        final ContentCodecs codecs = new ContentCodecs();
+        codecs.register(BZIP2, "bzip2", "x-bzip2");
+        codecs.register(GZIP, "gzip", "x-gzip");
+        codecs.register(DEFLATE, "deflate");
+        codecs.register(RAW, "identity");
+        return codecs;
+    }
+
+    /**
+     * Registers a codec, to be detected by magic bytes before all codecs registered later.
+     *
+     * @param contentEncodings
+     *            values of the {@code Content-Encoding} header that select this codec
+     */
+    public void register(final ContentCodec codec, final String... contentEncodings) {
+        codecs.add(codec);
+        synchronized (this) {
+            for (final String contentEncoding : contentEncodings)
+                this.contentEncodings.put(contentEncoding.toLowerCase(Locale.US), codec);
+        }
+    }
+
+    /**
+     * @return codec for the given content encoding, or {@code null} if it is missing or unknown
+     */
+    public synchronized @Nullable ContentCodec forContentEncoding(@Nullable final String contentEncoding) {
+        if (contentEncoding == null)
+            return null;
+        return contentEncodings.get(contentEncoding.trim().toLowerCase(Locale.US));
+    }
+
+    /**
+     * @return first registered codec matching the given leading bytes of the content, or {@link #RAW}
+     */
+    public ContentCodec detect(final byte[] signature, final int length) {
+        for (final ContentCodec codec : codecs)
+            if (codec != RAW && codec.matches(signature, length))
+                return codec;
+        return RAW;
+    }
+
+    /**
+     * @return shared decompressor, created on first use, or {@code null} if there are not enough cores for decoding
+     *         in parallel to pay off
+     */
+    private static synchronized @Nullable ParallelBZip2Decompressor parallelBZip2() {
+        final int threads = Math.min(Runtime.getRuntime().availableProcessors(), BZIP2_MAX_THREADS);
+        if (threads < 2)
+            return null;
+        if (parallelBZip2 == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    BZIP2_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        final Thread thread = new Thread(runnable, "bzip2DecoderThread");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            // idle threads go away between downloads
+            executor.allowCoreThreadTimeOut(true);
+            parallelBZip2 = new ParallelBZip2Decompressor(executor, threads);
+        }
+        return parallelBZip2;
+    }
+
+    private static boolean inflates(final byte[] buf, final int length) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buf, 0, length);
+            // a preset dictionary is not supported, and real deflate data yields output from its first block
+            return inflater.inflate(new byte[BUFFER_SIZE]) > 0 || inflater.finished();
+        } catch (final DataFormatException x) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int readFully(final InputStream is, final byte[] buf) throws IOException {
+        int length = 0;
+        while (length < buf.length) {
+            final int read = is.read(buf, length, buf.length - length);
+            if (read == -1)
+                break;
+            length += read;
+        }
+        return length;
+    }
+
+    private static long copy(final InputStream is, final OutputStream os) throws IOException {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        long count = 0;
+        int read;
+        while (-1 != (read = is.read(buf))) {
+            os.write(buf, 0, read);
+            count += read;
+        }
+        return count;
+    }
+}
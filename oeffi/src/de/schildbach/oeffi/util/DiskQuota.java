@@ -0,0 +1,345 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps the total size of downloaded and cached files within a budget. Files are grouped into areas, each belonging
+ * to a {@link Category}. Within an evictable area, top-level files are grouped into units (e.g. a plan and its tile
+ * pyramid), and when over budget, units are evicted least recently used first across all areas. Last access is
+ * recorded explicitly via {@link #recordAccess(File)} and persisted; without a record, the last modification time is
+ * used. Pinned units, e.g. a plan that is currently open, are never evicted.
+ * <p>
+ * Trimming walks and deletes files, so pinning and recording access do not wait for it, except when pinning the
+ * very unit that is being deleted.
+ */
+public final class DiskQuota {
+    public enum Category {
+        PLANS, THUMBNAILS, MAP_TILES, METADATA
+    }
+
+    public static final String ACCESS_LOG_FILENAME = "disk-quota-access.txt";
+
+    private final File accessLogFile;
+    private volatile long budget;
+    private final List<Area> areas = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> pinned = new HashMap<>(); // guarded by itself
+    @Nullable
+    private String evicting = null; // guarded by pinned
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+    private boolean lastAccessLoaded = false; // guarded by this
+    private volatile boolean lastAccessDirty = false;
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    private static final Logger log = LoggerFactory.getLogger(DiskQuota.class);
+
+    private static final class Area {
+        final Category category;
+        final File fileOrDir;
+        @Nullable
+        final Function<String, String> unitOf;
+        @Nullable
+        final Consumer<File> onEvicted;
+
+        Area(final Category category, final File fileOrDir, @Nullable final Function<String, String> unitOf,
+                @Nullable final Consumer<File> onEvicted) {
+            this.category = category;
+            this.fileOrDir = fileOrDir;
+            this.unitOf = unitOf;
+            this.onEvicted = onEvicted;
+        }
+    }
+
+    private static final class Unit {
+        final Area area;
+        final File file;
+        final List<File> files = new ArrayList<>();
+        long size = 0;
+        long lastAccess = 0;
+
+        Unit(final Area area, final File file) {
+            this.area = area;
+            this.file = file;
+        }
+    }
+
+    public DiskQuota(final long budget, final File accessLogFile) {
+        this.budget = budget;
+        this.accessLogFile = accessLogFile;
+    }
+
+    public void setBudget(final long budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Adds an area that is only accounted for, but never evicted from.
+     */
+    public void addArea(final Category category, final File fileOrDir) {
+        areas.add(new Area(category, fileOrDir, null, null));
+    }
+
+    /**
+     * Adds a directory whose contents may be evicted.
+     *
+     * @param unitOf
+     *            maps the name of a top-level file to the name of the unit it belongs to, or {@code null} if it must
+     *            not be evicted
+     * @param onEvicted
+     *            called with the unit file after all files of a unit have been deleted
+     */
+    public void addArea(final Category category, final File dir, final Function<String, String> unitOf,
+            @Nullable final Consumer<File> onEvicted) {
+        areas.add(new Area(category, dir, unitOf, onEvicted));
+    }
+
+    public void recordAccess(final File unitFile) {
+        lastAccess.put(unitFile.getAbsolutePath(), System.currentTimeMillis());
+        lastAccessDirty = true;
+    }
+
+    /**
+     * Keeps the unit from being evicted. If it is being evicted right now, waits until it is gone.
+     */
+    public void pin(final File unitFile) {
+        final String key = unitFile.getAbsolutePath();
+        synchronized (pinned) {
+            while (key.equals(evicting)) {
+                try {
+                    pinned.wait();
+                } catch (final InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            final Integer count = pinned.get(key);
+            pinned.put(key, count != null ? count + 1 : 1);
+        }
+    }
+
+    public void unpin(final File unitFile) {
+        final String key = unitFile.getAbsolutePath();
+        synchronized (pinned) {
+            final Integer count = pinned.get(key);
+            if (count == null || count <= 1)
+                pinned.remove(key);
+            else
+                pinned.put(key, count - 1);
+        }
+    }
+
+    /**
+     * @return bytes used per category
+     */
+    public Map<Category, Long> usage() {
+        final Map<Category, Long> usage = new EnumMap<>(Category.class);
+        for (final Category category : Category.values())
+            usage.put(category, 0L);
+        for (final Area area : areas)
+            usage.put(area.category, usage.get(area.category) + sizeOf(area.fileOrDir));
+        return usage;
+    }
+
+    public CompletableFuture<Map<Category, Long>> trimAsync() {
+        return CompletableFuture.supplyAsync(this::trim, executor);
+    }
+
+    /**
+     * Evicts least recently used units until the total is within budget, or nothing evictable is left. Pinned units
+     * are checked again right before each unit is deleted.
+     *
+     * @return bytes used per category after trimming
+     */
+    public synchronized Map<Category, Long> trim() {
+        loadLastAccess();
+        final Map<Category, Long> usage = usage();
+        long total = 0;
+        for (final long size : usage.values())
+            total += size;
+
+        if (total > budget) {
+            final long overBudget = total - budget;
+            final List<Unit> units = collectUnits();
+            Collections.sort(units, (u1, u2) -> Long.compare(u1.lastAccess, u2.lastAccess));
+            int numEvicted = 0;
+            for (final Unit unit : units) {
+                if (total <= budget)
+                    break;
+                final String key = unit.file.getAbsolutePath();
+                synchronized (pinned) {
+                    // pinned while the units were collected
+                    if (pinned.containsKey(key))
+                        continue;
+                    evicting = key;
+                }
+                try {
+                    for (final File file : unit.files)
+                        deleteRecursively(file);
+                    if (unit.area.onEvicted != null)
+                        unit.area.onEvicted.accept(unit.file);
+                } finally {
+                    synchronized (pinned) {
+                        evicting = null;
+                        pinned.notifyAll();
+                    }
+                }
+                if (lastAccess.remove(key) != null)
+                    lastAccessDirty = true;
+                total -= unit.size;
+                usage.put(unit.area.category, usage.get(unit.area.category) - unit.size);
+                numEvicted++;
+            }
+            log.info("Over budget by {} bytes, evicted {} units, {} bytes left over budget", overBudget,
+                    numEvicted, Math.max(total - budget, 0));
+        }
+
+        saveLastAccess();
+        return usage;
+    }
+
+    private List<Unit> collectUnits() {
+        final List<Unit> units = new ArrayList<>();
+        for (final Area area : areas) {
+            if (area.unitOf == null)
+                continue;
+            final File[] files = area.fileOrDir.listFiles();
+            if (files == null)
+                continue;
+            final Map<String, Unit> areaUnits = new LinkedHashMap<>();
+            for (final File file : files) {
+                final String unitName = area.unitOf.apply(file.getName());
+                if (unitName == null)
+                    continue;
+                Unit unit = areaUnits.get(unitName);
+                if (unit == null) {
+                    unit = new Unit(area, new File(area.fileOrDir, unitName));
+                    areaUnits.put(unitName, unit);
+                }
+                unit.files.add(file);
+                unit.size += sizeOf(file);
+                unit.lastAccess = Math.max(unit.lastAccess, file.lastModified());
+            }
+            for (final Unit unit : areaUnits.values()) {
+                final Long recordedAccess = lastAccess.get(unit.file.getAbsolutePath());
+                if (recordedAccess != null)
+                    unit.lastAccess = Math.max(unit.lastAccess, recordedAccess);
+                units.add(unit);
+            }
+        }
+        return units;
+    }
+
+    private void loadLastAccess() {
+        if (!lastAccessLoaded) {
+            lastAccessLoaded = true;
+            if (accessLogFile.exists()) {
+                try (final BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(accessLogFile), StandardCharsets.UTF_8))) {
+                    while (true) {
+                        final String line = reader.readLine();
+                        if (line == null)
+                            break;
+                        final int tab = line.indexOf('\t');
+                        // accesses recorded before loading are newer
+                        try {
+                            if (tab > 0)
+                                lastAccess.merge(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)),
+                                        Math::max);
+                        } catch (final NumberFormatException x) {
+                            log.info("Ignoring malformed line in access log: '{}'", line);
+                        }
+                    }
+                } catch (final IOException x) {
+                    log.warn("Problem loading access log " + accessLogFile, x);
+                }
+            }
+        }
+    }
+
+    private void saveLastAccess() {
+        if (!lastAccessDirty)
+            return;
+        // cleared before writing, so that accesses recorded meanwhile are saved next time
+        lastAccessDirty = false;
+        final File tempFile = new File(accessLogFile.getPath() + ".tmp");
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, Long> entry : lastAccess.entrySet())
+                if (new File(entry.getKey()).exists())
+                    writer.write(entry.getValue() + "\t" + entry.getKey() + "\n");
+        } catch (final IOException x) {
+            log.warn("Problem saving access log " + accessLogFile, x);
+            tempFile.delete();
+            lastAccessDirty = true;
+            return;
+        }
+        if (!tempFile.renameTo(accessLogFile)) { // Atomic operation
+            log.warn("Problem replacing access log {}", accessLogFile);
+            lastAccessDirty = true;
+        }
+    }
+
+    private static long sizeOf(final File file) {
+        final File[] children = file.listFiles();
+        if (children == null)
+            return file.length();
+        long size = 0;
+        for (final File child : children)
+            size += sizeOf(child);
+        return size;
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null)
+            for (final File child : children)
+                deleteRecursively(child);
+        file.delete();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache metadata (Expires, Last-Modified, ETag) of all downloads, kept in memory and persisted as an append-only
+ * journal. Each update appends one line, so it is atomic as far as readers of the journal are concerned; a torn
+ * last line after a crash is skipped on load. The journal is compacted once it has grown well beyond the number of
+ * live entries.
+ */
+public final class DownloadMetaStore {
+    private final File journalFile;
+    private Map<String, Entry> entries = null; // guarded by this, loaded lazily
+    private int journalLines = 0; // guarded by this
+
+    private static final String HEADER = "oeffi-download-journal 1";
+    private static final char OP_PUT = 'P';
+    private static final char OP_REMOVE = 'R';
+    private static final int COMPACT_MIN_LINES = 64;
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadMetaStore.class);
+
+    public static final class Entry {
+        public final long expires; // 0 if unknown
+        @Nullable
+        public final String lastModified;
+        @Nullable
+        public final String etag;
+
+        public Entry(final long expires, @Nullable final String lastModified, @Nullable final String etag) {
+            this.expires = expires;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        public boolean isFresh(final long now) {
+            return expires != 0 && now < expires;
+        }
+    }
+
+    public DownloadMetaStore(final File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public synchronized @Nullable Entry get(final File file) {
+        return entries().get(key(file));
+    }
+
+    /**
+     * Stores metadata for the given file. If there is nothing worth storing, any existing entry is removed.
+     */
+    public synchronized void put(final File file, final long expires, @Nullable final String lastModified,
+            @Nullable final String etag) {
+        if (expires == 0 && lastModified == null && etag == null) {
+            remove(file);
+            return;
+        }
+        final String key = key(file);
+        final Entry entry = new Entry(expires, sanitize(lastModified), sanitize(etag));
+        entries().put(key, entry);
+        append(OP_PUT + "\t" + key + "\t" + expires + "\t" + nullToEmpty(entry.lastModified) + "\t"
+                + nullToEmpty(entry.etag));
+    }
+
+    public synchronized void remove(final File file) {
+        final String key = key(file);
+        if (entries().remove(key) != null)
+            append(OP_REMOVE + "\t" + key);
+    }
+
+    /**
+     * @return files whose metadata has expired at the given time, or never had an expiry; these need to be
+     *         revalidated by a background refresh
+     */
+    public synchronized List<File> stale(final long now) {
+        final List<File> stale = new ArrayList<>();
+        for (final Map.Entry<String, Entry> entry : entries().entrySet())
+            if (!entry.getValue().isFresh(now))
+                stale.add(new File(entry.getKey()));
+        return stale;
+    }
+
+    /**
+     * @return files whose metadata expires before the given time, but has not expired at {@code now}
+     */
+    public synchronized List<File> expiringBetween(final long now, final long time) {
+        final List<File> expiring = new ArrayList<>();
+        for (final Map.Entry<String, Entry> entry : entries().entrySet()) {
+            final long expires = entry.getValue().expires;
+            if (expires > now && expires < time)
+                expiring.add(new File(entry.getKey()));
+        }
+        return expiring;
+    }
+
+    private Map<String, Entry> entries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            journalLines = 0;
+            if (journalFile.exists()) {
+                truncateTornLine();
+                load();
+            }
+        }
+        return entries;
+    }
+
+    private void load() {
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            final String header = reader.readLine();
+            if (!HEADER.equals(header)) {
+                log.info("Discarding download journal {} with unknown header: {}", journalFile, header);
+                journalFile.delete();
+                return;
+            }
+            while (true) {
+                final String line = reader.readLine();
+                if (line == null)
+                    break;
+                journalLines++;
+                final String[] fields = line.split("\t", -1);
+                try {
+                    if (fields[0].length() == 1 && fields[0].charAt(0) == OP_PUT && fields.length == 5)
+                        entries.put(fields[1], new Entry(Long.parseLong(fields[2]), emptyToNull(fields[3]),
+                                emptyToNull(fields[4])));
+                    else if (fields[0].length() == 1 && fields[0].charAt(0) == OP_REMOVE && fields.length == 2)
+                        entries.remove(fields[1]);
+                    else
+                        log.info("Ignoring malformed line in download journal: '{}'", line);
+                } catch (final NumberFormatException x) {
+                    log.info("Ignoring malformed line in download journal: '{}'", line);
+                }
+            }
+        } catch (final IOException x) {
+            log.warn("Problem loading download journal " + journalFile, x);
+        }
+    }
+
+    private void truncateTornLine() {
+        // a line without line break was cut short by a crash; appending to it would corrupt the next record too
+        try (final RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            long length = file.length();
+            while (length > 0) {
+                file.seek(length - 1);
+                if (file.read() == '\n')
+                    break;
+                length--;
+            }
+            if (length < file.length()) {
+                log.info("Truncating torn line at the end of download journal {}", journalFile);
+                file.setLength(length);
+            }
+        } catch (final IOException x) {
+            log.warn("Problem truncating download journal " + journalFile, x);
+        }
+    }
+
+    private void append(final String line) {
+        if (journalLines >= COMPACT_MIN_LINES && journalLines > entries.size() * 2) {
+            compact();
+            return;
+        }
+        final boolean isNew = journalFile.length() == 0;
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(journalFile, true),
+                StandardCharsets.UTF_8)) {
+            if (isNew)
+                writer.write(HEADER + "\n");
+            writer.write(line + "\n");
+            journalLines++;
+        } catch (final IOException x) {
+            log.warn("Problem appending to download journal " + journalFile, x);
+        }
+    }
+
+    private void compact() {
+        final File tempFile = new File(journalFile.getPath() + ".tmp");
+        try (final FileOutputStream os = new FileOutputStream(tempFile);
+                final Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8)) {
+            writer.write(HEADER + "\n");
+            for (final Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                final Entry entry = mapEntry.getValue();
+                writer.write(OP_PUT + "\t" + mapEntry.getKey() + "\t" + entry.expires + "\t"
+                        + nullToEmpty(entry.lastModified) + "\t" + nullToEmpty(entry.etag) + "\n");
+            }
+            writer.flush();
+            os.getFD().sync();
+        } catch (final IOException x) {
+            log.warn("Problem compacting download journal " + journalFile, x);
+            tempFile.delete();
+            return;
+        }
+        if (tempFile.renameTo(journalFile)) // Atomic operation
+            journalLines = entries.size();
+        else
+            log.warn("Problem replacing download journal {}", journalFile);
+    }
+
+    private static String key(final File file) {
+        return file.getAbsolutePath();
+    }
+
+    private static @Nullable String sanitize(@Nullable final String value) {
+        // tabs and line breaks would corrupt the journal
+        return value != null ? value.replaceAll("[\t\r\n]", " ") : null;
+    }
+
+    private static String nullToEmpty(@Nullable final String str) {
+        return str != null ? str : "";
+    }
+
+    private static @Nullable String emptyToNull(final String str) {
+        return !str.isEmpty() ? str : null;
+    }
+}
@@ -17,7 +17,6 @@
 
 package de.schildbach.oeffi.util;
 
-import de.schildbach.oeffi.util.bzip2.BZip2CompressorInputStream;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.Headers;
@@ -26,30 +25,59 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
-
-import static de.schildbach.pte.util.Preconditions.checkState;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Downloads files into local storage, conditionally and resumably. Meant to be used as a single instance per
+ * app (see {@link de.schildbach.oeffi.Application#downloader()}), so that requests for the same target file are
+ * deduplicated app-wide: callers requesting a file that is already being downloaded attach to that download.
+ * Downloads are started in priority order, with a limited number running concurrently.
+ */
 public class Downloader {
     private final File cacheDir;
-    private final ConcurrentHashMap<File, Semaphore> semaphores = new ConcurrentHashMap<>();
+    private final DownloadMetaStore metaStore;
+    private final ContentCodecs codecs = ContentCodecs.createDefault();
+    private final int maxConcurrentDownloads;
+    private final Map<File, Job> jobs = new HashMap<>(); // guarded by this
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(); // guarded by this
+    private int numRunning = 0; // guarded by this
+    private long jobSequence = 0; // guarded by this
+
+    public static final String META_JOURNAL_FILENAME = "downloads.journal";
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 2;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int PROGRESS_STEP_PERMILLE = 10;
 
     private static final Random random = new Random();
     private static final Logger log = LoggerFactory.getLogger(Downloader.class);
@@ -58,153 +86,615 @@ public class Downloader {
         void progress(long contentRead, long contentLength);
     }
 
+    /**
+     * Receives the content of a download while it is being transferred, after decompression if applicable, e.g. to
+     * parse it on the fly. Methods are called on the download thread. Throwing from {@link #onContent} or
+     * {@link #onContentEnd} aborts the download, so the previous target file is kept.
+     */
+    public interface ContentListener {
+        void onContentStart();
+
+        void onContent(byte[] buf, int off, int len) throws IOException;
+
+        /** All content has been received, but the target file has not been replaced yet. */
+        void onContentEnd() throws IOException;
+
+        /** The target file has been replaced by the received content. */
+        void onContentCommitted(File targetFile);
+
+        /** The download failed or was cancelled; nothing has been committed. */
+        void onContentAborted();
+    }
+
+    public enum Priority {
+        // the user is waiting for this download, e.g. a plan about to be shown
+        INTERACTIVE,
+        // refreshes of indexes or messages
+        BACKGROUND
+    }
+
     public Downloader(final File cacheDir) {
+        this(cacheDir, new File(cacheDir, META_JOURNAL_FILENAME), DEFAULT_MAX_CONCURRENT_DOWNLOADS);
+    }
+
+    public Downloader(final File cacheDir, final File metaJournalFile) {
+        this(cacheDir, metaJournalFile, DEFAULT_MAX_CONCURRENT_DOWNLOADS);
+    }
+
+    public Downloader(final File cacheDir, final File metaJournalFile, final int maxConcurrentDownloads) {
         this.cacheDir = cacheDir;
+        this.metaStore = new DownloadMetaStore(metaJournalFile);
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
     }
 
     public CompletableFuture<Integer> download(final OkHttpClient okHttpClient, final HttpUrl remoteUrl,
                                                       final File targetFile) {
-        return download(okHttpClient, remoteUrl, targetFile, false, null);
+        return download(okHttpClient, remoteUrl, targetFile, false, Priority.BACKGROUND, null);
     }
 
     public CompletableFuture<Integer> download(final OkHttpClient okHttpClient, final HttpUrl remoteUrl,
             final File targetFile, final boolean unzip) {
-        return download(okHttpClient, remoteUrl, targetFile, unzip, null);
+        return download(okHttpClient, remoteUrl, targetFile, unzip, Priority.BACKGROUND, null);
+    }
+
+    public CompletableFuture<Integer> download(final OkHttpClient okHttpClient, final HttpUrl remoteUrl,
+            final File targetFile, final Priority priority) {
+        return download(okHttpClient, remoteUrl, targetFile, false, priority, null);
+    }
+
+    /**
+     * Download the remote URL into the target file, unless the local copy is still fresh or the server reports it
+     * as unchanged. If the target file is already being downloaded, the caller is attached to that download, and
+     * its priority is raised if needed. Completing or cancelling the returned future does not affect other callers.
+     * Content with a known {@code Content-Encoding} is always decoded.
+     *
+     * @param unzip
+     *            decompress the content, with the codec detected from its magic bytes; see {@link #codecs()}
+     * @return future of the HTTP status code; {@link HttpURLConnection#HTTP_OK} for completed downloads, even if
+     *         they have been resumed
+     */
+    public CompletableFuture<Integer> download(final OkHttpClient okHttpClient, final HttpUrl remoteUrl,
+            final File targetFile, final boolean unzip, final Priority priority,
+            @Nullable final ProgressCallback progressCallback) {
+        return download(okHttpClient, remoteUrl, targetFile, unzip, priority, progressCallback, null);
     }
 
+    /**
+     * Like {@link #download(OkHttpClient, HttpUrl, File, boolean, Priority, ProgressCallback)}, but additionally
+     * feeds the content to the given listener while downloading. If the caller attaches to a download that has
+     * already started transferring content, the listener is not used.
+     */
     public CompletableFuture<Integer> download(final OkHttpClient okHttpClient, final HttpUrl remoteUrl,
-            final File targetFile, final boolean unzip, @Nullable final ProgressCallback progressCallback) {
-        final CompletableFuture<Integer> future = new CompletableFuture<>();
-        final Semaphore semaphore = semaphores.computeIfAbsent(targetFile, file -> new Semaphore(1));
-        if (semaphore.tryAcquire()) {
-            final Headers meta = targetFile.exists() ? loadMeta(targetFile) : null;
-            final Request.Builder request = new Request.Builder();
-            request.url(remoteUrl);
-            if (meta != null) {
-                final Date expires = meta.getDate("Expires");
-                if (expires != null && System.currentTimeMillis() < expires.getTime()) {
+            final File targetFile, final boolean unzip, final Priority priority,
+            @Nullable final ProgressCallback progressCallback, @Nullable final ContentListener contentListener) {
+        final CompletableFuture<Integer> callerFuture = new CompletableFuture<>();
+        final Job job;
+        synchronized (this) {
+            final Job existingJob = jobs.get(targetFile);
+            if (existingJob != null && existingJob.successor != null) {
+                log.info("Download '{}' waiting for cancelled predecessor; attaching.", remoteUrl);
+                job = existingJob.successor;
+                raisePriority(job, priority);
+            } else if (existingJob != null && existingJob.numCallers > 0 && !existingJob.future.isCancelled()) {
+                log.info("Download '{}' already in progress; attaching.", remoteUrl);
+                job = existingJob;
+                raisePriority(job, priority);
+            } else if (existingJob != null) {
+                // all callers have left and the job is winding down; it still owns the partial file, so the new
+                // job is only queued once it has finished
+                log.info("Download '{}' cancelled but still running; restarting afterwards.", remoteUrl);
+                job = new Job(okHttpClient, remoteUrl, targetFile, unzip, priority, jobSequence++);
+                existingJob.successor = job;
+            } else {
+                final DownloadMetaStore.Entry meta = targetFile.exists() ? loadMeta(targetFile) : null;
+                if (meta != null && meta.isFresh(System.currentTimeMillis())) {
                     log.info("Download '{}' skipped; using cached copy.", remoteUrl);
-                    future.complete(HttpURLConnection.HTTP_NOT_MODIFIED);
-                    semaphore.release();
-                    return future;
+                    callerFuture.complete(HttpURLConnection.HTTP_NOT_MODIFIED);
+                    return callerFuture;
                 }
 
-                final String lastModified = meta.get("Last-Modified");
-                if (lastModified != null)
-                    request.header("If-Modified-Since", lastModified);
-                final String etag = meta.get("ETag");
-                if (etag != null)
-                    request.header("If-None-Match", etag);
+                job = new Job(okHttpClient, remoteUrl, targetFile, unzip, priority, jobSequence++);
+                jobs.put(targetFile, job);
+                queue.add(job);
             }
-            final Call call = okHttpClient.newCall(request.build());
-            call.enqueue(new Callback() {
-                private final File tempFile = new File(cacheDir,
-                        targetFile.getName() + ".part." + String.format("%04x", random.nextInt(0x10000)));
-
-                public void onResponse(final Call call, final Response r) throws IOException {
-                    try (final Response response = r) {
-                        final int status = response.code();
-                        if (status == HttpURLConnection.HTTP_OK) {
-                            final ResponseBody body = response.body();
-                            final InputStream is = unzip ? new BZip2CompressorInputStream(body.byteStream())
-                                    : body.byteStream();
-                            final OutputStream os = new FileOutputStream(tempFile);
-                            final byte[] buf = new byte[4096];
-                            long count = 0;
-                            int read;
-                            while (-1 != (read = is.read(buf)) && !future.isCancelled()) {
-                                os.write(buf, 0, read);
-                                count += read;
-                                if (progressCallback != null) {
-                                    final long contentRead = count;
-                                    final long contentLength = body.contentLength();
-                                    progressCallback.progress(contentRead, contentLength);
-                                }
+            job.numCallers++;
+            if (progressCallback != null)
+                job.progressCallbacks.add(progressCallback);
+            if (contentListener != null && !job.contentStarted) {
+                job.contentListeners.add(contentListener);
+                job.contentListenerCallers.merge(contentListener, 1, Integer::sum);
+            }
+        }
+        job.future.whenComplete((status, t) -> {
+            if (t == null)
+                callerFuture.complete(status);
+            else
+                callerFuture.completeExceptionally(t);
+        });
+        callerFuture.whenComplete((status, t) -> {
+            if (callerFuture.isCancelled())
+                detach(job, progressCallback, contentListener);
+        });
+        if (progressCallback != null && job.contentRead > 0)
+            progressCallback.progress(job.contentRead, job.contentLength);
+        startQueuedJobs();
+        return callerFuture;
+    }
+
+    /**
+     * @return registry of codecs used for decoding content, to register additional codecs
+     */
+    public ContentCodecs codecs() {
+        return codecs;
+    }
+
+    private void raisePriority(final Job job, final Priority priority) {
+        if (priority.compareTo(job.priority) < 0) {
+            final boolean queued = queue.remove(job);
+            job.priority = priority;
+            if (queued)
+                queue.add(job);
+        }
+    }
+
+    private void detach(final Job job, @Nullable final ProgressCallback progressCallback,
+            @Nullable final ContentListener contentListener) {
+        synchronized (this) {
+            if (progressCallback != null)
+                job.progressCallbacks.remove(progressCallback);
+            // the same listener may have been registered by other callers
+            if (contentListener != null) {
+                final Integer callers = job.contentListenerCallers.get(contentListener);
+                if (callers != null && callers > 1) {
+                    job.contentListenerCallers.put(contentListener, callers - 1);
+                } else if (callers != null) {
+                    job.contentListenerCallers.remove(contentListener);
+                    job.contentListeners.remove(contentListener);
+                }
+            }
+            if (--job.numCallers > 0)
+                return;
+            // last caller gone; a running job notices cancellation in its copy loop
+            if (queue.remove(job))
+                jobs.remove(job.targetFile);
+            else
+                for (final Map.Entry<File, Job> entry : jobs.entrySet())
+                    if (entry.getValue().successor == job)
+                        entry.getValue().successor = null;
+        }
+        job.future.cancel(false);
+    }
+
+    private void startQueuedJobs() {
+        while (true) {
+            final Job job;
+            synchronized (this) {
+                if (numRunning >= maxConcurrentDownloads || queue.isEmpty())
+                    return;
+                job = queue.poll();
+                numRunning++;
+            }
+            execute(job);
+        }
+    }
+
+    private void finish(final Job job, final int status) {
+        synchronized (this) {
+            releaseJob(job);
+        }
+        job.future.complete(status);
+        startQueuedJobs();
+    }
+
+    private void finishExceptionally(final Job job, final IOException x) {
+        synchronized (this) {
+            releaseJob(job);
+        }
+        job.future.completeExceptionally(x);
+        startQueuedJobs();
+    }
+
+    // guarded by this
+    private void releaseJob(final Job job) {
+        numRunning--;
+        if (job.successor != null) {
+            jobs.put(job.targetFile, job.successor);
+            queue.add(job.successor);
+        } else {
+            jobs.remove(job.targetFile);
+        }
+    }
+
+    private void execute(final Job job) {
+        final File targetFile = job.targetFile;
+        final boolean unzip = job.unzip;
+        final Request.Builder request = new Request.Builder();
+        request.url(job.remoteUrl);
+        final DownloadMetaStore.Entry meta = targetFile.exists() ? loadMeta(targetFile) : null;
+        if (meta != null) {
+            if (meta.lastModified != null)
+                request.header("If-Modified-Since", meta.lastModified);
+            if (meta.etag != null)
+                request.header("If-None-Match", meta.etag);
+        }
+
+        // decompressed output cannot be resumed, as the offset in the compressed stream is unknown
+        final boolean resumable = !unzip;
+        final File partFile = partFile(targetFile);
+        final long resumeOffset = resumable ? prepareResume(partFile, request) : 0;
+        if (resumeOffset > 0)
+            log.info("Download '{}' resuming at {} bytes.", job.remoteUrl, resumeOffset);
+
+        final Call call = job.okHttpClient.newCall(request.build());
+        call.enqueue(new Callback() {
+            private final File tempFile = resumable ? partFile
+                    : new File(cacheDir,
+                            targetFile.getName() + ".part." + String.format("%04x", random.nextInt(0x10000)));
+            private boolean contentStarted = false;
+
+            public void onResponse(final Call call, final Response r) {
+                try (final Response response = r) {
+                    final int status = response.code();
+                    if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_PARTIAL) {
+                        final ResponseBody body = response.body();
+                        final ContentCodec codec = selectCodec(response, unzip);
+                        final long offset;
+                        if (status == HttpURLConnection.HTTP_PARTIAL) {
+                            offset = contentRangeStart(response.header("Content-Range"));
+                            if (offset != resumeOffset)
+                                throw new IOException("Unexpected Content-Range: "
+                                        + response.header("Content-Range"));
+                            if (codec != null) {
+                                deleteDownload(tempFile);
+                                throw new IOException("Cannot resume encoded content: "
+                                        + response.header("Content-Encoding"));
                             }
-                            os.close();
-                            saveMeta(targetFile, response.headers());
-                            tempFile.renameTo(targetFile); // Atomic operation
-                            log.info("Download '{}' successful; {} content bytes read.", call.request().url(), count);
-                        } else if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
-                            log.info("Download '{}' skipped; nothing changed.", call.request().url());
-                            saveMeta(targetFile, response.headers());
                         } else {
-                            log.info("Download '{}' failed: {} {}", call.request().url(), status, response.message());
+                            // server ignored range or resource changed, start from scratch
+                            offset = 0;
+                            // content-encoded responses cannot be resumed either
+                            if (resumable && codec == null)
+                                saveMeta(tempFile, response.headers());
+                            else if (resumable)
+                                metaStore.remove(tempFile);
                         }
-                        future.complete(status);
-                        semaphore.release();
-                    } finally {
-                        tempFile.delete();
+                        final long contentLength = body.contentLength() != -1
+                                ? offset + body.contentLength() : -1;
+                        final ProgressThrottle progress = new ProgressThrottle(job, contentLength);
+                        final long[] count = { offset };
+                        if (offset > 0)
+                            progress.report(offset);
+                        synchronized (Downloader.this) {
+                            job.contentStarted = true;
+                        }
+                        contentStarted = true;
+                        for (final ContentListener listener : job.contentListeners)
+                            listener.onContentStart();
+                        final ContentOutputStream content = new ContentOutputStream(job.contentListeners, null);
+                        if (offset > 0 && !job.contentListeners.isEmpty()) {
+                            // listeners need the whole content, including what was received before
+                            try (final InputStream is = new FileInputStream(tempFile)) {
+                                final byte[] buf = new byte[BUFFER_SIZE];
+                                int read;
+                                while (-1 != (read = is.read(buf)))
+                                    content.write(buf, 0, read);
+                            }
+                        }
+                        try (final FileOutputStream fos = new FileOutputStream(tempFile, offset > 0);
+                                final BufferedSink sink = Okio.buffer(Okio.sink(fos))) {
+                            if (codec != null) {
+                                // decoding overlaps with the rest of the stream still arriving
+                                final InputStream compressed = new FilterInputStream(body.byteStream()) {
+                                    @Override
+                                    public int read(final byte[] b, final int off, final int len)
+                                            throws IOException {
+                                        if (job.future.isCancelled())
+                                            throw new IOException("cancelled");
+                                        final int read = super.read(b, off, len);
+                                        if (read > 0) {
+                                            count[0] += read;
+                                            progress.update(count[0]);
+                                        }
+                                        return read;
+                                    }
+                                };
+                                final long written = codec.decode(compressed,
+                                        new ContentOutputStream(job.contentListeners, sink.outputStream()));
+                                log.debug("Decoded {} bytes into {} bytes using {}", count[0], written,
+                                        codec.name());
+                            } else {
+                                // move segments from the network buffer into the file sink without copying
+                                final BufferedSource source = body.source();
+                                final Buffer buffer = sink.getBuffer();
+                                long read;
+                                while (-1 != (read = source.read(buffer, BUFFER_SIZE))
+                                        && !job.future.isCancelled()) {
+                                    if (!job.contentListeners.isEmpty())
+                                        buffer.copyTo(content, buffer.size() - read, read);
+                                    sink.emitCompleteSegments();
+                                    count[0] += read;
+                                    progress.update(count[0]);
+                                }
+                            }
+                            sink.flush();
+                            // make sure content is on disk before the rename makes it visible
+                            fos.getFD().sync();
+                        }
+                        progress.report(count[0]);
+                        if (job.future.isCancelled()) {
+                            log.info("Download '{}' cancelled at {} bytes.", call.request().url(), count[0]);
+                            abortContent();
+                            finishExceptionally(job, new IOException("cancelled"));
+                            return;
+                        }
+                        for (final ContentListener listener : job.contentListeners)
+                            listener.onContentEnd();
+                        saveMeta(targetFile, response.headers());
+                        tempFile.renameTo(targetFile); // Atomic operation
+                        metaStore.remove(tempFile);
+                        contentStarted = false;
+                        for (final ContentListener listener : job.contentListeners)
+                            listener.onContentCommitted(targetFile);
+                        log.info("Download '{}' successful; {} content bytes read, {} of them resumed.",
+                                call.request().url(), count[0], offset);
+                        // callers only need to know the file is complete, not whether it was resumed
+                        finish(job, HttpURLConnection.HTTP_OK);
+                        return;
+                    } else if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        log.info("Download '{}' skipped; nothing changed.", call.request().url());
+                        saveMeta(targetFile, response.headers());
+                    } else if (status == HTTP_RANGE_NOT_SATISFIABLE && resumeOffset > 0) {
+                        log.info("Download '{}' cannot be resumed; restarting.", call.request().url());
+                        deleteDownload(partFile);
+                        execute(job); // keeps the running slot
+                        return;
+                    } else {
+                        log.info("Download '{}' failed: {} {}", call.request().url(), status, response.message());
                     }
+                    finish(job, status);
+                } catch (final IOException x) {
+                    // keep resumable partial download for next attempt
+                    log.info("Downloading {} failed: {}", call.request().url(), x.getMessage());
+                    abortContent();
+                    finishExceptionally(job, x);
+                } finally {
+                    if (!resumable)
+                        tempFile.delete();
                 }
+            }
 
-                public void onFailure(final Call call, final IOException e) {
-                    log.info("Downloading {} failed: {}", call.request().url(), e.getMessage());
-                    future.completeExceptionally(e);
-                    semaphore.release();
-                }
-            });
-        } else {
-            log.info("Download '{}' skipped; already in progress.", remoteUrl);
-            future.complete(HttpURLConnection.HTTP_CONFLICT);
+            private void abortContent() {
+                if (!contentStarted)
+                    return;
+                contentStarted = false;
+                for (final ContentListener listener : job.contentListeners)
+                    listener.onContentAborted();
+            }
+
+            public void onFailure(final Call call, final IOException e) {
+                log.info("Downloading {} failed: {}", call.request().url(), e.getMessage());
+                finishExceptionally(job, e);
+            }
+        });
+    }
+
+    private static class Job implements Comparable<Job> {
+        public final OkHttpClient okHttpClient;
+        public final HttpUrl remoteUrl;
+        public final File targetFile;
+        public final boolean unzip;
+        public final long sequence;
+        public Priority priority; // guarded by Downloader.this
+        public int numCallers = 0; // guarded by Downloader.this
+        public final CompletableFuture<Integer> future = new CompletableFuture<>();
+        public final List<ProgressCallback> progressCallbacks = new CopyOnWriteArrayList<>();
+        public final Set<ContentListener> contentListeners = new CopyOnWriteArraySet<>();
+        // number of callers per content listener, guarded by Downloader.this
+        public final Map<ContentListener, Integer> contentListenerCallers = new HashMap<>();
+        @Nullable
+        public Job successor = null; // guarded by Downloader.this
+        public boolean contentStarted = false; // guarded by Downloader.this
+        public volatile long contentRead = 0;
+        public volatile long contentLength = -1;
+
+        public Job(final OkHttpClient okHttpClient, final HttpUrl remoteUrl, final File targetFile,
+                final boolean unzip, final Priority priority, final long sequence) {
+            this.okHttpClient = okHttpClient;
+            this.remoteUrl = remoteUrl;
+            this.targetFile = targetFile;
+            this.unzip = unzip;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public void progress(final long contentRead, final long contentLength) {
+            this.contentRead = contentRead;
+            this.contentLength = contentLength;
+            for (final ProgressCallback progressCallback : progressCallbacks)
+                progressCallback.progress(contentRead, contentLength);
+        }
+
+        @Override
+        public int compareTo(final Job other) {
+            final int priorityComparison = priority.compareTo(other.priority);
+            if (priorityComparison != 0)
+                return priorityComparison;
+            return Long.compare(sequence, other.sequence);
         }
-        return future;
     }
 
-    private void saveMeta(final File file, final Headers headers) {
-        final String expires = headers.get("Expires");
-        final String lastModified = headers.get("Last-Modified");
-        final String etag = headers.get("ETag");
-        final File metaFile = metaFile(file);
-        if (expires != null || etag != null) {
-            try (final PrintWriter writer = new PrintWriter(metaFile)) {
-                if (expires != null)
-                    writer.println("Expires: " + expires);
-                if (lastModified != null)
-                    writer.println("Last-Modified: " + lastModified);
-                if (etag != null)
-                    writer.println("ETag: " + etag);
-            } catch (final IOException x) {
-                log.warn("Problem saving expiration time " + metaFile, x);
+    /**
+     * Coalesces progress updates, so that callbacks (which often post to the UI thread) are invoked at most once
+     * per percent of progress, i.e. about a hundred times per download regardless of its speed. For unknown content
+     * length, they are invoked at most a few times per second.
+     */
+    private static class ProgressThrottle {
+        private final Job job;
+        private final long contentLength;
+        private long lastReportTime = 0;
+        private long lastReportPermille = -1;
+
+        public ProgressThrottle(final Job job, final long contentLength) {
+            this.job = job;
+            this.contentLength = contentLength;
+        }
+
+        public void update(final long contentRead) {
+            if (contentLength > 0) {
+                if (contentRead * 1000 / contentLength - lastReportPermille < PROGRESS_STEP_PERMILLE)
+                    return;
+            } else if (System.nanoTime() - lastReportTime < PROGRESS_INTERVAL_NS) {
+                return;
             }
-        } else {
-            metaFile.delete();
+            report(contentRead);
+        }
+
+        public void report(final long contentRead) {
+            lastReportTime = System.nanoTime();
+            if (contentLength > 0)
+                lastReportPermille = contentRead * 1000 / contentLength;
+            job.progress(contentRead, contentLength);
+        }
+    }
+
+    /**
+     * @return codec to decode the content with, or {@code null} to store it as is
+     */
+    private @Nullable ContentCodec selectCodec(final Response response, final boolean unzip) throws IOException {
+        final ContentCodec encodingCodec = codecs.forContentEncoding(response.header("Content-Encoding"));
+        if (encodingCodec != null)
+            return encodingCodec != ContentCodecs.RAW ? encodingCodec : null;
+        if (!unzip)
+            return null;
+        final BufferedSource peek = response.body().source().peek();
+        final byte[] signature = new byte[ContentCodecs.SIGNATURE_LENGTH];
+        int length = 0;
+        while (length < signature.length) {
+            final int read = peek.read(signature, length, signature.length - length);
+            if (read == -1)
+                break;
+            length += read;
+        }
+        final ContentCodec codec = codecs.detect(signature, length);
+        return codec != ContentCodecs.RAW ? codec : null;
+    }
+
+    /**
+     * Writes content to an optional sink and to content listeners.
+     */
+    private static class ContentOutputStream extends OutputStream {
+        private final Set<ContentListener> listeners;
+        @Nullable
+        private final OutputStream sink;
+
+        public ContentOutputStream(final Set<ContentListener> listeners, @Nullable final OutputStream sink) {
+            this.listeners = listeners;
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (sink != null)
+                sink.write(b, off, len);
+            for (final ContentListener listener : listeners)
+                listener.onContent(b, off, len);
         }
     }
 
-    private Headers loadMeta(final File file) {
-        checkState(file.exists());
+    private File partFile(final File targetFile) {
+        return new File(cacheDir, targetFile.getName() + ".part");
+    }
+
+    /**
+     * Adds range headers to the request if a partial download with a usable validator exists.
+     *
+     * @return offset the download will resume from, or 0 if it will start from scratch
+     */
+    private long prepareResume(final File partFile, final Request.Builder request) {
+        if (!partFile.exists())
+            return 0;
+        final long length = partFile.length();
+        final DownloadMetaStore.Entry partMeta = loadMeta(partFile);
+        final String etag = partMeta != null ? partMeta.etag : null;
+        final String lastModified = partMeta != null ? partMeta.lastModified : null;
+        // weak ETags cannot be used for range requests
+        final String validator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+        if (length == 0 || validator == null) {
+            deleteDownload(partFile);
+            return 0;
+        }
+        request.header("Range", "bytes=" + length + "-");
+        request.header("If-Range", validator);
+        return length;
+    }
+
+    private static long contentRangeStart(@Nullable final String contentRange) throws IOException {
+        // bytes <start>-<end>/<length>
+        if (contentRange == null || !contentRange.startsWith("bytes "))
+            throw new IOException("Missing or unsupported Content-Range: " + contentRange);
+        final int dash = contentRange.indexOf('-');
+        if (dash == -1)
+            throw new IOException("Missing or unsupported Content-Range: " + contentRange);
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (final NumberFormatException x) {
+            throw new IOException("Missing or unsupported Content-Range: " + contentRange);
+        }
+    }
+
+    private void saveMeta(final File file, final Headers headers) {
+        final Date expires = headers.getDate("Expires");
+        metaStore.put(file, expires != null ? expires.getTime() : 0, headers.get("Last-Modified"),
+                headers.get("ETag"));
+    }
+
+    private @Nullable DownloadMetaStore.Entry loadMeta(final File file) {
+        final DownloadMetaStore.Entry entry = metaStore.get(file);
+        if (entry != null)
+            return entry;
+
+        // migrate legacy sidecar file
+        final File legacyMetaFile = new File(file.getPath() + ".meta");
+        if (!legacyMetaFile.exists())
+            return null;
         final Headers.Builder builder = new Headers.Builder();
-        final File metaFile = metaFile(file);
-        if (metaFile.exists()) {
-            String line = null;
-            try (final BufferedReader reader = new BufferedReader(new FileReader(metaFile), 128)) {
-                while (true) {
-                    line = reader.readLine();
-                    if (line == null)
-                        break;
-                    final int sep = line.indexOf(':');
-                    if (sep == -1)
-                        break;
-                    final String name = line.substring(0, sep).trim();
-                    final String value = line.substring(sep + 1).trim();
-                    builder.add(name, value);
-                }
-            } catch (final IOException x) {
-                throw new RuntimeException("Problem loading meta data " + metaFile, x);
-            } catch (final Exception x) {
-                throw new RuntimeException("Problem parsing meta data: '" + line + "'", x);
+        try (final BufferedReader reader = new BufferedReader(new FileReader(legacyMetaFile), 128)) {
+            while (true) {
+                final String line = reader.readLine();
+                if (line == null)
+                    break;
+                final int sep = line.indexOf(':');
+                if (sep == -1)
+                    break;
+                builder.add(line.substring(0, sep).trim(), line.substring(sep + 1).trim());
             }
+        } catch (final IOException | IllegalArgumentException x) {
+            log.info("Problem migrating meta data " + legacyMetaFile, x);
         }
-        return builder.build();
+        saveMeta(file, builder.build());
+        legacyMetaFile.delete();
+        return metaStore.get(file);
     }
 
-    private static File metaFile(final File file) {
-        return new File(file.getPath() + ".meta");
+    /**
+     * @return downloaded files whose cached copy has expired, for background refresh
+     */
+    public List<File> staleDownloads() {
+        final List<File> stale = new LinkedList<>();
+        for (final File file : metaStore.stale(System.currentTimeMillis()))
+            if (file.exists() && !file.getParentFile().equals(cacheDir))
+                stale.add(file);
+        return stale;
     }
 
-    public static void deleteDownload(final File file) {
+    public void deleteDownload(final File file) {
         file.delete();
-        metaFile(file).delete();
+        metaStore.remove(file);
+        new File(file.getPath() + ".meta").delete(); // legacy
     }
 }
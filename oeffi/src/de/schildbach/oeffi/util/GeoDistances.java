@@ -0,0 +1,177 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import javax.annotation.Nullable;
+
+/**
+ * Distances in meters and initial bearings in degrees (-180 to 180, clockwise from north) on the WGS84 ellipsoid,
+ * like {@code android.location.Location.distanceBetween()}, but from one origin to many points in one call.
+ */
+public final class GeoDistances {
+    public enum Mode {
+        /**
+         * Local flat-earth projection using the ellipsoid's radii of curvature at the origin. Very fast; within
+         * 0.1% and 0.05° for distances up to 50 km outside of polar regions.
+         */
+        EQUIRECTANGULAR,
+        /** {@link #EQUIRECTANGULAR}, falling back to {@link #HAVERSINE} for points farther than 50 km. */
+        AUTO,
+        /** Great circle on a sphere with the ellipsoid's mean radius at the origin; within 0.5% at any distance. */
+        HAVERSINE,
+        /** Iterative solution on the ellipsoid, as used by Android. */
+        VINCENTY
+    }
+
+    private static final double A = 6378137.0; // WGS84 semi-major axis
+    private static final double F = 1 / 298.257223563; // WGS84 flattening
+    private static final double B = A * (1 - F);
+    private static final double E2 = F * (2 - F);
+    private static final int VINCENTY_MAX_ITERATIONS = 20;
+    private static final float AUTO_MAX_EQUIRECTANGULAR_DISTANCE = 50000;
+
+    private GeoDistances() {
+    }
+
+    /**
+     * Computes distances and optionally bearings from one origin to {@code count} points.
+     *
+     * @param bearings
+     *            receives initial bearings, or {@code null} if not needed
+     */
+    public static void compute(final Mode mode, final double originLat, final double originLon, final double[] lats,
+            final double[] lons, final int count, final float[] distances, @Nullable final float[] bearings) {
+        if (mode == Mode.EQUIRECTANGULAR) {
+            equirectangular(originLat, originLon, lats, lons, count, distances, bearings);
+        } else if (mode == Mode.AUTO) {
+            equirectangular(originLat, originLon, lats, lons, count, distances, bearings);
+            for (int i = 0; i < count; i++)
+                if (distances[i] > AUTO_MAX_EQUIRECTANGULAR_DISTANCE)
+                    haversine(originLat, originLon, lats, lons, i, i + 1, distances, bearings);
+        } else if (mode == Mode.HAVERSINE)
+            haversine(originLat, originLon, lats, lons, 0, count, distances, bearings);
+        else
+            for (int i = 0; i < count; i++)
+                vincenty(originLat, originLon, lats[i], lons[i], distances, bearings, i);
+    }
+
+    /**
+     * @return distance between two points
+     */
+    public static float distance(final Mode mode, final double lat1, final double lon1, final double lat2,
+            final double lon2) {
+        final float[] distance = new float[1];
+        compute(mode, lat1, lon1, new double[] { lat2 }, new double[] { lon2 }, 1, distance, null);
+        return distance[0];
+    }
+
+    private static void equirectangular(final double originLat, final double originLon, final double[] lats,
+            final double[] lons, final int count, final float[] distances, @Nullable final float[] bearings) {
+        final double phi0 = Math.toRadians(originLat);
+        final double sinPhi0 = Math.sin(phi0), cosPhi0 = Math.cos(phi0);
+        final double w = Math.sqrt(1 - E2 * sinPhi0 * sinPhi0);
+        final double metersPerRadLat = A * (1 - E2) / (w * w * w); // meridional radius
+        final double metersPerRadLon = A / w; // prime vertical radius
+        for (int i = 0; i < count; i++) {
+            final double dPhi = Math.toRadians(lats[i] - originLat);
+            double dLambda = lons[i] - originLon;
+            if (dLambda > 180)
+                dLambda -= 360;
+            else if (dLambda < -180)
+                dLambda += 360;
+            // cosine of the mid latitude, to first order
+            final double cosPhiM = cosPhi0 - sinPhi0 * dPhi * 0.5;
+            final double dLambdaRad = Math.toRadians(dLambda);
+            final double y = dPhi * metersPerRadLat;
+            final double x = dLambdaRad * cosPhiM * metersPerRadLon;
+            distances[i] = (float) Math.sqrt(x * x + y * y);
+            if (bearings != null) {
+                // the initial bearing differs from the chord by half the convergence of meridians
+                final double sinPhiM = sinPhi0 + cosPhi0 * dPhi * 0.5;
+                final double bearing = Math.toDegrees(Math.atan2(x, y) - dLambdaRad * sinPhiM * 0.5);
+                bearings[i] = (float) (bearing > 180 ? bearing - 360 : bearing < -180 ? bearing + 360 : bearing);
+            }
+        }
+    }
+
+    private static void haversine(final double originLat, final double originLon, final double[] lats,
+            final double[] lons, final int from, final int to, final float[] distances,
+            @Nullable final float[] bearings) {
+        final double phi1 = Math.toRadians(originLat);
+        final double sinPhi1 = Math.sin(phi1), cosPhi1 = Math.cos(phi1);
+        final double w2 = 1 - E2 * sinPhi1 * sinPhi1;
+        final double radius = A * Math.sqrt(1 - E2) / w2; // Gaussian mean radius
+        for (int i = from; i < to; i++) {
+            final double phi2 = Math.toRadians(lats[i]);
+            final double sinPhi2 = Math.sin(phi2), cosPhi2 = Math.cos(phi2);
+            final double dLambda = Math.toRadians(lons[i] - originLon);
+            final double sinHalfDPhi = Math.sin((phi2 - phi1) * 0.5);
+            final double sinHalfDLambda = Math.sin(dLambda * 0.5);
+            final double h = sinHalfDPhi * sinHalfDPhi + cosPhi1 * cosPhi2 * sinHalfDLambda * sinHalfDLambda;
+            distances[i] = (float) (2 * radius * Math.asin(Math.min(1, Math.sqrt(h))));
+            if (bearings != null) {
+                final double cosDLambda = Math.cos(dLambda);
+                bearings[i] = (float) Math.toDegrees(Math.atan2(Math.sin(dLambda) * cosPhi2,
+                        cosPhi1 * sinPhi2 - sinPhi1 * cosPhi2 * cosDLambda));
+            }
+        }
+    }
+
+    private static void vincenty(final double lat1, final double lon1, final double lat2, final double lon2,
+            final float[] distances, @Nullable final float[] bearings, final int index) {
+        final double l = Math.toRadians(lon2 - lon1);
+        final double u1 = Math.atan((1 - F) * Math.tan(Math.toRadians(lat1)));
+        final double u2 = Math.atan((1 - F) * Math.tan(Math.toRadians(lat2)));
+        final double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1);
+        final double sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        double sinLambda = 0, cosLambda = 0;
+        double sigma = 0, sinSigma = 0, cosSigma = 0;
+        double cosSqAlpha = 0, cos2SigmaM = 0;
+        for (int iteration = 0; iteration < VINCENTY_MAX_ITERATIONS; iteration++) {
+            final double lambdaOrig = lambda;
+            sinLambda = Math.sin(lambda);
+            cosLambda = Math.cos(lambda);
+            final double t1 = cosU2 * sinLambda;
+            final double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            final double sinAlpha = sinSigma == 0 ? 0 : cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cosSqAlpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha;
+            final double c = F / 16 * cosSqAlpha * (4 + F * (4 - 3 * cosSqAlpha));
+            lambda = l + (1 - c) * F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - lambdaOrig) < 1.0e-12)
+                break;
+        }
+
+        final double uSquared = cosSqAlpha * (A * A - B * B) / (B * B);
+        final double bigA = 1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+        final double bigB = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+        final double cos2SigmaMSq = cos2SigmaM * cos2SigmaM;
+        final double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4 * (cosSigma * (-1 + 2 * cos2SigmaMSq)
+                - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaMSq)));
+        distances[index] = (float) (B * bigA * (sigma - deltaSigma));
+        if (bearings != null)
+            bearings[index] = (float) Math.toDegrees(
+                    Math.atan2(cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Rules for in-app messages, compiled from {@code messages.txt}. Each line is
+ * {@code id|conditions|repeat|action}, with whitespace separated {@code name:value} conditions. Lines are compiled
+ * once into rules with pre-parsed conditions; lines that cannot be compiled are skipped.
+ */
+public final class MessageRules {
+    public final long lastModified;
+    public final List<Rule> rules;
+
+    private static final Logger log = LoggerFactory.getLogger(MessageRules.class);
+
+    /**
+     * Facts conditions are evaluated against. Use one instance per evaluation pass: expensive facts are loaded
+     * lazily, only if a condition needs them, and at most once per instance.
+     */
+    public abstract static class Facts {
+        private Set<String> installedPackages = null;
+        private boolean installerLoaded = false;
+        private String installer = null;
+        private long firstInstallTime = -1;
+
+        public abstract long now();
+
+        public abstract int sdkInt();
+
+        public abstract int versionCode();
+
+        public abstract @Nullable String network();
+
+        public abstract String language();
+
+        public abstract String taskName();
+
+        public abstract boolean prefsShowInfo();
+
+        public abstract long lastInfoAt();
+
+        /**
+         * @return time the message was last shown, or -1 if never
+         */
+        public abstract long lastShown(String id);
+
+        protected abstract Set<String> loadInstalledPackages();
+
+        protected abstract @Nullable String loadInstaller();
+
+        protected abstract long loadFirstInstallTime();
+
+        public final Set<String> installedPackages() {
+            if (installedPackages == null)
+                installedPackages = loadInstalledPackages();
+            return installedPackages;
+        }
+
+        public final @Nullable String installer() {
+            if (!installerLoaded) {
+                installer = loadInstaller();
+                installerLoaded = true;
+            }
+            return installer;
+        }
+
+        public final long firstInstallTime() {
+            if (firstInstallTime == -1)
+                firstInstallTime = loadFirstInstallTime();
+            return firstInstallTime;
+        }
+    }
+
+    public static final class Rule {
+        public final String id;
+        @Nullable
+        public final String action;
+        public final String line;
+        private final List<Predicate<Facts>> conditions;
+        @Nullable
+        private final String repeat;
+        private final long repeatInterval;
+
+        private Rule(final String id, @Nullable final String action, final String line,
+                final List<Predicate<Facts>> conditions, @Nullable final String repeat, final long repeatInterval) {
+            this.id = id;
+            this.action = action;
+            this.line = line;
+            this.conditions = conditions;
+            this.repeat = repeat;
+            this.repeatInterval = repeatInterval;
+        }
+
+        public boolean matches(final Facts facts) {
+            for (final Predicate<Facts> condition : conditions)
+                if (!condition.test(facts))
+                    return false;
+
+            if ("always".equals(repeat))
+                return true;
+            final long lastShown = facts.lastShown(id);
+            if (repeat == null || repeat.equals("once"))
+                return lastShown == -1;
+            return facts.now() >= Math.max(lastShown, 0) + repeatInterval;
+        }
+    }
+
+    private MessageRules(final long lastModified, final List<Rule> rules) {
+        this.lastModified = lastModified;
+        this.rules = rules;
+    }
+
+    /**
+     * @return first rule that matches, or {@code null}
+     */
+    public @Nullable Rule pick(final Facts facts) {
+        for (final Rule rule : rules)
+            if (rule.matches(facts))
+                return rule;
+        return null;
+    }
+
+    public static MessageRules compile(final InputStream is, final long lastModified) throws IOException {
+        final List<Rule> rules = new ArrayList<>();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            while (true) {
+                String line = reader.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#')
+                    continue;
+
+                try {
+                    rules.add(compileRule(line));
+                } catch (final ParseException | RuntimeException x) {
+                    log.info("Problem parsing message '" + line + "': ", x);
+                }
+            }
+        }
+        return new MessageRules(lastModified, Collections.unmodifiableList(rules));
+    }
+
+    private static Rule compileRule(final String line) throws ParseException {
+        final Iterator<String> fieldIterator = Arrays.stream(line.split("\\|"))
+                .map(s -> !s.trim().isEmpty() ? s.trim() : null).iterator();
+        final String id = fieldIterator.next();
+        if (id == null)
+            throw new NoSuchElementException("missing id");
+        final String conditions = fieldIterator.next();
+        final String repeat = fieldIterator.next();
+        final String action = fieldIterator.next();
+
+        final List<Predicate<Facts>> predicates = new ArrayList<>();
+        if (conditions != null) {
+            for (final String condition : conditions.split("\\s+")) {
+                final String[] nameValue = condition.split(":", 2);
+                final Predicate<Facts> predicate = compileCondition(nameValue[0],
+                        nameValue.length >= 2 ? nameValue[1] : null);
+                if (predicate != null)
+                    predicates.add(predicate);
+            }
+        }
+
+        final long repeatInterval = repeat != null && !repeat.equals("always") && !repeat.equals("once")
+                ? parseTimeExp(repeat) : 0;
+        return new Rule(id, action, line, predicates, repeat, repeatInterval);
+    }
+
+    private static @Nullable Predicate<Facts> compileCondition(final String name, @Nullable final String value)
+            throws ParseException {
+        switch (name) {
+        case "min-sdk": {
+            final int minSdk = Integer.parseInt(requireValue(name, value));
+            return f -> f.sdkInt() >= minSdk;
+        }
+        case "max-sdk": {
+            final int maxSdk = Integer.parseInt(requireValue(name, value));
+            return f -> f.sdkInt() <= maxSdk;
+        }
+        case "min-version": {
+            final int version = Integer.parseInt(requireValue(name, value));
+            return f -> f.versionCode() >= version;
+        }
+        case "max-version": {
+            final int version = Integer.parseInt(requireValue(name, value));
+            return f -> f.versionCode() <= version;
+        }
+        case "version": {
+            final int version = Integer.parseInt(requireValue(name, value));
+            return f -> f.versionCode() < version;
+        }
+        case "network": {
+            final String network = requireValue(name, value);
+            return f -> network.equalsIgnoreCase(f.network());
+        }
+        case "lang": {
+            final String lang = requireValue(name, value);
+            return f -> lang.equalsIgnoreCase(f.language());
+        }
+        case "task": {
+            final String task = requireValue(name, value);
+            return f -> task.equalsIgnoreCase(f.taskName());
+        }
+        case "first-install-before": {
+            final long time = new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse(requireValue(name, value))
+                    .getTime();
+            return f -> time < f.firstInstallTime();
+        }
+        case "prefs-show-info": {
+            final boolean requiredValue = "true".equalsIgnoreCase(value);
+            return f -> f.prefsShowInfo() == requiredValue;
+        }
+        case "limit-info": {
+            final long interval = parseTimeExp(requireValue(name, value));
+            return f -> f.now() >= f.lastInfoAt() + interval;
+        }
+        case "installed-package": {
+            final Set<String> packageNames = packageNames(requireValue(name, value));
+            return f -> !Collections.disjoint(packageNames, f.installedPackages());
+        }
+        case "not-installed-package": {
+            final Set<String> packageNames = packageNames(requireValue(name, value));
+            return f -> Collections.disjoint(packageNames, f.installedPackages());
+        }
+        case "installer": {
+            final String installer = requireValue(name, value);
+            return f -> installer.equalsIgnoreCase(f.installer());
+        }
+        case "not-installer": {
+            final String installer = requireValue(name, value);
+            return f -> !installer.equalsIgnoreCase(f.installer());
+        }
+        default:
+            log.info("Unhandled condition: '{}={}'", name, value);
+            return null;
+        }
+    }
+
+    private static String requireValue(final String name, @Nullable final String value) {
+        if (value == null)
+            throw new IllegalArgumentException("condition needs a value: '" + name + "'");
+        return value;
+    }
+
+    private static Set<String> packageNames(final String value) {
+        final Set<String> packageNames = new HashSet<>();
+        for (final String packageName : value.split(","))
+            packageNames.add(packageName.trim());
+        return packageNames;
+    }
+
+    static long parseTimeExp(final String exp) {
+        if (exp.endsWith("h"))
+            return TimeUnit.HOURS.toMillis(Integer.parseInt(exp.substring(0, exp.length() - 1)));
+        else if (exp.endsWith("d"))
+            return TimeUnit.DAYS.toMillis(Integer.parseInt(exp.substring(0, exp.length() - 1)));
+        else if (exp.endsWith("w"))
+            return TimeUnit.DAYS.toMillis(7L * Integer.parseInt(exp.substring(0, exp.length() - 1)));
+        else
+            throw new IllegalArgumentException("cannot parse time expression: '" + exp + "'");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import static de.schildbach.pte.util.Preconditions.checkArgument;
+
+/**
+ * Douglas–Peucker simplification of polylines in planar coordinates, such as projected map pixels.
+ */
+public final class PathSimplifier {
+    private PathSimplifier() {
+    }
+
+    /**
+     * Determines the points to keep so that no dropped point is farther than the tolerance from the simplified
+     * line. The first and last points are always kept.
+     *
+     * @param keep
+     *            receives indices of kept points in ascending order; needs room for {@code count} elements
+     * @return number of kept points
+     */
+    public static int simplify(final double[] xs, final double[] ys, final int count, final double tolerance,
+            final int[] keep) {
+        checkArgument(count <= xs.length && count <= ys.length && count <= keep.length);
+        if (count <= 2) {
+            for (int i = 0; i < count; i++)
+                keep[i] = i;
+            return count;
+        }
+
+        final boolean[] kept = new boolean[count];
+        kept[0] = true;
+        kept[count - 1] = true;
+
+        // explicit stack of index ranges, as paths can have thousands of points
+        final int[] stack = new int[count * 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        stack[stackSize++] = count - 1;
+        final double toleranceSquared = tolerance * tolerance;
+        while (stackSize > 0) {
+            final int last = stack[--stackSize];
+            final int first = stack[--stackSize];
+
+            int farthest = -1;
+            double farthestDistanceSquared = toleranceSquared;
+            for (int i = first + 1; i < last; i++) {
+                final double distanceSquared = segmentDistanceSquared(xs[i], ys[i], xs[first], ys[first], xs[last],
+                        ys[last]);
+                if (distanceSquared > farthestDistanceSquared) {
+                    farthest = i;
+                    farthestDistanceSquared = distanceSquared;
+                }
+            }
+
+            if (farthest != -1) {
+                kept[farthest] = true;
+                if (farthest - first > 1) {
+                    stack[stackSize++] = first;
+                    stack[stackSize++] = farthest;
+                }
+                if (last - farthest > 1) {
+                    stack[stackSize++] = farthest;
+                    stack[stackSize++] = last;
+                }
+            }
+        }
+
+        int keptCount = 0;
+        for (int i = 0; i < count; i++)
+            if (kept[i])
+                keep[keptCount++] = i;
+        return keptCount;
+    }
+
+    private static double segmentDistanceSquared(final double x, final double y, final double x1, final double y1,
+            final double x2, final double y2) {
+        final double dx = x2 - x1, dy = y2 - y1;
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((x - x1) * dx + (y - y1) * dy) / lengthSquared : 0;
+        if (t < 0)
+            t = 0;
+        else if (t > 1)
+            t = 1;
+        final double px = x1 + t * dx - x, py = y1 + t * dy - y;
+        return px * px + py * py;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import java.util.Arrays;
+
+import static de.schildbach.pte.util.Preconditions.checkArgument;
+
+/**
+ * Buckets of planar points, such as projected map pixels, in a uniform grid of about one point per cell. Finding
+ * the points within a rectangle only visits the cells overlapping it, and the points found can be merged into
+ * clusters of a given size.
+ */
+public final class PointIndex {
+    private final int count;
+    private final double[] xs, ys;
+    private final double originX, originY, cellSize;
+    private final int columns, rows;
+    /** Offsets into {@link #points} per cell, row by row, plus the end. */
+    private final int[] cellStarts;
+    /** Point indices ordered by cell, and ascending within each cell. */
+    private final int[] points;
+
+    private long[] clusterCellsX = new long[16], clusterCellsY = new long[16];
+    private int[] clusterSlots = new int[16];
+
+    public PointIndex(final double[] xs, final double[] ys, final int count) {
+        checkArgument(count <= xs.length && count <= ys.length);
+        this.count = count;
+        this.xs = xs;
+        this.ys = ys;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        final double width = maxX - minX, height = maxY - minY;
+        final double cellSize = Math.max(Math.sqrt(width * height / Math.max(count, 1)),
+                Math.max(width, height) / Math.max(count, 1));
+        this.originX = minX;
+        this.originY = minY;
+        this.cellSize = cellSize > 0 ? cellSize : 1;
+        this.columns = (int) (width / this.cellSize) + 1;
+        this.rows = (int) (height / this.cellSize) + 1;
+
+        // counting sort of the points by cell
+        final int[] cells = new int[count];
+        cellStarts = new int[columns * rows + 1];
+        for (int i = 0; i < count; i++) {
+            cells[i] = cell(column(xs[i]), row(ys[i]));
+            cellStarts[cells[i] + 1]++;
+        }
+        for (int c = 0; c < columns * rows; c++)
+            cellStarts[c + 1] += cellStarts[c];
+        final int[] fill = Arrays.copyOf(cellStarts, columns * rows);
+        points = new int[count];
+        for (int i = 0; i < count; i++)
+            points[fill[cells[i]]++] = i;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Finds the points within the rectangle, borders included.
+     *
+     * @param result
+     *            receives the indices of the points found; needs room for {@link #size()} elements
+     * @return number of points found
+     */
+    public int query(final double minX, final double minY, final double maxX, final double maxY,
+            final int[] result) {
+        checkArgument(result.length >= count);
+        if (count == 0 || maxX < originX || maxY < originY || minX > originX + columns * cellSize
+                || minY > originY + rows * cellSize)
+            return 0;
+        final int column0 = column(minX), column1 = column(maxX);
+        final int row0 = row(minY), row1 = row(maxY);
+        int found = 0;
+        for (int row = row0; row <= row1; row++) {
+            for (int i = cellStarts[cell(column0, row)], end = cellStarts[cell(column1, row) + 1]; i < end; i++) {
+                final int point = points[i];
+                final double x = xs[point], y = ys[point];
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+                    result[found++] = point;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Merges points into clusters by squares of the given size, aligned to multiples of the size so that clusters
+     * stay stable while the queried rectangle moves. To get complete clusters at the borders, query a rectangle
+     * aligned the same way.
+     *
+     * @param representatives
+     *            receives the lowest point index of each cluster; needs room for {@code pointCount} elements
+     * @param sizes
+     *            receives the number of points of each cluster; needs room for {@code pointCount} elements
+     * @return number of clusters
+     */
+    public int cluster(final int[] points, final int pointCount, final double clusterSize,
+            final int[] representatives, final int[] sizes) {
+        checkArgument(clusterSize > 0);
+        checkArgument(representatives.length >= pointCount && sizes.length >= pointCount);
+        int capacity = clusterSlots.length;
+        while (capacity < pointCount * 2)
+            capacity *= 2;
+        if (capacity != clusterSlots.length) {
+            clusterCellsX = new long[capacity];
+            clusterCellsY = new long[capacity];
+            clusterSlots = new int[capacity];
+        }
+        Arrays.fill(clusterSlots, -1);
+        final int mask = capacity - 1;
+
+        int clusters = 0;
+        for (int i = 0; i < pointCount; i++) {
+            final int point = points[i];
+            final long cellX = (long) Math.floor(xs[point] / clusterSize);
+            final long cellY = (long) Math.floor(ys[point] / clusterSize);
+            long hash = cellX * 0x9e3779b97f4a7c15L ^ cellY * 0xc2b2ae3d27d4eb4fL;
+            hash ^= hash >>> 32;
+            int slot = (int) hash & mask;
+            while (clusterSlots[slot] != -1 && (clusterCellsX[slot] != cellX || clusterCellsY[slot] != cellY))
+                slot = (slot + 1) & mask;
+            final int cluster = clusterSlots[slot];
+            if (cluster == -1) {
+                clusterSlots[slot] = clusters;
+                clusterCellsX[slot] = cellX;
+                clusterCellsY[slot] = cellY;
+                representatives[clusters] = point;
+                sizes[clusters] = 1;
+                clusters++;
+            } else {
+                representatives[cluster] = Math.min(representatives[cluster], point);
+                sizes[cluster]++;
+            }
+        }
+        return clusters;
+    }
+
+    private int column(final double x) {
+        return clamp((int) Math.floor((x - originX) / cellSize), columns);
+    }
+
+    private int row(final double y) {
+        return clamp((int) Math.floor((y - originY) / cellSize), rows);
+    }
+
+    private int cell(final int column, final int row) {
+        return row * columns + column;
+    }
+
+    private static int clamp(final int value, final int size) {
+        return value < 0 ? 0 : value >= size ? size - 1 : value;
+    }
+}
@@ -0,0 +1,771 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.schildbach.oeffi.util.bzip2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes single blocks of a BZip2 stream that is held in memory. Blocks are not byte aligned, so decoding starts
+ * at an arbitrary bit offset. As opposed to {@link BZip2CompressorInputStream}, this allows blocks to be decoded
+ * independently of each other, e.g. in parallel.
+ *
+ * There are two decoding modes. {@link Mode#CANONICAL} follows {@link BZip2CompressorInputStream}, decoding Huffman
+ * codes bit by bit. {@link Mode#TABLE} decodes most codes with a single table lookup and inverts the BWT with
+ * bytes and links packed into one array, which halves the random memory accesses.
+ *
+ * @NotThreadSafe
+ */
+public class BZip2BlockDecoder implements BZip2Constants {
+    public static final long BLOCK_MAGIC = 0x314159265359L;
+    public static final long EOS_MAGIC = 0x177245385090L;
+    public static final int MAGIC_BITS = 48;
+
+    public enum Mode {
+        CANONICAL, TABLE
+    }
+
+    private final int blockSize100k;
+    private final Mode mode;
+
+    private byte[] in;
+    private int inPos;
+    private int inLimit;
+    private long bsBuff;
+    private int bsLive;
+
+    private int last;
+    private int origPtr;
+    private boolean blockRandomised;
+    private int nInUse;
+    private final CRC crc = new CRC();
+
+    private final boolean[] inUse = new boolean[256];
+    private final byte[] seqToUnseq = new byte[256];
+    private final byte[] selector = new byte[MAX_SELECTORS];
+    private final byte[] selectorMtf = new byte[MAX_SELECTORS];
+    private final int[] unzftab = new int[256];
+    private final int[][] limit = new int[N_GROUPS][MAX_ALPHA_SIZE];
+    private final int[][] base = new int[N_GROUPS][MAX_ALPHA_SIZE];
+    private final int[][] perm = new int[N_GROUPS][MAX_ALPHA_SIZE];
+    private final int[] minLens = new int[N_GROUPS];
+    private final int[] maxLens = new int[N_GROUPS];
+    private final int[][] lookup; // only for Mode.TABLE
+    private final int[] cftab = new int[257];
+    private final char[] yy = new char[256];
+    private final char[][] len = new char[N_GROUPS][MAX_ALPHA_SIZE];
+    private final byte[] pos = new byte[N_GROUPS];
+    private final byte[] ll8;
+    private final int[] tt;
+
+    public static final class Block {
+        public final byte[] data;
+        public final int length;
+        public final int crc;
+        /** Bit offset directly after the block, which is where the next block magic starts. */
+        public final long endBitOffset;
+
+        private Block(final byte[] data, final int length, final int crc, final long endBitOffset) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.endBitOffset = endBitOffset;
+        }
+    }
+
+    /**
+     * Codes of up to this length are decoded by a single table lookup. Longer codes are rare in practice.
+     */
+    private static final int LOOKUP_BITS = 10;
+    private static final int LOOKUP_MASK = (1 << LOOKUP_BITS) - 1;
+
+    public BZip2BlockDecoder(final int blockSize100k) {
+        this(blockSize100k, Mode.TABLE);
+    }
+
+    public BZip2BlockDecoder(final int blockSize100k, final Mode mode) {
+        if (blockSize100k < 1 || blockSize100k > 9)
+            throw new IllegalArgumentException("BZip2 block size is invalid: " + blockSize100k);
+        this.blockSize100k = blockSize100k;
+        this.mode = mode;
+        this.ll8 = new byte[blockSize100k * BASEBLOCKSIZE];
+        this.tt = new int[blockSize100k * BASEBLOCKSIZE];
+        this.lookup = mode == Mode.TABLE ? new int[N_GROUPS][1 << LOOKUP_BITS] : null;
+    }
+
+    public int getBlockSize100k() {
+        return blockSize100k;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return block size as declared in the stream header, or -1 if the data does not start with a BZip2 header
+     */
+    public static int readStreamHeader(final byte[] in, final int length) {
+        if (length < 4 || in[0] != 'B' || in[1] != 'Z' || in[2] != 'h' || in[3] < '1' || in[3] > '9')
+            return -1;
+        return in[3] - '0';
+    }
+
+    /**
+     * Decodes and CRC-checks the block starting at the given bit offset, which points directly after the block
+     * magic.
+     *
+     * @throws IOException
+     *             if the block is malformed, its CRC does not match or the data ends prematurely
+     */
+    public Block decode(final byte[] in, final int length, final long bitOffset) throws IOException {
+        init(in, length, bitOffset);
+        try {
+            final int storedBlockCRC = bsGetInt();
+            this.blockRandomised = bsR(1) == 1;
+            this.origPtr = bsR(24);
+            recvDecodingTables();
+            if (mode == Mode.TABLE)
+                getAndMoveToFrontDecodeTable();
+            else
+                getAndMoveToFrontDecode();
+            final long endBitOffset = (long) inPos * 8 - bsLive;
+
+            final byte[] data = new byte[this.last + 1 + (this.last >> 2) + 16];
+            final Block block = mode == Mode.TABLE && !blockRandomised ? inverseBWTPacked(data, endBitOffset)
+                    : inverseBWT(data, endBitOffset);
+            if (block.crc != storedBlockCRC)
+                throw new IOException("BZip2 CRC error");
+            return block;
+        } finally {
+            this.in = null;
+        }
+    }
+
+    /**
+     * @return the 32-bit value at the given bit offset, e.g. the combined CRC after an end of stream magic
+     */
+    public int readInt(final byte[] in, final int length, final long bitOffset) throws IOException {
+        init(in, length, bitOffset);
+        try {
+            return bsGetInt();
+        } finally {
+            this.in = null;
+        }
+    }
+
+    private void init(final byte[] in, final int length, final long bitOffset) throws IOException {
+        this.in = in;
+        this.inLimit = length;
+        this.inPos = (int) (bitOffset >>> 3);
+        this.bsBuff = 0;
+        this.bsLive = 0;
+        final int skip = (int) (bitOffset & 7);
+        if (skip > 0)
+            bsR(skip);
+    }
+
+    private int bsR(final int n) throws IOException {
+        int bsLiveShadow = this.bsLive;
+        long bsBuffShadow = this.bsBuff;
+
+        if (bsLiveShadow < n) {
+            do {
+                if (inPos >= inLimit)
+                    throw new EOFException("unexpected end of stream");
+                bsBuffShadow = (bsBuffShadow << 8) | (in[inPos++] & 0xff);
+                bsLiveShadow += 8;
+            } while (bsLiveShadow < n);
+
+            this.bsBuff = bsBuffShadow;
+        }
+
+        this.bsLive = bsLiveShadow - n;
+        return (int) (bsBuffShadow >>> (bsLiveShadow - n)) & ((1 << n) - 1);
+    }
+
+    private boolean bsGetBit() throws IOException {
+        return bsR(1) != 0;
+    }
+
+    private int bsGetInt() throws IOException {
+        return (((((bsR(8) << 8) | bsR(8)) << 8) | bsR(8)) << 8) | bsR(8);
+    }
+
+    private void recvDecodingTables() throws IOException {
+        int inUse16 = 0;
+
+        /* Receive the mapping table */
+        for (int i = 0; i < 16; i++) {
+            if (bsGetBit()) {
+                inUse16 |= 1 << i;
+            }
+        }
+
+        for (int i = 256; --i >= 0;) {
+            inUse[i] = false;
+        }
+
+        for (int i = 0; i < 16; i++) {
+            if ((inUse16 & (1 << i)) != 0) {
+                final int i16 = i << 4;
+                for (int j = 0; j < 16; j++) {
+                    if (bsGetBit()) {
+                        inUse[i16 + j] = true;
+                    }
+                }
+            }
+        }
+
+        int nInUseShadow = 0;
+        for (int i = 0; i < 256; i++) {
+            if (inUse[i]) {
+                seqToUnseq[nInUseShadow++] = (byte) i;
+            }
+        }
+        if (nInUseShadow == 0)
+            throw new IOException("stream corrupted");
+        this.nInUse = nInUseShadow;
+        final int alphaSize = nInUseShadow + 2;
+
+        /* Now the selectors */
+        final int nGroups = bsR(3);
+        final int nSelectors = bsR(15);
+        if (nGroups < 2 || nGroups > N_GROUPS || nSelectors < 1 || nSelectors > MAX_SELECTORS)
+            throw new IOException("stream corrupted");
+
+        for (int i = 0; i < nSelectors; i++) {
+            int j = 0;
+            while (bsGetBit()) {
+                if (++j >= nGroups)
+                    throw new IOException("stream corrupted");
+            }
+            selectorMtf[i] = (byte) j;
+        }
+
+        /* Undo the MTF values for the selectors. */
+        for (int v = nGroups; --v >= 0;) {
+            pos[v] = (byte) v;
+        }
+
+        for (int i = 0; i < nSelectors; i++) {
+            int v = selectorMtf[i] & 0xff;
+            final byte tmp = pos[v];
+            while (v > 0) {
+                pos[v] = pos[v - 1];
+                v--;
+            }
+            pos[0] = tmp;
+            selector[i] = tmp;
+        }
+
+        /* Now the coding tables */
+        for (int t = 0; t < nGroups; t++) {
+            int curr = bsR(5);
+            final char[] len_t = len[t];
+            for (int i = 0; i < alphaSize; i++) {
+                while (bsGetBit()) {
+                    curr += bsGetBit() ? -1 : 1;
+                }
+                if (curr < 1 || curr > MAX_CODE_LEN - 3)
+                    throw new IOException("stream corrupted");
+                len_t[i] = (char) curr;
+            }
+        }
+
+        // finally create the Huffman tables
+        for (int t = 0; t < nGroups; t++) {
+            int minLen = 32;
+            int maxLen = 0;
+            final char[] len_t = len[t];
+            for (int i = alphaSize; --i >= 0;) {
+                final char lent = len_t[i];
+                if (lent > maxLen) {
+                    maxLen = lent;
+                }
+                if (lent < minLen) {
+                    minLen = lent;
+                }
+            }
+            hbCreateDecodeTables(limit[t], base[t], perm[t], len_t, minLen, maxLen, alphaSize);
+            minLens[t] = minLen;
+            maxLens[t] = maxLen;
+            if (lookup != null)
+                createLookupTable(lookup[t], len_t, minLen, maxLen, alphaSize);
+        }
+    }
+
+    /**
+     * Fills the lookup table with (symbol << 8 | code length) for each code of up to {@link #LOOKUP_BITS}, indexed
+     * by all bit patterns the code is a prefix of. Codes are assigned canonically, as by the compressor.
+     */
+    private static void createLookupTable(final int[] lookup, final char[] length, final int minLen,
+            final int maxLen, final int alphaSize) {
+        Arrays.fill(lookup, 0);
+        for (int n = minLen, code = 0; n <= maxLen; n++) {
+            for (int symbol = 0; symbol < alphaSize; symbol++) {
+                if (length[symbol] == n) {
+                    if (n <= LOOKUP_BITS) {
+                        final int from = code << (LOOKUP_BITS - n);
+                        final int to = (code + 1) << (LOOKUP_BITS - n);
+                        if (to > lookup.length)
+                            return; // over-subscribed code, left to the bit by bit decoding to reject
+                        Arrays.fill(lookup, from, to, (symbol << 8) | n);
+                    }
+                    code++;
+                }
+            }
+            code <<= 1;
+        }
+    }
+
+    private static void hbCreateDecodeTables(final int[] limit, final int[] base, final int[] perm, final char[] length,
+            final int minLen, final int maxLen, final int alphaSize) {
+        for (int i = minLen, pp = 0; i <= maxLen; i++) {
+            for (int j = 0; j < alphaSize; j++) {
+                if (length[j] == i) {
+                    perm[pp++] = j;
+                }
+            }
+        }
+
+        for (int i = MAX_CODE_LEN; --i > 0;) {
+            base[i] = 0;
+            limit[i] = 0;
+        }
+
+        for (int i = 0; i < alphaSize; i++) {
+            base[length[i] + 1]++;
+        }
+
+        for (int i = 1, b = base[0]; i < MAX_CODE_LEN; i++) {
+            b += base[i];
+            base[i] = b;
+        }
+
+        for (int i = minLen, vec = 0, b = base[i]; i <= maxLen; i++) {
+            final int nb = base[i + 1];
+            vec += nb - b;
+            b = nb;
+            limit[i] = vec - 1;
+            vec <<= 1;
+        }
+
+        for (int i = minLen + 1; i <= maxLen; i++) {
+            base[i] = ((limit[i - 1] + 1) << 1) - base[i];
+        }
+    }
+
+    private void getAndMoveToFrontDecode() throws IOException {
+        final byte[] inShadow = this.in;
+        final int inLimitShadow = this.inLimit;
+        int inPosShadow = this.inPos;
+        final byte[] ll8 = this.ll8;
+        final int[] unzftab = this.unzftab;
+        final byte[] selector = this.selector;
+        final byte[] seqToUnseq = this.seqToUnseq;
+        final char[] yy = this.yy;
+        final int limitLast = this.blockSize100k * BASEBLOCKSIZE;
+
+        for (int i = 256; --i >= 0;) {
+            yy[i] = (char) i;
+            unzftab[i] = 0;
+        }
+
+        int groupNo = -1;
+        int groupPos = 0;
+        final int eob = this.nInUse + 1;
+        long bsBuffShadow = this.bsBuff;
+        int bsLiveShadow = this.bsLive;
+        int lastShadow = -1;
+        int[] base_zt = null;
+        int[] limit_zt = null;
+        int[] perm_zt = null;
+        int minLens_zt = 0;
+        int runLength = -1; // -1 if not within a run of RUNA/RUNB
+        int runWeight = 1;
+
+        while (true) {
+            // decode next symbol
+            if (groupPos == 0) {
+                groupPos = G_SIZE;
+                if (++groupNo >= MAX_SELECTORS)
+                    throw new IOException("stream corrupted");
+                final int zt = selector[groupNo] & 0xff;
+                base_zt = base[zt];
+                limit_zt = limit[zt];
+                perm_zt = perm[zt];
+                minLens_zt = minLens[zt];
+            }
+            groupPos--;
+
+            int zn = minLens_zt;
+            while (bsLiveShadow < zn) {
+                if (inPosShadow >= inLimitShadow)
+                    throw new EOFException("unexpected end of stream");
+                bsBuffShadow = (bsBuffShadow << 8) | (inShadow[inPosShadow++] & 0xff);
+                bsLiveShadow += 8;
+            }
+            int zvec = (int) (bsBuffShadow >>> (bsLiveShadow - zn)) & ((1 << zn) - 1);
+            bsLiveShadow -= zn;
+
+            while (zvec > limit_zt[zn]) {
+                if (++zn >= MAX_CODE_LEN)
+                    throw new IOException("stream corrupted");
+                if (bsLiveShadow < 1) {
+                    if (inPosShadow >= inLimitShadow)
+                        throw new EOFException("unexpected end of stream");
+                    bsBuffShadow = (bsBuffShadow << 8) | (inShadow[inPosShadow++] & 0xff);
+                    bsLiveShadow += 8;
+                }
+                bsLiveShadow--;
+                zvec = (zvec << 1) | (int) ((bsBuffShadow >>> bsLiveShadow) & 1);
+            }
+            final int permIndex = zvec - base_zt[zn];
+            if (permIndex < 0 || permIndex >= MAX_ALPHA_SIZE)
+                throw new IOException("stream corrupted");
+            final int nextSym = perm_zt[permIndex];
+
+            if (nextSym == RUNA || nextSym == RUNB) {
+                if (runLength < 0) {
+                    runLength = 0;
+                    runWeight = 1;
+                }
+                runLength += nextSym == RUNA ? runWeight : runWeight << 1;
+                runWeight <<= 1;
+                if (runLength > limitLast)
+                    throw new IOException("block overrun");
+                continue;
+            }
+
+            // flush pending run
+            if (runLength >= 0) {
+                final byte ch = seqToUnseq[yy[0]];
+                unzftab[ch & 0xff] += runLength;
+                if (lastShadow + runLength >= limitLast)
+                    throw new IOException("block overrun");
+                while (runLength-- > 0) {
+                    ll8[++lastShadow] = ch;
+                }
+                runLength = -1;
+            }
+
+            if (nextSym == eob)
+                break;
+
+            if (++lastShadow >= limitLast) {
+                throw new IOException("block overrun");
+            }
+
+            final char tmp = yy[nextSym - 1];
+            unzftab[seqToUnseq[tmp] & 0xff]++;
+            ll8[lastShadow] = seqToUnseq[tmp];
+
+            if (nextSym <= 16) {
+                for (int j = nextSym - 1; j > 0;) {
+                    yy[j] = yy[--j];
+                }
+            } else {
+                System.arraycopy(yy, 0, yy, 1, nextSym - 1);
+            }
+
+            yy[0] = tmp;
+        }
+
+        this.last = lastShadow;
+        this.inPos = inPosShadow;
+        this.bsLive = bsLiveShadow;
+        this.bsBuff = bsBuffShadow;
+    }
+
+    /**
+     * Same as {@link #getAndMoveToFrontDecode()}, but decodes codes of up to {@link #LOOKUP_BITS} by table lookup
+     * and refills the bit buffer several bytes at a time.
+     */
+    private void getAndMoveToFrontDecodeTable() throws IOException {
+        final byte[] inShadow = this.in;
+        final int inLimitShadow = this.inLimit;
+        int inPosShadow = this.inPos;
+        final byte[] ll8 = this.ll8;
+        final int[] unzftab = this.unzftab;
+        final byte[] selector = this.selector;
+        final byte[] seqToUnseq = this.seqToUnseq;
+        final char[] yy = this.yy;
+        final int limitLast = this.blockSize100k * BASEBLOCKSIZE;
+
+        for (int i = 256; --i >= 0;) {
+            yy[i] = (char) i;
+            unzftab[i] = 0;
+        }
+
+        int groupNo = -1;
+        int groupPos = 0;
+        final int eob = this.nInUse + 1;
+        long bsBuffShadow = this.bsBuff;
+        int bsLiveShadow = this.bsLive;
+        int lastShadow = -1;
+        int[] lookup_zt = null;
+        int[] base_zt = null;
+        int[] limit_zt = null;
+        int[] perm_zt = null;
+        int slowMinLen_zt = 0;
+        int maxLen_zt = 0;
+        int runLength = -1; // -1 if not within a run of RUNA/RUNB
+        int runWeight = 1;
+
+        while (true) {
+            if (groupPos == 0) {
+                groupPos = G_SIZE;
+                if (++groupNo >= MAX_SELECTORS)
+                    throw new IOException("stream corrupted");
+                final int zt = selector[groupNo] & 0xff;
+                lookup_zt = lookup[zt];
+                base_zt = base[zt];
+                limit_zt = limit[zt];
+                perm_zt = perm[zt];
+                slowMinLen_zt = Math.max(minLens[zt], LOOKUP_BITS + 1);
+                maxLen_zt = maxLens[zt];
+            }
+            groupPos--;
+
+            // make sure the longest code fits, unless the input ends
+            if (bsLiveShadow < MAX_CODE_LEN) {
+                while (bsLiveShadow <= 56 && inPosShadow < inLimitShadow) {
+                    bsBuffShadow = (bsBuffShadow << 8) | (inShadow[inPosShadow++] & 0xff);
+                    bsLiveShadow += 8;
+                }
+            }
+
+            final int peek = (int) (bsLiveShadow >= LOOKUP_BITS ? bsBuffShadow >>> (bsLiveShadow - LOOKUP_BITS)
+                    : bsBuffShadow << (LOOKUP_BITS - bsLiveShadow)) & LOOKUP_MASK;
+            final int entry = lookup_zt[peek];
+            final int nextSym;
+            if (entry != 0) {
+                final int zn = entry & 0xff;
+                if (zn > bsLiveShadow)
+                    throw new EOFException("unexpected end of stream");
+                bsLiveShadow -= zn;
+                nextSym = entry >>> 8;
+            } else {
+                int zn = slowMinLen_zt;
+                if (zn > bsLiveShadow)
+                    throw new EOFException("unexpected end of stream");
+                int zvec = (int) (bsBuffShadow >>> (bsLiveShadow - zn)) & ((1 << zn) - 1);
+                while (zvec > limit_zt[zn]) {
+                    if (++zn > maxLen_zt)
+                        throw new IOException("stream corrupted");
+                    if (zn > bsLiveShadow)
+                        throw new EOFException("unexpected end of stream");
+                    zvec = (int) (bsBuffShadow >>> (bsLiveShadow - zn)) & ((1 << zn) - 1);
+                }
+                bsLiveShadow -= zn;
+                final int permIndex = zvec - base_zt[zn];
+                if (permIndex < 0 || permIndex >= MAX_ALPHA_SIZE)
+                    throw new IOException("stream corrupted");
+                nextSym = perm_zt[permIndex];
+            }
+
+            if (nextSym <= RUNB) {
+                if (runLength < 0) {
+                    runLength = 0;
+                    runWeight = 1;
+                }
+                runLength += runWeight << nextSym;
+                runWeight <<= 1;
+                if (runLength > limitLast)
+                    throw new IOException("block overrun");
+                continue;
+            }
+
+            if (runLength >= 0) {
+                final byte ch = seqToUnseq[yy[0]];
+                unzftab[ch & 0xff] += runLength;
+                if (lastShadow + runLength >= limitLast)
+                    throw new IOException("block overrun");
+                Arrays.fill(ll8, lastShadow + 1, lastShadow + 1 + runLength, ch);
+                lastShadow += runLength;
+                runLength = -1;
+            }
+
+            if (nextSym == eob)
+                break;
+
+            if (++lastShadow >= limitLast)
+                throw new IOException("block overrun");
+
+            final char tmp = yy[nextSym - 1];
+            final byte ch = seqToUnseq[tmp];
+            unzftab[ch & 0xff]++;
+            ll8[lastShadow] = ch;
+
+            if (nextSym <= 16) {
+                for (int j = nextSym - 1; j > 0;) {
+                    yy[j] = yy[--j];
+                }
+            } else {
+                System.arraycopy(yy, 0, yy, 1, nextSym - 1);
+            }
+            yy[0] = tmp;
+        }
+
+        this.last = lastShadow;
+        this.inPos = inPosShadow;
+        this.bsLive = bsLiveShadow;
+        this.bsBuff = bsBuffShadow;
+    }
+
+    /**
+     * Inverts the BWT with each byte and the link to its successor packed into one int, so that each step reads
+     * one array element rather than two. Not used for randomised blocks.
+     */
+    private Block inverseBWTPacked(byte[] out, final long endBitOffset) throws IOException {
+        final int[] cftab = this.cftab;
+        final int[] tt = this.tt;
+        final byte[] ll8 = this.ll8;
+        final int lastShadow = this.last;
+
+        if (this.origPtr < 0 || this.origPtr > lastShadow)
+            throw new IOException("stream corrupted");
+
+        cftab[0] = 0;
+        System.arraycopy(this.unzftab, 0, cftab, 1, 256);
+        for (int i = 1, c = cftab[0]; i <= 256; i++) {
+            c += cftab[i];
+            cftab[i] = c;
+        }
+        for (int i = 0; i <= lastShadow; i++)
+            tt[i] = ll8[i] & 0xff;
+        for (int i = 0; i <= lastShadow; i++)
+            tt[cftab[tt[i] & 0xff]++] |= i << 8;
+
+        int tPos = tt[this.origPtr] >>> 8;
+        int outPos = 0;
+        int outLimit = out.length;
+        int prev = 256; /* not a char */
+        int count = 0;
+
+        for (int i = 0; i <= lastShadow; i++) {
+            tPos = tt[tPos];
+            final int ch = tPos & 0xff;
+            tPos >>>= 8;
+
+            if (count == 4) {
+                // ch is the number of additional repetitions of prev
+                if (outPos + ch > outLimit) {
+                    out = grow(out, outPos + ch);
+                    outLimit = out.length;
+                }
+                Arrays.fill(out, outPos, outPos + ch, (byte) prev);
+                outPos += ch;
+                count = 0;
+            } else {
+                if (ch == prev) {
+                    count++;
+                } else {
+                    count = 1;
+                    prev = ch;
+                }
+                if (outPos == outLimit) {
+                    out = grow(out, outPos + 1);
+                    outLimit = out.length;
+                }
+                out[outPos++] = (byte) ch;
+            }
+        }
+
+        crc.initialiseCRC();
+        crc.updateCRC(out, 0, outPos);
+        return new Block(out, outPos, crc.getFinalCRC(), endBitOffset);
+    }
+
+    private Block inverseBWT(byte[] out, final long endBitOffset) throws IOException {
+        final int[] cftab = this.cftab;
+        final int[] tt = this.tt;
+        final byte[] ll8 = this.ll8;
+        final int lastShadow = this.last;
+
+        if (this.origPtr < 0 || this.origPtr > lastShadow)
+            throw new IOException("stream corrupted");
+
+        cftab[0] = 0;
+        System.arraycopy(this.unzftab, 0, cftab, 1, 256);
+        for (int i = 1, c = cftab[0]; i <= 256; i++) {
+            c += cftab[i];
+            cftab[i] = c;
+        }
+        for (int i = 0; i <= lastShadow; i++) {
+            tt[cftab[ll8[i] & 0xff]++] = i;
+        }
+
+        crc.initialiseCRC();
+        int tPos = tt[this.origPtr];
+        int outPos = 0;
+        int prev = 256; /* not a char */
+        int count = 0;
+        int rNToGo = 0;
+        int rTPos = 0;
+        final boolean randomised = this.blockRandomised;
+
+        for (int i = 0; i <= lastShadow; i++) {
+            int ch = ll8[tPos] & 0xff;
+            tPos = tt[tPos];
+            if (randomised) {
+                if (rNToGo == 0) {
+                    rNToGo = Rand.rNums(rTPos) - 1;
+                    if (++rTPos == 512)
+                        rTPos = 0;
+                } else {
+                    rNToGo--;
+                }
+                ch ^= rNToGo == 1 ? 1 : 0;
+            }
+
+            if (count == 4) {
+                // ch is the number of additional repetitions of prev
+                if (outPos + ch > out.length)
+                    out = grow(out, outPos + ch);
+                for (int j = 0; j < ch; j++)
+                    out[outPos++] = (byte) prev;
+                crc.updateCRC(prev, ch);
+                count = 0;
+                continue;
+            }
+
+            if (ch == prev) {
+                count++;
+            } else {
+                count = 1;
+                prev = ch;
+            }
+            if (outPos == out.length)
+                out = grow(out, outPos + 1);
+            out[outPos++] = (byte) ch;
+            crc.updateCRC(ch);
+        }
+
+        return new Block(out, outPos, crc.getFinalCRC(), endBitOffset);
+    }
+
+    private static byte[] grow(final byte[] array, final int minLength) {
+        final byte[] grown = new byte[Math.max(minLength, array.length + (array.length >> 1))];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -91,5 +91,12 @@ class CRC {
         this.globalCrc = globalCrcShadow;
     }
 
+    void updateCRC(final byte[] b, final int off, final int len) {
+        int globalCrcShadow = this.globalCrc;
+        for (int i = off, end = off + len; i < end; i++)
+            globalCrcShadow = (globalCrcShadow << 8) ^ crc32Table[((globalCrcShadow >>> 24) ^ b[i]) & 0xff];
+        this.globalCrc = globalCrcShadow;
+    }
+
     private int globalCrc;
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.bzip2;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses a BZip2 stream held in memory by decoding its blocks in parallel. The stream is scanned for block
+ * magics first. Since the magic may also occur by chance within compressed data, each candidate is decoded
+ * speculatively, and only the chain of blocks where each one ends exactly where the next one starts is used. The
+ * output is identical to that of {@link BZip2CompressorInputStream}, and both block and combined CRCs are checked.
+ * The input can be streamed, in which case blocks are decoded while the rest of the input is still being read.
+ */
+public final class ParallelBZip2Decompressor {
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final BZip2BlockDecoder.Mode mode;
+
+    private static final int HEADER_BITS = 32;
+    private static final int READ_SIZE = 64 * 1024;
+
+    public ParallelBZip2Decompressor(final int parallelism) {
+        this(Executors.newFixedThreadPool(parallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "bzip2DecoderThread");
+            thread.setDaemon(true);
+            return thread;
+        }), parallelism);
+    }
+
+    public ParallelBZip2Decompressor(final ExecutorService executor, final int parallelism) {
+        this(executor, parallelism, BZip2BlockDecoder.Mode.TABLE);
+    }
+
+    public ParallelBZip2Decompressor(final ExecutorService executor, final int parallelism,
+            final BZip2BlockDecoder.Mode mode) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.mode = mode;
+    }
+
+    /**
+     * Decompresses the first BZip2 stream in the given data. Anything after its end is ignored.
+     *
+     * @return number of bytes written
+     * @throws IOException
+     *             if the stream is malformed, a CRC does not match or writing fails
+     */
+    public long decompress(final byte[] in, final int length, final OutputStream os) throws IOException {
+        return decompress(new Input(in, length), os);
+    }
+
+    /**
+     * Decompresses the first BZip2 stream read from the given input stream. Blocks are decoded as soon as they have
+     * been received completely, so reading, decoding and writing overlap.
+     *
+     * @return number of bytes written
+     * @throws IOException
+     *             if the stream is malformed, a CRC does not match, or reading or writing fails
+     */
+    public long decompress(final InputStream is, final OutputStream os) throws IOException {
+        return decompress(new Input(is), os);
+    }
+
+    private long decompress(final Input input, final OutputStream os) throws IOException {
+        while (input.length < 4 && input.readMore())
+            ;
+        final int blockSize100k = BZip2BlockDecoder.readStreamHeader(input.buf, input.length);
+        if (blockSize100k < 0)
+            throw new IOException("Stream is not in the BZip2 format");
+
+        final ConcurrentLinkedQueue<BZip2BlockDecoder> decoders = new ConcurrentLinkedQueue<>();
+        final Deque<Pending> inFlight = new ArrayDeque<>();
+        final int window = parallelism * 2;
+        int nextToSubmit = 0;
+        long expectedOffset = HEADER_BITS + BZip2BlockDecoder.MAGIC_BITS;
+        long written = 0;
+        int combinedCRC = 0;
+
+        try {
+            while (true) {
+                if (input.eosOffsets.contains(expectedOffset)) {
+                    while (input.length * 8L < expectedOffset + 32 && input.readMore())
+                        ;
+                    final int storedCombinedCRC = decoder(decoders, blockSize100k).readInt(input.buf, input.length,
+                            expectedOffset);
+                    if (storedCombinedCRC != combinedCRC)
+                        throw new IOException("BZip2 CRC error");
+                    return written;
+                }
+
+                while (nextToSubmit < input.blockOffsets.size() && inFlight.size() < window
+                        && input.isComplete(nextToSubmit))
+                    inFlight.add(submit(decoders, blockSize100k, input, input.blockOffsets.get(nextToSubmit++)));
+                if (inFlight.isEmpty()) {
+                    if (input.readMore())
+                        continue;
+                    throw new EOFException("unexpected end of stream");
+                }
+
+                final Pending head = inFlight.peek();
+                if (head.offset < expectedOffset) {
+                    // magic found by chance within the previous block
+                    inFlight.poll().future.cancel(false);
+                    continue;
+                } else if (head.offset > expectedOffset) {
+                    throw new IOException("bad block header");
+                }
+                if (!head.future.isDone() && input.readMore())
+                    continue; // keep receiving while blocks are being decoded
+                inFlight.poll();
+
+                final BZip2BlockDecoder.Block block;
+                try {
+                    block = get(head.future);
+                } catch (final EOFException x) {
+                    // submitted too early, because a magic occurred by chance within the block
+                    if (head.length < input.length || input.readMore()) {
+                        inFlight.addFirst(submit(decoders, blockSize100k, input, head.offset));
+                        continue;
+                    }
+                    throw x;
+                }
+                os.write(block.data, 0, block.length);
+                written += block.length;
+                combinedCRC = (combinedCRC << 1) | (combinedCRC >>> 31);
+                combinedCRC ^= block.crc;
+                expectedOffset = block.endBitOffset + BZip2BlockDecoder.MAGIC_BITS;
+            }
+        } finally {
+            for (final Pending pending : inFlight)
+                pending.future.cancel(false);
+        }
+    }
+
+    private Pending submit(final ConcurrentLinkedQueue<BZip2BlockDecoder> decoders, final int blockSize100k,
+            final Input input, final long offset) {
+        final byte[] buf = input.buf;
+        final int length = input.length;
+        return new Pending(offset, length, executor.submit(() -> {
+            final BZip2BlockDecoder decoder = decoder(decoders, blockSize100k);
+            try {
+                return decoder.decode(buf, length, offset);
+            } finally {
+                decoders.add(decoder);
+            }
+        }));
+    }
+
+    private BZip2BlockDecoder decoder(final ConcurrentLinkedQueue<BZip2BlockDecoder> decoders,
+            final int blockSize100k) {
+        final BZip2BlockDecoder decoder = decoders.poll();
+        return decoder != null ? decoder : new BZip2BlockDecoder(blockSize100k, mode);
+    }
+
+    private static BZip2BlockDecoder.Block get(final Future<BZip2BlockDecoder.Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException x) {
+            throw new InterruptedIOException();
+        } catch (final ExecutionException x) {
+            final Throwable cause = x.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static final class Pending {
+        final long offset;
+        final int length;
+        final Future<BZip2BlockDecoder.Block> future;
+
+        Pending(final long offset, final int length, final Future<BZip2BlockDecoder.Block> future) {
+            this.offset = offset;
+            this.length = length;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Compressed input received so far, scanned for block and end of stream magics at any bit offset. Offsets point
+     * directly after the magic.
+     */
+    private static final class Input {
+        @Nullable
+        private final InputStream is;
+        byte[] buf;
+        int length;
+        private boolean eof;
+        private int scanPos = HEADER_BITS / 8;
+        private long scanBits = 0;
+        final List<Long> blockOffsets = new ArrayList<>();
+        final Set<Long> eosOffsets = new HashSet<>();
+        private long lastEosOffset = -1;
+
+        Input(final byte[] buf, final int length) {
+            this.is = null;
+            this.buf = buf;
+            this.length = length;
+            this.eof = true;
+            scan();
+        }
+
+        Input(final InputStream is) {
+            this.is = is;
+            this.buf = new byte[READ_SIZE];
+            this.length = 0;
+            this.eof = false;
+        }
+
+        /**
+         * @return false if the end of input has been reached
+         */
+        boolean readMore() throws IOException {
+            if (eof)
+                return false;
+            if (length == buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            final int read = is.read(buf, length, Math.min(buf.length - length, READ_SIZE));
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            length += read;
+            scan();
+            return true;
+        }
+
+        /**
+         * @return true if the candidate block has probably been received completely, as a later magic has been
+         *         found or the end of input has been reached
+         */
+        boolean isComplete(final int candidate) {
+            return eof || candidate + 1 < blockOffsets.size() || lastEosOffset > blockOffsets.get(candidate);
+        }
+
+        private void scan() {
+            final long mask = (1L << BZip2BlockDecoder.MAGIC_BITS) - 1;
+            long bits = scanBits;
+            for (; scanPos < length; scanPos++) {
+                final int b = buf[scanPos] & 0xff;
+                for (int shift = 7; shift >= 0; shift--) {
+                    bits = ((bits << 1) | ((b >>> shift) & 1)) & mask;
+                    if (bits == BZip2BlockDecoder.BLOCK_MAGIC) {
+                        blockOffsets.add((long) scanPos * 8 + 8 - shift);
+                    } else if (bits == BZip2BlockDecoder.EOS_MAGIC) {
+                        lastEosOffset = (long) scanPos * 8 + 8 - shift;
+                        eosOffsets.add(lastEosOffset);
+                    }
+                }
+            }
+            scanBits = bits;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.plans;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+public class PlanSpatialIndexTest {
+    @Test
+    public void withinRadiusMatchesBruteForce() throws Exception {
+        final Random random = new Random(0);
+        final int n = 2000;
+        final int[] lat = new int[n];
+        final int[] lon = new int[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = (int) ((random.nextDouble() * 180 - 90) * 1E6);
+            lon[i] = (int) ((random.nextDouble() * 360 - 180) * 1E6);
+        }
+        final PlanSpatialIndex index = new PlanSpatialIndex(lat, lon);
+
+        for (int t = 0; t < 50; t++) {
+            final double qLat = random.nextDouble() * 180 - 90;
+            final double qLon = random.nextDouble() * 360 - 180;
+            final double radius = random.nextDouble() * 2000000;
+            final Integer[] all = new Integer[n];
+            for (int i = 0; i < n; i++)
+                all[i] = i;
+            Arrays.sort(all, Comparator.comparingDouble(i -> index.distance(qLat, qLon, i)));
+            int expectedCount = 0;
+            while (expectedCount < n && index.distance(qLat, qLon, all[expectedCount]) <= radius)
+                expectedCount++;
+
+            final int[] within = index.withinRadius(qLat, qLon, radius);
+            Assert.assertEquals(expectedCount, within.length);
+            for (int i = 0; i < within.length; i++)
+                Assert.assertEquals(index.distance(qLat, qLon, all[i]), index.distance(qLat, qLon, within[i]), 1E-6);
+        }
+    }
+
+    @Test
+    public void withinRadius() throws Exception {
+        // Berlin Alexanderplatz, Berlin Zoo, Potsdam, München
+        final int[] lat = new int[] { 52521918, 52507278, 52391842, 48140228 };
+        final int[] lon = new int[] { 13413215, 13332123, 13066963, 11558338 };
+        final PlanSpatialIndex index = new PlanSpatialIndex(lat, lon);
+
+        Assert.assertArrayEquals(new int[] { 0, 1 }, index.withinRadius(52.52, 13.40, 10000));
+        Assert.assertArrayEquals(new int[] { 0, 1, 2 }, index.withinRadius(52.52, 13.40, 50000));
+        Assert.assertArrayEquals(new int[] { 3 }, index.withinRadius(48.14, 11.56, 1000));
+        Assert.assertEquals(0, index.withinRadius(0, 0, 1000).length);
+    }
+
+    @Test
+    public void empty() throws Exception {
+        final PlanSpatialIndex index = new PlanSpatialIndex(new int[0], new int[0]);
+        Assert.assertEquals(0, index.withinRadius(52.52, 13.40, 1000).length);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.plans;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class PlanStationsIndexTest {
+    private static final String STATIONS = "# comment\n" //
+            + "vbb|900100003|Alexanderplatz|berlin_sbahn|100|200\n" //
+            + "!transform: 2, 4, 10, 20\n" //
+            + "vbb|900100003|Alexanderplatz|berlin_ubahn|100|200\n" //
+            + "||Somewhere|berlin_ubahn\n" //
+            + "vbb|900023201|Zoo|berlin_ubahn|50|50";
+
+    @Test
+    public void linesSplitAcrossChunks() throws Exception {
+        final byte[] bytes = STATIONS.getBytes(StandardCharsets.UTF_8);
+        for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+            final PlanStationsIndex.Builder builder = new PlanStationsIndex.Builder();
+            for (int off = 0; off < bytes.length; off += chunkSize)
+                builder.bytes(bytes, off, Math.min(chunkSize, bytes.length - off));
+            final PlanStationsIndex index = builder.build(0);
+
+            Assert.assertEquals(1, index.byPlan("berlin_sbahn").size());
+            final List<PlanStationsIndex.Entry> ubahn = index.byPlan("berlin_ubahn");
+            Assert.assertEquals(3, ubahn.size());
+            Assert.assertEquals(60, ubahn.get(0).x);
+            Assert.assertEquals(70, ubahn.get(0).y);
+            Assert.assertNull(ubahn.get(1).network);
+            Assert.assertEquals("Zoo", ubahn.get(2).label);
+            Assert.assertEquals(2, index.byStation("vbb", "900100003").size());
+            Assert.assertTrue(index.byStation("vbb", "nonexistent").isEmpty());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedLine() throws Exception {
+        final byte[] bytes = "vbb|1|Label|plan|1|x\n".getBytes(StandardCharsets.UTF_8);
+        new PlanStationsIndex.Builder().bytes(bytes, 0, bytes.length);
+    }
+}
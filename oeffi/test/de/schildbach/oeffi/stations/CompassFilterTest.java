@@ -0,0 +1,60 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompassFilterTest {
+    @Test
+    public void reportsFirstSample() {
+        final CompassFilter filter = new CompassFilter(0.5f, 2f);
+        Assert.assertTrue(filter.update(42f));
+        Assert.assertEquals(42f, filter.getAzimuth(), 0.001f);
+    }
+
+    @Test
+    public void suppressesJitter() {
+        final CompassFilter filter = new CompassFilter(0.5f, 2f);
+        filter.update(90f);
+        for (int i = 0; i < 100; i++)
+            Assert.assertFalse(filter.update(i % 2 == 0 ? 91.5f : 88.5f));
+        Assert.assertEquals(90f, filter.getAzimuth(), 0.001f);
+    }
+
+    @Test
+    public void followsAcrossBoundary() {
+        final CompassFilter filter = new CompassFilter(0.5f, 2f);
+        filter.update(175f);
+        int reports = 0;
+        for (int i = 0; i < 20; i++)
+            if (filter.update(-175f))
+                reports++;
+        Assert.assertTrue(reports > 0);
+        Assert.assertEquals(-175f, filter.getAzimuth(), 2f);
+    }
+
+    @Test
+    public void reset() {
+        final CompassFilter filter = new CompassFilter(0.1f, 2f);
+        filter.update(0f);
+        filter.reset();
+        Assert.assertTrue(filter.update(120f));
+        Assert.assertEquals(120f, filter.getAzimuth(), 0.001f);
+    }
+}
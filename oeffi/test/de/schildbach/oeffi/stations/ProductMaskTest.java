@@ -0,0 +1,62 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+public class ProductMaskTest {
+    @Test
+    public void codes() {
+        final int mask = ProductMask.of(EnumSet.of(Product.BUS, Product.TRAM, Product.SUBWAY));
+        Assert.assertEquals(3, ProductMask.size(mask));
+        Assert.assertEquals(mask, ProductMask.fromCodes(ProductMask.toCodes(mask)));
+        Assert.assertEquals(ProductMask.ALL, ProductMask.fromCodes(ProductMask.toCodes(ProductMask.ALL)));
+
+        final Set<Product> products = EnumSet.of(Product.FERRY);
+        ProductMask.toSet(mask, products);
+        Assert.assertEquals(EnumSet.of(Product.BUS, Product.TRAM, Product.SUBWAY), products);
+    }
+
+    @Test
+    public void stationFromLines() {
+        final Station station = new Station(NetworkId.VBB, new Location(LocationType.STATION, "1"));
+        Assert.assertEquals(Station.PRODUCTS_UNKNOWN, station.getProductMask());
+
+        station.setLines(Arrays.asList(line(Product.BUS), line(null), line(Product.TRAM)));
+        Assert.assertEquals(ProductMask.of(EnumSet.of(Product.BUS, Product.TRAM)), station.getProductMask());
+
+        station.setLines(Collections.singletonList(line(null)));
+        Assert.assertEquals(ProductMask.NONE, station.getProductMask());
+    }
+
+    private static LineDestination line(final Product product) {
+        return new LineDestination(new Line(null, null, product, null), null);
+    }
+}
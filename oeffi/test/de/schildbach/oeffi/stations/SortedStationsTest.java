@@ -0,0 +1,149 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SortedStationsTest {
+    @Test
+    public void keepsOrderAndReportsChanges() {
+        final SortedStations stations = new SortedStations();
+        final List<Station> mirror = new ArrayList<>();
+        stations.setListener(new MirrorListener(stations, mirror));
+
+        final Random random = new Random(42);
+        final List<Station> all = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final Station station = station("s" + i, random.nextInt(50));
+            all.add(station);
+            stations.insert(station);
+        }
+        for (int i = 0; i < 500; i++) {
+            final Station station = all.get(random.nextInt(all.size()));
+            station.setDistanceAndBearing(random.nextInt(50), 0);
+            stations.reposition(station);
+        }
+        stations.insert(new Station(NetworkId.VBB, new Location(LocationType.STATION, "nodistance")));
+
+        assertSorted(stations);
+        Assert.assertEquals(stations, mirror);
+        Assert.assertEquals("nodistance", stations.get(0).location.id);
+        for (final Station station : all)
+            Assert.assertSame(station, stations.get(stations.indexOf(station)));
+    }
+
+    @Test
+    public void clipTailRetains() {
+        final SortedStations stations = new SortedStations();
+        final List<Station> mirror = new ArrayList<>();
+        stations.setListener(new MirrorListener(stations, mirror));
+        for (int i = 0; i < 10; i++)
+            stations.insert(station("s" + i, i));
+
+        final List<Station> removed = stations.clipTail(5, station -> station.location.id.equals("s8"));
+
+        Assert.assertEquals(5, removed.size());
+        Assert.assertEquals(5, stations.size());
+        Assert.assertEquals("s8", stations.get(4).location.id);
+        Assert.assertEquals("s3", stations.get(3).location.id);
+        Assert.assertEquals(stations, mirror);
+
+        stations.clear();
+        Assert.assertTrue(mirror.isEmpty());
+    }
+
+    @Test
+    public void repositionWithoutChange() {
+        final SortedStations stations = new SortedStations();
+        final int[] changes = new int[1];
+        final List<Station> mirror = new ArrayList<>();
+        stations.setListener(new MirrorListener(stations, mirror) {
+            @Override
+            public void onChanged(final int position, final int count) {
+                super.onChanged(position, count);
+                changes[0] += count;
+            }
+        });
+        final Station near = station("near", 10), far = station("far", 20);
+        stations.insert(near);
+        stations.insert(far);
+
+        near.setDistanceAndBearing(30, 0);
+        Assert.assertEquals(1, stations.reposition(near, false));
+        far.setDistanceAndBearing(21, 0);
+        Assert.assertEquals(0, stations.reposition(far, false));
+        Assert.assertEquals(0, changes[0]);
+        Assert.assertEquals(stations, mirror);
+
+        stations.reposition(far, true);
+        Assert.assertEquals(1, changes[0]);
+    }
+
+    private static Station station(final String id, final float distance) {
+        final Station station = new Station(NetworkId.VBB, new Location(LocationType.STATION, id));
+        station.setDistanceAndBearing(distance, 0);
+        return station;
+    }
+
+    private static void assertSorted(final List<Station> stations) {
+        for (int i = 1; i < stations.size(); i++) {
+            final Station previous = stations.get(i - 1), station = stations.get(i);
+            Assert.assertTrue(!previous.hasDistanceAndBearing || previous.distance <= station.distance);
+        }
+    }
+
+    private static class MirrorListener implements SortedStations.Listener {
+        private final List<Station> stations;
+        private final List<Station> mirror;
+
+        MirrorListener(final List<Station> stations, final List<Station> mirror) {
+            this.stations = stations;
+            this.mirror = mirror;
+        }
+
+        @Override
+        public void onInserted(final int position, final int count) {
+            for (int i = 0; i < count; i++)
+                mirror.add(position + i, stations.get(position + i));
+        }
+
+        @Override
+        public void onRemoved(final int position, final int count) {
+            mirror.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(final int fromPosition, final int toPosition) {
+            mirror.add(toPosition, mirror.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(final int position, final int count) {
+            for (int i = 0; i < count; i++)
+                Assert.assertSame(stations.get(position + i), mirror.get(position + i));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Shared timing loop of the benchmarks: warm-up rounds, then measured rounds averaged for wall and CPU time.
+ */
+public final class Benchmark {
+    public interface Round {
+        void run() throws Exception;
+    }
+
+    public static final class Result {
+        public final int rounds;
+        public final long wallNs; // per round
+        public final long cpuNs; // per round, summed over all threads
+
+        private Result(final int rounds, final long wallNs, final long cpuNs) {
+            this.rounds = rounds;
+            this.wallNs = wallNs;
+            this.cpuNs = cpuNs;
+        }
+
+        /**
+         * @return throughput for the given number of bytes per round, for logging
+         */
+        public String perMegabyte(final long bytes) {
+            final double megabytes = bytes / 1E6;
+            return String.format("%.1f MB/s, %.1f ms CPU per MB", megabytes * 1E9 / wallNs,
+                    cpuNs / 1E6 / megabytes);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    public static Result run(final int warmUpRounds, final int rounds, final Round round) throws Exception {
+        for (int i = 0; i < warmUpRounds; i++)
+            round.run();
+        final long cpuStart = cpuTime();
+        final long wallStart = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            round.run();
+        final long wallNs = System.nanoTime() - wallStart;
+        final long cpuNs = cpuTime() - cpuStart;
+        return new Result(rounds, wallNs / rounds, cpuNs / rounds);
+    }
+
+    // includes pool threads, which outlive the rounds because of their keep-alive
+    private static long cpuTime() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuTime = 0;
+        for (final long threadId : threads.getAllThreadIds()) {
+            final long threadCpuTime = threads.getThreadCpuTime(threadId);
+            if (threadCpuTime > 0)
+                cpuTime += threadCpuTime;
+        }
+        return cpuTime;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import de.schildbach.oeffi.util.bzip2.ParallelBZip2DecompressorTest;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Compression ratio, decoding throughput and CPU time of the codecs, for the bundled plan index and for a synthetic
+ * corpus the size of the plan stations download.
+ */
+@Ignore("benchmark")
+public class ContentCodecsBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(ContentCodecsBenchmark.class);
+
+    @Test
+    public void throughput() throws Exception {
+        // the stations file is only downloaded at runtime, so the index is the only real sample in the tree
+        run("plans-index.txt", Files.readAllBytes(new File("assets/plans-index.txt").toPath()), 50, 200);
+        run("corpus", ParallelBZip2DecompressorTest.corpus(8 * 1024 * 1024, 4), 1, 5);
+    }
+
+    private static void run(final String label, final byte[] original, final int warmUpRounds, final int rounds)
+            throws Exception {
+        for (final ContentCodec codec : new ContentCodec[] { ContentCodecs.BZIP2, ContentCodecs.GZIP,
+                ContentCodecs.DEFLATE, ContentCodecs.RAW }) {
+            final byte[] encoded = ContentCodecsTest.encode(codec, original);
+            final Benchmark.Result result = Benchmark.run(warmUpRounds, rounds, () -> codec.decode(
+                    new ByteArrayInputStream(encoded), new ParallelBZip2DecompressorTest.NullOutputStream()));
+            log.info("{}, {}: ratio {}, {}", label, codec.name(),
+                    String.format("%.2f", (double) encoded.length / original.length),
+                    result.perMegabyte(original.length));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import de.schildbach.oeffi.util.bzip2.ParallelBZip2DecompressorTest;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ContentCodecsTest {
+    private final ContentCodecs codecs = ContentCodecs.createDefault();
+
+    @Test
+    public void detectAndDecode() throws Exception {
+        final byte[] original = ParallelBZip2DecompressorTest.corpus(512 * 1024, 5);
+        for (final ContentCodec codec : new ContentCodec[] { ContentCodecs.BZIP2, ContentCodecs.GZIP,
+                ContentCodecs.DEFLATE, ContentCodecs.RAW }) {
+            final byte[] encoded = encode(codec, original);
+            Assert.assertSame(codec, codecs.detect(encoded, ContentCodecs.SIGNATURE_LENGTH));
+            final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            Assert.assertEquals(original.length, codec.decode(new ByteArrayInputStream(encoded), decoded));
+            Assert.assertArrayEquals(codec.name(), original, decoded.toByteArray());
+        }
+    }
+
+    @Test
+    public void bzip2SmallAndLarge() throws Exception {
+        // below and above the size from which blocks are decoded in parallel
+        for (final int size : new int[] { 64 * 1024, 4 * 1024 * 1024 }) {
+            final byte[] original = ParallelBZip2DecompressorTest.corpus(size, 6);
+            final byte[] encoded = encode(ContentCodecs.BZIP2, original);
+            final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            Assert.assertEquals(original.length,
+                    ContentCodecs.BZIP2.decode(new ByteArrayInputStream(encoded), decoded));
+            Assert.assertArrayEquals(original, decoded.toByteArray());
+        }
+    }
+
+    @Test
+    public void contentEncoding() throws Exception {
+        Assert.assertSame(ContentCodecs.GZIP, codecs.forContentEncoding("x-gzip"));
+        Assert.assertSame(ContentCodecs.DEFLATE, codecs.forContentEncoding(" Deflate"));
+        Assert.assertSame(ContentCodecs.RAW, codecs.forContentEncoding("identity"));
+        Assert.assertNull(codecs.forContentEncoding("br"));
+        Assert.assertNull(codecs.forContentEncoding(null));
+    }
+
+    @Test
+    public void plainTextWithZlibHeader() throws Exception {
+        // 'x' followed by ' ' or '^' forms a valid zlib header, with and without preset dictionary
+        for (final String text : new String[] { "x marks the spot\n", "x^2 + y^2 = r^2\n" }) {
+            final byte[] original = text.getBytes(StandardCharsets.US_ASCII);
+            Assert.assertSame(ContentCodecs.DEFLATE, codecs.detect(original, ContentCodecs.SIGNATURE_LENGTH));
+            final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            Assert.assertEquals(original.length,
+                    ContentCodecs.DEFLATE.decode(new ByteArrayInputStream(original), decoded));
+            Assert.assertArrayEquals(original, decoded.toByteArray());
+        }
+    }
+
+    static byte[] encode(final ContentCodec codec, final byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream os;
+        if (codec == ContentCodecs.BZIP2)
+            os = new BZip2CompressorOutputStream(bytes, 9);
+        else if (codec == ContentCodecs.GZIP)
+            os = new GZIPOutputStream(bytes);
+        else if (codec == ContentCodecs.DEFLATE)
+            os = new DeflaterOutputStream(bytes);
+        else
+            os = bytes;
+        os.write(data);
+        os.close();
+        return bytes.toByteArray();
+    }
+}
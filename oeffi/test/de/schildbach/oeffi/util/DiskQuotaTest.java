@@ -0,0 +1,107 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DiskQuotaTest {
+    @Test
+    public void evictLeastRecentlyUsedUnpinned() throws Exception {
+        final File dir = Files.createTempDirectory("disk-quota").toFile();
+        final File plansDir = new File(dir, "plans");
+        final File thumbsDir = new File(dir, "thumbs");
+        plansDir.mkdir();
+        thumbsDir.mkdir();
+
+        final File planA = write(new File(plansDir, "a.png"), 1000, 1000);
+        final File pyramidA = new File(plansDir, "a.png.tiles");
+        pyramidA.mkdir();
+        write(new File(pyramidA, "overview.jpg"), 500, 1000);
+        final File planB = write(new File(plansDir, "b.png"), 1000, 2000);
+        final File planC = write(new File(plansDir, "c.png"), 1000, 3000);
+        final File thumb = write(new File(thumbsDir, "0123abcd.1"), 500, 1500);
+        write(new File(thumbsDir, "journal"), 100, 0);
+
+        final List<File> evicted = new ArrayList<>();
+        final DiskQuota quota = new DiskQuota(2700, new File(dir, DiskQuota.ACCESS_LOG_FILENAME));
+        quota.addArea(DiskQuota.Category.PLANS, plansDir,
+                name -> name.endsWith(".tiles") ? name.substring(0, name.length() - 6) : name, evicted::add);
+        quota.addArea(DiskQuota.Category.THUMBNAILS, thumbsDir,
+                name -> name.startsWith("journal") ? null : name.substring(0, name.indexOf('.')), null);
+        quota.pin(planA);
+        quota.recordAccess(planB);
+
+        final Map<DiskQuota.Category, Long> usage = quota.trim();
+
+        // a is oldest but pinned, thumb is next, then c; b was accessed just now
+        Assert.assertTrue(planA.exists());
+        Assert.assertTrue(pyramidA.exists());
+        Assert.assertFalse(thumb.exists());
+        Assert.assertFalse(planC.exists());
+        Assert.assertTrue(planB.exists());
+        Assert.assertEquals(1, evicted.size());
+        Assert.assertEquals(planC, evicted.get(0));
+        Assert.assertEquals(2500, (long) usage.get(DiskQuota.Category.PLANS));
+        Assert.assertEquals(100, (long) usage.get(DiskQuota.Category.THUMBNAILS));
+        Assert.assertEquals(usage, quota.usage());
+    }
+
+    @Test
+    public void pinDuringTrim() throws Exception {
+        final File dir = Files.createTempDirectory("disk-quota").toFile();
+        final File planA = write(new File(dir, "a.png"), 1000, 1000);
+        final File planB = write(new File(dir, "b.png"), 1000, 2000);
+
+        final DiskQuota quota = new DiskQuota(1000, new File(dir, DiskQuota.ACCESS_LOG_FILENAME));
+        final AtomicBoolean pinnedDuringTrim = new AtomicBoolean();
+        quota.addArea(DiskQuota.Category.PLANS, dir, name -> name.endsWith(".png") ? name : null, evicted -> {
+            // opening another plan must not wait for the trim
+            final Thread thread = new Thread(() -> {
+                quota.pin(planB);
+                quota.recordAccess(planB);
+                pinnedDuringTrim.set(true);
+            });
+            thread.start();
+            try {
+                thread.join(5000);
+            } catch (final InterruptedException x) {
+                throw new RuntimeException(x);
+            }
+        });
+
+        quota.trim();
+
+        Assert.assertTrue(pinnedDuringTrim.get());
+        Assert.assertFalse(planA.exists());
+        Assert.assertTrue(planB.exists());
+    }
+
+    private static File write(final File file, final int size, final long lastModified) throws Exception {
+        Files.write(file.toPath(), new byte[size]);
+        file.setLastModified(lastModified);
+        return file;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.Collections;
+
+public class DownloadMetaStoreTest {
+    @Test
+    public void persistAndReload() throws Exception {
+        final File dir = Files.createTempDirectory("meta-store").toFile();
+        final File journalFile = new File(dir, "downloads.journal");
+        final File index = new File(dir, "plans-index.txt");
+        final File stations = new File(dir, "plans-stations.txt");
+
+        final DownloadMetaStore store = new DownloadMetaStore(journalFile);
+        store.put(index, 1000, "Mon, 05 Oct 2026 10:00:00 GMT", "\"abc\"");
+        store.put(stations, 0, null, "\"def\"");
+        store.remove(index);
+        store.put(stations, 5000, null, "\"ghi\"");
+
+        final DownloadMetaStore reloaded = new DownloadMetaStore(journalFile);
+        Assert.assertNull(reloaded.get(index));
+        final DownloadMetaStore.Entry entry = reloaded.get(stations);
+        Assert.assertEquals(5000, entry.expires);
+        Assert.assertNull(entry.lastModified);
+        Assert.assertEquals("\"ghi\"", entry.etag);
+        Assert.assertEquals(Collections.singletonList(stations.getAbsoluteFile()), reloaded.stale(6000));
+        Assert.assertTrue(reloaded.stale(4000).isEmpty());
+        Assert.assertEquals(Collections.singletonList(stations.getAbsoluteFile()), reloaded.expiringBetween(4000, 6000));
+        Assert.assertTrue(reloaded.expiringBetween(1000, 2000).isEmpty());
+        Assert.assertTrue(reloaded.expiringBetween(5000, 6000).isEmpty());
+    }
+
+    @Test
+    public void tornLineAndCompaction() throws Exception {
+        final File dir = Files.createTempDirectory("meta-store").toFile();
+        final File journalFile = new File(dir, "downloads.journal");
+        final File file = new File(dir, "messages.txt");
+
+        final DownloadMetaStore store = new DownloadMetaStore(journalFile);
+        for (int i = 1; i <= 200; i++)
+            store.put(file, i, null, null);
+        try (final FileWriter writer = new FileWriter(journalFile, true)) {
+            writer.write("P\t" + file.getAbsolutePath() + "\t99"); // torn, no etag fields
+        }
+        Assert.assertTrue(Files.readAllLines(journalFile.toPath()).size() < 200);
+
+        final DownloadMetaStore reloaded = new DownloadMetaStore(journalFile);
+        Assert.assertEquals(200, reloaded.get(file).expires);
+
+        // the next record must not be merged into the torn line
+        reloaded.put(file, 300, null, "\"abc\"");
+        final DownloadMetaStore.Entry entry = new DownloadMetaStore(journalFile).get(file);
+        Assert.assertEquals(300, entry.expires);
+        Assert.assertEquals("\"abc\"", entry.etag);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download throughput from a local server and progress posts per download, unthrottled and at mobile speed.
+ */
+@Ignore("benchmark")
+public class DownloaderBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(DownloaderBenchmark.class);
+
+    @Test
+    public void throughput() throws Exception {
+        final MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            final OkHttpClient okHttpClient = new OkHttpClient();
+            final File cacheDir = Files.createTempDirectory("downloader-cache").toFile();
+            final File targetFile = new File(Files.createTempDirectory("downloader-target").toFile(), "plan.png");
+            final Downloader downloader = new Downloader(cacheDir);
+            final Random random = new Random(0);
+
+            final byte[] content = new byte[16 * 1024 * 1024];
+            random.nextBytes(content);
+            run("fast", server, okHttpClient, downloader, targetFile, content, 2, 5, -1);
+
+            // about 6 MB/s
+            final byte[] throttledContent = new byte[4 * 1024 * 1024];
+            random.nextBytes(throttledContent);
+            run("throttled", server, okHttpClient, downloader, targetFile, throttledContent, 1, 3, 10);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static void run(final String label, final MockWebServer server, final OkHttpClient okHttpClient,
+            final Downloader downloader, final File targetFile, final byte[] content, final int warmUpRounds,
+            final int rounds, final long throttleMs) throws Exception {
+        final AtomicInteger numProgress = new AtomicInteger();
+        final Benchmark.Result result = Benchmark.run(warmUpRounds, rounds, () -> {
+            final MockResponse response = new MockResponse().setBody(new Buffer().write(content));
+            if (throttleMs > 0)
+                response.throttleBody(64 * 1024, throttleMs, TimeUnit.MILLISECONDS);
+            server.enqueue(response);
+            targetFile.delete();
+            downloader.download(okHttpClient, server.url("/plan.png"), targetFile, false,
+                    Downloader.Priority.INTERACTIVE, (contentRead, contentLength) -> numProgress.incrementAndGet())
+                    .get(60, TimeUnit.SECONDS);
+        });
+        log.info("{}: {}, {} progress posts per download", label, result.perMegabyte(content.length),
+                numProgress.get() / (warmUpRounds + rounds));
+    }
+}
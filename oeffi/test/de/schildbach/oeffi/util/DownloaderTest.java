@@ -0,0 +1,354 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class DownloaderTest {
+    private MockWebServer server;
+    private OkHttpClient okHttpClient;
+    private File cacheDir;
+    private File targetFile;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        okHttpClient = new OkHttpClient.Builder().retryOnConnectionFailure(false).build();
+        cacheDir = Files.createTempDirectory("downloader-cache").toFile();
+        targetFile = new File(Files.createTempDirectory("downloader-target").toFile(), "plan.png");
+        content = new byte[256 * 1024];
+        new Random(0).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void resumeAfterInterruption() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)).setHeader("ETag", "\"v1\"")
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        try {
+            downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10, TimeUnit.SECONDS);
+            Assert.fail("expected interrupted download");
+        } catch (final ExecutionException x) {
+            // expected
+        }
+        server.takeRequest();
+        Assert.assertFalse(targetFile.exists());
+        final File partFile = new File(cacheDir, "plan.png.part");
+        final int offset = (int) partFile.length();
+        Assert.assertTrue(offset > 0 && offset < content.length);
+
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_PARTIAL)
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Content-Range", "bytes " + offset + "-" + (content.length - 1) + "/" + content.length)
+                .setBody(new Buffer().write(Arrays.copyOfRange(content, offset, content.length))));
+        final long[] firstProgress = new long[] { -1, -1 };
+        final int status = downloader.download(okHttpClient, server.url("/plan.png"), targetFile, false,
+                Downloader.Priority.INTERACTIVE, (contentRead, contentLength) -> {
+                    if (firstProgress[0] == -1) {
+                        firstProgress[0] = contentRead;
+                        firstProgress[1] = contentLength;
+                    }
+                }).get(10, TimeUnit.SECONDS);
+
+        final RecordedRequest request = server.takeRequest();
+        Assert.assertEquals("bytes=" + offset + "-", request.getHeader("Range"));
+        Assert.assertEquals("\"v1\"", request.getHeader("If-Range"));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, status);
+        Assert.assertEquals(offset, firstProgress[0]);
+        Assert.assertEquals(content.length, firstProgress[1]);
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+        Assert.assertFalse(partFile.exists());
+    }
+
+    @Test
+    public void unzip() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final OutputStream os = new BZip2CompressorOutputStream(compressed, 1)) {
+            for (int i = 0; i < 8; i++)
+                os.write(content); // several blocks
+        }
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(compressed.toByteArray())));
+        final int status = downloader.download(okHttpClient, server.url("/plans-stations.txt.bz2"), targetFile, true)
+                .get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, status);
+        final byte[] downloaded = Files.readAllBytes(targetFile.toPath());
+        Assert.assertEquals(content.length * 8, downloaded.length);
+        for (int i = 0; i < 8; i++)
+            Assert.assertArrayEquals(content,
+                    Arrays.copyOfRange(downloaded, i * content.length, (i + 1) * content.length));
+    }
+
+    @Test
+    public void decodeByContentEncodingAndMagic() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (final OutputStream os = new DeflaterOutputStream(deflated)) {
+            os.write(content);
+        }
+        server.enqueue(new MockResponse().setBody(new Buffer().write(deflated.toByteArray()))
+                .setHeader("Content-Encoding", "deflate"));
+        downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (final OutputStream os = new GZIPOutputStream(gzipped)) {
+            os.write(content);
+        }
+        server.enqueue(new MockResponse().setBody(new Buffer().write(gzipped.toByteArray())));
+        downloader.download(okHttpClient, server.url("/plans-stations.txt.gz"), targetFile, true).get(10,
+                TimeUnit.SECONDS);
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+    }
+
+    @Test
+    public void contentListener() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+        Files.write(targetFile.toPath(), new byte[] { 1, 2, 3 });
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final StringBuilder events = new StringBuilder();
+        final boolean[] reject = new boolean[] { true };
+        final Downloader.ContentListener listener = new Downloader.ContentListener() {
+            public void onContentStart() {
+                events.append("start ");
+                received.reset();
+            }
+
+            public void onContent(final byte[] buf, final int off, final int len) {
+                received.write(buf, off, len);
+            }
+
+            public void onContentEnd() throws IOException {
+                events.append("end ");
+                if (reject[0])
+                    throw new IOException("rejected");
+            }
+
+            public void onContentCommitted(final File file) {
+                events.append("committed ");
+            }
+
+            public void onContentAborted() {
+                events.append("aborted ");
+            }
+        };
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)));
+        try {
+            downloader.download(okHttpClient, server.url("/plan.png"), targetFile, false,
+                    Downloader.Priority.BACKGROUND, null, listener).get(10, TimeUnit.SECONDS);
+            Assert.fail("expected rejected download");
+        } catch (final ExecutionException x) {
+            // expected
+        }
+        Assert.assertEquals("start end aborted ", events.toString());
+        Assert.assertArrayEquals(content, received.toByteArray());
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(targetFile.toPath()));
+
+        reject[0] = false;
+        events.setLength(0);
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)));
+        downloader.download(okHttpClient, server.url("/plan.png"), targetFile, false,
+                Downloader.Priority.BACKGROUND, null, listener).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("start end committed ", events.toString());
+        Assert.assertArrayEquals(content, received.toByteArray());
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+    }
+
+    @Test
+    public void restartWhenRangeIgnored() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content))
+                .setHeader("Last-Modified", "Mon, 05 Oct 2026 10:00:00 GMT")
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        try {
+            downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10, TimeUnit.SECONDS);
+            Assert.fail("expected interrupted download");
+        } catch (final ExecutionException x) {
+            // expected
+        }
+        server.takeRequest();
+
+        // server does not support ranges and sends the full content again
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content))
+                .setHeader("Last-Modified", "Mon, 05 Oct 2026 10:00:00 GMT"));
+        final int status = downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10,
+                TimeUnit.SECONDS);
+
+        final RecordedRequest request = server.takeRequest();
+        Assert.assertNotNull(request.getHeader("Range"));
+        Assert.assertEquals("Mon, 05 Oct 2026 10:00:00 GMT", request.getHeader("If-Range"));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, status);
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+    }
+
+    @Test
+    public void noResumeWithoutValidator() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        try {
+            downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10, TimeUnit.SECONDS);
+            Assert.fail("expected interrupted download");
+        } catch (final ExecutionException x) {
+            // expected
+        }
+        server.takeRequest();
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)));
+        final int status = downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10,
+                TimeUnit.SECONDS);
+
+        Assert.assertNull(server.takeRequest().getHeader("Range"));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, status);
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+    }
+
+    @Test
+    public void attachToRunningDownload() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)).setBodyDelay(200,
+                TimeUnit.MILLISECONDS));
+        final CompletableFuture<Integer> first = downloader.download(okHttpClient, server.url("/plan.png"),
+                targetFile);
+        final CompletableFuture<Integer> second = downloader.download(okHttpClient, server.url("/plan.png"),
+                targetFile, Downloader.Priority.INTERACTIVE);
+
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, (int) first.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, (int) second.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, server.getRequestCount());
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+    }
+
+    @Test
+    public void restartAfterCancelledDownload() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)).throttleBody(16 * 1024, 50,
+                TimeUnit.MILLISECONDS));
+        final CompletableFuture<Integer> first = downloader.download(okHttpClient, server.url("/plan.png"),
+                targetFile);
+        server.takeRequest();
+        first.cancel(false);
+
+        // the cancelled job is still winding down, so the caller must not be attached to it
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)));
+        final int status = downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10,
+                TimeUnit.SECONDS);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, status);
+        Assert.assertEquals(2, server.getRequestCount());
+        Assert.assertArrayEquals(content, Files.readAllBytes(targetFile.toPath()));
+    }
+
+    @Test
+    public void interactiveBeforeBackground() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir, new File(cacheDir, Downloader.META_JOURNAL_FILENAME), 1);
+        final File targetDir = targetFile.getParentFile();
+
+        server.enqueue(new MockResponse().setBody("a").setBodyDelay(200, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("c"));
+        server.enqueue(new MockResponse().setBody("b"));
+        final CompletableFuture<Integer> a = downloader.download(okHttpClient, server.url("/a"),
+                new File(targetDir, "a"));
+        final CompletableFuture<Integer> b = downloader.download(okHttpClient, server.url("/b"),
+                new File(targetDir, "b"));
+        final CompletableFuture<Integer> c = downloader.download(okHttpClient, server.url("/c"),
+                new File(targetDir, "c"), Downloader.Priority.INTERACTIVE);
+        CompletableFuture.allOf(a, b, c).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals("/a", server.takeRequest().getPath());
+        Assert.assertEquals("/c", server.takeRequest().getPath());
+        Assert.assertEquals("/b", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void progressPostsPerPercent() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+
+        // slow enough for the time between reads to exceed any reporting interval
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)).throttleBody(1024, 5,
+                TimeUnit.MILLISECONDS));
+        final AtomicInteger numProgress = new AtomicInteger();
+        final int status = downloader.download(okHttpClient, server.url("/plan.png"), targetFile, false,
+                Downloader.Priority.INTERACTIVE, (contentRead, contentLength) -> numProgress.incrementAndGet())
+                .get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, status);
+        Assert.assertEquals(content.length, targetFile.length());
+        // at most one post per percent, plus the final one
+        Assert.assertTrue("too many progress posts: " + numProgress.get(), numProgress.get() <= 102);
+    }
+
+    @Test
+    public void staleDownloads() throws Exception {
+        final Downloader downloader = new Downloader(cacheDir);
+        final File freshFile = new File(targetFile.getParentFile(), "fresh.png");
+
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)).setHeader("ETag", "\"v1\""));
+        downloader.download(okHttpClient, server.url("/plan.png"), targetFile).get(10, TimeUnit.SECONDS);
+        server.enqueue(new MockResponse().setBody(new Buffer().write(content)).setHeader("ETag", "\"v1\"")
+                .setHeader("Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        ZonedDateTime.now(ZoneOffset.UTC).plusHours(1))));
+        downloader.download(okHttpClient, server.url("/fresh.png"), freshFile).get(10, TimeUnit.SECONDS);
+
+        // no expiry means it needs revalidation
+        Assert.assertEquals(Collections.singletonList(targetFile.getAbsoluteFile()), downloader.staleDownloads());
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * Time per point of each distance mode for a city-sized set of stations.
+ */
+@Ignore("benchmark")
+public class GeoDistancesBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(GeoDistancesBenchmark.class);
+
+    @Test
+    public void modes() throws Exception {
+        final Random random = new Random(0);
+        final int count = 1000;
+        final double[] lats = new double[count], lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = 52.5 + (random.nextDouble() - 0.5) * 0.2;
+            lons[i] = 13.4 + (random.nextDouble() - 0.5) * 0.3;
+        }
+        final float[] distances = new float[count], bearings = new float[count];
+        for (final GeoDistances.Mode mode : GeoDistances.Mode.values()) {
+            final Benchmark.Result result = Benchmark.run(2000, 2000,
+                    () -> GeoDistances.compute(mode, 52.52, 13.41, lats, lons, count, distances, bearings));
+            log.info("{}: {} ns per point", mode, String.format("%.1f", (double) result.wallNs / count));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GeoDistancesTest {
+    @Test
+    public void vincentyReference() {
+        // Flinders Peak to Buninyong, from Vincenty's paper
+        final double lat1 = -(37 + 57 / 60.0 + 3.72030 / 3600), lon1 = 144 + 25 / 60.0 + 29.52440 / 3600;
+        final double lat2 = -(37 + 39 / 60.0 + 10.15610 / 3600), lon2 = 143 + 55 / 60.0 + 35.38390 / 3600;
+        final float[] distances = new float[1], bearings = new float[1];
+        GeoDistances.compute(GeoDistances.Mode.VINCENTY, lat1, lon1, new double[] { lat2 }, new double[] { lon2 }, 1,
+                distances, bearings);
+        Assert.assertEquals(54972.271, distances[0], 0.01);
+        Assert.assertEquals(306 + 52 / 60.0 + 5.37 / 3600 - 360, bearings[0], 0.0001);
+    }
+
+    // WGS84 geodesics: origin lat/lon, destination lat/lon, distance in meters, initial bearing in degrees
+    private static final double[][] GEODESICS = { //
+            { 52.521918, 13.413215, 52.506919, 13.332711, 5714.433, -106.950305 }, // Alexanderplatz, Zoo
+            { -37.951033, 144.424868, -37.652821, 143.926496, 54972.227, -53.131846 }, // Flinders Peak, Buninyong
+            { 52.525592, 13.369545, 48.140232, 11.558335, 504520.899, -164.489848 }, // Berlin Hbf, München Hbf
+            { 48.185184, 16.376413, 47.378177, 8.540192, 593788.535, -95.770062 }, // Wien Hbf, Zürich HB
+            { 52.525592, 13.369545, 40.750568, -73.993519, 6396333.659, -63.938419 } // Berlin Hbf, New York Penn
+    };
+
+    @Test
+    public void referenceDistances() {
+        for (final double[] geodesic : GEODESICS) {
+            final double expected = geodesic[4];
+            final float[] distances = new float[1], bearings = new float[1];
+            GeoDistances.compute(GeoDistances.Mode.VINCENTY, geodesic[0], geodesic[1], new double[] { geodesic[2] },
+                    new double[] { geodesic[3] }, 1, distances, bearings);
+            Assert.assertEquals(expected, distances[0], expected * 1e-7 + 0.01);
+            Assert.assertEquals(geodesic[5], bearings[0], 0.0001);
+            Assert.assertEquals(expected, distance(GeoDistances.Mode.HAVERSINE, geodesic), expected * 0.005);
+            if (expected <= 50000) {
+                Assert.assertEquals(expected, distance(GeoDistances.Mode.EQUIRECTANGULAR, geodesic), expected * 0.001);
+                Assert.assertEquals(expected, distance(GeoDistances.Mode.AUTO, geodesic), expected * 0.001);
+            } else {
+                Assert.assertEquals(expected, distance(GeoDistances.Mode.AUTO, geodesic), expected * 0.005);
+            }
+        }
+    }
+
+    private static float distance(final GeoDistances.Mode mode, final double[] geodesic) {
+        return GeoDistances.distance(mode, geodesic[0], geodesic[1], geodesic[2], geodesic[3]);
+    }
+
+    @Test
+    public void errorBounds() {
+        assertErrorBounds(GeoDistances.Mode.EQUIRECTANGULAR, 50000, 0.001, 0.05);
+        assertErrorBounds(GeoDistances.Mode.HAVERSINE, 2000000, 0.005, 0.5);
+        assertErrorBounds(GeoDistances.Mode.AUTO, 2000000, 0.005, 0.5);
+    }
+
+    private static void assertErrorBounds(final GeoDistances.Mode mode, final double maxDistance,
+            final double maxRelativeError, final double maxBearingError) {
+        final Random random = new Random(0);
+        final int count = 10000;
+        final double[] lats = new double[count], lons = new double[count];
+        final float[] reference = new float[count], referenceBearings = new float[count];
+        final float[] distances = new float[count], bearings = new float[count];
+        for (int origin = 0; origin < 50; origin++) {
+            final double originLat = random.nextDouble() * 140 - 70, originLon = random.nextDouble() * 360 - 180;
+            final double degrees = maxDistance / 111000 / 1.5;
+            for (int i = 0; i < count; i++) {
+                lats[i] = originLat + (random.nextDouble() * 2 - 1) * degrees;
+                lons[i] = originLon
+                        + (random.nextDouble() * 2 - 1) * degrees / Math.cos(Math.toRadians(originLat)) / 1.5;
+            }
+            GeoDistances.compute(GeoDistances.Mode.VINCENTY, originLat, originLon, lats, lons, count, reference,
+                    referenceBearings);
+            GeoDistances.compute(mode, originLat, originLon, lats, lons, count, distances, bearings);
+            for (int i = 0; i < count; i++) {
+                Assert.assertTrue(reference[i] <= maxDistance);
+                Assert.assertEquals(reference[i], distances[i], reference[i] * maxRelativeError + 0.01);
+                if (reference[i] > 100) {
+                    double bearingError = Math.abs(referenceBearings[i] - bearings[i]);
+                    if (bearingError > 180)
+                        bearingError = 360 - bearingError;
+                    Assert.assertTrue(mode + " bearing error " + bearingError, bearingError <= maxBearingError);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class MessageRulesTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    private static class TestFacts extends MessageRules.Facts {
+        final Map<String, Long> lastShown = new HashMap<>();
+        int installedPackagesLoads = 0;
+        String network = "vbb";
+
+        public long now() {
+            return NOW;
+        }
+
+        public int sdkInt() {
+            return 30;
+        }
+
+        public int versionCode() {
+            return 100;
+        }
+
+        public String network() {
+            return network;
+        }
+
+        public String language() {
+            return "de";
+        }
+
+        public String taskName() {
+            return "directions";
+        }
+
+        public boolean prefsShowInfo() {
+            return true;
+        }
+
+        public long lastInfoAt() {
+            return NOW - TimeUnit.HOURS.toMillis(2);
+        }
+
+        public long lastShown(final String id) {
+            final Long time = lastShown.get(id);
+            return time != null ? time : -1;
+        }
+
+        protected Set<String> loadInstalledPackages() {
+            installedPackagesLoads++;
+            return Collections.singleton("org.example.app");
+        }
+
+        protected String loadInstaller() {
+            return "org.fdroid.fdroid";
+        }
+
+        protected long loadFirstInstallTime() {
+            return NOW;
+        }
+    }
+
+    private static MessageRules compile(final String text) throws Exception {
+        return MessageRules.compile(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), 0);
+    }
+
+    @Test
+    public void pickFirstMatching() throws Exception {
+        final MessageRules rules = compile("# comment\n" //
+                + "sdk|min-sdk:31|always|info\n" //
+                + "broken|min-sdk:x|always|info\n" //
+                + "pkg|not-installed-package:org.example.app network:vbb|always|info\n" //
+                + "limit|limit-info:3h|always|info\n" //
+                + "match|installed-package:a,org.example.app lang:de installer:org.fdroid.fdroid|once|warning\n");
+        Assert.assertEquals(4, rules.rules.size());
+
+        final TestFacts facts = new TestFacts();
+        final MessageRules.Rule rule = rules.pick(facts);
+        Assert.assertEquals("match", rule.id);
+        Assert.assertEquals("warning", rule.action);
+        Assert.assertEquals(1, facts.installedPackagesLoads);
+
+        facts.network = null;
+        Assert.assertEquals("match", rules.pick(facts).id);
+    }
+
+    @Test
+    public void repeat() throws Exception {
+        final MessageRules rules = compile("once||once|info\nweekly||1w|info\nalways||always|info\n");
+        final TestFacts facts = new TestFacts();
+        Assert.assertEquals("once", rules.pick(facts).id);
+        facts.lastShown.put("once", 0L);
+        Assert.assertEquals("weekly", rules.pick(facts).id);
+        facts.lastShown.put("weekly", NOW - TimeUnit.DAYS.toMillis(6));
+        Assert.assertEquals("always", rules.pick(facts).id);
+        facts.lastShown.put("weekly", NOW - TimeUnit.DAYS.toMillis(7));
+        Assert.assertEquals("weekly", rules.pick(facts).id);
+    }
+}
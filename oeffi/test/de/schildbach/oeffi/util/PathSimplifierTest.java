@@ -0,0 +1,74 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PathSimplifierTest {
+    @Test
+    public void straightLine() {
+        final double[] xs = { 0, 1, 2, 3, 4 }, ys = { 0, 1, 2, 3, 4 };
+        final int[] keep = new int[5];
+        Assert.assertEquals(2, PathSimplifier.simplify(xs, ys, 5, 0.1, keep));
+        Assert.assertEquals(0, keep[0]);
+        Assert.assertEquals(4, keep[1]);
+    }
+
+    @Test
+    public void keepsCorner() {
+        final double[] xs = { 0, 5, 10, 10, 10 }, ys = { 0, 0, 0, 5, 10 };
+        final int[] keep = new int[5];
+        Assert.assertEquals(3, PathSimplifier.simplify(xs, ys, 5, 0.5, keep));
+        Assert.assertEquals(2, keep[1]);
+    }
+
+    @Test
+    public void shortPaths() {
+        final int[] keep = new int[2];
+        Assert.assertEquals(0, PathSimplifier.simplify(new double[0], new double[0], 0, 1, keep));
+        Assert.assertEquals(2, PathSimplifier.simplify(new double[] { 0, 1 }, new double[] { 0, 1 }, 2, 1, keep));
+    }
+
+    @Test
+    public void withinTolerance() {
+        final Random random = new Random(0);
+        final int count = 5000;
+        final double[] xs = new double[count], ys = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = i;
+            ys[i] = Math.sin(i / 100.0) * 50 + random.nextDouble() * 2;
+        }
+        final double tolerance = 3;
+        final int[] keep = new int[count];
+        final int kept = PathSimplifier.simplify(xs, ys, count, tolerance, keep);
+        Assert.assertTrue(kept < count / 10);
+
+        // every dropped point is near its simplified segment
+        for (int k = 1; k < kept; k++) {
+            final int first = keep[k - 1], last = keep[k];
+            for (int i = first + 1; i < last; i++) {
+                final double t = (xs[i] - xs[first]) / (xs[last] - xs[first]);
+                final double y = ys[first] + t * (ys[last] - ys[first]);
+                Assert.assertTrue(Math.abs(y - ys[i]) <= tolerance * 1.5);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PointIndexTest {
+    @Test
+    public void queryMatchesBruteForce() {
+        final Random random = new Random(0);
+        final int count = 2000;
+        final double[] xs = new double[count], ys = new double[count];
+        for (int i = 0; i < count; i++) {
+            // clustered around a few centers, like stations of a few cities
+            final int center = random.nextInt(5);
+            xs[i] = center * 1000 + random.nextGaussian() * 50;
+            ys[i] = center * 300 + random.nextGaussian() * 50;
+        }
+        final PointIndex index = new PointIndex(xs, ys, count);
+        final int[] result = new int[count];
+        for (int round = 0; round < 200; round++) {
+            final double minX = random.nextDouble() * 5000 - 200, minY = random.nextDouble() * 1600 - 200;
+            final double maxX = minX + random.nextDouble() * 1000, maxY = minY + random.nextDouble() * 500;
+            final int found = index.query(minX, minY, maxX, maxY, result);
+            final int[] actual = Arrays.copyOf(result, found);
+            Arrays.sort(actual);
+            Assert.assertArrayEquals(bruteForce(xs, ys, minX, minY, maxX, maxY), actual);
+        }
+    }
+
+    @Test
+    public void degenerate() {
+        final int[] result = new int[3];
+        Assert.assertEquals(0, new PointIndex(new double[0], new double[0], 0).query(0, 0, 1, 1, result));
+        final PointIndex same = new PointIndex(new double[] { 5, 5, 5 }, new double[] { 7, 7, 7 }, 3);
+        Assert.assertEquals(3, same.query(5, 7, 5, 7, result));
+        Assert.assertEquals(0, same.query(6, 0, 10, 10, result));
+        final PointIndex line = new PointIndex(new double[] { 0, 10, 20 }, new double[] { 3, 3, 3 }, 3);
+        Assert.assertEquals(2, line.query(5, 0, 25, 5, result));
+    }
+
+    @Test
+    public void cluster() {
+        final double[] xs = { 1, 9, 11, 35, 12 };
+        final double[] ys = { 1, 9, 1, 1, 9 };
+        final PointIndex index = new PointIndex(xs, ys, xs.length);
+        final int[] points = new int[xs.length];
+        final int found = index.query(0, 0, 40, 10, points);
+        final int[] representatives = new int[found], sizes = new int[found];
+        final int clusters = index.cluster(points, found, 10, representatives, sizes);
+        Assert.assertEquals(3, clusters);
+        final int[] summary = new int[clusters];
+        for (int i = 0; i < clusters; i++)
+            summary[i] = representatives[i] * 10 + sizes[i];
+        Arrays.sort(summary);
+        // points 0 and 1 share the first square, 2 and 4 the second, 3 is alone
+        Assert.assertArrayEquals(new int[] { 2, 22, 31 }, summary);
+    }
+
+    private static int[] bruteForce(final double[] xs, final double[] ys, final double minX, final double minY,
+            final double maxX, final double maxY) {
+        int found = 0;
+        final int[] result = new int[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            if (xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY)
+                result[found++] = i;
+        return Arrays.copyOf(result, found);
+    }
+}
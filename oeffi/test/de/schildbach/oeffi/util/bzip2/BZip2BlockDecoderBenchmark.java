@@ -0,0 +1,54 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.bzip2;
+
+import de.schildbach.oeffi.util.Benchmark;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single-threaded throughput of the Huffman decoding modes.
+ */
+@Ignore("benchmark")
+public class BZip2BlockDecoderBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(BZip2BlockDecoderBenchmark.class);
+
+    @Test
+    public void throughput() throws Exception {
+        final byte[] original = ParallelBZip2DecompressorTest.corpus(8 * 1024 * 1024, 6);
+        final byte[] compressed = ParallelBZip2DecompressorTest.compress(original, 9);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            log.info("stream: {}", Benchmark.run(1, 3, () -> ParallelBZip2DecompressorTest.decompressStream(compressed))
+                    .perMegabyte(original.length));
+            for (final BZip2BlockDecoder.Mode mode : BZip2BlockDecoder.Mode.values()) {
+                final ParallelBZip2Decompressor decompressor = new ParallelBZip2Decompressor(executor, 1, mode);
+                final Benchmark.Result result = Benchmark.run(1, 3, () -> decompressor.decompress(compressed,
+                        compressed.length, new ParallelBZip2DecompressorTest.NullOutputStream()));
+                log.info("{}: {}", mode, result.perMegabyte(original.length));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
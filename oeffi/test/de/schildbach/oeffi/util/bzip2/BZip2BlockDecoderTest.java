@@ -0,0 +1,95 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.bzip2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class BZip2BlockDecoderTest {
+    @Test
+    public void modesAgreeOnTestVectors() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (final byte[] vector : vectors()) {
+                final byte[] compressed = ParallelBZip2DecompressorTest.compress(vector, 1);
+                Assert.assertArrayEquals(vector, ParallelBZip2DecompressorTest.decompressStream(compressed));
+                for (final BZip2BlockDecoder.Mode mode : BZip2BlockDecoder.Mode.values())
+                    Assert.assertArrayEquals(mode.name(), vector,
+                            decompress(new ParallelBZip2Decompressor(executor, 1, mode), compressed));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void modesRejectCorruption() throws Exception {
+        final byte[] compressed = ParallelBZip2DecompressorTest
+                .compress(ParallelBZip2DecompressorTest.corpus(50000, 5), 1);
+        final Random random = new Random(0);
+        for (int i = 0; i < 50; i++) {
+            final byte[] corrupt = compressed.clone();
+            corrupt[10 + random.nextInt(corrupt.length - 10)] ^= 1 << random.nextInt(8);
+            for (final BZip2BlockDecoder.Mode mode : BZip2BlockDecoder.Mode.values()) {
+                try {
+                    new BZip2BlockDecoder(1, mode).decode(corrupt, corrupt.length,
+                            32 + BZip2BlockDecoder.MAGIC_BITS);
+                    Assert.fail(mode + " accepted corrupt block");
+                } catch (final IOException x) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    private static List<byte[]> vectors() {
+        final List<byte[]> vectors = new ArrayList<>();
+        vectors.add("a".getBytes(StandardCharsets.US_ASCII));
+        vectors.add("Hello, World!\n".getBytes(StandardCharsets.US_ASCII));
+        final byte[] run = new byte[250000];
+        Arrays.fill(run, (byte) 'x');
+        vectors.add(run); // long runs, RLE on both levels
+        final byte[] noise = new byte[250000];
+        new Random(1).nextBytes(noise);
+        vectors.add(noise); // all 256 symbols, long codes
+        final byte[] skewed = new byte[250000];
+        final Random random = new Random(2);
+        for (int i = 0; i < skewed.length; i++)
+            skewed[i] = (byte) (random.nextInt(1 << random.nextInt(9)) & 0xff); // codes longer than lookup bits
+        vectors.add(skewed);
+        vectors.add(ParallelBZip2DecompressorTest.corpus(250000, 3));
+        return vectors;
+    }
+
+    private static byte[] decompress(final ParallelBZip2Decompressor decompressor, final byte[] compressed)
+            throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        decompressor.decompress(compressed, compressed.length, os);
+        return os.toByteArray();
+    }
+}
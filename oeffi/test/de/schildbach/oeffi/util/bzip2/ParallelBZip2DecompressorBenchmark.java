@@ -0,0 +1,50 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.bzip2;
+
+import de.schildbach.oeffi.util.Benchmark;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Throughput of parallel versus stream decompression.
+ */
+@Ignore("benchmark")
+public class ParallelBZip2DecompressorBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(ParallelBZip2DecompressorBenchmark.class);
+
+    @Test
+    public void throughput() throws Exception {
+        final byte[] original = ParallelBZip2DecompressorTest.corpus(8 * 1024 * 1024, 4);
+        final byte[] compressed = ParallelBZip2DecompressorTest.compress(original, 9);
+        final ParallelBZip2DecompressorTest.NullOutputStream os = new ParallelBZip2DecompressorTest.NullOutputStream();
+
+        log.info("stream: {}", Benchmark.run(1, 3, () -> ParallelBZip2DecompressorTest.decompressStream(compressed))
+                .perMegabyte(original.length));
+
+        for (final int threads : new int[] { 1, 2, 4, 8 }) {
+            final ParallelBZip2Decompressor decompressor = new ParallelBZip2Decompressor(threads);
+            final Benchmark.Result result = Benchmark.run(1, 3, () -> Assert.assertEquals(original.length,
+                    decompressor.decompress(compressed, compressed.length, os)));
+            log.info("parallel, {} threads: {}", threads, result.perMegabyte(original.length));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.bzip2;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+public class ParallelBZip2DecompressorTest {
+    @Test
+    public void identicalToStream() throws Exception {
+        final byte[] original = corpus(3 * 1024 * 1024, 1);
+        for (final int blockSize : new int[] { 1, 9 }) {
+            final byte[] compressed = compress(original, blockSize);
+            final ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+            final long written = new ParallelBZip2Decompressor(4).decompress(compressed, compressed.length,
+                    parallel);
+            Assert.assertEquals(original.length, written);
+            Assert.assertArrayEquals(original, parallel.toByteArray());
+            Assert.assertArrayEquals(original, decompressStream(compressed));
+        }
+    }
+
+    @Test
+    public void streamedInput() throws Exception {
+        final byte[] original = corpus(1024 * 1024, 7);
+        final byte[] compressed = compress(original, 1);
+        // trickle input in small reads, so that blocks are often incomplete when scanned
+        final InputStream is = new ByteArrayInputStream(compressed) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 777));
+            }
+        };
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Assert.assertEquals(original.length, new ParallelBZip2Decompressor(3).decompress(is, os));
+        Assert.assertArrayEquals(original, os.toByteArray());
+    }
+
+    @Test
+    public void emptyStream() throws Exception {
+        final byte[] compressed = compress(new byte[0], 9);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Assert.assertEquals(0, new ParallelBZip2Decompressor(2).decompress(compressed, compressed.length, os));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptBlock() throws Exception {
+        final byte[] compressed = compress(corpus(300000, 2), 1);
+        compressed[compressed.length / 2] ^= 0x10;
+        new ParallelBZip2Decompressor(2).decompress(compressed, compressed.length, new ByteArrayOutputStream());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+        final byte[] compressed = compress(corpus(300000, 3), 1);
+        new ParallelBZip2Decompressor(2).decompress(compressed, compressed.length - 100,
+                new ByteArrayOutputStream());
+    }
+
+    public static byte[] corpus(final int size, final long seed) {
+        // resembles plans-stations.txt: short lines of ids, coordinates and names, with some runs
+        final Random random = new Random(seed);
+        final String[] words = { "Hauptbahnhof", "Platz", "Straße", "Bahnhof", "Nord", "Süd", "Markt", "Kirche",
+                "Schule", "Brücke", "Allee", "Ring", "Tor", "Park", "Weg" };
+        final StringBuilder builder = new StringBuilder(size + 100);
+        while (builder.length() < size) {
+            builder.append(random.nextInt(10000000)).append('|');
+            builder.append(47000000 + random.nextInt(8000000)).append('|');
+            builder.append(6000000 + random.nextInt(9000000)).append('|');
+            builder.append(words[random.nextInt(words.length)]).append(' ');
+            builder.append(words[random.nextInt(words.length)]);
+            if (random.nextInt(50) == 0)
+                for (int i = random.nextInt(300); i > 0; i--)
+                    builder.append('=');
+            builder.append('\n');
+        }
+        final byte[] bytes = builder.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        return java.util.Arrays.copyOf(bytes, size);
+    }
+
+    static byte[] compress(final byte[] data, final int blockSize) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final OutputStream bzip2 = new BZip2CompressorOutputStream(os, blockSize)) {
+            bzip2.write(data);
+        }
+        return os.toByteArray();
+    }
+
+    static byte[] decompressStream(final byte[] compressed) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final InputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed))) {
+            final byte[] buf = new byte[65536];
+            int read;
+            while ((read = is.read(buf)) != -1)
+                os.write(buf, 0, read);
+        }
+        return os.toByteArray();
+    }
+
+    public static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    }
+}